@@ -0,0 +1,108 @@
+package com.sss.apate.benchmark;
+
+import com.sss.apate.crypto.CipherEngine;
+import com.sss.apate.crypto.CipherEngines;
+import com.sss.apate.crypto.EncryptStream;
+import com.sss.apate.util.AESUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 各加密套件的加解密吞吐，AES 为原有的 ECB 模式
+ *
+ * @author sss
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CipherBenchmark {
+
+    /**
+     * 1KB ~ 10MB
+     */
+    @Param({"1024", "16384", "131072", "1048576", "10485760"})
+    private int size;
+
+    @Param({"AES", "AES-GCM", "AES-CTR"})
+    private String suite;
+
+    private CipherEngine engine;
+
+    private byte[] plain;
+
+    private String base64;
+
+    private ByteBuffer base64Buffer;
+
+    private byte[] encrypted;
+
+    private String legacyBase64;
+
+    @Setup
+    public void setup() throws Exception {
+        engine = CipherEngines.forKey(suite, Payloads.KEY);
+        plain = Payloads.json(size);
+        base64 = engine.encryptToBase64(plain);
+        base64Buffer = ByteBuffer.wrap(base64.getBytes(StandardCharsets.US_ASCII));
+        encrypted = engine.encrypt(plain);
+        legacyBase64 = CipherEngines.forKey(Payloads.KEY).encryptToBase64(plain);
+    }
+
+    @Benchmark
+    public String encrypt() throws Exception {
+        return engine.encryptToBase64(plain);
+    }
+
+    /**
+     * 不做 base64，对应二进制信封
+     */
+    @Benchmark
+    public byte[] encryptRaw() throws Exception {
+        return engine.encrypt(plain);
+    }
+
+    @Benchmark
+    public void encryptStream(Blackhole blackhole) throws Exception {
+        try (EncryptStream stream = engine.newEncryptStream()) {
+            for (int offset = 0; offset < plain.length; offset += 8192) {
+                blackhole.consume(stream.update(ByteBuffer.wrap(plain, offset, Math.min(8192, plain.length - offset))));
+            }
+            blackhole.consume(stream.doFinal());
+        }
+    }
+
+    @Benchmark
+    public int decrypt() throws Exception {
+        return engine.decryptFromBase64(base64Buffer).remaining();
+    }
+
+    @Benchmark
+    public byte[] decryptRaw() throws Exception {
+        return engine.decrypt(encrypted);
+    }
+
+    /**
+     * String 入参的旧 ECB 解密路径，作为对照，与 suite 无关
+     */
+    @Benchmark
+    public String decryptString() throws Exception {
+        return AESUtil.decrypt(legacyBase64, Payloads.KEY);
+    }
+}
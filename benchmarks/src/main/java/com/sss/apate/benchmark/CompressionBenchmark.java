@@ -0,0 +1,90 @@
+package com.sss.apate.benchmark;
+
+import com.sss.apate.crypto.CipherEngine;
+import com.sss.apate.crypto.CipherEngines;
+import com.sss.apate.util.GzipStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.cloud.gateway.filter.factory.rewrite.GzipMessageBodyResolver;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 响应压缩策略对比，对应 ProxyResponse 的 compression 配置
+ * <p>
+ * 上游返回 gzip 时比较 decode / passthrough，上游返回明文时比较 identity / precompress
+ *
+ * @author sss
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CompressionBenchmark {
+
+    /**
+     * 16KB ~ 1MB
+     */
+    @Param({"16384", "131072", "1048576"})
+    private int size;
+
+    private CipherEngine engine;
+
+    private GzipMessageBodyResolver gzip;
+
+    private DefaultDataBufferFactory bufferFactory;
+
+    private byte[] plain;
+
+    private byte[] gzipped;
+
+    @Setup
+    public void setup() throws Exception {
+        engine = CipherEngines.forKey(Payloads.KEY);
+        gzip = new GzipMessageBodyResolver();
+        bufferFactory = new DefaultDataBufferFactory();
+        plain = Payloads.json(size);
+        gzipped = GzipStream.compress(plain);
+        // 各策略写给客户端的字节数，与吞吐量一起输出
+        System.out.printf("size=%d decode=%d passthrough=%d identity=%d precompress=%d bytes%n",
+                size, decode().length, passthrough().length, identity().length, precompress().length);
+    }
+
+    /**
+     * 原有路径：解压、加密、再压缩密文
+     */
+    @Benchmark
+    public byte[] decode() throws Exception {
+        byte[] body = gzip.decode(gzipped);
+        byte[] encrypted = engine.encryptToBase64(body).getBytes(StandardCharsets.UTF_8);
+        return gzip.encode(bufferFactory.wrap(encrypted));
+    }
+
+    @Benchmark
+    public byte[] passthrough() throws Exception {
+        return engine.encryptToBase64(gzipped).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    @Benchmark
+    public byte[] identity() throws Exception {
+        return engine.encryptToBase64(plain).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    @Benchmark
+    public byte[] precompress() throws Exception {
+        return engine.encryptToBase64(GzipStream.compress(plain)).getBytes(StandardCharsets.US_ASCII);
+    }
+}
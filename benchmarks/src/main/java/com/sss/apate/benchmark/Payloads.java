@@ -0,0 +1,54 @@
+package com.sss.apate.benchmark;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 基准测试数据
+ *
+ * @author sss
+ */
+public final class Payloads {
+
+    public static final String KEY = "ABCD12345678EFGH";
+
+    private Payloads() {
+    }
+
+    /**
+     * 生成指定大小的 json 文本
+     *
+     * @param size 字节数
+     * @return
+     */
+    public static byte[] json(int size) {
+        StringBuilder sb = new StringBuilder(size + 64).append("{\"items\":[");
+        int i = 0;
+        while (sb.length() < size - 64) {
+            sb.append("{\"id\":").append(i++).append(",\"title\":\"delectus aut autem\",\"completed\":false},");
+        }
+        sb.setLength(sb.length() - 1);
+        sb.append("]}");
+        while (sb.length() < size) {
+            sb.append(' ');
+        }
+
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 生成请求参数
+     *
+     * @param count 参数个数
+     * @return
+     */
+    public static Map<String, Object> params(int count) {
+        Map<String, Object> params = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            params.put("key" + i, i % 2 == 0 ? "value " + i + " & 中文" : i);
+        }
+
+        return params;
+    }
+}
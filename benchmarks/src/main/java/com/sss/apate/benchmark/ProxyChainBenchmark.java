@@ -0,0 +1,141 @@
+package com.sss.apate.benchmark;
+
+import com.sss.apate.ApateApplication;
+import com.sss.apate.crypto.CipherEngine;
+import com.sss.apate.crypto.CipherEngines;
+import io.netty.buffer.Unpooled;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClient;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 完整的请求、响应过滤器链：客户端 -> 网关 -> 进程内桩服务
+ *
+ * @author sss
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@Threads(8)
+@State(Scope.Benchmark)
+public class ProxyChainBenchmark {
+
+    /**
+     * 后端响应大小
+     */
+    @Param({"1024", "65536"})
+    private int payloadSize;
+
+    @Param({"false", "true"})
+    private boolean streaming;
+
+    private StubBackend backend;
+
+    private ConfigurableApplicationContext gateway;
+
+    private HttpClient client;
+
+    private byte[] getEnvelope;
+
+    private byte[] postEnvelope;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        backend = new StubBackend();
+        gateway = new SpringApplicationBuilder(ApateApplication.class)
+                .properties(gatewayProperties(backend.port(), streaming))
+                .run();
+        int gatewayPort = gateway.getEnvironment().getRequiredProperty("local.server.port", Integer.class);
+
+        CipherEngine engine = CipherEngines.forKey(Payloads.KEY);
+        getEnvelope = envelope(engine, "{\"service\":\"stub\",\"port\":" + backend.port()
+                + ",\"path\":\"/payload?size=" + payloadSize + "\",\"method\":\"GET\",\"contentType\":\"\"}");
+        postEnvelope = envelope(engine, "{\"service\":\"stub\",\"port\":" + backend.port()
+                + ",\"path\":\"/echo\",\"method\":\"POST\",\"contentType\":\"application/json\","
+                + "\"params\":{\"title\":\"delectus aut autem\",\"completed\":false}}");
+
+        client = HttpClient.create().baseUrl("http://127.0.0.1:" + gatewayPort);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        gateway.close();
+        backend.close();
+    }
+
+    @Benchmark
+    public byte[] get() {
+        return send(getEnvelope);
+    }
+
+    @Benchmark
+    public byte[] post() {
+        return send(postEnvelope);
+    }
+
+    /**
+     * 非 200 响应直接抛出，错误响应不计入吞吐量，冒烟检查也能发现请求失败
+     */
+    private byte[] send(byte[] envelope) {
+        return client.headers(headers -> headers.set("Content-Type", "application/json"))
+                .post()
+                .uri("/")
+                .send(Mono.fromSupplier(() -> Unpooled.wrappedBuffer(envelope)))
+                .responseSingle((response, body) -> {
+                    if (response.status().code() != 200) {
+                        return Mono.error(new IllegalStateException("gateway responded " + response.status()));
+                    }
+                    return body.asByteArray();
+                })
+                .block();
+    }
+
+    private static byte[] envelope(CipherEngine engine, String json) throws Exception {
+        return engine.encryptToBase64(json.getBytes(StandardCharsets.UTF_8)).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    static Map<String, Object> gatewayProperties(int backendPort, boolean streaming) {
+        String route = "spring.cloud.gateway.routes[0].";
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("server.port", "0");
+        properties.put("spring.main.banner-mode", "off");
+        properties.put("logging.level.root", "WARN");
+        properties.put(route + "id", "proxy");
+        properties.put(route + "uri", "http://127.0.0.1");
+        properties.put(route + "predicates[0]", "Path=/");
+        properties.put(route + "filters[0].name", "ProxyRequest");
+        properties.put(route + "filters[0].args.encryptEnable", "true");
+        properties.put(route + "filters[0].args.encrypt", "AES");
+        properties.put(route + "filters[0].args.encryptKey", Payloads.KEY);
+        properties.put(route + "filters[0].args.serviceHost.stub", "http://127.0.0.1:" + backendPort);
+        properties.put(route + "filters[1].name", "ProxyResponse");
+        properties.put(route + "filters[1].args.encryptEnable", "true");
+        properties.put(route + "filters[1].args.encrypt", "AES");
+        properties.put(route + "filters[1].args.encryptKey", Payloads.KEY);
+        properties.put(route + "filters[1].args.streaming", String.valueOf(streaming));
+
+        return properties;
+    }
+}
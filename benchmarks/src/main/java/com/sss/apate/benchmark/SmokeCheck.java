@@ -0,0 +1,125 @@
+package com.sss.apate.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 基准测试的冒烟检查，作为回归门禁
+ * <p>
+ * 每个用例只跑很短的吞吐量测试：任何用例抛出异常即失败；指定 baseline（之前一次冒烟检查的 json 结果）时，
+ * 吞吐量比 baseline 下降超过 tolerance 的用例也判为失败。命令行格式为 {@code [用例正则] --name=value}
+ *
+ * @author sss
+ */
+public final class SmokeCheck {
+
+    private SmokeCheck() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        String include = ".*";
+        String result = "target/jmh-smoke.json";
+        String baseline = null;
+        double tolerance = 0.3;
+        for (String arg : args) {
+            if (arg.startsWith("--result=")) {
+                result = arg.substring("--result=".length());
+            } else if (arg.startsWith("--baseline=")) {
+                baseline = arg.substring("--baseline=".length());
+            } else if (arg.startsWith("--tolerance=")) {
+                tolerance = Double.parseDouble(arg.substring("--tolerance=".length()));
+            } else if (!arg.isEmpty()) {
+                include = arg;
+            }
+        }
+
+        // 用例抛出异常时 run 直接抛出 RunnerException
+        Collection<RunResult> results = new Runner(new OptionsBuilder()
+                .include(include)
+                .mode(Mode.Throughput)
+                .forks(1)
+                .warmupIterations(1)
+                .warmupTime(TimeValue.milliseconds(500))
+                .measurementIterations(2)
+                .measurementTime(TimeValue.milliseconds(500))
+                .shouldFailOnError(true)
+                .resultFormat(ResultFormatType.JSON)
+                .result(result)
+                .build()).run();
+        if (results.isEmpty()) {
+            throw new IllegalStateException("no benchmark matches " + include);
+        }
+
+        if (baseline == null) {
+            return;
+        }
+
+        Map<String, Double> expected = baseline(new File(baseline));
+        List<String> regressions = new ArrayList<>();
+        for (RunResult run : results) {
+            String key = key(run.getParams());
+            Double score = expected.get(key);
+            double actual = run.getPrimaryResult().getScore();
+            if (score != null && actual < score * (1 - tolerance)) {
+                regressions.add(String.format("%s: %.3f -> %.3f %s", key, score, actual,
+                        run.getPrimaryResult().getScoreUnit()));
+            }
+        }
+
+        if (!regressions.isEmpty()) {
+            throw new IllegalStateException("throughput regressed more than " + tolerance + " against "
+                    + baseline + ":\n" + String.join("\n", regressions));
+        }
+    }
+
+    /**
+     * 读取 jmh 的 json 结果，只取吞吐量
+     */
+    private static Map<String, Double> baseline(File file) throws Exception {
+        Map<String, Double> scores = new HashMap<>();
+        for (JsonNode node : new ObjectMapper().readTree(file)) {
+            if (!Mode.Throughput.shortLabel().equals(node.path("mode").asText())) {
+                continue;
+            }
+
+            Map<String, String> params = new TreeMap<>();
+            JsonNode values = node.path("params");
+            for (Iterator<String> names = values.fieldNames(); names.hasNext(); ) {
+                String name = names.next();
+                params.put(name, values.get(name).asText());
+            }
+            scores.put(key(node.path("benchmark").asText(), params), node.path("primaryMetric").path("score").asDouble());
+        }
+
+        return scores;
+    }
+
+    private static String key(BenchmarkParams params) {
+        Map<String, String> values = new TreeMap<>();
+        for (String name : params.getParamsKeys()) {
+            values.put(name, params.getParam(name));
+        }
+
+        return key(params.getBenchmark(), values);
+    }
+
+    private static String key(String benchmark, Map<String, String> params) {
+        return params.isEmpty() ? benchmark : benchmark + params;
+    }
+}
@@ -0,0 +1,69 @@
+package com.sss.apate.benchmark;
+
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.QueryStringDecoder;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 进程内的后端桩服务
+ * <p>
+ * {@code GET /payload?size=n} 返回 n 字节的 json，{@code POST} 原样回显请求体。
+ *
+ * @author sss
+ */
+public class StubBackend implements AutoCloseable {
+
+    private final Map<Integer, byte[]> payloads = new ConcurrentHashMap<>();
+
+    private final DisposableServer server;
+
+    public StubBackend() {
+        this(0);
+    }
+
+    public StubBackend(int port) {
+        server = HttpServer.create()
+                .host("127.0.0.1")
+                .port(port)
+                .route(routes -> routes
+                        .get("/payload", (request, response) -> {
+                            int size = intParam(request.uri(), "size", 1024);
+                            byte[] payload = payloads.computeIfAbsent(size, Payloads::json);
+                            // 网关转发 GET 时可能带 chunked 空 body，先读完再响应，连接才能被复用
+                            return request.receive().then(response
+                                    .header(HttpHeaderNames.CONTENT_TYPE, "application/json")
+                                    .header(HttpHeaderNames.CONTENT_LENGTH, String.valueOf(payload.length))
+                                    .send(Mono.just(Unpooled.wrappedBuffer(payload)))
+                                    .then());
+                        })
+                        .post("/**", (request, response) -> request.receive().aggregate().asByteArray()
+                                .defaultIfEmpty(new byte[0])
+                                .flatMap(body -> response
+                                        .header(HttpHeaderNames.CONTENT_TYPE, "application/json")
+                                        .header(HttpHeaderNames.CONTENT_LENGTH, String.valueOf(body.length))
+                                        .sendByteArray(Mono.just(body))
+                                        .then())))
+                .bindNow();
+    }
+
+    public int port() {
+        return server.port();
+    }
+
+    @Override
+    public void close() {
+        server.disposeNow();
+    }
+
+    private static int intParam(String uri, String name, int defaultValue) {
+        List<String> values = new QueryStringDecoder(uri).parameters().get(name);
+        return values == null || values.isEmpty() ? defaultValue : Integer.parseInt(values.get(0));
+    }
+}
@@ -0,0 +1,89 @@
+package com.sss.apate.filter;
+
+import com.sss.apate.benchmark.Payloads;
+import com.sss.apate.codec.Envelope;
+import com.sss.apate.crypto.CipherEngine;
+import com.sss.apate.crypto.CipherEngines;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TEXT（json + base64）与 BINARY（CBOR + 密文字节）信封对比
+ * <p>
+ * 请求信封解密解析、响应加密的耗时
+ *
+ * @author sss
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EnvelopeBenchmark {
+
+    /**
+     * 请求参数个数，同时决定响应大小
+     */
+    @Param({"4", "256", "4096"})
+    private int paramCount;
+
+    @Param({"TEXT", "BINARY"})
+    private Envelope envelope;
+
+    private final DataBufferFactory bufferFactory = new DefaultDataBufferFactory();
+
+    private ProxyRequestGatewayFilterFactory factory;
+
+    private CipherEngine engine;
+
+    private byte[] request;
+
+    private byte[] response;
+
+    @Setup
+    public void setup() throws Exception {
+        factory = new ProxyRequestGatewayFilterFactory();
+        engine = CipherEngines.forKey(Payloads.KEY);
+
+        ProxyRequestGatewayFilterFactory.ProxyConfig proxyConfig = new ProxyRequestGatewayFilterFactory.ProxyConfig();
+        proxyConfig.setService("stub");
+        proxyConfig.setPath("/todos/1");
+        proxyConfig.setMethod("POST");
+        proxyConfig.setContentType("application/json");
+        proxyConfig.setParams(Payloads.params(paramCount));
+
+        byte[] body = envelope.newMapper().writeValueAsBytes(proxyConfig);
+        request = envelope == Envelope.BINARY ? engine.encrypt(body)
+                : engine.encryptToBase64(body).getBytes(StandardCharsets.US_ASCII);
+        response = Envelope.TEXT.newMapper().writeValueAsBytes(proxyConfig.getParams());
+        // 请求信封和加密后响应的字节数，与吞吐量一起输出
+        System.out.printf("paramCount=%d envelope=%s request=%d response=%d bytes%n",
+                paramCount, envelope, request.length, encryptResponse().length);
+    }
+
+    @Benchmark
+    public ProxyRequestGatewayFilterFactory.ProxyConfig parseRequest() {
+        return factory.parseBody(bufferFactory.wrap(request), engine, envelope, null);
+    }
+
+    @Benchmark
+    public byte[] encryptResponse() throws Exception {
+        return envelope == Envelope.BINARY ? engine.encrypt(response)
+                : engine.encryptToBase64(response).getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,74 @@
+package com.sss.apate.filter;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sss.apate.benchmark.Payloads;
+import com.sss.apate.crypto.CipherEngine;
+import com.sss.apate.crypto.CipherEngines;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 请求信封解密 + ProxyConfig 解析
+ *
+ * @author sss
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ProxyConfigParseBenchmark {
+
+    /**
+     * 参数个数，4096 个参数的信封约 200KB
+     */
+    @Param({"4", "256", "4096"})
+    private int paramCount;
+
+    @Param({"true", "false"})
+    private boolean encrypted;
+
+    private final DataBufferFactory bufferFactory = new DefaultDataBufferFactory();
+
+    private ProxyRequestGatewayFilterFactory factory;
+
+    private CipherEngine engine;
+
+    private byte[] envelope;
+
+    @Setup
+    public void setup() throws Exception {
+        factory = new ProxyRequestGatewayFilterFactory();
+        engine = encrypted ? CipherEngines.forKey(Payloads.KEY) : null;
+
+        ProxyRequestGatewayFilterFactory.ProxyConfig proxyConfig = new ProxyRequestGatewayFilterFactory.ProxyConfig();
+        proxyConfig.setService("stub");
+        proxyConfig.setPath("/todos/1");
+        proxyConfig.setMethod("POST");
+        proxyConfig.setContentType("application/json");
+        proxyConfig.setParams(Payloads.params(paramCount));
+
+        byte[] json = new ObjectMapper().writeValueAsBytes(proxyConfig);
+        envelope = encrypted ? engine.encryptToBase64(json).getBytes(StandardCharsets.US_ASCII) : json;
+    }
+
+    @Benchmark
+    public ProxyRequestGatewayFilterFactory.ProxyConfig parseBody() {
+        return factory.parseBody(bufferFactory.wrap(envelope), engine);
+    }
+}
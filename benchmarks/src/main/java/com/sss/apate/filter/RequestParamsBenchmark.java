@@ -0,0 +1,88 @@
+package com.sss.apate.filter;
+
+import com.sss.apate.benchmark.Payloads;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 请求参数编码：json 表单、urlencoded 表单、GET 查询串；writeRequestBody 为 POST 直接写入池化 buffer 的路径
+ *
+ * @author sss
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RequestParamsBenchmark {
+
+    @Param({"json", "form", "query"})
+    private String encoding;
+
+    @Param({"4", "64", "1024"})
+    private int paramCount;
+
+    private ProxyRequestGatewayFilterFactory factory;
+
+    private ProxyRequestGatewayFilterFactory.ProxyConfig proxyConfig;
+
+    private final NettyDataBufferFactory bufferFactory = new NettyDataBufferFactory(PooledByteBufAllocator.DEFAULT);
+
+    @Setup
+    public void setup() {
+        factory = new ProxyRequestGatewayFilterFactory();
+        proxyConfig = new ProxyRequestGatewayFilterFactory.ProxyConfig();
+        proxyConfig.setService("stub");
+        proxyConfig.setPath("/todos");
+        proxyConfig.setParams(Payloads.params(paramCount));
+
+        switch (encoding) {
+            case "json":
+                proxyConfig.setMethod(HttpMethod.POST.name());
+                proxyConfig.setContentType(MediaType.APPLICATION_JSON_VALUE);
+                break;
+            case "form":
+                proxyConfig.setMethod(HttpMethod.POST.name());
+                proxyConfig.setContentType(MediaType.APPLICATION_FORM_URLENCODED_VALUE);
+                break;
+            default:
+                proxyConfig.setMethod(HttpMethod.GET.name());
+                proxyConfig.setContentType("");
+        }
+    }
+
+    @Benchmark
+    public String buildRequestParams() {
+        return factory.buildRequestParams(proxyConfig);
+    }
+
+    @Benchmark
+    public int writeRequestBody() {
+        DataBuffer buffer = factory.writeRequestBody(proxyConfig, bufferFactory, 0);
+        if (buffer == null) {
+            return 0;
+        }
+        int length = buffer.readableByteCount();
+        DataBufferUtils.release(buffer);
+
+        return length;
+    }
+}
@@ -0,0 +1,194 @@
+package com.sss.apate.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sss.apate.codec.Envelope;
+import com.sss.apate.crypto.CipherEngine;
+import com.sss.apate.crypto.CipherEngines;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaders;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+import reactor.netty.resources.LoopResources;
+import reactor.util.function.Tuple3;
+import reactor.util.function.Tuples;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * 按 README 的信封协议发请求的客户端
+ * <p>
+ * 请求体在启动时按 variants 个序号预先加密，压测时只做发送，客户端的加密开销不计入网关延迟；
+ * 响应只读完不解密，解密校验由 {@link #verify()} 在压测前做一次
+ *
+ * @author sss
+ */
+public class ApateClient implements AutoCloseable {
+
+    static final String CLIENT_ID_HEADER = "X-Apate-Client-Id";
+
+    static final String CONTENT_ENCODING_HEADER = "X-Apate-Content-Encoding";
+
+    private final LoadTestOptions options;
+
+    private final CipherEngine engine;
+
+    private final byte[][] bodies;
+
+    private final LoopResources loops;
+
+    private final ConnectionProvider provider;
+
+    private final HttpClient client;
+
+    public ApateClient(LoadTestOptions options) throws Exception {
+        this.options = options;
+        this.engine = CipherEngines.forKey(options.getEncrypt(), options.getKey());
+
+        ObjectMapper mapper = options.getEnvelope().newMapper();
+        bodies = new byte[options.getVariants()][];
+        for (int i = 0; i < bodies.length; i++) {
+            byte[] plain = mapper.writeValueAsBytes(proxyConfig(i));
+            bodies[i] = options.getEnvelope() == Envelope.BINARY ? engine.encrypt(plain)
+                    : engine.encryptToBase64(plain).getBytes(StandardCharsets.US_ASCII);
+        }
+
+        loops = LoopResources.create("loadtest-client", options.getIoThreads(), true);
+        provider = ConnectionProvider.builder("loadtest")
+                .maxConnections(options.getConnections())
+                .pendingAcquireMaxCount(-1)
+                .build();
+        String contentType = options.getEnvelope().getMediaType().toString();
+        String clientId = options.getClientId();
+        client = HttpClient.create(provider)
+                .tcpConfiguration(tcp -> tcp.runOn(loops))
+                .baseUrl(options.getTarget())
+                .headers(headers -> {
+                    headers.set(HttpHeaderNames.CONTENT_TYPE, contentType);
+                    if (clientId != null) {
+                        headers.set(CLIENT_ID_HEADER, clientId);
+                    }
+                });
+    }
+
+    /**
+     * 发送第 seq 个请求体（按 variants 取模）
+     *
+     * @param seq
+     * @return 响应状态码
+     */
+    public Mono<Integer> send(long seq) {
+        byte[] body = bodies[(int) (seq % bodies.length)];
+        return client.post()
+                .uri("/")
+                .send(Mono.fromSupplier(() -> Unpooled.wrappedBuffer(body)))
+                .response((response, content) -> content.then(Mono.just(response.status().code())))
+                .single()
+                .timeout(options.getTimeout());
+    }
+
+    /**
+     * 发一个请求并解密响应，确认网关、桩服务和密钥配置正确
+     *
+     * @return 请求、响应的大小
+     * @throws Exception 状态码不是 200、解密失败或响应大小不符
+     */
+    public String verify() throws Exception {
+        Tuple3<Integer, HttpHeaders, byte[]> result = client.post()
+                .uri("/")
+                .send(Mono.fromSupplier(() -> Unpooled.wrappedBuffer(bodies[0])))
+                .responseSingle((response, content) -> content.asByteArray()
+                        .defaultIfEmpty(new byte[0])
+                        .map(bytes -> Tuples.of(response.status().code(), response.responseHeaders(), bytes)))
+                .block(options.getTimeout());
+        if (result == null || result.getT1() != 200) {
+            throw new IllegalStateException("verify failed, status: " + (result == null ? null : result.getT1())
+                    + ", body: " + (result == null ? "" : new String(result.getT3(), StandardCharsets.UTF_8)));
+        }
+
+        // 上游压缩过的文本信封响应，网关按 DECODE 解压加密后会对密文再次 gzip
+        byte[] cipher = "gzip".equalsIgnoreCase(result.getT2().get(HttpHeaderNames.CONTENT_ENCODING))
+                ? gunzip(result.getT3()) : result.getT3();
+        byte[] plain = options.getEnvelope() == Envelope.BINARY ? engine.decrypt(cipher)
+                : engine.decryptFromBase64(new String(cipher, StandardCharsets.US_ASCII));
+        // 响应压缩策略为 PASSTHROUGH、PRECOMPRESS 时解密后还需解压
+        if ("gzip".equalsIgnoreCase(result.getT2().get(CONTENT_ENCODING_HEADER))) {
+            plain = gunzip(plain);
+        }
+        if ("GET".equals(options.getMethod()) ? plain.length != options.getSize() : plain.length < options.getSize()) {
+            throw new IllegalStateException("verify failed, unexpected response size: " + plain.length);
+        }
+
+        return "request " + bodies[0].length + " bytes, response " + result.getT3().length + " bytes, plain "
+                + plain.length + " bytes";
+    }
+
+    private static byte[] gunzip(byte[] content) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(content.length * 4);
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(content))) {
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                out.write(buffer, 0, n);
+            }
+        }
+
+        return out.toByteArray();
+    }
+
+    /**
+     * 第 seq 个请求的明文信封，桩服务的参数写在 path 的查询串中
+     */
+    private Map<String, Object> proxyConfig(int seq) {
+        boolean get = "GET".equals(options.getMethod());
+        StringBuilder path = new StringBuilder(get ? "/payload" : "/echo").append("?seq=").append(seq);
+        if (get) {
+            path.append("&size=").append(options.getSize());
+            if (options.isGzip()) {
+                path.append("&gzip=true");
+            }
+        }
+        if (!options.getLatency().isZero()) {
+            path.append("&latency=").append(options.getLatency().toMillis());
+        }
+        if (!options.getJitter().isZero()) {
+            path.append("&jitter=").append(options.getJitter().toMillis());
+        }
+
+        Map<String, Object> proxyConfig = new LinkedHashMap<>();
+        proxyConfig.put("service", options.getService());
+        proxyConfig.put("port", options.getServicePort());
+        proxyConfig.put("path", path.toString());
+        proxyConfig.put("method", options.getMethod());
+        if (get) {
+            proxyConfig.put("contentType", "");
+        } else {
+            StringBuilder data = new StringBuilder(options.getSize() + 32);
+            while (data.length() < options.getSize()) {
+                data.append("delectus aut autem ");
+            }
+            data.setLength(options.getSize());
+
+            Map<String, Object> params = new LinkedHashMap<>();
+            params.put("data", data.toString());
+            proxyConfig.put("contentType", "application/json");
+            proxyConfig.put("params", params);
+        }
+
+        return proxyConfig;
+    }
+
+    @Override
+    public void close() {
+        provider.disposeLater().block();
+        loops.disposeLater().block();
+    }
+}
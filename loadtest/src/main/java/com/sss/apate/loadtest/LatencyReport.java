@@ -0,0 +1,83 @@
+package com.sss.apate.loadtest;
+
+import org.HdrHistogram.Histogram;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 压测结果输出
+ * <p>
+ * 延迟以微秒记录，输出时换算为毫秒；每级负载的完整分布写入 {@code .hgrm}，可直接用 HdrHistogram 的 plotFiles.html 作图
+ *
+ * @author sss
+ */
+final class LatencyReport {
+
+    private static final double MICROS_PER_MILLI = 1000.0;
+
+    private static final String SUMMARY_FORMAT = "%-8s %8s %12s %10s %9s %9s %9s %9s %9s %9s %8s %8s%n";
+
+    private LatencyReport() {
+    }
+
+    /**
+     * 每秒输出的区间统计
+     */
+    static String interval(long elapsedNanos, Histogram interval, LoadGenerator.Stats stats) {
+        return String.format(Locale.ROOT, "[%4ds] rps=%-8d p50=%.3fms p99=%.3fms max=%.3fms errors=%d dropped=%d",
+                elapsedNanos / 1_000_000_000L, interval.getTotalCount(),
+                millis(interval.getValueAtPercentile(50)), millis(interval.getValueAtPercentile(99)),
+                millis(interval.getMaxValue()), stats.errorCount(), stats.dropped.sum());
+    }
+
+    /**
+     * 输出一级负载的完整分布
+     *
+     * @param result
+     * @param file   hgrm 文件
+     * @throws FileNotFoundException
+     */
+    static void writeDistribution(LoadGenerator.StepResult result, File file) throws FileNotFoundException {
+        try (PrintStream out = new PrintStream(file)) {
+            result.getHistogram().outputPercentileDistribution(out, MICROS_PER_MILLI);
+        }
+    }
+
+    /**
+     * 输出各级负载的汇总表，延迟单位为毫秒
+     *
+     * @param results
+     * @param out
+     */
+    static void printSummary(List<LoadGenerator.StepResult> results, PrintStream out) {
+        out.printf(Locale.ROOT, SUMMARY_FORMAT, "mode", "load", "throughput", "count",
+                "p50", "p90", "p99", "p99.9", "p99.99", "max", "errors", "dropped");
+        for (LoadGenerator.StepResult result : results) {
+            Histogram histogram = result.getHistogram();
+            out.printf(Locale.ROOT, SUMMARY_FORMAT, result.getMode(), result.getLoad(),
+                    String.format(Locale.ROOT, "%.1f", result.getThroughput()), histogram.getTotalCount(),
+                    percentile(histogram, 50), percentile(histogram, 90), percentile(histogram, 99),
+                    percentile(histogram, 99.9), percentile(histogram, 99.99),
+                    String.format(Locale.ROOT, "%.3f", millis(histogram.getMaxValue())),
+                    result.getErrorCount(), result.getDropped());
+        }
+        for (LoadGenerator.StepResult result : results) {
+            if (!result.getErrors().isEmpty()) {
+                out.printf(Locale.ROOT, "errors at %s %d (status 0 = timeout / connection error): %s%n",
+                        result.getMode(), result.getLoad(), result.getErrors());
+            }
+        }
+    }
+
+    private static String percentile(Histogram histogram, double percentile) {
+        return String.format(Locale.ROOT, "%.3f", millis(histogram.getValueAtPercentile(percentile)));
+    }
+
+    private static double millis(long micros) {
+        return micros / MICROS_PER_MILLI;
+    }
+}
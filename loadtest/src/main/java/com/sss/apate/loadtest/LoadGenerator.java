@@ -0,0 +1,246 @@
+package com.sss.apate.loadtest;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramLogWriter;
+import org.HdrHistogram.Recorder;
+import org.springframework.lang.Nullable;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 负载生成器
+ * <p>
+ * 闭环模式下每个并发发完一个请求才发下一个，延迟从实际发送时刻算起；开环模式由单独的线程按固定间隔发请求，
+ * 不等待响应，延迟从计划发送时刻算起，网关变慢时排队的时间也计入延迟，避免协调遗漏（coordinated omission）。
+ * 延迟以微秒记录在 HdrHistogram 的 {@link Recorder} 中，每秒取一次区间直方图
+ *
+ * @author sss
+ */
+public class LoadGenerator {
+
+    private static final long REPORT_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+
+    private final ApateClient client;
+
+    private final LoadTestOptions options;
+
+    private final AtomicLong seq = new AtomicLong();
+
+    public LoadGenerator(ApateClient client, LoadTestOptions options) {
+        this.client = client;
+        this.options = options;
+    }
+
+    /**
+     * 按一级负载压测 duration 时长
+     *
+     * @param load     闭环为并发数，开环为每秒请求数
+     * @param duration
+     * @param log      区间直方图输出，预热时为空
+     * @return 该级的统计
+     * @throws InterruptedException
+     */
+    public StepResult run(int load, Duration duration, @Nullable HistogramLogWriter log) throws InterruptedException {
+        long start = System.nanoTime();
+        long end = start + duration.toNanos();
+        Stats stats = new Stats(end);
+
+        CountDownLatch done = options.getMode() == LoadTestOptions.Mode.CLOSED
+                ? closedLoop(load, end, stats) : openLoop(load, start, end, stats);
+
+        Histogram total = new Histogram(3);
+        Histogram interval = null;
+        long nextReport = start + REPORT_INTERVAL;
+        while (!done.await(Math.max(0, nextReport - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+            interval = stats.recorder.getIntervalHistogram(interval);
+            total.add(interval);
+            if (log != null) {
+                log.outputIntervalHistogram(interval);
+                System.out.println(LatencyReport.interval(nextReport - start, interval, stats));
+            }
+            nextReport += REPORT_INTERVAL;
+            // 超过时长后只再等待在途请求一个超时时间
+            if (nextReport - end > options.getTimeout().toNanos() + REPORT_INTERVAL) {
+                break;
+            }
+        }
+        interval = stats.recorder.getIntervalHistogram(interval);
+        total.add(interval);
+        if (log != null) {
+            log.outputIntervalHistogram(interval);
+        }
+
+        return new StepResult(options.getMode(), load, end - start, stats.completed.sum(), total, stats.errors,
+                stats.dropped.sum());
+    }
+
+    private CountDownLatch closedLoop(int concurrency, long end, Stats stats) {
+        CountDownLatch done = new CountDownLatch(concurrency);
+        for (int i = 0; i < concurrency; i++) {
+            Mono.defer(() -> once(System.nanoTime(), stats))
+                    .repeat(() -> System.nanoTime() < end)
+                    .subscribe(null, e -> done.countDown(), done::countDown);
+        }
+
+        return done;
+    }
+
+    private CountDownLatch openLoop(int rate, long start, long end, Stats stats) {
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicInteger inFlight = new AtomicInteger();
+        long period = Math.max(1, TimeUnit.SECONDS.toNanos(1) / rate);
+
+        Thread sender = new Thread(() -> {
+            long next = start;
+            while (next < end) {
+                long now = System.nanoTime();
+                if (next > now) {
+                    LockSupport.parkNanos(next - now);
+                    continue;
+                }
+
+                // 落后时连续发出，保持计划的到达率
+                long intended = next;
+                next += period;
+                if (inFlight.get() >= options.getMaxInFlight()) {
+                    stats.dropped.increment();
+                    continue;
+                }
+                inFlight.incrementAndGet();
+                once(intended, stats).doFinally(signal -> inFlight.decrementAndGet()).subscribe();
+            }
+
+            while (inFlight.get() > 0 && System.nanoTime() - end < options.getTimeout().toNanos()) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+            }
+            done.countDown();
+        }, "loadtest-open-loop");
+        sender.setDaemon(true);
+        sender.start();
+
+        return done;
+    }
+
+    private Mono<Void> once(long startNanos, Stats stats) {
+        return client.send(seq.getAndIncrement())
+                .doOnNext(status -> stats.record(status, startNanos))
+                .onErrorResume(e -> {
+                    stats.record(0, startNanos);
+                    return Mono.empty();
+                })
+                .then();
+    }
+
+    /**
+     * 一级负载的统计
+     */
+    static final class Stats {
+
+        final Recorder recorder = new Recorder(3);
+
+        /**
+         * 压测时长内完成的请求数，用于计算吞吐量
+         */
+        final LongAdder completed = new LongAdder();
+
+        final long end;
+
+        /**
+         * 非 2xx 的响应数，key 为状态码，连接错误和超时为 0
+         */
+        final Map<Integer, LongAdder> errors = new ConcurrentHashMap<>();
+
+        final LongAdder dropped = new LongAdder();
+
+        Stats(long end) {
+            this.end = end;
+        }
+
+        void record(int status, long startNanos) {
+            long now = System.nanoTime();
+            recorder.recordValue(Math.max(1, TimeUnit.NANOSECONDS.toMicros(now - startNanos)));
+            if (now - end < 0) {
+                completed.increment();
+            }
+            if (status < 200 || status >= 300) {
+                errors.computeIfAbsent(status, k -> new LongAdder()).increment();
+            }
+        }
+
+        long errorCount() {
+            return errors.values().stream().mapToLong(LongAdder::sum).sum();
+        }
+    }
+
+    /**
+     * 一级负载的结果
+     */
+    public static final class StepResult {
+
+        private final LoadTestOptions.Mode mode;
+
+        private final int load;
+
+        private final long elapsedNanos;
+
+        private final long completed;
+
+        private final Histogram histogram;
+
+        private final Map<Integer, Long> errors = new ConcurrentSkipListMap<>();
+
+        private final long dropped;
+
+        StepResult(LoadTestOptions.Mode mode, int load, long elapsedNanos, long completed, Histogram histogram,
+                   Map<Integer, LongAdder> errors, long dropped) {
+            this.mode = mode;
+            this.load = load;
+            this.elapsedNanos = elapsedNanos;
+            this.completed = completed;
+            this.histogram = histogram;
+            errors.forEach((status, count) -> this.errors.put(status, count.sum()));
+            this.dropped = dropped;
+        }
+
+        public LoadTestOptions.Mode getMode() {
+            return mode;
+        }
+
+        public int getLoad() {
+            return load;
+        }
+
+        public Histogram getHistogram() {
+            return histogram;
+        }
+
+        public Map<Integer, Long> getErrors() {
+            return errors;
+        }
+
+        public long getErrorCount() {
+            return errors.values().stream().mapToLong(Long::longValue).sum();
+        }
+
+        public long getDropped() {
+            return dropped;
+        }
+
+        /**
+         * @return 压测时长内实际完成的每秒请求数，开环下低于到达率说明网关已经过载
+         */
+        public double getThroughput() {
+            return completed * 1e9 / elapsedNanos;
+        }
+    }
+}
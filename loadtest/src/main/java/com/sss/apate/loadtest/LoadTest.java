@@ -0,0 +1,133 @@
+package com.sss.apate.loadtest;
+
+import com.sss.apate.ApateApplication;
+import org.HdrHistogram.HistogramLogWriter;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 压测入口
+ * <p>
+ * 默认在同一进程内启动桩服务、网关和负载生成器，三者使用各自的 IO 线程；做容量规划时可以分别以
+ * {@code --role=stub}、独立部署的网关和 {@code --role=client --target=...} 运行在不同的进程或机器上
+ *
+ * @author sss
+ */
+public final class LoadTest {
+
+    private LoadTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadTestOptions options = LoadTestOptions.parse(args);
+
+        if (options.getRole() == LoadTestOptions.Role.STUB) {
+            StubServer stub = new StubServer(options.getStubPort(), options.getIoThreads());
+            System.out.println("stub listening on " + stub.port());
+            stub.await();
+            return;
+        }
+
+        StubServer stub = null;
+        ConfigurableApplicationContext gateway = null;
+        try {
+            if (options.getRole() == LoadTestOptions.Role.ALL) {
+                stub = new StubServer(options.getStubPort(), options.getIoThreads());
+                options.setServicePort(stub.port());
+                if (options.getTarget() == null) {
+                    gateway = new SpringApplicationBuilder(ApateApplication.class)
+                            .properties(gatewayProperties(options, stub.port()))
+                            .run();
+                    int port = gateway.getEnvironment().getRequiredProperty("local.server.port", Integer.class);
+                    options.setTarget("http://127.0.0.1:" + port);
+                }
+            }
+
+            run(options);
+        } finally {
+            if (gateway != null) {
+                gateway.close();
+            }
+            if (stub != null) {
+                stub.close();
+            }
+        }
+    }
+
+    private static void run(LoadTestOptions options) throws Exception {
+        File output = new File(options.getOutput());
+        if (!output.isDirectory() && !output.mkdirs()) {
+            throw new IllegalStateException("cannot create output directory: " + output);
+        }
+
+        try (ApateClient client = new ApateClient(options)) {
+            System.out.printf(Locale.ROOT, "target %s, %s %s size=%d envelope=%s encrypt=%s, verified: %s%n",
+                    options.getTarget(), options.getMode(), options.getMethod(), options.getSize(),
+                    options.getEnvelope(), options.getEncrypt(), client.verify());
+
+            LoadGenerator generator = new LoadGenerator(client, options);
+            List<Integer> steps = options.getSteps();
+            if (!options.getWarmup().isZero()) {
+                System.out.println("warmup " + options.getWarmup().getSeconds() + "s at " + steps.get(0));
+                generator.run(steps.get(0), options.getWarmup(), null);
+            }
+
+            List<LoadGenerator.StepResult> results = new ArrayList<>();
+            for (int load : steps) {
+                String name = options.getMode().name().toLowerCase(Locale.ROOT) + "-" + load;
+                System.out.println("== " + name);
+
+                HistogramLogWriter log = new HistogramLogWriter(new File(output, name + ".hlog"));
+                log.outputLogFormatVersion();
+                log.outputStartTime(System.currentTimeMillis());
+                log.outputLegend();
+                LoadGenerator.StepResult result;
+                try {
+                    result = generator.run(load, options.getDuration(), log);
+                } finally {
+                    log.close();
+                }
+
+                LatencyReport.writeDistribution(result, new File(output, name + ".hgrm"));
+                results.add(result);
+            }
+
+            System.out.println();
+            LatencyReport.printSummary(results, System.out);
+            System.out.println("latency in ms, distributions written to " + output.getAbsolutePath());
+        }
+    }
+
+    /**
+     * 进程内网关的配置，路由与 application.yml 相同，service 指向桩服务
+     */
+    static Map<String, Object> gatewayProperties(LoadTestOptions options, int stubPort) {
+        String route = "spring.cloud.gateway.routes[0].";
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("server.port", "0");
+        properties.put("spring.main.banner-mode", "off");
+        properties.put("logging.level.root", "WARN");
+        properties.put(route + "id", "proxy");
+        properties.put(route + "uri", "http://127.0.0.1");
+        properties.put(route + "predicates[0]", "Path=/");
+        properties.put(route + "filters[0].name", "ProxyRequest");
+        properties.put(route + "filters[0].args.encryptEnable", "true");
+        properties.put(route + "filters[0].args.encrypt", options.getEncrypt());
+        properties.put(route + "filters[0].args.encryptKey", options.getKey());
+        properties.put(route + "filters[0].args.serviceHost." + options.getService(), "http://127.0.0.1:" + stubPort);
+        properties.put(route + "filters[1].name", "ProxyResponse");
+        properties.put(route + "filters[1].args.encryptEnable", "true");
+        properties.put(route + "filters[1].args.encrypt", options.getEncrypt());
+        properties.put(route + "filters[1].args.encryptKey", options.getKey());
+        properties.put(route + "filters[1].args.streaming", String.valueOf(options.isStreaming()));
+
+        return properties;
+    }
+}
@@ -0,0 +1,395 @@
+package com.sss.apate.loadtest;
+
+import com.sss.apate.codec.Envelope;
+import org.springframework.boot.convert.DurationStyle;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 压测参数，命令行格式为 {@code --name=value}
+ *
+ * @author sss
+ */
+public class LoadTestOptions {
+
+    /**
+     * 运行角色
+     */
+    public enum Role {
+        /**
+         * 同一进程内启动桩服务、网关和负载生成器
+         */
+        ALL,
+        /**
+         * 只启动桩服务，供独立部署的网关转发
+         */
+        STUB,
+        /**
+         * 只生成负载，压测 target 指向的网关
+         */
+        CLIENT
+    }
+
+    /**
+     * 负载模型
+     */
+    public enum Mode {
+        /**
+         * 闭环：固定并发数，每个并发收到响应后立即发下一个请求
+         */
+        CLOSED,
+        /**
+         * 开环：按固定到达率发请求，不等待响应，延迟从计划发送时刻算起
+         */
+        OPEN
+    }
+
+    private Role role = Role.ALL;
+
+    private Mode mode = Mode.CLOSED;
+
+    /**
+     * 网关地址，role 为 ALL 时为空则在进程内启动网关
+     */
+    private String target;
+
+    /**
+     * 桩服务端口，为 0 时随机
+     */
+    private int stubPort;
+
+    /**
+     * 网关访问桩服务时使用的 service 名称
+     */
+    private String service = "stub";
+
+    /**
+     * 请求信封中的 port，role 为 ALL 时取桩服务的端口
+     */
+    private int servicePort = 18080;
+
+    /**
+     * 闭环的并发数，多个值时逐级压测
+     */
+    private List<Integer> concurrency = list("64");
+
+    /**
+     * 开环的每秒请求数，多个值时逐级压测
+     */
+    private List<Integer> rates = list("1000");
+
+    /**
+     * 预先加密的请求体个数，请求参数中的序号不同，轮流发送
+     */
+    private int variants = 64;
+
+    /**
+     * 客户端到网关的最大连接数
+     */
+    private int connections = 512;
+
+    /**
+     * 开环时允许的最大在途请求数，超过后丢弃并计入 dropped
+     */
+    private int maxInFlight = 10000;
+
+    private Duration warmup = Duration.ofSeconds(10);
+
+    private Duration duration = Duration.ofSeconds(30);
+
+    private Duration timeout = Duration.ofSeconds(10);
+
+    /**
+     * GET 请求 {@code /payload}，POST 请求 {@code /echo}
+     */
+    private String method = "GET";
+
+    /**
+     * GET 为后端响应字节数，POST 为请求参数的字节数
+     */
+    private int size = 1024;
+
+    /**
+     * 桩服务的响应延迟
+     */
+    private Duration latency = Duration.ZERO;
+
+    /**
+     * 桩服务的响应延迟在 [latency, latency + jitter) 内均匀分布
+     */
+    private Duration jitter = Duration.ZERO;
+
+    /**
+     * 桩服务是否返回 gzip 响应
+     */
+    private boolean gzip;
+
+    private Envelope envelope = Envelope.TEXT;
+
+    private String encrypt = "AES";
+
+    private String key = "ABCD12345678EFGH";
+
+    /**
+     * 客户端标识，不为空时放在 X-Apate-Client-Id 请求头中，用于按客户端的密钥和限流
+     */
+    private String clientId;
+
+    /**
+     * 进程内网关是否流式加密响应
+     */
+    private boolean streaming;
+
+    /**
+     * 客户端、桩服务各自的 IO 线程数
+     */
+    private int ioThreads = Math.max(2, Runtime.getRuntime().availableProcessors() / 2);
+
+    /**
+     * hgrm、hlog 输出目录
+     */
+    private String output = "target/loadtest";
+
+    public static LoadTestOptions parse(String[] args) {
+        Map<String, String> values = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("unexpected argument: " + arg);
+            }
+            int eq = arg.indexOf('=');
+            if (eq < 0) {
+                values.put(arg.substring(2), "true");
+            } else {
+                values.put(arg.substring(2, eq), arg.substring(eq + 1));
+            }
+        }
+
+        LoadTestOptions options = new LoadTestOptions();
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            options.set(entry.getKey(), entry.getValue());
+        }
+        if (options.role == Role.CLIENT && options.target == null) {
+            throw new IllegalArgumentException("--target is required for role CLIENT");
+        }
+        if (options.role == Role.STUB && options.stubPort == 0) {
+            options.stubPort = 18080;
+        }
+
+        return options;
+    }
+
+    private void set(String name, String value) {
+        switch (name) {
+            case "role":
+                role = Role.valueOf(value.toUpperCase(Locale.ROOT));
+                break;
+            case "mode":
+                mode = Mode.valueOf(value.toUpperCase(Locale.ROOT));
+                break;
+            case "target":
+                target = value;
+                break;
+            case "stub-port":
+                stubPort = Integer.parseInt(value);
+                break;
+            case "service":
+                service = value;
+                break;
+            case "service-port":
+                servicePort = Integer.parseInt(value);
+                break;
+            case "concurrency":
+                concurrency = list(value);
+                break;
+            case "rate":
+            case "rates":
+                rates = list(value);
+                break;
+            case "variants":
+                variants = Math.max(1, Integer.parseInt(value));
+                break;
+            case "connections":
+                connections = Integer.parseInt(value);
+                break;
+            case "max-in-flight":
+                maxInFlight = Integer.parseInt(value);
+                break;
+            case "warmup":
+                warmup = DurationStyle.detectAndParse(value);
+                break;
+            case "duration":
+                duration = DurationStyle.detectAndParse(value);
+                break;
+            case "timeout":
+                timeout = DurationStyle.detectAndParse(value);
+                break;
+            case "method":
+                method = value.toUpperCase(Locale.ROOT);
+                break;
+            case "size":
+                size = Integer.parseInt(value);
+                break;
+            case "latency":
+                latency = DurationStyle.detectAndParse(value);
+                break;
+            case "jitter":
+                jitter = DurationStyle.detectAndParse(value);
+                break;
+            case "gzip":
+                gzip = Boolean.parseBoolean(value);
+                break;
+            case "envelope":
+                envelope = Envelope.valueOf(value.toUpperCase(Locale.ROOT));
+                break;
+            case "encrypt":
+                encrypt = value;
+                break;
+            case "key":
+                key = value;
+                break;
+            case "client-id":
+                clientId = value;
+                break;
+            case "streaming":
+                streaming = Boolean.parseBoolean(value);
+                break;
+            case "io-threads":
+                ioThreads = Integer.parseInt(value);
+                break;
+            case "output":
+                output = value;
+                break;
+            default:
+                throw new IllegalArgumentException("unknown option: --" + name);
+        }
+    }
+
+    private static List<Integer> list(String value) {
+        List<Integer> list = new ArrayList<>();
+        for (String item : value.split(",")) {
+            if (!item.trim().isEmpty()) {
+                list.add(Integer.parseInt(item.trim()));
+            }
+        }
+
+        return list;
+    }
+
+    /**
+     * 每一级的负载：闭环为并发数，开环为每秒请求数
+     *
+     * @return
+     */
+    public List<Integer> getSteps() {
+        return mode == Mode.CLOSED ? concurrency : rates;
+    }
+
+    public Role getRole() {
+        return role;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public String getTarget() {
+        return target;
+    }
+
+    public void setTarget(String target) {
+        this.target = target;
+    }
+
+    public int getStubPort() {
+        return stubPort;
+    }
+
+    public String getService() {
+        return service;
+    }
+
+    public int getServicePort() {
+        return servicePort;
+    }
+
+    public void setServicePort(int servicePort) {
+        this.servicePort = servicePort;
+    }
+
+    public int getVariants() {
+        return variants;
+    }
+
+    public int getConnections() {
+        return connections;
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    public Duration getWarmup() {
+        return warmup;
+    }
+
+    public Duration getDuration() {
+        return duration;
+    }
+
+    public Duration getTimeout() {
+        return timeout;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public Duration getLatency() {
+        return latency;
+    }
+
+    public Duration getJitter() {
+        return jitter;
+    }
+
+    public boolean isGzip() {
+        return gzip;
+    }
+
+    public Envelope getEnvelope() {
+        return envelope;
+    }
+
+    public String getEncrypt() {
+        return encrypt;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public String getClientId() {
+        return clientId;
+    }
+
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    public int getIoThreads() {
+        return ioThreads;
+    }
+
+    public String getOutput() {
+        return output;
+    }
+}
@@ -0,0 +1,147 @@
+package com.sss.apate.loadtest;
+
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.QueryStringDecoder;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.NettyOutbound;
+import reactor.netty.http.server.HttpServerResponse;
+import reactor.netty.http.server.HttpServer;
+import reactor.netty.resources.LoopResources;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 压测用的后端桩服务
+ * <p>
+ * {@code GET /payload?size=n&latency=ms&jitter=ms&gzip=true} 延迟后返回 n 字节的 json，可选 gzip；
+ * {@code POST /**?latency=ms&jitter=ms} 延迟后原样回显请求体。参数由负载生成器写进请求路径，桩服务本身无需配置。
+ * 使用独立的 IO 线程，不与同进程的网关、客户端争用 reactor-netty 默认的事件循环
+ *
+ * @author sss
+ */
+public class StubServer implements AutoCloseable {
+
+    private final Map<Integer, byte[]> payloads = new ConcurrentHashMap<>();
+
+    private final Map<Integer, byte[]> gzipPayloads = new ConcurrentHashMap<>();
+
+    private final LoopResources loops;
+
+    private final DisposableServer server;
+
+    public StubServer(int port, int ioThreads) {
+        loops = LoopResources.create("loadtest-stub", ioThreads, true);
+        server = HttpServer.create()
+                .host("0.0.0.0")
+                .port(port)
+                .tcpConfiguration(tcp -> tcp.runOn(loops))
+                .route(routes -> routes
+                        .get("/payload", (request, response) -> {
+                            QueryStringDecoder query = new QueryStringDecoder(request.uri());
+                            int size = intParam(query, "size", 1024);
+                            boolean gzip = Boolean.parseBoolean(param(query, "gzip"));
+                            byte[] payload = gzip ? gzipPayloads.computeIfAbsent(size, StubServer::gzipJson)
+                                    : payloads.computeIfAbsent(size, StubServer::json);
+                            if (gzip) {
+                                response.header(HttpHeaderNames.CONTENT_ENCODING, HttpHeaderValues.GZIP);
+                            }
+                            // 先读完请求体再响应，连接才能被复用
+                            return request.receive().then(delay(query)).then(send(response, payload).then());
+                        })
+                        .post("/**", (request, response) -> {
+                            QueryStringDecoder query = new QueryStringDecoder(request.uri());
+                            return request.receive().aggregate().asByteArray()
+                                    .defaultIfEmpty(new byte[0])
+                                    .delayUntil(body -> delay(query))
+                                    .flatMap(body -> send(response, body).then());
+                        }))
+                .bindNow();
+    }
+
+    public int port() {
+        return server.port();
+    }
+
+    /**
+     * 阻塞直到进程退出
+     */
+    public void await() {
+        server.onDispose().block();
+    }
+
+    @Override
+    public void close() {
+        server.disposeNow();
+        loops.dispose();
+    }
+
+    private static NettyOutbound send(HttpServerResponse response, byte[] body) {
+        return response.header(HttpHeaderNames.CONTENT_TYPE, "application/json")
+                .header(HttpHeaderNames.CONTENT_LENGTH, String.valueOf(body.length))
+                .send(Mono.just(Unpooled.wrappedBuffer(body)));
+    }
+
+    private static Mono<Long> delay(QueryStringDecoder query) {
+        int latency = intParam(query, "latency", 0);
+        int jitter = intParam(query, "jitter", 0);
+        long millis = latency + (jitter > 0 ? ThreadLocalRandom.current().nextInt(jitter) : 0);
+
+        return millis > 0 ? Mono.delay(Duration.ofMillis(millis)) : Mono.just(0L);
+    }
+
+    private static String param(QueryStringDecoder query, String name) {
+        List<String> values = query.parameters().get(name);
+        return values == null || values.isEmpty() ? null : values.get(0);
+    }
+
+    private static int intParam(QueryStringDecoder query, String name, int defaultValue) {
+        String value = param(query, name);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+    /**
+     * 生成指定大小的 json 文本
+     *
+     * @param size 字节数
+     * @return
+     */
+    static byte[] json(int size) {
+        StringBuilder sb = new StringBuilder(size + 64).append("{\"items\":[");
+        int i = 0;
+        while (sb.length() < size - 64) {
+            sb.append("{\"id\":").append(i++).append(",\"title\":\"delectus aut autem\",\"completed\":false},");
+        }
+        if (i > 0) {
+            sb.setLength(sb.length() - 1);
+        }
+        sb.append("]}");
+        while (sb.length() < size) {
+            sb.append(' ');
+        }
+
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] gzipJson(int size) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(json(size));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return out.toByteArray();
+    }
+}
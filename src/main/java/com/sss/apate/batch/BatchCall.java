@@ -0,0 +1,108 @@
+package com.sss.apate.batch;
+
+import com.sss.apate.route.ServiceTarget;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.lang.Nullable;
+
+import java.net.URI;
+
+/**
+ * 批量请求中的一个调用，已解析出目标地址、请求头和请求体
+ *
+ * @author sss
+ */
+public class BatchCall {
+
+    private final ServiceTarget target;
+
+    private final HttpMethod method;
+
+    private final URI uri;
+
+    private final HttpHeaders headers;
+
+    private final byte[] body;
+
+    private final String error;
+
+    private final int status;
+
+    public BatchCall(ServiceTarget target, HttpMethod method, URI uri, HttpHeaders headers, @Nullable byte[] body) {
+        this.target = target;
+        this.method = method;
+        this.uri = uri;
+        this.headers = headers;
+        this.body = body;
+        this.error = null;
+        this.status = 0;
+    }
+
+    private BatchCall(int status, String error) {
+        this.target = null;
+        this.method = null;
+        this.uri = null;
+        this.headers = null;
+        this.body = null;
+        this.error = error;
+        this.status = status;
+    }
+
+    /**
+     * 无法执行的调用，直接以 400 返回
+     *
+     * @param error
+     * @return
+     */
+    public static BatchCall invalid(String error) {
+        return new BatchCall(HttpStatus.BAD_REQUEST.value(), error);
+    }
+
+    /**
+     * 被限流的调用，直接以 status 返回
+     *
+     * @param status
+     * @param error
+     * @return
+     */
+    public static BatchCall rejected(int status, String error) {
+        return new BatchCall(status, error);
+    }
+
+    public ServiceTarget getTarget() {
+        return target;
+    }
+
+    public HttpMethod getMethod() {
+        return method;
+    }
+
+    public URI getUri() {
+        return uri;
+    }
+
+    public HttpHeaders getHeaders() {
+        return headers;
+    }
+
+    @Nullable
+    public byte[] getBody() {
+        return body;
+    }
+
+    /**
+     * @return 可以执行时为空
+     */
+    @Nullable
+    public String getError() {
+        return error;
+    }
+
+    /**
+     * @return 不能执行时返回的状态码
+     */
+    public int getStatus() {
+        return status;
+    }
+}
@@ -0,0 +1,382 @@
+package com.sss.apate.batch;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sss.apate.client.ServiceHttpClients;
+import com.sss.apate.codec.Envelope;
+import com.sss.apate.limit.RateLimiter;
+import com.sss.apate.route.ServiceTarget;
+import com.sss.apate.timeout.AdaptiveTimeouts;
+import com.sss.apate.timeout.ServiceTimeout;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cloud.gateway.filter.headers.HttpHeadersFilter;
+import org.springframework.core.io.buffer.DataBufferLimitException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+import reactor.netty.ByteBufFlux;
+import reactor.netty.http.client.HttpClient;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 批量请求执行
+ * <p>
+ * 一个批量请求中的调用并发访问后端（数量受 concurrency 限制），每个调用单独超时，
+ * 结果按请求顺序聚合成一个 json 数组，由响应过滤器统一加密一次。
+ * 每个调用的响应体边读边计数，单个调用超过 maxItemSize 或整个批次超过 maxTotalSize 时该调用返回 502。
+ * 复用网关的 Netty HttpClient（开启 apate.client 时为 service 对应的 HttpClient），和普通代理请求共享连接池。
+ * 和单个代理请求一样转发经过网关 {@link HttpHeadersFilter} 处理的外层请求头，开启自适应超时时按 service 限制等待响应头的时间；
+ * 批量调用不对冲，一个批次本身已经并发访问多个后端
+ *
+ * @author sss
+ */
+@Component
+@Slf4j
+public class BatchExecutor {
+
+    /**
+     * 关闭状态的实例，供未注入配置的场景使用
+     */
+    public static final BatchExecutor DISABLED = new BatchExecutor(new BatchProperties(), null,
+            ServiceHttpClients.DISABLED, RateLimiter.DISABLED, AdaptiveTimeouts.DISABLED, null,
+            new CompositeMeterRegistry());
+
+    /**
+     * 转发时由调用本身重新设置的请求头
+     */
+    private static final List<String> CALL_HEADERS = Arrays.asList(HttpHeaders.HOST,
+            HttpHeaders.CONTENT_LENGTH, HttpHeaders.TRANSFER_ENCODING, HttpHeaders.CONTENT_TYPE);
+
+    private final BatchProperties properties;
+
+    private final HttpClient httpClient;
+
+    private final ServiceHttpClients serviceHttpClients;
+
+    private final RateLimiter rateLimiter;
+
+    private final AdaptiveTimeouts adaptiveTimeouts;
+
+    @Nullable
+    private final ObjectProvider<List<HttpHeadersFilter>> headersFiltersProvider;
+
+    private volatile List<HttpHeadersFilter> headersFilters;
+
+    private final ObjectMapper mapper = Envelope.TEXT.newMapper();
+
+    private final ObjectMapper binaryMapper = Envelope.BINARY.newMapper();
+
+    private final DistributionSummary batchSize;
+
+    private final Counter success;
+
+    private final Counter failed;
+
+    private final Counter timeout;
+
+    private final Counter invalid;
+
+    private final Counter rejected;
+
+    private final Counter tooLarge;
+
+    @Autowired
+    public BatchExecutor(BatchProperties properties, @Nullable HttpClient httpClient,
+                         ServiceHttpClients serviceHttpClients, RateLimiter rateLimiter,
+                         AdaptiveTimeouts adaptiveTimeouts,
+                         @Nullable ObjectProvider<List<HttpHeadersFilter>> headersFiltersProvider,
+                         MeterRegistry registry) {
+        this.properties = properties;
+        // 后端返回的压缩内容由 HttpClient 解压，聚合响应只包含明文
+        this.httpClient = httpClient == null ? null : httpClient.compress(true);
+        this.serviceHttpClients = serviceHttpClients;
+        this.rateLimiter = rateLimiter;
+        this.adaptiveTimeouts = adaptiveTimeouts;
+        this.headersFiltersProvider = headersFiltersProvider;
+        this.batchSize = DistributionSummary.builder("apate.batch.size")
+                .description("批量请求包含的调用数")
+                .register(registry);
+        this.success = counter(registry, "success");
+        this.failed = counter(registry, "error");
+        this.timeout = counter(registry, "timeout");
+        this.invalid = counter(registry, "invalid");
+        this.rejected = counter(registry, "rejected");
+        this.tooLarge = counter(registry, "too_large");
+    }
+
+    private static Counter counter(MeterRegistry registry, String outcome) {
+        return Counter.builder("apate.batch.items")
+                .description("批量请求中各调用的结果")
+                .tag("outcome", outcome)
+                .register(registry);
+    }
+
+    public boolean isEnabled() {
+        return Boolean.TRUE.equals(properties.getEnabled()) && httpClient != null;
+    }
+
+    public int getMaxItems() {
+        return properties.getMaxItems();
+    }
+
+    /**
+     * 各调用共用的外层请求头，与单个代理请求一样先经过网关的 {@link HttpHeadersFilter}，
+     * Host 和请求体相关的请求头由调用本身决定
+     *
+     * @param exchange
+     * @return
+     */
+    public HttpHeaders forwardedHeaders(ServerWebExchange exchange) {
+        List<HttpHeadersFilter> filters = headersFilters;
+        if (filters == null) {
+            List<HttpHeadersFilter> provided = headersFiltersProvider == null ? null
+                    : headersFiltersProvider.getIfAvailable();
+            filters = provided == null ? Collections.emptyList() : provided;
+            headersFilters = filters;
+        }
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.putAll(HttpHeadersFilter.filterRequest(filters, exchange));
+        CALL_HEADERS.forEach(headers::remove);
+        return headers;
+    }
+
+    /**
+     * 执行批量请求
+     *
+     * @param calls
+     * @return 聚合响应，json 数组，顺序与 calls 一致
+     */
+    public Mono<byte[]> execute(List<BatchCall> calls) {
+        return execute(calls, Envelope.TEXT);
+    }
+
+    /**
+     * 执行批量请求
+     *
+     * @param calls
+     * @param envelope 聚合响应的编码，{@link Envelope#BINARY} 时为 CBOR 数组
+     * @return 聚合响应，顺序与 calls 一致
+     */
+    public Mono<byte[]> execute(List<BatchCall> calls, Envelope envelope) {
+        ObjectMapper mapper = envelope == Envelope.BINARY ? binaryMapper : this.mapper;
+        batchSize.record(calls.size());
+        // 整个批次剩余可读取的响应体字节数，被拒绝的调用读过的部分会退回
+        AtomicLong budget = new AtomicLong(properties.getMaxTotalSize().toBytes());
+
+        return Flux.fromIterable(calls)
+                .flatMapSequential(call -> execute(call, budget), Math.max(1, properties.getConcurrency()))
+                .collectList()
+                .map(results -> {
+                    try {
+                        return mapper.writeValueAsBytes(results);
+                    } catch (Exception e) {
+                        throw new IllegalStateException("batch response serialize error", e);
+                    }
+                });
+    }
+
+    private Mono<BatchResult> execute(BatchCall call, AtomicLong budget) {
+        if (call.getError() != null) {
+            (call.getStatus() == HttpStatus.TOO_MANY_REQUESTS.value() ? rejected : invalid).increment();
+            return Mono.just(BatchResult.error(call.getStatus(), call.getError()));
+        }
+
+        ServiceTarget target = call.getTarget();
+        HttpClient serviceClient = serviceHttpClients.get(target.getService());
+        HttpClient.RequestSender sender = (serviceClient == null ? httpClient : serviceClient.compress(true))
+                .headers(headers -> call.getHeaders().forEach(headers::add))
+                .request(io.netty.handler.codec.http.HttpMethod.valueOf(call.getMethod().name()))
+                .uri(call.getUri().toString());
+        HttpClient.ResponseReceiver<?> receiver = call.getBody() == null ? sender
+                : sender.send((request, outbound) -> outbound.sendByteArray(Mono.just(call.getBody())));
+
+        return Mono.defer(() -> {
+            // 并发许可在订阅时获取，未执行的调用不占用许可
+            RateLimiter.Permit permit = rateLimiter.tryAcquire(target.getService());
+            if (permit == null) {
+                rejected.increment();
+                return Mono.just(BatchResult.error(HttpStatus.TOO_MANY_REQUESTS.value(), "too many requests"));
+            }
+
+            target.start();
+            long start = System.nanoTime();
+            ServiceTimeout serviceTimeout = adaptiveTimeouts.get(target.getService());
+            int[] status = new int[1];
+            int[] upstreamStatus = new int[1];
+            long[] read = new long[1];
+            long[] headerNanos = new long[1];
+            AtomicBoolean received = new AtomicBoolean();
+            Mono<BatchResult> upstream = receiver.<BatchResult>response((response, content) -> {
+                received.set(true);
+                headerNanos[0] = System.nanoTime() - start;
+                upstreamStatus[0] = response.status().code();
+                String contentType = response.responseHeaders().get(HttpHeaders.CONTENT_TYPE);
+                return limit(content, read, budget).aggregate().asByteArray()
+                        .defaultIfEmpty(new byte[0])
+                        .map(bytes -> result(response.status().code(), contentType, bytes));
+            }).next();
+            if (serviceTimeout != null) {
+                // 与单个代理请求一样，自适应超时只覆盖等待响应头的阶段
+                Duration headerTimeout = serviceTimeout.getTimeout();
+                upstream = upstream.timeout(Mono.delay(headerTimeout).flatMap(tick -> {
+                    if (received.get()) {
+                        return Mono.never();
+                    }
+                    serviceTimeout.expired(headerTimeout);
+                    return Mono.just(tick);
+                }));
+            }
+
+            return upstream
+                    .timeout(properties.getItemTimeout())
+                    .onErrorResume(DataBufferLimitException.class, e -> {
+                        // 超限时连接已经取消，实例本身按上游的状态码计入
+                        budget.addAndGet(read[0]);
+                        tooLarge.increment();
+                        status[0] = upstreamStatus[0];
+                        return Mono.just(BatchResult.error(HttpStatus.BAD_GATEWAY.value(), "response too large"));
+                    })
+                    .doOnNext(result -> {
+                        if (status[0] == 0) {
+                            status[0] = result.getStatus();
+                        }
+                    })
+                    .doFinally(signal -> {
+                        if (signal == SignalType.CANCEL) {
+                            target.cancel();
+                            permit.cancel();
+                        } else {
+                            long latency = System.nanoTime() - start;
+                            boolean succeeded = status[0] > 0 && status[0] < 500;
+                            target.complete(latency, succeeded);
+                            permit.release(latency, succeeded);
+                            if (serviceTimeout != null && succeeded) {
+                                serviceTimeout.record(headerNanos[0]);
+                            }
+                        }
+                    });
+        })
+                .doOnNext(result -> {
+                    if (result.getError() == null) {
+                        success.increment();
+                    }
+                })
+                .onErrorResume(e -> {
+                    if (e instanceof TimeoutException) {
+                        timeout.increment();
+                        return Mono.just(BatchResult.error(HttpStatus.GATEWAY_TIMEOUT.value(), "timeout"));
+                    }
+
+                    failed.increment();
+                    log.warn("batch call error. service: {}, uri: {}, exception: {}", target.getService(), call.getUri(), e.toString());
+                    return Mono.just(BatchResult.error(HttpStatus.BAD_GATEWAY.value(), "bad gateway"));
+                });
+    }
+
+    /**
+     * 文本响应按声明的字符集（默认 UTF-8）放入 body，其他响应原样放入 data：
+     * json 信封中为 base64，{@link Envelope#BINARY} 中为 CBOR 字节串。
+     * 没有 Content-Type 时能按 UTF-8 解码的当作文本
+     *
+     * @param status
+     * @param contentType
+     * @param bytes
+     * @return
+     */
+    static BatchResult result(int status, @Nullable String contentType, byte[] bytes) {
+        MediaType mediaType = null;
+        if (contentType != null) {
+            try {
+                mediaType = MediaType.parseMediaType(contentType);
+            } catch (IllegalArgumentException e) {
+                return new BatchResult(status, contentType, null, bytes, null);
+            }
+        }
+
+        if (mediaType == null) {
+            String text = decodeUtf8(bytes);
+            return text != null ? new BatchResult(status, null, text, null, null)
+                    : new BatchResult(status, null, null, bytes, null);
+        }
+        if (!isText(mediaType)) {
+            return new BatchResult(status, contentType, null, bytes, null);
+        }
+
+        Charset charset = mediaType.getCharset();
+        return new BatchResult(status, contentType,
+                new String(bytes, charset == null ? StandardCharsets.UTF_8 : charset), null, null);
+    }
+
+    private static boolean isText(MediaType mediaType) {
+        if ("text".equals(mediaType.getType())) {
+            return true;
+        }
+        if (!"application".equals(mediaType.getType())) {
+            return false;
+        }
+
+        String subtype = mediaType.getSubtype();
+        return subtype.equals("json") || subtype.endsWith("+json") || subtype.equals("xml") || subtype.endsWith("+xml")
+                || subtype.equals("javascript") || subtype.equals("x-www-form-urlencoded");
+    }
+
+    @Nullable
+    private static String decodeUtf8(byte[] bytes) {
+        try {
+            return StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPORT)
+                    .onUnmappableCharacter(CodingErrorAction.REPORT)
+                    .decode(ByteBuffer.wrap(bytes))
+                    .toString();
+        } catch (CharacterCodingException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 边读边计数，单个调用超过 maxItemSize 或批次预算用完时以 {@link DataBufferLimitException} 结束，
+     * 已读的缓冲区由 reactor-netty 在传递后释放
+     *
+     * @param content
+     * @param read    本调用已读取的字节数
+     * @param budget  整个批次剩余的字节数
+     * @return
+     */
+    private ByteBufFlux limit(ByteBufFlux content, long[] read, AtomicLong budget) {
+        long maxItemSize = properties.getMaxItemSize().toBytes();
+        return ByteBufFlux.fromInbound(content.handle((buffer, sink) -> {
+            int size = buffer.readableBytes();
+            read[0] += size;
+            long left = budget.addAndGet(-size);
+            if (read[0] > maxItemSize || left < 0) {
+                sink.error(new DataBufferLimitException("batch item too large"));
+            } else {
+                sink.next(buffer);
+            }
+        }));
+    }
+}
@@ -0,0 +1,90 @@
+package com.sss.apate.batch;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+
+/**
+ * 批量请求配置
+ *
+ * @author sss
+ */
+@Component
+@ConfigurationProperties(prefix = "apate.batch")
+public class BatchProperties {
+    /**
+     * 是否接受批量请求（请求信封为 ProxyConfig 数组），默认关闭
+     */
+    private Boolean enabled = false;
+    /**
+     * 单个批量请求最多包含的调用数，超过时返回 400
+     */
+    private Integer maxItems = 20;
+    /**
+     * 单个批量请求同时访问后端的调用数
+     */
+    private Integer concurrency = 6;
+    /**
+     * 单个调用的超时时间，超时的调用返回 504，不影响其他调用
+     */
+    private Duration itemTimeout = Duration.ofSeconds(5);
+    /**
+     * 单个调用的响应体上限，超过时该调用返回 502，不影响其他调用
+     */
+    private DataSize maxItemSize = DataSize.ofKilobytes(256);
+    /**
+     * 一个批量请求所有调用的响应体合计上限，超出后仍在读取的调用返回 502。
+     * 聚合结果还要经过路由 maxResponseSize 的限制（未配置时为 256KB），调大时需同时调大 maxResponseSize
+     */
+    private DataSize maxTotalSize = DataSize.ofKilobytes(256);
+
+    public Boolean getEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(Boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public Integer getMaxItems() {
+        return maxItems;
+    }
+
+    public void setMaxItems(Integer maxItems) {
+        this.maxItems = maxItems;
+    }
+
+    public Integer getConcurrency() {
+        return concurrency;
+    }
+
+    public void setConcurrency(Integer concurrency) {
+        this.concurrency = concurrency;
+    }
+
+    public Duration getItemTimeout() {
+        return itemTimeout;
+    }
+
+    public void setItemTimeout(Duration itemTimeout) {
+        this.itemTimeout = itemTimeout;
+    }
+
+    public DataSize getMaxItemSize() {
+        return maxItemSize;
+    }
+
+    public void setMaxItemSize(DataSize maxItemSize) {
+        this.maxItemSize = maxItemSize;
+    }
+
+    public DataSize getMaxTotalSize() {
+        return maxTotalSize;
+    }
+
+    public void setMaxTotalSize(DataSize maxTotalSize) {
+        this.maxTotalSize = maxTotalSize;
+    }
+}
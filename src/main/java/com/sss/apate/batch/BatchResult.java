@@ -0,0 +1,60 @@
+package com.sss.apate.batch;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * 批量请求中一个调用的结果，按请求顺序写入聚合响应
+ *
+ * @author sss
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BatchResult {
+
+    private final int status;
+
+    private final String contentType;
+
+    /**
+     * 文本响应
+     */
+    private final String body;
+
+    /**
+     * 非文本响应的原始字节，json 中序列化为 base64
+     */
+    private final byte[] data;
+
+    private final String error;
+
+    public BatchResult(int status, String contentType, String body, byte[] data, String error) {
+        this.status = status;
+        this.contentType = contentType;
+        this.body = body;
+        this.data = data;
+        this.error = error;
+    }
+
+    public static BatchResult error(int status, String error) {
+        return new BatchResult(status, null, null, null, error);
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public String getBody() {
+        return body;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    public String getError() {
+        return error;
+    }
+}
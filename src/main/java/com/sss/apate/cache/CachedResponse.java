@@ -0,0 +1,40 @@
+package com.sss.apate.cache;
+
+import org.springframework.http.HttpHeaders;
+
+/**
+ * 缓存的响应，body 为已加密（以及已按 Content-Encoding 编码）的最终字节
+ *
+ * @author sss
+ */
+public class CachedResponse {
+
+    private final byte[] body;
+
+    private final HttpHeaders headers;
+
+    private final long ttlNanos;
+
+    public CachedResponse(byte[] body, HttpHeaders headers, long ttlNanos) {
+        this.body = body;
+        this.headers = HttpHeaders.readOnlyHttpHeaders(headers);
+        this.ttlNanos = ttlNanos;
+    }
+
+    public byte[] getBody() {
+        return body;
+    }
+
+    /**
+     * 命中时需要一并写出的响应头，例如 Content-Encoding
+     *
+     * @return
+     */
+    public HttpHeaders getHeaders() {
+        return headers;
+    }
+
+    public long getTtlNanos() {
+        return ttlNanos;
+    }
+}
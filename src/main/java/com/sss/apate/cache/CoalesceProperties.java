@@ -0,0 +1,40 @@
+package com.sss.apate.cache;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * 请求合并配置
+ *
+ * @author sss
+ */
+@Component
+@ConfigurationProperties(prefix = "apate.coalesce")
+public class CoalesceProperties {
+    /**
+     * 是否合并并发的相同 GET 请求，默认关闭
+     */
+    private Boolean enabled = false;
+    /**
+     * 跟随者等待首个请求结果的最长时间，超时后自行请求上游
+     */
+    private Duration maxWait = Duration.ofSeconds(5);
+
+    public Boolean getEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(Boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public Duration getMaxWait() {
+        return maxWait;
+    }
+
+    public void setMaxWait(Duration maxWait) {
+        this.maxWait = maxWait;
+    }
+}
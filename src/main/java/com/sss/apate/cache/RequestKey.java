@@ -0,0 +1,52 @@
+package com.sss.apate.cache;
+
+import java.util.Arrays;
+
+/**
+ * 请求去重的 key，用于响应缓存和请求合并
+ *
+ * @author sss
+ */
+public final class RequestKey {
+
+    private final byte[] digest;
+
+    private final String scope;
+
+    private final int hash;
+
+    /**
+     * @param digest 解密后 ProxyConfig 和目标服务地址的规范化摘要
+     * @param scope  隔离范围，例如响应密钥，不同范围的 key 互不相等
+     */
+    public RequestKey(byte[] digest, String scope) {
+        this.digest = digest;
+        this.scope = scope;
+        this.hash = 31 * Arrays.hashCode(digest) + scope.hashCode();
+    }
+
+    public byte[] getDigest() {
+        return digest;
+    }
+
+    public String getScope() {
+        return scope;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof RequestKey)) {
+            return false;
+        }
+        RequestKey other = (RequestKey) o;
+        return hash == other.hash && Arrays.equals(digest, other.digest) && scope.equals(other.scope);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+}
@@ -0,0 +1,153 @@
+package com.sss.apate.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import org.springframework.http.HttpHeaders;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Locale;
+
+/**
+ * 幂等 GET 请求的响应缓存
+ * <p>
+ * key 为解密后 ProxyConfig 的规范化摘要加上响应加密范围（密钥），value 为写给客户端的最终字节，
+ * 命中时直接写出，不访问后端也不再次加密。容量按字节计，淘汰策略为 Caffeine 的 W-TinyLFU，
+ * 每条记录的过期时间取服务配置和上游 Cache-Control 中较小的一个
+ *
+ * @author sss
+ */
+@Component
+public class ResponseCache {
+
+    /**
+     * 关闭状态的实例，供未注入配置的场景使用
+     */
+    public static final ResponseCache DISABLED = new ResponseCache(new ResponseCacheProperties(), new CompositeMeterRegistry());
+
+    /**
+     * key 之外每条记录的大致额外开销
+     */
+    private static final int ENTRY_OVERHEAD = 96;
+
+    private final ResponseCacheProperties properties;
+
+    private final Cache<RequestKey, CachedResponse> cache;
+
+    public ResponseCache(ResponseCacheProperties properties, MeterRegistry registry) {
+        this.properties = properties;
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(properties.getMaxSize().toBytes())
+                .weigher((RequestKey key, CachedResponse value) -> ENTRY_OVERHEAD + key.getDigest().length + value.getBody().length)
+                .expireAfter(new Expiry<RequestKey, CachedResponse>() {
+                    @Override
+                    public long expireAfterCreate(RequestKey key, CachedResponse value, long currentTime) {
+                        return value.getTtlNanos();
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(RequestKey key, CachedResponse value, long currentTime, long currentDuration) {
+                        return value.getTtlNanos();
+                    }
+
+                    @Override
+                    public long expireAfterRead(RequestKey key, CachedResponse value, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .recordStats()
+                .build();
+        if (Boolean.TRUE.equals(properties.getEnabled())) {
+            CaffeineCacheMetrics.monitor(registry, cache, "apate.response");
+        }
+    }
+
+    /**
+     * 该服务是否开启缓存
+     *
+     * @param service
+     * @return
+     */
+    public boolean isEnabled(String service) {
+        return Boolean.TRUE.equals(properties.getEnabled()) && !ttl(service).isZero();
+    }
+
+    @Nullable
+    public CachedResponse get(RequestKey key) {
+        return cache.getIfPresent(key);
+    }
+
+    /**
+     * 按上游响应头决定是否缓存
+     *
+     * @param key
+     * @param service
+     * @param body            写给客户端的最终字节
+     * @param upstreamHeaders 上游响应头
+     * @param replayHeaders   命中时需要一并写出的响应头
+     */
+    public void put(RequestKey key, String service, byte[] body, HttpHeaders upstreamHeaders, HttpHeaders replayHeaders) {
+        if (body.length > properties.getMaxEntrySize().toBytes() || upstreamHeaders.containsKey(HttpHeaders.SET_COOKIE)) {
+            return;
+        }
+
+        long ttlNanos = ttl(service).toNanos();
+        long maxAge = maxAge(upstreamHeaders.getCacheControl());
+        if (maxAge >= 0) {
+            ttlNanos = Math.min(ttlNanos, Duration.ofSeconds(maxAge).toNanos());
+        }
+        if (ttlNanos <= 0) {
+            return;
+        }
+
+        cache.put(key, new CachedResponse(body, replayHeaders, ttlNanos));
+    }
+
+    private Duration ttl(String service) {
+        Duration ttl = properties.getServices().get(service);
+        return ttl != null ? ttl : properties.getTtl();
+    }
+
+    /**
+     * 解析 Cache-Control
+     *
+     * @param cacheControl
+     * @return 不允许缓存时为 0，未指定时为 -1，否则为秒数，s-maxage 优先于 max-age
+     */
+    static long maxAge(@Nullable String cacheControl) {
+        if (cacheControl == null || cacheControl.isEmpty()) {
+            return -1;
+        }
+
+        long maxAge = -1;
+        long sharedMaxAge = -1;
+        for (String directive : cacheControl.toLowerCase(Locale.ROOT).split(",")) {
+            directive = directive.trim();
+            // no-cache、private 可以带字段列表，例如 private="Set-Cookie"
+            if ("no-store".equals(directive) || isDirective(directive, "no-cache") || isDirective(directive, "private")) {
+                return 0;
+            }
+            try {
+                if (directive.startsWith("s-maxage=")) {
+                    sharedMaxAge = Math.max(0, Long.parseLong(directive.substring("s-maxage=".length()).trim()));
+                } else if (directive.startsWith("max-age=")) {
+                    maxAge = Math.max(0, Long.parseLong(directive.substring("max-age=".length()).trim()));
+                }
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+
+        return sharedMaxAge >= 0 ? sharedMaxAge : maxAge;
+    }
+
+    private static boolean isDirective(String directive, String name) {
+        return directive.startsWith(name)
+                && (directive.length() == name.length() || directive.charAt(name.length()) == '=');
+    }
+}
@@ -0,0 +1,79 @@
+package com.sss.apate.cache;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 响应缓存配置
+ *
+ * @author sss
+ */
+@Component
+@ConfigurationProperties(prefix = "apate.cache")
+public class ResponseCacheProperties {
+    /**
+     * 是否开启响应缓存，默认关闭
+     */
+    private Boolean enabled = false;
+    /**
+     * 缓存占用的最大字节数
+     */
+    private DataSize maxSize = DataSize.ofMegabytes(64);
+    /**
+     * 单个响应超过该大小时不缓存
+     */
+    private DataSize maxEntrySize = DataSize.ofMegabytes(1);
+    /**
+     * 默认缓存时间，同时是上游 Cache-Control max-age 的上限
+     */
+    private Duration ttl = Duration.ofSeconds(60);
+    /**
+     * 按服务覆盖缓存时间，为 0 时该服务不缓存
+     */
+    private Map<String, Duration> services = new HashMap<>();
+
+    public Boolean getEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(Boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public DataSize getMaxSize() {
+        return maxSize;
+    }
+
+    public void setMaxSize(DataSize maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public DataSize getMaxEntrySize() {
+        return maxEntrySize;
+    }
+
+    public void setMaxEntrySize(DataSize maxEntrySize) {
+        this.maxEntrySize = maxEntrySize;
+    }
+
+    public Duration getTtl() {
+        return ttl;
+    }
+
+    public void setTtl(Duration ttl) {
+        this.ttl = ttl;
+    }
+
+    public Map<String, Duration> getServices() {
+        return services;
+    }
+
+    public void setServices(Map<String, Duration> services) {
+        this.services = services;
+    }
+}
@@ -0,0 +1,182 @@
+package com.sss.apate.cache;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoProcessor;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 请求合并（single-flight）
+ * <p>
+ * 并发的相同 GET 请求只有第一个（leader）访问上游，其余请求（follower）等待 leader 的未加密结果，
+ * 再各自按所在路由的密钥加密返回。只分发 200 的结果，leader 失败、上游返回其他状态码、没有结果或等待超时时，
+ * follower 自行请求上游
+ *
+ * @author sss
+ */
+@Component
+public class UpstreamCoalescer {
+
+    /**
+     * 关闭状态的实例，供未注入配置的场景使用
+     */
+    public static final UpstreamCoalescer DISABLED = new UpstreamCoalescer(new CoalesceProperties(), new CompositeMeterRegistry());
+
+    private final CoalesceProperties properties;
+
+    private final ConcurrentMap<RequestKey, Flight> flights = new ConcurrentHashMap<>();
+
+    private final Counter leaders;
+
+    private final Counter followers;
+
+    private final Counter fallbacks;
+
+    public UpstreamCoalescer(CoalesceProperties properties, MeterRegistry registry) {
+        this.properties = properties;
+        this.leaders = counter(registry, "leader");
+        this.followers = counter(registry, "follower");
+        this.fallbacks = counter(registry, "fallback");
+    }
+
+    private static Counter counter(MeterRegistry registry, String role) {
+        return Counter.builder("apate.proxy.coalesce")
+                .description("请求合并次数")
+                .tag("role", role)
+                .register(registry);
+    }
+
+    public boolean isEnabled() {
+        return Boolean.TRUE.equals(properties.getEnabled());
+    }
+
+    /**
+     * 加入相同 key 的请求；没有进行中的请求时成为 leader
+     *
+     * @param key
+     * @return
+     */
+    public Flight join(RequestKey key) {
+        Flight flight = new Flight(key, MonoProcessor.create(), true);
+        Flight existing = flights.putIfAbsent(key, flight);
+        if (existing == null) {
+            leaders.increment();
+            return flight;
+        }
+
+        followers.increment();
+        return new Flight(key, existing.result, false);
+    }
+
+    /**
+     * 一次合并的上游请求
+     */
+    public class Flight {
+
+        private final RequestKey key;
+
+        private final MonoProcessor<Result> result;
+
+        private final boolean leader;
+
+        private final AtomicBoolean done = new AtomicBoolean();
+
+        Flight(RequestKey key, MonoProcessor<Result> result, boolean leader) {
+            this.key = key;
+            this.result = result;
+            this.leader = leader;
+        }
+
+        public boolean isLeader() {
+            return leader;
+        }
+
+        /**
+         * leader 拿到上游未加密的响应后分发给 follower，非 200 的响应不分发，leader 结束时 follower 自行请求
+         *
+         * @param status
+         * @param headers         上游响应头，不含 Content-Length、Transfer-Encoding 和 Content-Encoding
+         * @param body
+         * @param contentEncoding body 的压缩方式，明文时为 null
+         */
+        public void complete(HttpStatus status, HttpHeaders headers, byte[] body, @Nullable String contentEncoding) {
+            if (leader && status == HttpStatus.OK && done.compareAndSet(false, true)) {
+                flights.remove(key, this);
+                result.onNext(new Result(status, headers, body, contentEncoding));
+            }
+        }
+
+        /**
+         * leader 结束时调用，未分发结果时通知 follower 自行请求
+         */
+        public void finish() {
+            if (leader && done.compareAndSet(false, true)) {
+                flights.remove(key, this);
+                result.onError(new IllegalStateException("leader finished without response"));
+            }
+        }
+
+        /**
+         * follower 等待 leader 的结果
+         *
+         * @return leader 失败或超时时为空
+         */
+        public Mono<Result> await() {
+            return result.timeout(properties.getMaxWait())
+                    .onErrorResume(e -> {
+                        fallbacks.increment();
+                        return Mono.empty();
+                    });
+        }
+    }
+
+    /**
+     * leader 的上游结果
+     */
+    public static class Result {
+
+        private final HttpStatus status;
+
+        private final HttpHeaders headers;
+
+        private final byte[] body;
+
+        private final String contentEncoding;
+
+        public Result(HttpStatus status, HttpHeaders headers, byte[] body, @Nullable String contentEncoding) {
+            this.status = status;
+            this.headers = HttpHeaders.readOnlyHttpHeaders(headers);
+            this.body = body;
+            this.contentEncoding = contentEncoding;
+        }
+
+        public HttpStatus getStatus() {
+            return status;
+        }
+
+        /**
+         * @return leader 收到的上游响应头，follower 原样写出
+         */
+        public HttpHeaders getHeaders() {
+            return headers;
+        }
+
+        public byte[] getBody() {
+            return body;
+        }
+
+        @Nullable
+        public String getContentEncoding() {
+            return contentEncoding;
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package com.sss.apate.client;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 按 service 隔离的后端连接池配置
+ *
+ * @author sss
+ */
+@Component
+@ConfigurationProperties(prefix = "apate.client")
+public class ServiceClientProperties {
+    /**
+     * 是否为每个 service 使用独立连接池，默认关闭（所有后端共用网关的连接池）
+     */
+    private Boolean enabled = false;
+    /**
+     * 各 service 的默认配置
+     */
+    private Pool defaults = Pool.defaults();
+    /**
+     * 按 service 覆盖的配置，未设置的项取 defaults
+     */
+    private Map<String, Pool> services = new HashMap<>();
+
+    /**
+     * 合并 service 的配置和默认配置
+     *
+     * @param service
+     * @return
+     */
+    public Pool resolve(String service) {
+        Pool pool = services.get(service);
+        if (pool == null) {
+            return defaults;
+        }
+
+        Pool resolved = new Pool();
+        resolved.setMaxConnections(pool.maxConnections != null ? pool.maxConnections : defaults.maxConnections);
+        resolved.setPendingAcquireMaxCount(pool.pendingAcquireMaxCount != null ? pool.pendingAcquireMaxCount : defaults.pendingAcquireMaxCount);
+        resolved.setAcquireTimeout(pool.acquireTimeout != null ? pool.acquireTimeout : defaults.acquireTimeout);
+        resolved.setMaxIdleTime(pool.maxIdleTime != null ? pool.maxIdleTime : defaults.maxIdleTime);
+        resolved.setMaxLifeTime(pool.maxLifeTime != null ? pool.maxLifeTime : defaults.maxLifeTime);
+        resolved.setEvictInterval(pool.evictInterval != null ? pool.evictInterval : defaults.evictInterval);
+        resolved.setKeepAlive(pool.keepAlive != null ? pool.keepAlive : defaults.keepAlive);
+        resolved.setH2c(pool.h2c != null ? pool.h2c : defaults.h2c);
+
+        return resolved;
+    }
+
+    public Boolean getEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(Boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public Pool getDefaults() {
+        return defaults;
+    }
+
+    public void setDefaults(Pool defaults) {
+        this.defaults = defaults;
+    }
+
+    public Map<String, Pool> getServices() {
+        return services;
+    }
+
+    public void setServices(Map<String, Pool> services) {
+        this.services = services;
+    }
+
+    /**
+     * 连接池配置
+     */
+    public static class Pool {
+        /**
+         * 每个后端实例的最大连接数
+         */
+        private Integer maxConnections;
+        /**
+         * 等待连接的最大请求数，超过时直接失败；-1 为不限制
+         */
+        private Integer pendingAcquireMaxCount;
+        /**
+         * 等待空闲连接的最长时间
+         */
+        private Duration acquireTimeout;
+        /**
+         * 连接空闲超过该时间后关闭
+         */
+        private Duration maxIdleTime;
+        /**
+         * 连接最长使用时间，为空时不限制
+         */
+        private Duration maxLifeTime;
+        /**
+         * 后台清理空闲、过期连接的间隔，为空时只在取连接时检查
+         */
+        private Duration evictInterval;
+        /**
+         * 是否复用连接（HTTP keep-alive）
+         */
+        private Boolean keepAlive;
+        /**
+         * 是否使用 HTTP/2 明文（h2c）访问后端，通过 HTTP/1.1 Upgrade 协商，后端不支持时仍使用 HTTP/1.1
+         */
+        private Boolean h2c;
+
+        static Pool defaults() {
+            Pool pool = new Pool();
+            pool.setMaxConnections(200);
+            pool.setPendingAcquireMaxCount(-1);
+            pool.setAcquireTimeout(Duration.ofSeconds(5));
+            pool.setMaxIdleTime(Duration.ofSeconds(30));
+            pool.setEvictInterval(Duration.ofSeconds(30));
+            pool.setKeepAlive(true);
+            pool.setH2c(false);
+
+            return pool;
+        }
+
+        public Integer getMaxConnections() {
+            return maxConnections;
+        }
+
+        public void setMaxConnections(Integer maxConnections) {
+            this.maxConnections = maxConnections;
+        }
+
+        public Integer getPendingAcquireMaxCount() {
+            return pendingAcquireMaxCount;
+        }
+
+        public void setPendingAcquireMaxCount(Integer pendingAcquireMaxCount) {
+            this.pendingAcquireMaxCount = pendingAcquireMaxCount;
+        }
+
+        public Duration getAcquireTimeout() {
+            return acquireTimeout;
+        }
+
+        public void setAcquireTimeout(Duration acquireTimeout) {
+            this.acquireTimeout = acquireTimeout;
+        }
+
+        public Duration getMaxIdleTime() {
+            return maxIdleTime;
+        }
+
+        public void setMaxIdleTime(Duration maxIdleTime) {
+            this.maxIdleTime = maxIdleTime;
+        }
+
+        public Duration getMaxLifeTime() {
+            return maxLifeTime;
+        }
+
+        public void setMaxLifeTime(Duration maxLifeTime) {
+            this.maxLifeTime = maxLifeTime;
+        }
+
+        public Duration getEvictInterval() {
+            return evictInterval;
+        }
+
+        public void setEvictInterval(Duration evictInterval) {
+            this.evictInterval = evictInterval;
+        }
+
+        public Boolean getKeepAlive() {
+            return keepAlive;
+        }
+
+        public void setKeepAlive(Boolean keepAlive) {
+            this.keepAlive = keepAlive;
+        }
+
+        public Boolean getH2c() {
+            return h2c;
+        }
+
+        public void setH2c(Boolean h2c) {
+            this.h2c = h2c;
+        }
+    }
+}
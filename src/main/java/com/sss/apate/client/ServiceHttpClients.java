@@ -0,0 +1,201 @@
+package com.sss.apate.client;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import io.netty.channel.ChannelOption;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.ssl.util.InsecureTrustManagerFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cloud.gateway.config.HttpClientProperties;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+import reactor.netty.tcp.ProxyProvider;
+
+import java.security.cert.X509Certificate;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按 service 隔离的后端 HttpClient
+ * <p>
+ * 每个 service 一个 ConnectionProvider（内部再按实例地址分池），慢服务占满连接时不影响其他服务。
+ * 与网关默认的 HttpClient 一样应用 spring.cloud.gateway.httpclient 的连接超时、代理、ssl、响应头大小和 wiretap 配置，
+ * 只有连接池不同；HttpClientCustomizer 不作用于这些 HttpClient。
+ * 连接池占用由 reactor-netty 导出为 reactor_netty_connection_provider_*，取连接耗时记为 apate.client.acquire
+ *
+ * @author sss
+ */
+@Component
+@Slf4j
+public class ServiceHttpClients implements DisposableBean {
+
+    /**
+     * 关闭状态的实例，供未注入配置的场景使用
+     */
+    public static final ServiceHttpClients DISABLED = new ServiceHttpClients(new ServiceClientProperties(), null, new CompositeMeterRegistry());
+
+    private final ServiceClientProperties properties;
+
+    private final HttpClientProperties gatewayProperties;
+
+    private final MeterRegistry registry;
+
+    private final ConcurrentMap<String, HttpClient> clients = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, ConnectionProvider> providers = new ConcurrentHashMap<>();
+
+    @Autowired
+    public ServiceHttpClients(ServiceClientProperties properties, @Nullable HttpClientProperties gatewayProperties,
+                              MeterRegistry registry) {
+        this.properties = properties;
+        this.gatewayProperties = gatewayProperties;
+        this.registry = registry;
+    }
+
+    public boolean isEnabled() {
+        return Boolean.TRUE.equals(properties.getEnabled());
+    }
+
+    /**
+     * 获取 service 的 HttpClient
+     *
+     * @param service
+     * @return 未开启时为空，使用网关默认的 HttpClient
+     */
+    @Nullable
+    public HttpClient get(String service) {
+        if (!isEnabled() || service == null) {
+            return null;
+        }
+
+        return clients.computeIfAbsent(service, this::create);
+    }
+
+    private HttpClient create(String service) {
+        ServiceClientProperties.Pool pool = properties.resolve(service);
+
+        ConnectionProvider.Builder builder = ConnectionProvider.builder("apate-" + service)
+                .maxConnections(pool.getMaxConnections())
+                .pendingAcquireMaxCount(pool.getPendingAcquireMaxCount())
+                .pendingAcquireTimeout(pool.getAcquireTimeout())
+                .maxIdleTime(pool.getMaxIdleTime())
+                .metrics(true);
+        if (pool.getMaxLifeTime() != null) {
+            builder.maxLifeTime(pool.getMaxLifeTime());
+        }
+        if (pool.getEvictInterval() != null) {
+            builder.evictInBackground(pool.getEvictInterval());
+        }
+        ConnectionProvider provider = builder.build();
+        providers.put(service, provider);
+
+        Timer acquire = Timer.builder("apate.client.acquire")
+                .description("取得后端连接的耗时，包含新建连接")
+                .tag("service", service)
+                .publishPercentileHistogram()
+                .register(registry);
+
+        // reactor-netty 0.9 的客户端不支持 h2c prior knowledge，需要同时声明 HTTP/1.1 走 Upgrade
+        HttpClient client = HttpClient.create(provider)
+                .keepAlive(pool.getKeepAlive())
+                .protocol(Boolean.TRUE.equals(pool.getH2c())
+                        ? new HttpProtocol[]{HttpProtocol.H2C, HttpProtocol.HTTP11} : new HttpProtocol[]{HttpProtocol.HTTP11})
+                .mapConnect((connection, bootstrap) -> Mono.defer(() -> {
+                    long start = System.nanoTime();
+                    return connection.doOnNext(c -> acquire.record(System.nanoTime() - start, TimeUnit.NANOSECONDS));
+                }));
+        if (gatewayProperties != null) {
+            client = configure(client, gatewayProperties);
+        }
+        log.info("service http client created. service: {}, maxConnections: {}, h2c: {}",
+                service, pool.getMaxConnections(), pool.getH2c());
+
+        return client;
+    }
+
+    /**
+     * 与 GatewayAutoConfiguration 创建网关 HttpClient 时的配置一致
+     *
+     * @param client
+     * @param gateway spring.cloud.gateway.httpclient
+     * @return
+     */
+    static HttpClient configure(HttpClient client, HttpClientProperties gateway) {
+        if (gateway.getMaxHeaderSize() != null || gateway.getMaxInitialLineLength() != null) {
+            client = client.httpResponseDecoder(spec -> {
+                if (gateway.getMaxHeaderSize() != null) {
+                    spec.maxHeaderSize((int) gateway.getMaxHeaderSize().toBytes());
+                }
+                if (gateway.getMaxInitialLineLength() != null) {
+                    spec.maxInitialLineLength((int) gateway.getMaxInitialLineLength().toBytes());
+                }
+                return spec;
+            });
+        }
+
+        HttpClientProperties.Proxy proxy = gateway.getProxy();
+        client = client.tcpConfiguration(tcp -> {
+            if (gateway.getConnectTimeout() != null) {
+                tcp = tcp.option(ChannelOption.CONNECT_TIMEOUT_MILLIS, gateway.getConnectTimeout());
+            }
+            if (StringUtils.hasText(proxy.getHost())) {
+                tcp = tcp.proxy(spec -> {
+                    ProxyProvider.Builder builder = spec.type(ProxyProvider.Proxy.HTTP).host(proxy.getHost());
+                    if (proxy.getPort() != null) {
+                        builder.port(proxy.getPort());
+                    }
+                    if (StringUtils.hasText(proxy.getUsername())) {
+                        builder.username(proxy.getUsername());
+                    }
+                    if (StringUtils.hasText(proxy.getPassword())) {
+                        builder.password(username -> proxy.getPassword());
+                    }
+                    if (StringUtils.hasText(proxy.getNonProxyHostsPattern())) {
+                        builder.nonProxyHosts(proxy.getNonProxyHostsPattern());
+                    }
+                });
+            }
+            return tcp;
+        });
+
+        HttpClientProperties.Ssl ssl = gateway.getSsl();
+        if (StringUtils.hasLength(ssl.getKeyStore()) || ssl.getTrustedX509CertificatesForTrustManager().length > 0
+                || ssl.isUseInsecureTrustManager()) {
+            client = client.secure(spec -> {
+                SslContextBuilder builder = SslContextBuilder.forClient();
+                X509Certificate[] trusted = ssl.getTrustedX509CertificatesForTrustManager();
+                if (trusted.length > 0) {
+                    builder.trustManager(trusted);
+                } else if (ssl.isUseInsecureTrustManager()) {
+                    builder.trustManager(InsecureTrustManagerFactory.INSTANCE);
+                }
+                try {
+                    builder.keyManager(ssl.getKeyManagerFactory());
+                } catch (Exception e) {
+                    log.error("load gateway key store error", e);
+                }
+                spec.sslContext(builder)
+                        .defaultConfiguration(ssl.getDefaultConfigurationType())
+                        .handshakeTimeout(ssl.getHandshakeTimeout())
+                        .closeNotifyFlushTimeout(ssl.getCloseNotifyFlushTimeout())
+                        .closeNotifyReadTimeout(ssl.getCloseNotifyReadTimeout());
+            });
+        }
+
+        return gateway.isWiretap() ? client.wiretap(true) : client;
+    }
+
+    @Override
+    public void destroy() {
+        providers.values().forEach(ConnectionProvider::dispose);
+    }
+}
@@ -0,0 +1,103 @@
+package com.sss.apate.codec;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 请求、响应的信封格式，按请求的 Content-Type 协商，响应与请求使用同一种格式
+ * <p>
+ * TEXT 为原有格式：json 加密后 base64；BINARY 直接传输密文字节，ProxyConfig 使用 CBOR 编码，
+ * 省去 base64 带来的 1/3 膨胀和字符串处理。
+ *
+ * @author sss
+ */
+public enum Envelope {
+
+    /**
+     * json，密文 base64，响应 text/plain
+     */
+    TEXT(MediaType.TEXT_PLAIN),
+
+    /**
+     * CBOR，密文不编码，响应 application/octet-stream
+     */
+    BINARY(MediaType.APPLICATION_OCTET_STREAM);
+
+    /**
+     * 不加密时 BINARY 信封的请求 Content-Type
+     */
+    public static final MediaType APPLICATION_CBOR = MediaType.valueOf("application/cbor");
+
+    private final MediaType mediaType;
+
+    Envelope(MediaType mediaType) {
+        this.mediaType = mediaType;
+    }
+
+    /**
+     * 根据请求头确定信封格式，Content-Type 为 application/octet-stream 或 application/cbor 时为 BINARY
+     *
+     * @param headers 请求头
+     * @return
+     */
+    public static Envelope of(HttpHeaders headers) {
+        MediaType contentType;
+        try {
+            contentType = headers.getContentType();
+        } catch (InvalidMediaTypeException e) {
+            return TEXT;
+        }
+
+        if (contentType != null && (contentType.equalsTypeAndSubtype(MediaType.APPLICATION_OCTET_STREAM)
+                || contentType.equalsTypeAndSubtype(APPLICATION_CBOR))) {
+            return BINARY;
+        }
+
+        return TEXT;
+    }
+
+    /**
+     * 响应的 Content-Type
+     *
+     * @return
+     */
+    public MediaType getMediaType() {
+        return mediaType;
+    }
+
+    /**
+     * 创建读写该格式的 ObjectMapper
+     *
+     * @return
+     */
+    public ObjectMapper newMapper() {
+        return this == BINARY ? new ObjectMapper(new CBORFactory()) : new ObjectMapper();
+    }
+
+    /**
+     * 明文是否为数组（批量请求），不改变 body 的 position
+     *
+     * @param body 明文
+     * @return
+     */
+    public boolean isArray(ByteBuffer body) {
+        if (this == BINARY) {
+            // CBOR major type 4 为数组
+            return body.hasRemaining() && (body.get(body.position()) & 0xE0) == 0x80;
+        }
+
+        for (int i = body.position(); i < body.limit(); i++) {
+            byte b = body.get(i);
+            if (b != ' ' && b != '\t' && b != '\r' && b != '\n') {
+                return b == '[';
+            }
+        }
+
+        return false;
+    }
+}
@@ -0,0 +1,22 @@
+package com.sss.apate.crypto;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * AES/CTR/NoPadding，无填充，大报文分块并行加解密
+ *
+ * @author sss
+ */
+public class AesCtrCipherSuite implements CipherSuite {
+
+    @Override
+    public List<String> names() {
+        return Collections.singletonList("AES-CTR");
+    }
+
+    @Override
+    public CipherEngine newEngine(byte[] key) {
+        return new AesCtrCipherEngine(key);
+    }
+}
@@ -0,0 +1,119 @@
+package com.sss.apate.crypto;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * AES/ECB/PKCS5Padding 加解密引擎
+ * <p>
+ * 密钥只在构造时解析一次；每个线程持有自己已经 init 过的 {@link Cipher}，
+ * ECB 模式下 doFinal 之后 cipher 会回到 init 后的状态，因此热路径上无需再次 init，也没有锁竞争。
+ *
+ * @author sss
+ */
+public class AesEcbCipherEngine implements CipherEngine {
+
+    /**
+     * 参数分别代表 算法名称/加密模式/数据填充方式
+     */
+    public static final String TRANSFORMATION = "AES/ECB/PKCS5Padding";
+
+    /**
+     * 流式加密 cipher 池上限
+     */
+    private static final int STREAM_POOL_SIZE = 64;
+
+    private final SecretKeySpec key;
+
+    private final ThreadLocal<Cipher> encryptors;
+
+    private final ThreadLocal<Cipher> decryptors;
+
+    /**
+     * 流式加密跨越多个 DataBuffer，可能在不同线程上继续，所以不能用 ThreadLocal，改为池化
+     */
+    private final Queue<Cipher> streamCiphers = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger streamPoolSize = new AtomicInteger();
+
+    public AesEcbCipherEngine(String key) {
+        this(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public AesEcbCipherEngine(byte[] key) {
+        this.key = new SecretKeySpec(key, "AES");
+        // 提前校验密钥，避免错误配置拖到第一个请求才暴露
+        newCipher(Cipher.ENCRYPT_MODE);
+        this.encryptors = ThreadLocal.withInitial(() -> newCipher(Cipher.ENCRYPT_MODE));
+        this.decryptors = ThreadLocal.withInitial(() -> newCipher(Cipher.DECRYPT_MODE));
+    }
+
+    @Override
+    public byte[] encrypt(byte[] content) throws GeneralSecurityException {
+        return encryptors.get().doFinal(content);
+    }
+
+    @Override
+    public byte[] decrypt(byte[] content) throws GeneralSecurityException {
+        return decryptors.get().doFinal(content);
+    }
+
+    /**
+     * base64 解码和解密都在线程内复用的缓冲区上完成，不产生中间数组。
+     * 前半段放解码结果，后半段放明文；两段不重叠，JCE 不会为 in-place 再复制一次输入
+     */
+    @Override
+    public ByteBuffer decryptFromBase64(ByteBuffer content) throws GeneralSecurityException {
+        int maxLength = Base64Buffers.maxDecodedLength(content.remaining());
+        byte[] buffer = ScratchBuffers.get(maxLength * 2);
+        int decoded = Base64Buffers.decode(content, buffer);
+        int length = decryptors.get().doFinal(buffer, 0, decoded, buffer, decoded);
+        return ByteBuffer.wrap(buffer, decoded, length);
+    }
+
+    /**
+     * 密文直接在线程内复用的缓冲区上解密，明文不会比密文长
+     */
+    @Override
+    public ByteBuffer decrypt(ByteBuffer content) throws GeneralSecurityException {
+        byte[] buffer = ScratchBuffers.get(content.remaining());
+        int length = decryptors.get().doFinal(content.duplicate(), ByteBuffer.wrap(buffer));
+        return ByteBuffer.wrap(buffer, 0, length);
+    }
+
+    @Override
+    public EncryptStream newEncryptStream(boolean base64) {
+        Cipher cipher = streamCiphers.poll();
+        if (cipher == null) {
+            cipher = newCipher(Cipher.ENCRYPT_MODE);
+        } else {
+            streamPoolSize.decrementAndGet();
+        }
+
+        return new EncryptStream(cipher, base64, this::recycle);
+    }
+
+    private void recycle(Cipher cipher) {
+        if (streamPoolSize.incrementAndGet() <= STREAM_POOL_SIZE) {
+            streamCiphers.offer(cipher);
+        } else {
+            streamPoolSize.decrementAndGet();
+        }
+    }
+
+    private Cipher newCipher(int mode) {
+        try {
+            Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+            cipher.init(mode, key);
+            return cipher;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("init cipher error. transformation: " + TRANSFORMATION, e);
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.sss.apate.crypto;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * AES/ECB/PKCS5Padding，原有的加密方式，保持兼容
+ *
+ * @author sss
+ */
+public class AesEcbCipherSuite implements CipherSuite {
+
+    @Override
+    public List<String> names() {
+        return Arrays.asList("AES", "AES-ECB");
+    }
+
+    @Override
+    public CipherEngine newEngine(byte[] key) {
+        return new AesEcbCipherEngine(key);
+    }
+}
@@ -0,0 +1,29 @@
+package com.sss.apate.crypto;
+
+import javax.crypto.spec.GCMParameterSpec;
+import java.security.spec.AlgorithmParameterSpec;
+
+/**
+ * AES/GCM/NoPadding 加解密引擎
+ * <p>
+ * 密文格式为 12 字节 IV + 密文 + 16 字节认证标签，解密时校验标签，被篡改的报文直接失败。
+ *
+ * @author sss
+ */
+public class AesGcmCipherEngine extends IvCipherEngine {
+
+    public static final String TRANSFORMATION = "AES/GCM/NoPadding";
+
+    public static final int IV_LENGTH = 12;
+
+    public static final int TAG_BITS = 128;
+
+    public AesGcmCipherEngine(byte[] key) {
+        super(TRANSFORMATION, IV_LENGTH, key);
+    }
+
+    @Override
+    protected AlgorithmParameterSpec parameterSpec(byte[] iv, int offset) {
+        return new GCMParameterSpec(TAG_BITS, iv, offset, IV_LENGTH);
+    }
+}
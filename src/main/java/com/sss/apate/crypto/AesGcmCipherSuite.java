@@ -0,0 +1,22 @@
+package com.sss.apate.crypto;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * AES/GCM/NoPadding，带认证，HotSpot 上由 AES-NI 和 CLMUL 指令加速
+ *
+ * @author sss
+ */
+public class AesGcmCipherSuite implements CipherSuite {
+
+    @Override
+    public List<String> names() {
+        return Collections.singletonList("AES-GCM");
+    }
+
+    @Override
+    public CipherEngine newEngine(byte[] key) {
+        return new AesGcmCipherEngine(key);
+    }
+}
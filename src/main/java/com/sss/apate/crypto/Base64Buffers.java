@@ -0,0 +1,79 @@
+package com.sss.apate.crypto;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * 直接在 ByteBuffer 上做 base64 解码，避免先转成 String 或 byte[]
+ * <p>
+ * 与 commons-codec 一样宽松：忽略换行、空白等非字母表字符，同时兼容 URL-safe 字母表，遇到 '=' 结束。
+ *
+ * @author sss
+ */
+public final class Base64Buffers {
+
+    private static final byte[] DECODE_TABLE = new byte[128];
+
+    static {
+        Arrays.fill(DECODE_TABLE, (byte) -1);
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        for (int i = 0; i < alphabet.length(); i++) {
+            DECODE_TABLE[alphabet.charAt(i)] = (byte) i;
+        }
+        DECODE_TABLE['-'] = 62;
+        DECODE_TABLE['_'] = 63;
+    }
+
+    private Base64Buffers() {
+    }
+
+    /**
+     * 解码后的最大长度
+     *
+     * @param encodedLength base64 长度
+     * @return
+     */
+    public static int maxDecodedLength(int encodedLength) {
+        return (encodedLength + 3) / 4 * 3;
+    }
+
+    /**
+     * 解码，不改变 src 的 position
+     *
+     * @param src base64
+     * @param dst 输出，长度至少为 {@link #maxDecodedLength(int)}
+     * @return 写入 dst 的字节数
+     */
+    public static int decode(ByteBuffer src, byte[] dst) {
+        int length = 0;
+        int bits = 0;
+        int count = 0;
+        for (int i = src.position(), limit = src.limit(); i < limit; i++) {
+            byte b = src.get(i);
+            if (b == '=') {
+                break;
+            }
+            if (b < 0 || DECODE_TABLE[b] < 0) {
+                continue;
+            }
+
+            bits = (bits << 6) | DECODE_TABLE[b];
+            if (++count == 4) {
+                dst[length++] = (byte) (bits >> 16);
+                dst[length++] = (byte) (bits >> 8);
+                dst[length++] = (byte) bits;
+                bits = 0;
+                count = 0;
+            }
+        }
+
+        if (count == 2) {
+            dst[length++] = (byte) (bits >> 4);
+        } else if (count == 3) {
+            dst[length++] = (byte) (bits >> 10);
+            dst[length++] = (byte) (bits >> 2);
+        }
+
+        return length;
+    }
+}
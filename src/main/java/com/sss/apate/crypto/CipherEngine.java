@@ -0,0 +1,104 @@
+package com.sss.apate.crypto;
+
+import org.apache.commons.codec.binary.Base64;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+/**
+ * 加解密引擎
+ * <p>
+ * 每个实例绑定一个已初始化的密钥，实现必须是线程安全的，可以被多个 event-loop 线程并发调用。
+ *
+ * @author sss
+ */
+public interface CipherEngine {
+
+    /**
+     * 加密
+     *
+     * @param content 明文
+     * @return 密文
+     * @throws GeneralSecurityException
+     */
+    byte[] encrypt(byte[] content) throws GeneralSecurityException;
+
+    /**
+     * 解密
+     *
+     * @param content 密文
+     * @return 明文
+     * @throws GeneralSecurityException
+     */
+    byte[] decrypt(byte[] content) throws GeneralSecurityException;
+
+    /**
+     * 开启一个输出 base64 的流式加密
+     *
+     * @return 流式加密，用完必须 close
+     */
+    default EncryptStream newEncryptStream() {
+        return newEncryptStream(true);
+    }
+
+    /**
+     * 开启一个流式加密
+     *
+     * @param base64 是否输出 base64，否则直接输出密文字节
+     * @return 流式加密，用完必须 close
+     */
+    EncryptStream newEncryptStream(boolean base64);
+
+    /**
+     * 加密并输出 base64
+     *
+     * @param content 明文
+     * @return base64 密文
+     * @throws GeneralSecurityException
+     */
+    default String encryptToBase64(byte[] content) throws GeneralSecurityException {
+        return Base64.encodeBase64String(encrypt(content));
+    }
+
+    /**
+     * 解密 base64 密文
+     *
+     * @param content base64 密文
+     * @return 明文
+     * @throws GeneralSecurityException
+     */
+    default byte[] decryptFromBase64(String content) throws GeneralSecurityException {
+        return decrypt(Base64.decodeBase64(content));
+    }
+
+    /**
+     * 直接解密 ByteBuffer 中的密文
+     * <p>
+     * 实现可以把结果写入线程内复用的缓冲区，返回值只保证在当前线程下一次调用前有效，调用方需要同步消费完。
+     *
+     * @param content 密文，position 不会被修改
+     * @return 明文
+     * @throws GeneralSecurityException
+     */
+    default ByteBuffer decrypt(ByteBuffer content) throws GeneralSecurityException {
+        byte[] bytes = new byte[content.remaining()];
+        content.duplicate().get(bytes);
+        return ByteBuffer.wrap(decrypt(bytes));
+    }
+
+    /**
+     * 直接解密 ByteBuffer 中的 base64 密文
+     * <p>
+     * 实现可以把结果写入线程内复用的缓冲区，返回值只保证在当前线程下一次调用前有效，调用方需要同步消费完。
+     *
+     * @param content base64 密文，position 不会被修改
+     * @return 明文
+     * @throws GeneralSecurityException
+     */
+    default ByteBuffer decryptFromBase64(ByteBuffer content) throws GeneralSecurityException {
+        byte[] decoded = new byte[Base64Buffers.maxDecodedLength(content.remaining())];
+        int length = Base64Buffers.decode(content, decoded);
+        return ByteBuffer.wrap(decrypt(Arrays.copyOf(decoded, length)));
+    }
+}
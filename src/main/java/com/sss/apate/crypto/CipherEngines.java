@@ -0,0 +1,52 @@
+package com.sss.apate.crypto;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 加解密引擎工厂
+ * <p>
+ * 按加密套件和密钥缓存引擎实例，同一个 encryptKey 在整个进程中只做一次密钥解析。
+ *
+ * @author sss
+ */
+public final class CipherEngines {
+
+    private static final ConcurrentMap<String, CipherEngine> ENGINES = new ConcurrentHashMap<>();
+
+    private CipherEngines() {
+    }
+
+    /**
+     * 获取密钥对应的默认套件（AES/ECB）引擎
+     *
+     * @param key 密钥
+     * @return 引擎
+     */
+    public static CipherEngine forKey(String key) {
+        return forKey(CipherSuites.DEFAULT, key);
+    }
+
+    /**
+     * 获取套件和密钥对应的引擎
+     *
+     * @param encrypt 套件名称，对应过滤器配置的 encrypt，为空时为默认套件
+     * @param key     密钥
+     * @return 引擎
+     */
+    public static CipherEngine forKey(String encrypt, String key) {
+        if (key == null) {
+            throw new IllegalArgumentException("encryptKey must not be null");
+        }
+
+        CipherSuite suite = CipherSuites.get(encrypt);
+        String cacheKey = suite.names().get(0) + ':' + key;
+        CipherEngine engine = ENGINES.get(cacheKey);
+        if (engine == null) {
+            engine = ENGINES.computeIfAbsent(cacheKey, k -> suite.newEngine(key.getBytes(StandardCharsets.UTF_8)));
+        }
+
+        return engine;
+    }
+}
@@ -0,0 +1,29 @@
+package com.sss.apate.crypto;
+
+import java.util.List;
+
+/**
+ * 加密套件 SPI
+ * <p>
+ * 过滤器配置的 encrypt 按名称选择套件，实现通过 {@code META-INF/services/com.sss.apate.crypto.CipherSuite} 注册，
+ * 由 {@link CipherSuites} 加载。
+ *
+ * @author sss
+ */
+public interface CipherSuite {
+
+    /**
+     * 套件名称，第一个为主名称，其余为别名，大小写不敏感
+     *
+     * @return
+     */
+    List<String> names();
+
+    /**
+     * 创建绑定密钥的引擎，密钥错误时直接抛出异常
+     *
+     * @param key 密钥
+     * @return 引擎
+     */
+    CipherEngine newEngine(byte[] key);
+}
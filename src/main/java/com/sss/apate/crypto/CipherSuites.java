@@ -0,0 +1,70 @@
+package com.sss.apate.crypto;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.Set;
+
+/**
+ * 加密套件注册表，启动时通过 {@link ServiceLoader} 加载全部 {@link CipherSuite}
+ *
+ * @author sss
+ */
+public final class CipherSuites {
+
+    /**
+     * 未配置 encrypt 时使用的套件，即原有的 AES/ECB/PKCS5Padding
+     */
+    public static final String DEFAULT = "AES";
+
+    private static final Map<String, CipherSuite> SUITES = load();
+
+    private CipherSuites() {
+    }
+
+    private static Map<String, CipherSuite> load() {
+        Map<String, CipherSuite> suites = new LinkedHashMap<>();
+        for (CipherSuite suite : ServiceLoader.load(CipherSuite.class, CipherSuites.class.getClassLoader())) {
+            for (String name : suite.names()) {
+                CipherSuite previous = suites.putIfAbsent(name.toUpperCase(Locale.ROOT), suite);
+                if (previous != null) {
+                    throw new IllegalStateException("duplicate cipher suite: " + name + ", " + previous.getClass().getName()
+                            + " and " + suite.getClass().getName());
+                }
+            }
+        }
+
+        return Collections.unmodifiableMap(suites);
+    }
+
+    /**
+     * 按名称获取套件
+     *
+     * @param name 为空时为 {@link #DEFAULT}
+     * @return
+     */
+    public static CipherSuite get(String name) {
+        CipherSuite suite = SUITES.get((name == null || name.isEmpty() ? DEFAULT : name).toUpperCase(Locale.ROOT));
+        if (suite == null) {
+            throw new IllegalArgumentException("unknown cipher suite: " + name + ", available: " + SUITES.keySet());
+        }
+
+        return suite;
+    }
+
+    /**
+     * 规范化的套件名称，别名返回主名称
+     *
+     * @param name 为空时为 {@link #DEFAULT}
+     * @return
+     */
+    public static String canonicalName(String name) {
+        return get(name).names().get(0);
+    }
+
+    public static Set<String> names() {
+        return SUITES.keySet();
+    }
+}
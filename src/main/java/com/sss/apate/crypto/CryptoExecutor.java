@@ -0,0 +1,112 @@
+package com.sss.apate.crypto;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.http.HttpStatus;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * 按报文大小选择加解密的执行位置
+ * <p>
+ * 小报文在当前线程（事件循环）直接处理；大报文移到有界的加解密线程池，避免几个大报文拖慢同一事件循环上的其他连接。
+ * 线程池排满时直接返回 503，不再继续排队
+ *
+ * @author sss
+ */
+@Component
+public class CryptoExecutor implements DisposableBean {
+
+    /**
+     * 始终在当前线程执行的实例，供未注入配置的场景使用
+     */
+    public static final CryptoExecutor INLINE = new CryptoExecutor(inlineProperties(), new CompositeMeterRegistry());
+
+    private final long offloadThreshold;
+
+    private final Scheduler scheduler;
+
+    private final Counter inline;
+
+    private final Counter offloaded;
+
+    private final Counter rejected;
+
+    public CryptoExecutor(CryptoProperties properties, MeterRegistry registry) {
+        this.offloadThreshold = properties.getOffloadThreshold().toBytes();
+        this.scheduler = offloadThreshold == Long.MAX_VALUE ? null
+                : Schedulers.newBoundedElastic(properties.getThreads(), properties.getQueueSize(), "apate-crypto");
+        this.inline = counter(registry, "inline");
+        this.offloaded = counter(registry, "offload");
+        this.rejected = counter(registry, "rejected");
+    }
+
+    private static Counter counter(MeterRegistry registry, String mode) {
+        return Counter.builder("apate.crypto.executions")
+                .description("加解密的执行方式")
+                .tag("mode", mode)
+                .register(registry);
+    }
+
+    /**
+     * 执行加解密
+     *
+     * @param size 报文字节数
+     * @param task 返回 null 时结果为空
+     * @param <T>
+     * @return 线程池排满时以 503 结束
+     */
+    public <T> Mono<T> execute(long size, Callable<T> task) {
+        return execute(size, task, null);
+    }
+
+    /**
+     * 执行加解密，offload 时完成后回到指定线程继续
+     *
+     * @param size     报文字节数
+     * @param task     返回 null 时结果为空
+     * @param resumeOn 后续操作符执行的线程，一般是请求所在的事件循环；为空时留在加解密线程池
+     * @param <T>
+     * @return 线程池排满时以 503 结束
+     */
+    public <T> Mono<T> execute(long size, Callable<T> task, @Nullable Executor resumeOn) {
+        if (scheduler == null || size < offloadThreshold) {
+            inline.increment();
+            return Mono.fromCallable(task);
+        }
+
+        offloaded.increment();
+        Mono<T> result = Mono.fromCallable(task)
+                .subscribeOn(scheduler)
+                .onErrorMap(RejectedExecutionException.class, e -> {
+                    rejected.increment();
+                    return new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "crypto executor saturated");
+                });
+        return resumeOn == null ? result : result.publishOn(Schedulers.fromExecutor(resumeOn));
+    }
+
+    @Override
+    public void destroy() {
+        if (scheduler != null) {
+            scheduler.dispose();
+        }
+    }
+
+    private static CryptoProperties inlineProperties() {
+        CryptoProperties properties = new CryptoProperties();
+        properties.setOffloadThreshold(DataSize.ofBytes(Long.MAX_VALUE));
+
+        return properties;
+    }
+}
@@ -0,0 +1,52 @@
+package com.sss.apate.crypto;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * 加解密执行配置
+ *
+ * @author sss
+ */
+@Component
+@ConfigurationProperties(prefix = "apate.crypto")
+public class CryptoProperties {
+    /**
+     * 不小于该大小的报文移到加解密线程池处理，较小的报文在事件循环线程直接处理。
+     * 聚合的响应体受路由 maxResponseSize 限制（未配置时为 256KB），阈值需要明显小于它才会有响应被 offload
+     */
+    private DataSize offloadThreshold = DataSize.ofKilobytes(64);
+    /**
+     * 加解密线程数
+     */
+    private Integer threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+    /**
+     * 每个线程的排队上限，排满后直接返回 503
+     */
+    private Integer queueSize = 64;
+
+    public DataSize getOffloadThreshold() {
+        return offloadThreshold;
+    }
+
+    public void setOffloadThreshold(DataSize offloadThreshold) {
+        this.offloadThreshold = offloadThreshold;
+    }
+
+    public Integer getThreads() {
+        return threads;
+    }
+
+    public void setThreads(Integer threads) {
+        this.threads = threads;
+    }
+
+    public Integer getQueueSize() {
+        return queueSize;
+    }
+
+    public void setQueueSize(Integer queueSize) {
+        this.queueSize = queueSize;
+    }
+}
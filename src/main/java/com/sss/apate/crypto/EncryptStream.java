@@ -0,0 +1,134 @@
+package com.sss.apate.crypto;
+
+import org.springframework.lang.Nullable;
+
+import javax.crypto.Cipher;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.function.Consumer;
+
+/**
+ * 流式加密
+ * <p>
+ * 逐块加密并增量输出 base64（或密文字节），拼接后的结果与一次性 {@link CipherEngine#encryptToBase64(byte[])}
+ * （或 {@link CipherEngine#encrypt(byte[])}）完全一致。
+ * 单个实例只服务一个响应，不是线程安全的；结束后必须调用 {@link #close()}。
+ *
+ * @author sss
+ */
+public class EncryptStream implements AutoCloseable {
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private static final Base64.Encoder ENCODER = Base64.getEncoder();
+
+    private final Cipher cipher;
+
+    private final Consumer<Cipher> recycler;
+
+    private final boolean base64;
+
+    /**
+     * 输出在密文之前的内容（例如 IV），随第一块输出
+     */
+    private byte[] prefix;
+
+    /**
+     * 上一块密文中不足 3 字节、尚未 base64 编码的部分
+     */
+    private final byte[] pending = new byte[2];
+
+    private int pendingLength;
+
+    private boolean finished;
+
+    private boolean closed;
+
+    public EncryptStream(Cipher cipher, Consumer<Cipher> recycler) {
+        this(cipher, true, recycler);
+    }
+
+    public EncryptStream(Cipher cipher, boolean base64, Consumer<Cipher> recycler) {
+        this(cipher, null, base64, recycler);
+    }
+
+    public EncryptStream(Cipher cipher, @Nullable byte[] prefix, boolean base64, Consumer<Cipher> recycler) {
+        this.cipher = cipher;
+        this.prefix = prefix;
+        this.base64 = base64;
+        this.recycler = recycler;
+    }
+
+    /**
+     * 加密一块明文
+     *
+     * @param input 明文
+     * @return 密文，可能为空
+     * @throws GeneralSecurityException
+     */
+    public byte[] update(ByteBuffer input) throws GeneralSecurityException {
+        byte[] out = new byte[cipher.getOutputSize(input.remaining())];
+        int length = cipher.update(input, ByteBuffer.wrap(out));
+        return encode(out, length, false);
+    }
+
+    /**
+     * 结束加密，输出最后一块（包含填充）
+     *
+     * @return 密文
+     * @throws GeneralSecurityException
+     */
+    public byte[] doFinal() throws GeneralSecurityException {
+        byte[] out = cipher.doFinal();
+        finished = true;
+        return encode(out, out.length, true);
+    }
+
+    /**
+     * 正常结束的 cipher 已回到 init 状态，可以交还复用；中途取消的直接丢弃
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (finished) {
+            recycler.accept(cipher);
+        }
+    }
+
+    private byte[] encode(byte[] bytes, int length, boolean last) {
+        if (prefix != null) {
+            byte[] joined = new byte[prefix.length + length];
+            System.arraycopy(prefix, 0, joined, 0, prefix.length);
+            System.arraycopy(bytes, 0, joined, prefix.length, length);
+            bytes = joined;
+            length = joined.length;
+            prefix = null;
+        }
+        if (!base64) {
+            return length == bytes.length ? bytes : Arrays.copyOf(bytes, length);
+        }
+
+        int total = pendingLength + length;
+        int encodable = last ? total : total - total % 3;
+        if (encodable == 0) {
+            System.arraycopy(bytes, 0, pending, pendingLength, length);
+            pendingLength = total;
+            return EMPTY;
+        }
+
+        byte[] chunk = new byte[encodable];
+        System.arraycopy(pending, 0, chunk, 0, pendingLength);
+        int consumed = encodable - pendingLength;
+        System.arraycopy(bytes, 0, chunk, pendingLength, consumed);
+
+        pendingLength = length - consumed;
+        System.arraycopy(bytes, consumed, pending, 0, pendingLength);
+
+        return ENCODER.encode(chunk);
+    }
+}
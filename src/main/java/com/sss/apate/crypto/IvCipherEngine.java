@@ -0,0 +1,154 @@
+package com.sss.apate.crypto;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 每条报文使用随机 IV 的加解密引擎
+ * <p>
+ * 密文格式为 IV + 密文，IV 由线程内的 SecureRandom 生成；每个线程持有自己的 {@link Cipher}，每条报文重新 init。
+ *
+ * @author sss
+ */
+public abstract class IvCipherEngine implements CipherEngine {
+
+    /**
+     * 流式加密 cipher 池上限
+     */
+    private static final int STREAM_POOL_SIZE = 64;
+
+    /**
+     * 每个线程一个 SecureRandom，避免 NativePRNG 的全局锁
+     */
+    private static final ThreadLocal<SecureRandom> RANDOM = ThreadLocal.withInitial(() -> {
+        try {
+            return SecureRandom.getInstance("SHA1PRNG");
+        } catch (NoSuchAlgorithmException e) {
+            return new SecureRandom();
+        }
+    });
+
+    private final String transformation;
+
+    private final int ivLength;
+
+    private final SecretKeySpec key;
+
+    private final ThreadLocal<Cipher> ciphers;
+
+    private final Queue<Cipher> streamCiphers = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger streamPoolSize = new AtomicInteger();
+
+    protected IvCipherEngine(String transformation, int ivLength, byte[] key) {
+        this.transformation = transformation;
+        this.ivLength = ivLength;
+        this.key = new SecretKeySpec(key, "AES");
+        // 提前校验密钥，避免错误配置拖到第一个请求才暴露
+        init(newCipher(), Cipher.ENCRYPT_MODE, nextIv(), 0);
+        this.ciphers = ThreadLocal.withInitial(this::newCipher);
+    }
+
+    /**
+     * IV 对应的算法参数
+     *
+     * @param iv
+     * @param offset IV 在数组中的起始位置
+     * @return
+     */
+    protected abstract AlgorithmParameterSpec parameterSpec(byte[] iv, int offset);
+
+    public int getIvLength() {
+        return ivLength;
+    }
+
+    @Override
+    public byte[] encrypt(byte[] content) throws GeneralSecurityException {
+        byte[] iv = nextIv();
+        Cipher cipher = init(ciphers.get(), Cipher.ENCRYPT_MODE, iv, 0);
+        byte[] out = new byte[ivLength + cipher.getOutputSize(content.length)];
+        System.arraycopy(iv, 0, out, 0, ivLength);
+        int length = cipher.doFinal(content, 0, content.length, out, ivLength);
+
+        return length + ivLength == out.length ? out : Arrays.copyOf(out, ivLength + length);
+    }
+
+    @Override
+    public byte[] decrypt(byte[] content) throws GeneralSecurityException {
+        if (content.length < ivLength) {
+            throw new GeneralSecurityException("ciphertext too short. length: " + content.length);
+        }
+
+        Cipher cipher = init(ciphers.get(), Cipher.DECRYPT_MODE, content, 0);
+        return cipher.doFinal(content, ivLength, content.length - ivLength);
+    }
+
+    @Override
+    public EncryptStream newEncryptStream(boolean base64) {
+        Cipher cipher = streamCiphers.poll();
+        if (cipher == null) {
+            cipher = newCipher();
+        } else {
+            streamPoolSize.decrementAndGet();
+        }
+
+        byte[] iv = nextIv();
+        return new EncryptStream(init(cipher, Cipher.ENCRYPT_MODE, iv, 0), iv, base64, this::recycle);
+    }
+
+    /**
+     * 生成新的随机 IV
+     *
+     * @return
+     */
+    protected byte[] nextIv() {
+        byte[] iv = new byte[ivLength];
+        RANDOM.get().nextBytes(iv);
+        return iv;
+    }
+
+    /**
+     * 用当前线程的 cipher 按给定 IV 初始化
+     *
+     * @param mode
+     * @param iv
+     * @param offset
+     * @return
+     */
+    protected Cipher threadCipher(int mode, byte[] iv, int offset) {
+        return init(ciphers.get(), mode, iv, offset);
+    }
+
+    private Cipher init(Cipher cipher, int mode, byte[] iv, int offset) {
+        try {
+            cipher.init(mode, key, parameterSpec(iv, offset));
+            return cipher;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("init cipher error. transformation: " + transformation, e);
+        }
+    }
+
+    private void recycle(Cipher cipher) {
+        if (streamPoolSize.incrementAndGet() <= STREAM_POOL_SIZE) {
+            streamCiphers.offer(cipher);
+        } else {
+            streamPoolSize.decrementAndGet();
+        }
+    }
+
+    private Cipher newCipher() {
+        try {
+            return Cipher.getInstance(transformation);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("create cipher error. transformation: " + transformation, e);
+        }
+    }
+}
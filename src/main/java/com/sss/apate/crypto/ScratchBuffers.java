@@ -0,0 +1,32 @@
+package com.sss.apate.crypto;
+
+/**
+ * 线程内复用的临时缓冲区
+ * <p>
+ * 只在同一线程的一次同步调用内有效；超过 {@link #MAX_RETAINED} 的缓冲区用完即丢，避免每个线程长期持有大数组。
+ *
+ * @author sss
+ */
+final class ScratchBuffers {
+
+    static final int MAX_RETAINED = 1024 * 1024;
+
+    private static final ThreadLocal<byte[]> BUFFERS = ThreadLocal.withInitial(() -> new byte[64 * 1024]);
+
+    private ScratchBuffers() {
+    }
+
+    static byte[] get(int size) {
+        byte[] buffer = BUFFERS.get();
+        if (buffer.length >= size) {
+            return buffer;
+        }
+
+        buffer = new byte[Math.max(size, buffer.length * 2)];
+        if (buffer.length <= MAX_RETAINED) {
+            BUFFERS.set(buffer);
+        }
+
+        return buffer;
+    }
+}
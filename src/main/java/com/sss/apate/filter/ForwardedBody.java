@@ -0,0 +1,59 @@
+package com.sss.apate.filter;
+
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import reactor.core.publisher.Flux;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 转发给后端的请求体
+ * <p>
+ * 参数直接写入池化的 DataBuffer，长度在写入时确定；buffer 只能被取走一次，交给 Netty 发送后由 Netty 释放，
+ * 请求未到达后端（命中缓存、限流、出错）时由 {@link #release()} 释放
+ *
+ * @author sss
+ */
+final class ForwardedBody {
+
+    private final AtomicReference<DataBuffer> buffer = new AtomicReference<>();
+
+    private volatile int contentLength;
+
+    void set(DataBuffer body) {
+        contentLength = body.readableByteCount();
+        DataBuffer previous = buffer.getAndSet(body);
+        if (previous != null) {
+            DataBufferUtils.release(previous);
+        }
+    }
+
+    /**
+     * @return 没有请求体时为 0
+     */
+    int getContentLength() {
+        return contentLength;
+    }
+
+    /**
+     * 订阅时取走 buffer，重复订阅得到空的请求体
+     *
+     * @return
+     */
+    Flux<DataBuffer> take() {
+        return Flux.defer(() -> {
+            DataBuffer body = buffer.getAndSet(null);
+            return body == null ? Flux.empty() : Flux.just(body);
+        });
+    }
+
+    /**
+     * 释放未被取走的 buffer
+     */
+    void release() {
+        DataBuffer body = buffer.getAndSet(null);
+        if (body != null) {
+            DataBufferUtils.release(body);
+        }
+    }
+}
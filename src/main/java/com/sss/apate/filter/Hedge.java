@@ -0,0 +1,155 @@
+package com.sss.apate.filter;
+
+import com.sss.apate.limit.RateLimiter;
+import com.sss.apate.route.ServiceGroup;
+import com.sss.apate.route.ServiceTarget;
+import com.sss.apate.timeout.ServiceTimeout;
+import org.springframework.lang.Nullable;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * 一次 GET 请求的对冲计划和竞争状态，由 ProxyRequest 放入 exchange，{@link ServiceRoutingFilter} 执行
+ * <p>
+ * 对冲的实例和 URI 在真正需要对冲时才选择、构建，大多数请求在对冲延迟内返回，不产生额外开销。
+ * 对冲实例的耗时由路由过滤器记录；原实例由 ProxyRequest 按 {@link #isHedgeWon()} 记为完成或取消。
+ * 对冲请求与原请求一样占用 service 的并发许可，取不到许可时不对冲，后端变慢时在途请求数不会超过并发上限
+ *
+ * @author sss
+ */
+final class Hedge {
+
+    private final ServiceTimeout timeout;
+
+    private final Duration delay;
+
+    private final ServiceGroup group;
+
+    private final ServiceTarget primary;
+
+    private final RateLimiter rateLimiter;
+
+    private final Function<ServiceTarget, URI> uri;
+
+    /**
+     * 是否已有请求收到响应头
+     */
+    private final AtomicBoolean decided = new AtomicBoolean();
+
+    /**
+     * 未结束的请求数，最后一个失败的请求才把错误传出去
+     */
+    private final AtomicInteger running = new AtomicInteger(1);
+
+    private volatile boolean sent;
+
+    private volatile boolean hedgeWon;
+
+    private volatile boolean primaryFailed;
+
+    Hedge(ServiceTimeout timeout, Duration delay, ServiceGroup group, ServiceTarget primary, RateLimiter rateLimiter,
+          Function<ServiceTarget, URI> uri) {
+        this.timeout = timeout;
+        this.delay = delay;
+        this.group = group;
+        this.primary = primary;
+        this.rateLimiter = rateLimiter;
+        this.uri = uri;
+    }
+
+    ServiceTimeout getTimeout() {
+        return timeout;
+    }
+
+    Duration getDelay() {
+        return delay;
+    }
+
+    /**
+     * @return 对冲请求的实例，优先选择原请求以外的实例
+     */
+    ServiceTarget chooseTarget() {
+        return group.chooseOther(primary);
+    }
+
+    /**
+     * 获取对冲请求的并发许可，请求结束后必须调用 {@link RateLimiter.Permit#release} 或 {@link RateLimiter.Permit#cancel}
+     *
+     * @return 超过并发上限时为空
+     */
+    @Nullable
+    RateLimiter.Permit tryAcquire() {
+        return rateLimiter.tryAcquire(group.getService());
+    }
+
+    /**
+     * @param target
+     * @return 对冲请求在该实例上的 URI
+     */
+    URI uri(ServiceTarget target) {
+        return uri.apply(target);
+    }
+
+    /**
+     * @return 是否已有请求收到响应头
+     */
+    boolean isDecided() {
+        return decided.get();
+    }
+
+    /**
+     * 对冲请求已发出
+     */
+    void sent() {
+        running.incrementAndGet();
+        sent = true;
+    }
+
+    /**
+     * 收到响应头，先到的胜出
+     *
+     * @param hedged 是否为对冲请求
+     * @return 落后时为 false
+     */
+    boolean claim(boolean hedged) {
+        if (!decided.compareAndSet(false, true)) {
+            return false;
+        }
+        if (sent) {
+            hedgeWon = hedged;
+            timeout.hedged(hedged);
+        }
+        return true;
+    }
+
+    /**
+     * 请求在收到响应头前失败
+     *
+     * @param hedged 是否为对冲请求
+     * @return 另一个请求仍在进行时为 true，等待它的结果
+     */
+    boolean failed(boolean hedged) {
+        if (!hedged) {
+            primaryFailed = true;
+        }
+        return running.decrementAndGet() > 0;
+    }
+
+    /**
+     * @return 响应是否来自对冲请求
+     */
+    boolean isHedgeWon() {
+        return hedgeWon;
+    }
+
+    /**
+     * @return 原请求是否在收到响应头前失败
+     */
+    boolean isPrimaryFailed() {
+        return primaryFailed;
+    }
+}
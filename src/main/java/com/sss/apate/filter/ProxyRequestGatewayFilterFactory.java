@@ -1,38 +1,82 @@
 package com.sss.apate.filter;
 
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.MapperFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.sss.apate.util.AESUtil;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
+import com.sss.apate.batch.BatchCall;
+import com.sss.apate.batch.BatchExecutor;
+import com.sss.apate.codec.Envelope;
+import com.sss.apate.crypto.CipherEngine;
+import com.sss.apate.crypto.CipherEngines;
+import com.sss.apate.crypto.CryptoExecutor;
+import com.sss.apate.key.ClientKey;
+import com.sss.apate.key.KeyRegistry;
+import com.sss.apate.limit.RateLimiter;
+import com.sss.apate.log.AccessLog;
+import com.sss.apate.log.PayloadSample;
+import com.sss.apate.metrics.ProxyMetrics;
+import com.sss.apate.metrics.ProxyTimings;
+import com.sss.apate.replay.ReplayGuard;
+import com.sss.apate.route.BalancerProperties;
+import com.sss.apate.route.ServiceGroup;
+import com.sss.apate.route.ServiceRegistry;
+import com.sss.apate.route.ServiceTable;
+import com.sss.apate.route.ServiceTarget;
+import com.sss.apate.timeout.AdaptiveTimeouts;
+import com.sss.apate.timeout.ServiceTimeout;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.cloud.gateway.filter.GatewayFilter;
 import org.springframework.cloud.gateway.filter.factory.AbstractGatewayFilterFactory;
-import org.springframework.cloud.gateway.filter.factory.rewrite.CachedBodyOutputMessage;
 import org.springframework.cloud.gateway.route.Route;
-import org.springframework.cloud.gateway.support.BodyInserterContext;
 import org.springframework.cloud.gateway.support.ServerWebExchangeUtils;
 import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferLimitException;
+import org.springframework.core.io.buffer.DataBufferUtils;
 import org.springframework.http.*;
 import org.springframework.http.codec.HttpMessageReader;
+import org.springframework.http.server.reactive.AbstractServerHttpRequest;
 import org.springframework.http.server.reactive.ServerHttpRequest;
 import org.springframework.http.server.reactive.ServerHttpRequestDecorator;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.lang.Nullable;
 import org.springframework.stereotype.Component;
-import org.springframework.web.reactive.function.BodyInserter;
-import org.springframework.web.reactive.function.BodyInserters;
 import org.springframework.web.reactive.function.server.HandlerStrategies;
-import org.springframework.web.reactive.function.server.ServerRequest;
 import org.springframework.web.server.ResponseStatusException;
 import org.springframework.web.server.ServerWebExchange;
-import org.springframework.web.util.UriComponentsBuilder;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+import reactor.netty.Connection;
 
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URI;
 import java.net.URLEncoder;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.GATEWAY_ROUTE_ATTR;
 
@@ -48,113 +92,857 @@ public class ProxyRequestGatewayFilterFactory extends AbstractGatewayFilterFacto
 
     public static final String CACHE_PROXY_REQUEST_BODY_OBJECT_KEY = "CPRBOK";
 
+    /**
+     * 本次请求的阶段耗时 {@link ProxyTimings}
+     */
+    public static final String PROXY_TIMINGS_ATTR = "PTA";
+
+    /**
+     * 批量请求在指标和访问日志中使用的 service
+     */
+    public static final String BATCH_SERVICE = "batch";
+
+    /**
+     * 本次请求转发的 service，路由时选择对应的连接池
+     */
+    public static final String PROXY_SERVICE_ATTR = "PSA";
+
+    /**
+     * 按客户端密钥解密时该客户端的 {@link CipherEngine}，响应使用同一个密钥加密
+     */
+    public static final String PROXY_CIPHER_ATTR = "PCA";
+
+    /**
+     * 按客户端密钥解密时响应缓存的隔离范围，见 {@link ClientKey#getScope()}
+     */
+    public static final String PROXY_KEY_SCOPE_ATTR = "PKSA";
+
+    /**
+     * 按客户端密钥识别出的客户端标识
+     */
+    public static final String PROXY_CLIENT_ATTR = "PCLA";
+
+    /**
+     * GET 请求的对冲计划 {@link Hedge}，由 {@link ServiceRoutingFilter} 执行
+     */
+    static final String PROXY_HEDGE_ATTR = "PHA";
+
+    /**
+     * 信封前缀中客户端标识的最大长度
+     */
+    private static final int MAX_CLIENT_PREFIX = 128;
+
+    /**
+     * 转发时由请求体重新设置的请求头，不计入请求摘要
+     */
+    private static final Set<String> DIGEST_IGNORED_HEADERS = new HashSet<>(Arrays.asList(
+            "content-length", "transfer-encoding", "content-type"));
+
+    private static final byte[] HEX_DIGITS = "0123456789ABCDEF".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * 表单编码时不需要转义的 ASCII 字符，空格单独转成 +
+     */
+    private static final boolean[] URL_SAFE = new boolean[128];
+
+    static {
+        for (char c = 'a'; c <= 'z'; c++) {
+            URL_SAFE[c] = true;
+        }
+        for (char c = 'A'; c <= 'Z'; c++) {
+            URL_SAFE[c] = true;
+        }
+        for (char c = '0'; c <= '9'; c++) {
+            URL_SAFE[c] = true;
+        }
+        for (char c : new char[]{' ', '-', '_', '.', '*'}) {
+            URL_SAFE[c] = true;
+        }
+    }
+
     private final List<HttpMessageReader<?>> messageReaders;
 
+    private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
     private final ObjectMapper mapper;
 
+    /**
+     * 读取 {@link Envelope#BINARY} 信封，CBOR 编码
+     */
+    private final ObjectMapper binaryMapper;
+
+    private final JavaType batchType;
+
+    /**
+     * 属性和 map 都按 key 排序，同样内容的 ProxyConfig 序列化结果一致
+     */
+    private final ObjectWriter canonicalWriter;
+
+    private final ProxyMetrics metrics;
+
+    private final AccessLog accessLog;
+
+    private final CryptoExecutor cryptoExecutor;
+
+    private final BatchExecutor batchExecutor;
+
+    private final BalancerProperties balancerProperties;
+
+    private final KeyRegistry keyRegistry;
+
+    private final ServiceRegistry serviceRegistry;
+
+    private final RateLimiter rateLimiter;
+
+    private final ReplayGuard replayGuard;
+
+    private final AdaptiveTimeouts adaptiveTimeouts;
+
     public ProxyRequestGatewayFilterFactory() {
         this(HandlerStrategies.withDefaults().messageReaders());
     }
 
     public ProxyRequestGatewayFilterFactory(List<HttpMessageReader<?>> messageReaders) {
+        this(messageReaders, ProxyMetrics.NOOP, AccessLog.DISABLED, CryptoExecutor.INLINE, BatchExecutor.DISABLED,
+                new BalancerProperties(), KeyRegistry.DISABLED, ServiceRegistry.DISABLED,
+                RateLimiter.DISABLED, ReplayGuard.DISABLED, AdaptiveTimeouts.DISABLED);
+    }
+
+    @Autowired
+    public ProxyRequestGatewayFilterFactory(ProxyMetrics metrics, AccessLog accessLog, CryptoExecutor cryptoExecutor,
+                                            BatchExecutor batchExecutor, BalancerProperties balancerProperties,
+                                            KeyRegistry keyRegistry, ServiceRegistry serviceRegistry,
+                                            RateLimiter rateLimiter, ReplayGuard replayGuard,
+                                            AdaptiveTimeouts adaptiveTimeouts) {
+        this(HandlerStrategies.withDefaults().messageReaders(), metrics, accessLog, cryptoExecutor, batchExecutor,
+                balancerProperties, keyRegistry, serviceRegistry, rateLimiter, replayGuard, adaptiveTimeouts);
+    }
+
+    public ProxyRequestGatewayFilterFactory(List<HttpMessageReader<?>> messageReaders, ProxyMetrics metrics,
+                                            AccessLog accessLog, CryptoExecutor cryptoExecutor,
+                                            BatchExecutor batchExecutor, BalancerProperties balancerProperties,
+                                            KeyRegistry keyRegistry, ServiceRegistry serviceRegistry,
+                                            RateLimiter rateLimiter, ReplayGuard replayGuard,
+                                            AdaptiveTimeouts adaptiveTimeouts) {
         super(Config.class);
         this.messageReaders = messageReaders;
-        mapper = new ObjectMapper();
+        this.metrics = metrics;
+        this.accessLog = accessLog;
+        this.cryptoExecutor = cryptoExecutor;
+        this.batchExecutor = batchExecutor;
+        this.balancerProperties = balancerProperties;
+        this.keyRegistry = keyRegistry;
+        this.serviceRegistry = serviceRegistry;
+        this.rateLimiter = rateLimiter;
+        this.replayGuard = replayGuard;
+        this.adaptiveTimeouts = adaptiveTimeouts;
+        mapper = Envelope.TEXT.newMapper();
         mapper.configure(DeserializationFeature.FAIL_ON_IGNORED_PROPERTIES, false);
+        binaryMapper = Envelope.BINARY.newMapper();
+        binaryMapper.configure(DeserializationFeature.FAIL_ON_IGNORED_PROPERTIES, false);
+        batchType = mapper.getTypeFactory().constructCollectionType(List.class, ProxyConfig.class);
+        canonicalWriter = new ObjectMapper()
+                .addMixIn(ProxyConfig.class, CanonicalProxyConfig.class)
+                .configure(MapperFeature.SORT_PROPERTIES_ALPHABETICALLY, true)
+                .writer()
+                .with(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS);
     }
 
     @Override
     public GatewayFilter apply(Config config) {
+        CipherEngine cipherEngine = Boolean.TRUE.equals(config.encryptEnable)
+                ? CipherEngines.forKey(config.getEncrypt(), config.getEncryptKey()) : null;
+        ServiceRegistry.Binding services = serviceRegistry.bind(ServiceTable.of(config.serviceHost, balancerProperties));
+
         return ((exchange, chain) -> {
-            if (config.serviceHost == null || config.serviceHost.isEmpty()) {
+            ServiceTable serviceTable = services.current();
+            if (serviceTable.isEmpty()) {
                 return Mono.empty();
             }
 
-            HttpHeaders headers = new HttpHeaders();
-            headers.putAll(exchange.getRequest().getHeaders());
-            headers.remove(HttpHeaders.CONTENT_LENGTH);
-            CachedBodyOutputMessage outputMessage = new CachedBodyOutputMessage(exchange, headers);
+            ProxyTimings timings = new ProxyTimings();
+            timings.setPayloadSample(accessLog.sample());
+            exchange.getAttributes().put(PROXY_TIMINGS_ATTR, timings);
+            Envelope envelope = Envelope.of(exchange.getRequest().getHeaders());
+            int maxEnvelopeSize = config.getMaxEnvelopeSize() != null && config.getMaxEnvelopeSize() > 0
+                    ? config.getMaxEnvelopeSize() : -1;
+            if (maxEnvelopeSize > 0 && exchange.getRequest().getHeaders().getContentLength() > maxEnvelopeSize) {
+                // 按 Content-Length 提前拒绝，不读取请求体
+                metrics.recordError(timings, ProxyMetrics.Stage.PARSE);
+                return fail(exchange, HttpStatus.PAYLOAD_TOO_LARGE);
+            }
 
-            Mono<String> modifiedBody = parseAndModifyBody(exchange, config);
-            BodyInserter<Mono<String>, ReactiveHttpOutputMessage> bodyInserter = BodyInserters.fromPublisher(modifiedBody, String.class);
+            ForwardedBody forwardedBody = new ForwardedBody();
 
-            return bodyInserter.insert(outputMessage, new BodyInserterContext())
+            return parseAndModifyBody(exchange, cipherEngine, config.getEncrypt(), envelope, timings, forwardedBody,
+                    maxEnvelopeSize)
                     .then(Mono.defer(() -> {
                         ProxyConfig proxyConfig = exchange.getAttribute(CACHE_PROXY_REQUEST_BODY_OBJECT_KEY);
-                        if (proxyConfig == null || proxyConfig.getService() == null
+                        Mono<Void> replayed = proxyConfig == null ? null : checkReplay(exchange, proxyConfig, timings);
+                        if (replayed != null) {
+                            return replayed;
+                        }
+                        if (proxyConfig != null && proxyConfig.getBatch() != null) {
+                            return batch(exchange, serviceTable, proxyConfig.getBatch(),
+                                    exchange.getAttributeOrDefault(PROXY_CIPHER_ATTR, cipherEngine), envelope, timings);
+                        }
+                        if (proxyConfig == null || proxyConfig.getService() == null || !isPath(proxyConfig.getPath())
                                 || proxyConfig.getMethod() == null || proxyConfig.getContentType() == null) {
-                            return Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST));
+                            ProxyMetrics.Stage failedStage = timings.getFailedStage();
+                            metrics.recordError(timings, failedStage != null ? failedStage : ProxyMetrics.Stage.PARSE);
+                            return fail(exchange, HttpStatus.BAD_REQUEST);
                         }
 
-                        ServerHttpRequest decorator = decorate(config, exchange, headers, outputMessage);
+                        timings.setMethod(HttpMethod.resolve(proxyConfig.getMethod()));
+                        ServiceGroup group = serviceTable.get(proxyConfig.getService());
+                        if (group == null) {
+                            metrics.recordError(timings, ProxyMetrics.Stage.ROUTE);
+                            log.warn("unknown service. service: {}", proxyConfig.getService());
+                            return fail(exchange, HttpStatus.BAD_REQUEST);
+                        }
+
+                        timings.setService(group.getService());
+                        recordParsed(timings, cipherEngine);
+                        if (!rateLimiter.tryAcquireRate(group.getService(), clientId(exchange))) {
+                            return reject(exchange);
+                        }
 
-                        return chain.filter(exchange.mutate().request(decorator).build());
-                    }));
+                        Mono<Void> forward = Mono.defer(() -> {
+                            // 先选择实例、构建 URI，构建失败时还没有占用并发许可
+                            timings.begin(ProxyMetrics.Stage.ROUTE);
+                            long routeStart = System.nanoTime();
+                            ServiceTarget target = group.choose();
+                            ServerHttpRequest decorator = decorate(target, exchange, forwardedBody);
+                            routed(timings, System.nanoTime() - routeStart);
+
+                            RateLimiter.Permit permit = rateLimiter.tryAcquire(group.getService());
+                            if (permit == null) {
+                                return reject(exchange);
+                            }
+
+                            timings.upstreamStarted();
+                            target.start();
+                            long upstreamStart = System.nanoTime();
+                            ServiceTimeout serviceTimeout = adaptiveTimeouts.get(group.getService());
+                            Mono<Void> upstream = chain.filter(exchange.mutate().request(decorator).build());
+                            Hedge hedge = null;
+                            if (serviceTimeout != null) {
+                                Duration hedgeDelay = serviceTimeout.getHedgeDelay();
+                                if (hedgeDelay != null && HttpMethod.GET.name().equals(proxyConfig.getMethod())) {
+                                    hedge = new Hedge(serviceTimeout, hedgeDelay, group, target, rateLimiter,
+                                            other -> buildUri(other, proxyConfig, exchange.getRequest()));
+                                    exchange.getAttributes().put(PROXY_HEDGE_ATTR, hedge);
+                                }
+                                // 路由过滤器在收到响应头时完成，超时只覆盖等待上游响应头的阶段
+                                Duration timeout = serviceTimeout.getTimeout();
+                                upstream = upstream.timeout(timeout, Mono.defer(() -> {
+                                    serviceTimeout.expired(timeout);
+                                    return Mono.error(new ProxyStatusException(HttpStatus.GATEWAY_TIMEOUT,
+                                            "upstream timeout"));
+                                }));
+                            }
+                            Hedge sent = hedge;
+                            return upstream
+                                    .doFinally(signal -> {
+                                        if (signal == SignalType.CANCEL) {
+                                            target.cancel();
+                                            permit.cancel();
+                                        } else {
+                                            HttpStatus status = exchange.getResponse().getStatusCode();
+                                            long latency = System.nanoTime() - upstreamStart;
+                                            boolean success = signal == SignalType.ON_COMPLETE
+                                                    && (status == null || !status.is5xxServerError());
+                                            if (sent != null && sent.isHedgeWon()) {
+                                                // 响应来自对冲请求，对冲实例由路由过滤器记录，原请求失败的记为失败，否则记为取消
+                                                if (sent.isPrimaryFailed()) {
+                                                    target.complete(latency, false);
+                                                } else {
+                                                    target.cancel();
+                                                }
+                                            } else {
+                                                target.complete(latency, success);
+                                            }
+                                            permit.release(latency, success);
+                                            if (serviceTimeout != null && success) {
+                                                serviceTimeout.record(latency);
+                                            }
+                                        }
+                                    });
+                        });
+
+                        return deduplicate(exchange, group, proxyConfig, forward);
+                    }))
+                    .onErrorResume(e -> ProxyStatusException.is(e, HttpStatus.PAYLOAD_TOO_LARGE), e -> {
+                        timings.setFailedStage(ProxyMetrics.Stage.PARSE);
+                        metrics.recordError(timings, ProxyMetrics.Stage.PARSE);
+                        return fail(exchange, HttpStatus.PAYLOAD_TOO_LARGE);
+                    })
+                    .onErrorResume(e -> ProxyStatusException.is(e, HttpStatus.UNAUTHORIZED),
+                            e -> fail(exchange, HttpStatus.UNAUTHORIZED))
+                    .doOnSuccess(v -> metrics.recordUpstream(timings, true))
+                    .doOnError(e -> metrics.recordUpstream(timings, false))
+                    .doFinally(signal -> forwardedBody.release());
         });
     }
 
     /**
-     * 解析并修改 body
+     * 拿到 service 后再补报解密和解析的耗时
+     *
+     * @param timings
+     * @param cipherEngine 为空时没有解密阶段
+     */
+    private void recordParsed(ProxyTimings timings, CipherEngine cipherEngine) {
+        if (cipherEngine != null) {
+            metrics.recordStage(timings, ProxyMetrics.Stage.DECRYPT, timings.getDecryptNanos(), true);
+        }
+        metrics.recordStage(timings, ProxyMetrics.Stage.PARSE, timings.getParseNanos(), true);
+        metrics.recordRequestSize(timings, timings.getRequestBytes());
+    }
+
+    /**
+     * 路由结束，记录耗时
+     *
+     * @param timings
+     * @param nanos
+     */
+    private void routed(ProxyTimings timings, long nanos) {
+        timings.end(ProxyMetrics.Stage.ROUTE);
+        timings.setRouteNanos(nanos);
+        metrics.recordStage(timings, ProxyMetrics.Stage.ROUTE, nanos, true);
+    }
+
+    /**
+     * 批量请求：各调用并发访问后端，聚合结果写给响应过滤器，整个批次只解密、加密一次
      *
      * @param exchange
-     * @param config
+     * @param serviceTable
+     * @param items
+     * @param cipherEngine
+     * @param envelope     聚合结果使用与请求相同的编码
+     * @param timings
      * @return
      */
-    private Mono<String> parseAndModifyBody(ServerWebExchange exchange, Config config) {
-        return ServerRequest.create(exchange, messageReaders).bodyToMono(String.class)
+    private Mono<Void> batch(ServerWebExchange exchange, ServiceTable serviceTable, List<ProxyConfig> items,
+                             CipherEngine cipherEngine, Envelope envelope, ProxyTimings timings) {
+        timings.setService(BATCH_SERVICE);
+        timings.setMethod(HttpMethod.POST);
+        if (!batchExecutor.isEnabled() || items.isEmpty() || items.size() > batchExecutor.getMaxItems()) {
+            metrics.recordError(timings, ProxyMetrics.Stage.PARSE);
+            log.warn("batch rejected. enabled: {}, size: {}", batchExecutor.isEnabled(), items.size());
+            return fail(exchange, HttpStatus.BAD_REQUEST);
+        }
+        recordParsed(timings, cipherEngine);
+
+        timings.begin(ProxyMetrics.Stage.ROUTE);
+        long routeStart = System.nanoTime();
+        String clientId = clientId(exchange);
+        HttpHeaders forwarded = batchExecutor.forwardedHeaders(exchange);
+        List<BatchCall> calls = new ArrayList<>(items.size());
+        for (ProxyConfig item : items) {
+            calls.add(prepareCall(serviceTable, item, clientId, forwarded));
+        }
+        routed(timings, System.nanoTime() - routeStart);
+
+        timings.upstreamStarted();
+        return batchExecutor.execute(calls, envelope).flatMap(body -> {
+            ServerHttpResponse response = exchange.getResponse();
+            response.setStatusCode(HttpStatus.OK);
+            return response.writeWith(Mono.fromSupplier(() -> response.bufferFactory().wrap(body)));
+        });
+    }
+
+    /**
+     * 解析批量请求中的一个调用，配置有误时返回 {@link BatchCall#invalid(String)}，不影响其他调用
+     *
+     * @param serviceTable
+     * @param item
+     * @param clientId
+     * @param forwarded    外层请求头，见 {@link BatchExecutor#forwardedHeaders(ServerWebExchange)}
+     * @return
+     */
+    private BatchCall prepareCall(ServiceTable serviceTable, ProxyConfig item, @Nullable String clientId,
+                                  HttpHeaders forwarded) {
+        if (item == null || item.getBatch() != null || item.getService() == null || !isPath(item.getPath())
+                || item.getContentType() == null) {
+            return BatchCall.invalid("invalid proxy config");
+        }
+
+        HttpMethod method = HttpMethod.resolve(item.getMethod());
+        if (method == null) {
+            return BatchCall.invalid("unknown method: " + item.getMethod());
+        }
+        ServiceGroup group = serviceTable.get(item.getService());
+        if (group == null) {
+            return BatchCall.invalid("unknown service: " + item.getService());
+        }
+        ServiceTarget target = group.choose();
+
+        URI uri;
+        try {
+            uri = buildUri(target, item, null);
+        } catch (IllegalArgumentException e) {
+            return BatchCall.invalid(e.getMessage());
+        }
+        if (!rateLimiter.tryAcquireRate(group.getService(), clientId)) {
+            return BatchCall.rejected(HttpStatus.TOO_MANY_REQUESTS.value(), "too many requests");
+        }
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.putAll(forwarded);
+        if (item.getHeaders() != null) {
+            item.getHeaders().forEach(headers::set);
+        }
+        if (!item.getContentType().isEmpty()) {
+            headers.set(HttpHeaders.CONTENT_TYPE, item.getContentType());
+        }
+
+        byte[] body = null;
+        if (method == HttpMethod.POST) {
+            String params = buildRequestParams(item);
+            body = params == null ? null : params.getBytes(StandardCharsets.UTF_8);
+        }
+
+        return new BatchCall(target, method, uri, headers, body);
+    }
+
+    /**
+     * 解析 body，POST 请求的参数写入转发给后端的请求体
+     *
+     * @param exchange
+     * @param cipherEngine  路由的密钥，为空时不解密
+     * @param encrypt       加密套件名称
+     * @param envelope
+     * @param timings
+     * @param forwardedBody 转发给后端的请求体
+     * @param maxSize       信封的最大字节数，-1 为不限制
+     * @return 信封超过 maxSize 时为 413 的 {@link ProxyStatusException}，客户端未知时为 401 的
+     */
+    private Mono<Void> parseAndModifyBody(ServerWebExchange exchange, CipherEngine cipherEngine, String encrypt,
+                                          Envelope envelope, ProxyTimings timings, ForwardedBody forwardedBody,
+                                          int maxSize) {
+        DataBufferFactory bufferFactory = exchange.getResponse().bufferFactory();
+        // 边读边计数，超过 maxSize 立即释放已读的部分；大报文的解密、解析和请求体编码交给 cryptoExecutor，不占用事件循环
+        return DataBufferUtils.join(exchange.getRequest().getBody(), maxSize)
+                .onErrorMap(DataBufferLimitException.class,
+                        e -> new ProxyStatusException(HttpStatus.PAYLOAD_TOO_LARGE, "envelope too large"))
                 .flatMap(originalBody -> {
-                    ProxyConfig proxyConfig = parseBody(originalBody, config);
-                    if (proxyConfig == null) {
-                        return Mono.empty();
-                    }
+                    // 池化的缓冲区归执行解析的任务释放：任务开始后取消或超时不会提前把它还给内存池，任务未开始时由 doFinally 释放
+                    AtomicReference<DataBuffer> owner = new AtomicReference<>(originalBody);
+                    return Mono.defer(() -> {
+                        CipherEngine engine = cipherEngine == null ? null
+                                : clientEngine(exchange, originalBody, cipherEngine, encrypt, envelope);
+                        if (cipherEngine != null && engine == null) {
+                            timings.setFailedStage(ProxyMetrics.Stage.DECRYPT);
+                            metrics.recordError(timings, ProxyMetrics.Stage.DECRYPT);
+                            return Mono.error(new ProxyStatusException(HttpStatus.UNAUTHORIZED, "unknown client"));
+                        }
+                        return cryptoExecutor.execute(originalBody.readableByteCount(), () -> {
+                            DataBuffer body = owner.getAndSet(null);
+                            if (body == null) {
+                                return null;
+                            }
+                            try {
+                                ProxyConfig proxyConfig = parseBody(body, engine, envelope, timings);
+                                // 如果是 post 则将参数写入请求体
+                                if (proxyConfig != null && HttpMethod.POST.name().equals(proxyConfig.getMethod())) {
+                                    DataBuffer params = writeRequestBody(proxyConfig, bufferFactory, timings.getRequestBytes());
+                                    if (params != null) {
+                                        forwardedBody.set(params);
+                                    }
+                                }
+                                return proxyConfig;
+                            } finally {
+                                DataBufferUtils.release(body);
+                            }
+                        }, eventLoop(exchange));
+                    }).doFinally(signal -> {
+                        DataBuffer body = owner.getAndSet(null);
+                        if (body != null) {
+                            DataBufferUtils.release(body);
+                        }
+                    });
+                })
+                .doOnNext(proxyConfig -> exchange.getAttributes().put(CACHE_PROXY_REQUEST_BODY_OBJECT_KEY, proxyConfig))
+                .then();
+    }
+
+    /**
+     * 请求所在连接的事件循环，offload 的任务完成后回到这里继续路由和转发，不占用加解密线程池
+     *
+     * @param exchange
+     * @return 不是 reactor-netty 的请求时为空
+     */
+    @Nullable
+    private static Executor eventLoop(ServerWebExchange exchange) {
+        ServerHttpRequest request = exchange.getRequest();
+        while (request instanceof ServerHttpRequestDecorator) {
+            request = ((ServerHttpRequestDecorator) request).getDelegate();
+        }
+        if (request instanceof AbstractServerHttpRequest) {
+            Object nativeRequest;
+            try {
+                nativeRequest = ((AbstractServerHttpRequest) request).getNativeRequest();
+            } catch (IllegalStateException e) {
+                // 没有底层请求，例如 MockServerHttpRequest
+                return null;
+            }
+            if (nativeRequest instanceof Connection) {
+                return ((Connection) nativeRequest).channel().eventLoop();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 选择解密使用的密钥：请求头或信封前缀带有客户端标识时使用该客户端的密钥，否则使用路由的密钥
+     *
+     * @param exchange
+     * @param body        信封前缀的客户端标识读取后跳过
+     * @param routeEngine 路由的密钥
+     * @param encrypt     加密套件名称
+     * @param envelope
+     * @return 客户端未知时为空
+     */
+    @Nullable
+    private CipherEngine clientEngine(ServerWebExchange exchange, DataBuffer body, CipherEngine routeEngine,
+                                      String encrypt, Envelope envelope) {
+        if (!keyRegistry.isEnabled()) {
+            return routeEngine;
+        }
 
-                    exchange.getAttributes().put(CACHE_PROXY_REQUEST_BODY_OBJECT_KEY, proxyConfig);
+        String clientId = exchange.getRequest().getHeaders().getFirst(keyRegistry.getHeader());
+        if (clientId == null && envelope == Envelope.TEXT && keyRegistry.isPrefixEnabled()) {
+            clientId = readClientPrefix(body);
+        }
+        if (clientId == null) {
+            return routeEngine;
+        }
 
-                    // 如果是 post 则将参数写入表单
-                    if (HttpMethod.POST.name().equals(proxyConfig.getMethod())) {
-                        String params = buildRequestParams(proxyConfig);
-                        return params == null ? Mono.empty() : Mono.just(params);
-                    }
+        ClientKey key = keyRegistry.get(clientId, encrypt);
+        if (key == null) {
+            log.warn("unknown client. clientId: {}", clientId);
+            return null;
+        }
 
-                    return Mono.empty();
-                });
+        exchange.getAttributes().put(PROXY_CLIENT_ATTR, key.getClientId());
+        exchange.getAttributes().put(PROXY_CIPHER_ATTR, key.getEngine());
+        exchange.getAttributes().put(PROXY_KEY_SCOPE_ATTR, key.getScope());
+        return key.getEngine();
+    }
+
+    /**
+     * 读取 TEXT 信封的客户端前缀 {@code clientId:}，base64 字符中没有冒号，不会与密文混淆
+     *
+     * @param body 读到前缀时 readPosition 移到密文开头
+     * @return 没有前缀时为空
+     */
+    @Nullable
+    static String readClientPrefix(DataBuffer body) {
+        int start = body.readPosition();
+        int end = start + Math.min(body.readableByteCount(), MAX_CLIENT_PREFIX + 1);
+        for (int i = start; i < end; i++) {
+            if (body.getByte(i) == ':') {
+                if (i == start) {
+                    return null;
+                }
+                byte[] clientId = new byte[i - start];
+                body.read(clientId);
+                body.readPosition(i + 1);
+                return new String(clientId, StandardCharsets.US_ASCII);
+            }
+        }
+
+        return null;
     }
 
     /**
      * 解析body
+     * <p>
+     * 直接在请求的 DataBuffer 上解码、解密，解密结果交给 jackson 按字节解析，全程不构造 String
+     *
+     * @param originalBody
+     * @param cipherEngine 为空时不解密
+     * @return
+     */
+    ProxyConfig parseBody(DataBuffer originalBody, CipherEngine cipherEngine) {
+        return parseBody(originalBody, cipherEngine, null);
+    }
+
+    /**
+     * 解析body，并把解密、解析耗时记到 timings
+     *
+     * @param originalBody
+     * @param cipherEngine 为空时不解密
+     * @param timings      为空时不计时
+     * @return
+     */
+    ProxyConfig parseBody(DataBuffer originalBody, CipherEngine cipherEngine, @Nullable ProxyTimings timings) {
+        return parseBody(originalBody, cipherEngine, Envelope.TEXT, timings);
+    }
+
+    /**
+     * 按信封格式解析body，并把解密、解析耗时记到 timings
      *
      * @param originalBody
-     * @param config
+     * @param cipherEngine 为空时不解密
+     * @param envelope     {@link Envelope#BINARY} 时 body 为密文字节，明文为 CBOR
+     * @param timings      为空时不计时
      * @return
      */
-    private ProxyConfig parseBody(String originalBody, Config config) {
+    ProxyConfig parseBody(DataBuffer originalBody, CipherEngine cipherEngine, Envelope envelope,
+                          @Nullable ProxyTimings timings) {
+        ProxyMetrics.Stage stage = ProxyMetrics.Stage.DECRYPT;
         try {
-            String body = originalBody;
-            if (config.encryptEnable) {
-                body = AESUtil.decrypt(originalBody, config.getEncryptKey());
+            long start = System.nanoTime();
+            ByteBuffer body = originalBody.asByteBuffer();
+            if (cipherEngine != null) {
+                if (timings != null) {
+                    timings.begin(stage);
+                }
+                body = envelope == Envelope.BINARY ? cipherEngine.decrypt(body) : cipherEngine.decryptFromBase64(body);
+            }
+            long decrypted = System.nanoTime();
+            PayloadSample sample = timings == null ? null : timings.getPayloadSample();
+            if (sample != null) {
+                sample.captureRequest(body);
             }
-            log.info("parse body success. originalBody: {}, body: {}", originalBody, body);
-            return mapper.readValue(body, ProxyConfig.class);
+
+            stage = ProxyMetrics.Stage.PARSE;
+            if (timings != null) {
+                timings.end(ProxyMetrics.Stage.DECRYPT);
+                timings.begin(stage);
+            }
+            int bodyBytes = body.remaining();
+            ProxyConfig proxyConfig = readProxyConfig(body, envelope);
+            if (timings != null) {
+                timings.end(stage);
+                timings.setDecryptNanos(decrypted - start);
+                timings.setParseNanos(System.nanoTime() - decrypted);
+                timings.setRequestBytes(bodyBytes);
+            }
+
+            return proxyConfig;
         } catch (Exception e) {
-            log.error("parse body error. originalBody: {}, exception: {}", originalBody, e);
+            if (timings != null) {
+                timings.end(stage);
+                timings.setFailedStage(stage);
+            }
+            log.warn("parse body error. length: {}, exception: {}", originalBody.readableByteCount(), e.toString());
         }
 
         return null;
     }
 
+    private ProxyConfig readProxyConfig(ByteBuffer body, Envelope envelope) throws IOException {
+        ObjectMapper mapper = envelope == Envelope.BINARY ? binaryMapper : this.mapper;
+        if (envelope.isArray(body)) {
+            // 批量请求，信封为 ProxyConfig 数组
+            ProxyConfig batch = new ProxyConfig();
+            batch.setBatch(body.hasArray()
+                    ? mapper.readValue(body.array(), body.arrayOffset() + body.position(), body.remaining(), batchType)
+                    : mapper.readValue(new ByteBufferBackedInputStream(body), batchType));
+            return batch;
+        }
+
+        if (body.hasArray()) {
+            return mapper.readValue(body.array(), body.arrayOffset() + body.position(), body.remaining(), ProxyConfig.class);
+        }
+
+        return mapper.readValue(new ByteBufferBackedInputStream(body), ProxyConfig.class);
+    }
+
     /**
+     * 限速使用的客户端标识，按客户端密钥识别出的标识优先，其次是请求头
+     *
      * @param exchange
-     * @param headers
-     * @param outputMessage
      * @return
      */
-    private ServerHttpRequest decorate(Config config, ServerWebExchange exchange,
-                                       HttpHeaders headers, CachedBodyOutputMessage outputMessage) {
+    @Nullable
+    private String clientId(ServerWebExchange exchange) {
+        String clientId = exchange.getAttribute(PROXY_CLIENT_ATTR);
+        return clientId != null ? clientId : exchange.getRequest().getHeaders().getFirst(rateLimiter.getClientHeader());
+    }
+
+    /**
+     * 检查信封的 timestamp、nonce
+     * <p>
+     * 批量请求的信封是数组，没有外层字段，逐个检查每个调用：只要有一个调用带了这两个字段，每个调用都必须带上，
+     * 且 nonce 互不相同，任何一个不通过整个批量请求都被拒绝
+     *
+     * @param exchange
+     * @param proxyConfig
+     * @param timings
+     * @return 通过时为空
+     */
+    @Nullable
+    private Mono<Void> checkReplay(ServerWebExchange exchange, ProxyConfig proxyConfig, ProxyTimings timings) {
+        if (!replayGuard.isEnabled()) {
+            return null;
+        }
+
+        List<ProxyConfig> envelopes = proxyConfig.getBatch() != null
+                ? proxyConfig.getBatch() : Collections.singletonList(proxyConfig);
+        boolean stamped = false;
+        for (ProxyConfig envelope : envelopes) {
+            if (envelope != null && (envelope.getTimestamp() != null || envelope.getNonce() != null)) {
+                stamped = true;
+                break;
+            }
+        }
+
+        String clientId = exchange.getAttribute(PROXY_CLIENT_ATTR);
+        for (ProxyConfig envelope : envelopes) {
+            ReplayGuard.Verdict verdict;
+            if (envelope == null) {
+                verdict = stamped ? ReplayGuard.Verdict.INVALID : ReplayGuard.Verdict.ACCEPTED;
+            } else if (stamped && envelope.getTimestamp() == null && envelope.getNonce() == null) {
+                verdict = ReplayGuard.Verdict.INVALID;
+            } else {
+                verdict = replayGuard.check(envelope.getTimestamp(), envelope.getNonce(), clientId);
+            }
+            if (verdict == ReplayGuard.Verdict.ACCEPTED) {
+                continue;
+            }
+
+            metrics.recordError(timings, ProxyMetrics.Stage.PARSE);
+            log.warn("replay check failed. verdict: {}, service: {}, timestamp: {}", verdict,
+                    envelope == null ? null : envelope.getService(), envelope == null ? null : envelope.getTimestamp());
+            return fail(exchange, verdict == ReplayGuard.Verdict.INVALID ? HttpStatus.BAD_REQUEST : HttpStatus.UNAUTHORIZED);
+        }
+
+        return null;
+    }
+
+    /**
+     * 提前拒绝请求，配置了 ProxyResponse 时直接写出预先生成的响应体
+     *
+     * @param exchange
+     * @param status   400、401 或 413
+     * @return
+     */
+    private Mono<Void> fail(ServerWebExchange exchange, HttpStatus status) {
+        if (exchange.getResponse() instanceof ProxyResponseGatewayFilterFactory.ProxyServerHttpResponse) {
+            return ((ProxyResponseGatewayFilterFactory.ProxyServerHttpResponse) exchange.getResponse()).writeError(status);
+        }
+
+        return Mono.error(new ResponseStatusException(status));
+    }
+
+    /**
+     * 返回 429，配置了 ProxyResponse 时直接写出预先加密的响应体
+     *
+     * @param exchange
+     * @return
+     */
+    private Mono<Void> reject(ServerWebExchange exchange) {
+        if (exchange.getResponse() instanceof ProxyResponseGatewayFilterFactory.ProxyServerHttpResponse) {
+            return ((ProxyResponseGatewayFilterFactory.ProxyServerHttpResponse) exchange.getResponse()).writeRejected();
+        }
+
+        return Mono.error(new ResponseStatusException(HttpStatus.TOO_MANY_REQUESTS));
+    }
+
+    /**
+     * GET 请求去重：先查响应缓存，未命中时合并并发的相同请求
+     *
+     * @param exchange
+     * @param group
+     * @param proxyConfig
+     * @param forward     请求上游
+     * @return
+     */
+    private Mono<Void> deduplicate(ServerWebExchange exchange, ServiceGroup group, ProxyConfig proxyConfig,
+                                   Mono<Void> forward) {
+        if (!HttpMethod.GET.name().equals(proxyConfig.getMethod())
+                || !(exchange.getResponse() instanceof ProxyResponseGatewayFilterFactory.ProxyServerHttpResponse)) {
+            return forward;
+        }
+
+        ProxyResponseGatewayFilterFactory.ProxyServerHttpResponse response =
+                (ProxyResponseGatewayFilterFactory.ProxyServerHttpResponse) exchange.getResponse();
+        if (!response.isDeduplicating(group.getService())) {
+            return forward;
+        }
+
+        byte[] digest;
+        try {
+            digest = requestDigest(group, proxyConfig, clientId(exchange), exchange.getRequest().getHeaders());
+        } catch (JsonProcessingException e) {
+            log.warn("request digest error. service: {}, exception: {}", group.getService(), e.toString());
+            return forward;
+        }
+
+        Mono<Void> cached = response.writeCached(digest, group.getService());
+        if (cached != null) {
+            return cached;
+        }
+
+        return response.coalesce(digest, forward);
+    }
+
+    /**
+     * 目标服务地址、客户端、转发的请求头和 ProxyConfig 的规范化摘要，用作响应缓存和请求合并的 key
+     * <p>
+     * 不同路由可能把同名 service 指向不同地址，所以带上实例地址；同一组的不同实例共用一个 key。
+     * 外层请求头会随请求转发给后端（例如 Authorization、Cookie），请求头不同的请求不能共用响应，
+     * 请求头按名称小写排序后计入，转发时被重新设置的请求体相关请求头除外
+     *
+     * @param group
+     * @param proxyConfig
+     * @param clientId    客户端标识，没有时为空
+     * @param headers     外层请求头
+     * @return
+     * @throws JsonProcessingException
+     */
+    byte[] requestDigest(ServiceGroup group, ProxyConfig proxyConfig, @Nullable String clientId, HttpHeaders headers)
+            throws JsonProcessingException {
+        MessageDigest digest = SHA256.get();
+        digest.reset();
+        digest.update(group.getId().getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        if (clientId != null) {
+            digest.update(clientId.getBytes(StandardCharsets.UTF_8));
+        }
+        digest.update((byte) 0);
+
+        Map<String, List<String>> forwarded = new TreeMap<>();
+        headers.forEach((name, values) -> {
+            String key = name.toLowerCase(Locale.ROOT);
+            if (!DIGEST_IGNORED_HEADERS.contains(key)) {
+                forwarded.computeIfAbsent(key, k -> new ArrayList<>()).addAll(values);
+            }
+        });
+        forwarded.forEach((name, values) -> {
+            digest.update(name.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 1);
+            for (String value : values) {
+                digest.update(value.getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+            }
+        });
+        digest.update((byte) 2);
+
+        return digest.digest(canonicalWriter.writeValueAsBytes(proxyConfig));
+    }
+
+    /**
+     * @param target
+     * @param exchange
+     * @param forwardedBody
+     * @return
+     */
+    private ServerHttpRequest decorate(ServiceTarget target, ServerWebExchange exchange, ForwardedBody forwardedBody) {
         ProxyConfig proxyConfig = exchange.getAttribute(CACHE_PROXY_REQUEST_BODY_OBJECT_KEY);
 
         // 构造新的 URI
-        URI uri = buildUri(exchange, config, proxyConfig);
-        modifiyRoute(exchange, uri, proxyConfig);
+        URI uri = buildUri(target, proxyConfig, exchange.getRequest());
+        modifiyRoute(exchange, uri, target);
 
         return new ServerHttpRequestDecorator(exchange.getRequest()) {
 
@@ -176,13 +964,11 @@ public class ProxyRequestGatewayFilterFactory extends AbstractGatewayFilterFacto
 
             @Override
             public HttpHeaders getHeaders() {
-                long contentLength = headers.getContentLength();
                 HttpHeaders httpHeaders = new HttpHeaders();
                 httpHeaders.putAll(super.getHeaders());
-                httpHeaders.setContentLength(contentLength);
-                if (contentLength <= 0) {
-                    httpHeaders.set(HttpHeaders.TRANSFER_ENCODING, "chunked");
-                }
+                // 请求体在转发前已经写好，长度确定，不使用 chunked
+                httpHeaders.remove(HttpHeaders.TRANSFER_ENCODING);
+                httpHeaders.setContentLength(forwardedBody.getContentLength());
 
                 if (proxyConfig.getHeaders() != null) {
                     proxyConfig.getHeaders().forEach(httpHeaders::set);
@@ -195,39 +981,48 @@ public class ProxyRequestGatewayFilterFactory extends AbstractGatewayFilterFacto
 
             @Override
             public Flux<DataBuffer> getBody() {
-                return outputMessage.getBody();
+                return forwardedBody.take();
             }
         };
     }
 
+    /**
+     * @param path
+     * @return 是否为以 / 开头的后端接口路径
+     */
+    private static boolean isPath(@Nullable String path) {
+        return path != null && path.startsWith("/");
+    }
+
     /**
      * 构建代理请求 URI
+     * <p>
+     * serviceHost 已在配置生效时预解析，这里只拼接 path 和 query。
+     * query 依次为客户端请求 URL 上的 query、path 中的 query、GET 请求的 params
      *
-     * @param exchange
-     * @param config
+     * @param target
      * @param proxyConfig
+     * @param request     客户端请求，为空时不转发它的 query（批量调用的各项）
      * @return
      */
-    private URI buildUri(ServerWebExchange exchange, Config config, ProxyConfig proxyConfig) {
-        UriComponentsBuilder uriBuilder = UriComponentsBuilder.fromHttpRequest(exchange.getRequest())
-                .uri(URI.create(config.serviceHost.get(proxyConfig.getService())))
-                .port(proxyConfig.getPort());
-
+    private URI buildUri(ServiceTarget target, ProxyConfig proxyConfig, @Nullable ServerHttpRequest request) {
         String path = proxyConfig.getPath();
-        int position = path.indexOf("?");
-        if (position == -1) {
-            uriBuilder.replacePath(path);
-        } else {
-            uriBuilder.replacePath(path.substring(0, position));
-            uriBuilder.query(path.substring(position + 1));
+        String query = request == null ? null : request.getURI().getRawQuery();
+        int position = path.indexOf('?');
+        if (position != -1) {
+            String pathQuery = path.substring(position + 1);
+            query = query == null || query.isEmpty() ? pathQuery : query + "&" + pathQuery;
+            path = path.substring(0, position);
         }
 
         if (HttpMethod.GET.name().equals(proxyConfig.getMethod())) {
-            String query = buildRequestParams(proxyConfig);
-            uriBuilder.query(query);
+            String params = buildRequestParams(proxyConfig);
+            if (params != null) {
+                query = query == null || query.isEmpty() ? params : query + "&" + params;
+            }
         }
 
-        return uriBuilder.build().toUri();
+        return target.uri(proxyConfig.getPort(), path, query);
     }
 
     /**
@@ -236,7 +1031,7 @@ public class ProxyRequestGatewayFilterFactory extends AbstractGatewayFilterFacto
      * @param proxyConfig
      * @return
      */
-    private String buildRequestParams(ProxyConfig proxyConfig) {
+    String buildRequestParams(ProxyConfig proxyConfig) {
         Map<String, Object> params = proxyConfig.getParams();
         if (params == null || params.isEmpty()) {
             return null;
@@ -255,8 +1050,9 @@ public class ProxyRequestGatewayFilterFactory extends AbstractGatewayFilterFacto
             boolean needEncode = MediaType.APPLICATION_FORM_URLENCODED_VALUE.equals(contentType);
 
             StringBuilder sb = new StringBuilder();
-            for (String key : params.keySet()) {
-                Object value = params.get(key);
+            for (Map.Entry<String, Object> entry : params.entrySet()) {
+                String key = entry.getKey();
+                Object value = entry.getValue();
 
                 if (needEncode && value instanceof String) {
                     try {
@@ -266,38 +1062,125 @@ public class ProxyRequestGatewayFilterFactory extends AbstractGatewayFilterFacto
                     }
                 }
 
-                sb.append(key).append("=").append(value).append("&");
+                if (sb.length() > 0) {
+                    sb.append('&');
+                }
+                sb.append(key).append('=').append(value);
             }
 
-            String query = sb.toString();
-            if (query.charAt(query.length() - 1) == '&') {
-                query = query.substring(0, query.length() - 1);
+            return sb.toString();
+        }
+
+        return null;
+    }
+
+    /**
+     * 把 POST 参数写入转发给后端的请求体
+     * <p>
+     * 与 {@link #buildRequestParams(ProxyConfig)} 输出相同的内容，但 json 直接序列化进 buffer，表单逐字符编码写入，
+     * 不经过 String；buffer 来自连接的 buffer 工厂，Netty 下为池化 buffer。
+     * 表单逐字节相同；json 语义相同，直接输出字节时 Jackson 把 BMP 以外的字符写成代理对的转义序列，Content-Length 取实际写入的长度
+     *
+     * @param proxyConfig
+     * @param bufferFactory
+     * @param sizeHint      预估大小，取解密后的请求大小
+     * @return 没有参数或编码失败时为空
+     */
+    DataBuffer writeRequestBody(ProxyConfig proxyConfig, DataBufferFactory bufferFactory, int sizeHint) {
+        Map<String, Object> params = proxyConfig.getParams();
+        if (params == null || params.isEmpty()) {
+            return null;
+        }
+
+        String contentType = proxyConfig.getContentType();
+        DataBuffer buffer = bufferFactory.allocateBuffer(Math.max(sizeHint, 256));
+        try {
+            if (MediaType.APPLICATION_JSON_VALUE.equals(contentType)) {
+                mapper.writeValue(buffer.asOutputStream(), params);
+            } else {
+                writeForm(params, MediaType.APPLICATION_FORM_URLENCODED_VALUE.equals(contentType), buffer);
             }
 
-            return query;
+            return buffer;
+        } catch (Exception e) {
+            DataBufferUtils.release(buffer);
+            log.warn("write request body error. contentType: {}, exception: {}", contentType, e.toString());
         }
 
         return null;
     }
 
+    private static void writeForm(Map<String, Object> params, boolean needEncode, DataBuffer buffer) {
+        boolean first = true;
+        for (Map.Entry<String, Object> entry : params.entrySet()) {
+            if (!first) {
+                buffer.write((byte) '&');
+            }
+            first = false;
+
+            buffer.write(entry.getKey(), StandardCharsets.UTF_8);
+            buffer.write((byte) '=');
+            Object value = entry.getValue();
+            if (needEncode && value instanceof String) {
+                urlEncode((String) value, buffer);
+            } else {
+                buffer.write(String.valueOf(value), StandardCharsets.UTF_8);
+            }
+        }
+    }
+
+    /**
+     * 按 {@link URLEncoder#encode(String, String)} 的规则编码并写入 buffer：字母、数字和 {@code .-*_} 不变，空格为 +，
+     * 其余字符按 UTF-8 字节输出 %XX
+     *
+     * @param value
+     * @param buffer
+     */
+    static void urlEncode(String value, DataBuffer buffer) {
+        int length = value.length();
+        int i = 0;
+        while (i < length) {
+            char c = value.charAt(i);
+            if (c < 128) {
+                if (URL_SAFE[c]) {
+                    buffer.write(c == ' ' ? (byte) '+' : (byte) c);
+                } else {
+                    writePercent((byte) c, buffer);
+                }
+                i++;
+                continue;
+            }
+
+            // 连续的非 ASCII 字符一起转成 UTF-8，代理对不会被拆开
+            int start = i;
+            while (i < length && value.charAt(i) >= 128) {
+                i++;
+            }
+            for (byte b : value.substring(start, i).getBytes(StandardCharsets.UTF_8)) {
+                writePercent(b, buffer);
+            }
+        }
+    }
+
+    private static void writePercent(byte b, DataBuffer buffer) {
+        buffer.write((byte) '%');
+        buffer.write(HEX_DIGITS[(b >> 4) & 0xF]);
+        buffer.write(HEX_DIGITS[b & 0xF]);
+    }
+
     /**
      * 修改 Route
      *
      * @param exchange
      * @param uri
-     * @param proxyConfig
+     * @param target
      */
-    private void modifiyRoute(ServerWebExchange exchange, URI uri, ProxyConfig proxyConfig) {
-        Route route = exchange.getAttribute(ServerWebExchangeUtils.GATEWAY_ROUTE_ATTR);
-        Route newRoute = Route.async()
-                .id(proxyConfig.getService())
-                .asyncPredicate(route.getPredicate())
-                .filters(route.getFilters())
-                .uri(uri)
-                .build();
+    private void modifiyRoute(ServerWebExchange exchange, URI uri, ServiceTarget target) {
+        Route route = exchange.getAttribute(GATEWAY_ROUTE_ATTR);
 
-        exchange.getAttributes().put(GATEWAY_ROUTE_ATTR, newRoute);
+        exchange.getAttributes().put(GATEWAY_ROUTE_ATTR, target.route(route));
         exchange.getAttributes().put(ServerWebExchangeUtils.GATEWAY_REQUEST_URL_ATTR, uri);
+        exchange.getAttributes().put(PROXY_SERVICE_ATTR, target.getService());
     }
 
     /**
@@ -307,10 +1190,25 @@ public class ProxyRequestGatewayFilterFactory extends AbstractGatewayFilterFacto
         private String service;
         private String method = HttpMethod.POST.name();
         private String path;
-        private Integer port = 80;
+        /**
+         * 后端端口，serviceHost 中没有端口时使用，见 {@link ServiceTarget#uri(Integer, String, String)}
+         */
+        private Integer port;
         private String contentType;
         private Map<String, String> headers = new HashMap<>();
         private Map<String, Object> params = new HashMap<>();
+        /**
+         * 批量请求的各个调用，信封为数组时由网关填充
+         */
+        private List<ProxyConfig> batch;
+        /**
+         * 客户端发出请求的时间，毫秒，启用防重放时与 nonce 一起检查
+         */
+        private Long timestamp;
+        /**
+         * 客户端为每个请求生成的随机串，启用防重放时在时间窗口内去重
+         */
+        private String nonce;
 
         public String getService() {
             return service;
@@ -367,6 +1265,37 @@ public class ProxyRequestGatewayFilterFactory extends AbstractGatewayFilterFacto
         public void setParams(Map<String, Object> params) {
             this.params = params;
         }
+
+        public List<ProxyConfig> getBatch() {
+            return batch;
+        }
+
+        public void setBatch(List<ProxyConfig> batch) {
+            this.batch = batch;
+        }
+
+        public Long getTimestamp() {
+            return timestamp;
+        }
+
+        public void setTimestamp(Long timestamp) {
+            this.timestamp = timestamp;
+        }
+
+        public String getNonce() {
+            return nonce;
+        }
+
+        public void setNonce(String nonce) {
+            this.nonce = nonce;
+        }
+    }
+
+    /**
+     * 计算请求摘要时忽略每次请求都不同的防重放字段，相同的请求仍能命中缓存和合并
+     */
+    @JsonIgnoreProperties({"timestamp", "nonce"})
+    private abstract static class CanonicalProxyConfig {
     }
 
     /**
@@ -374,9 +1303,19 @@ public class ProxyRequestGatewayFilterFactory extends AbstractGatewayFilterFacto
      */
     public static class Config {
         private Boolean encryptEnable;
+        /**
+         * 加密套件，见 {@link com.sss.apate.crypto.CipherSuites}，为空时为 AES（ECB）
+         */
         private String encrypt;
         private String encryptKey;
-        private Map<String, String> serviceHost;
+        /**
+         * service 到后端实例地址，多个实例时按延迟和在途请求数选择；apate.services 服务表中的同名 service 优先
+         */
+        private Map<String, List<String>> serviceHost;
+        /**
+         * 请求信封的最大字节数，超过时返回 413，0 为不限制
+         */
+        private Integer maxEnvelopeSize = 0;
 
         public Boolean getEncryptEnable() {
             return encryptEnable;
@@ -402,12 +1341,20 @@ public class ProxyRequestGatewayFilterFactory extends AbstractGatewayFilterFacto
             this.encryptKey = encryptKey;
         }
 
-        public Map<String, String> getServiceHost() {
+        public Map<String, List<String>> getServiceHost() {
             return serviceHost;
         }
 
-        public void setServiceHost(Map<String, String> serviceHost) {
+        public void setServiceHost(Map<String, List<String>> serviceHost) {
             this.serviceHost = serviceHost;
         }
+
+        public Integer getMaxEnvelopeSize() {
+            return maxEnvelopeSize;
+        }
+
+        public void setMaxEnvelopeSize(Integer maxEnvelopeSize) {
+            this.maxEnvelopeSize = maxEnvelopeSize;
+        }
     }
 }
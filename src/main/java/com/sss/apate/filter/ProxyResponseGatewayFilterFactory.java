@@ -1,7 +1,25 @@
 package com.sss.apate.filter;
 
-import com.sss.apate.util.AESUtil;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.sss.apate.cache.CachedResponse;
+import com.sss.apate.cache.RequestKey;
+import com.sss.apate.cache.ResponseCache;
+import com.sss.apate.cache.UpstreamCoalescer;
+import com.sss.apate.codec.Envelope;
+import com.sss.apate.crypto.CipherEngine;
+import com.sss.apate.crypto.CipherEngines;
+import com.sss.apate.crypto.CipherSuites;
+import com.sss.apate.crypto.CryptoExecutor;
+import com.sss.apate.crypto.EncryptStream;
+import com.sss.apate.log.AccessLog;
+import com.sss.apate.log.PayloadSample;
+import com.sss.apate.metrics.ProxyMetrics;
+import com.sss.apate.metrics.ProxyTimings;
+import com.sss.apate.trace.SlowRequestRecorder;
+import com.sss.apate.util.GzipStream;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.reactivestreams.Publisher;
 import org.springframework.cloud.gateway.filter.GatewayFilter;
 import org.springframework.cloud.gateway.filter.GatewayFilterChain;
@@ -17,6 +35,7 @@ import org.springframework.core.io.buffer.DataBuffer;
 import org.springframework.core.io.buffer.DataBufferFactory;
 import org.springframework.core.io.buffer.DataBufferUtils;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.codec.HttpMessageReader;
 import org.springframework.http.codec.ServerCodecConfigurer;
@@ -28,17 +47,24 @@ import org.springframework.web.reactive.function.BodyInserter;
 import org.springframework.web.reactive.function.BodyInserters;
 import org.springframework.web.reactive.function.client.ClientResponse;
 import org.springframework.web.reactive.function.server.HandlerStrategies;
+import org.springframework.web.server.ResponseStatusException;
 import org.springframework.web.server.ServerWebExchange;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.core.scheduler.Schedulers;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 import static java.util.function.Function.identity;
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.CLIENT_RESPONSE_CONN_ATTR;
 
 /**
  * 返回代理类
@@ -50,6 +76,55 @@ import static java.util.function.Function.identity;
 public class ProxyResponseGatewayFilterFactory
         extends AbstractGatewayFilterFactory<ProxyResponseGatewayFilterFactory.Config> {
 
+    /**
+     * 命中响应缓存时返回该响应头
+     */
+    public static final String CACHE_HEADER = "X-Apate-Cache";
+
+    /**
+     * 加密前的报文压缩方式，客户端解密后按该值解压
+     */
+    public static final String PAYLOAD_ENCODING_HEADER = "X-Apate-Content-Encoding";
+
+    /**
+     * 缓存命中时需要一并写出的响应头
+     */
+    private static final String[] REPLAY_HEADERS = {HttpHeaders.CONTENT_ENCODING, PAYLOAD_ENCODING_HEADER};
+
+    /**
+     * 限流时返回的响应体明文
+     */
+    private static final byte[] TOO_MANY_REQUESTS_BODY =
+            "{\"code\":429,\"message\":\"too many requests\"}".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * 提前拒绝请求时返回的响应体，此时还没有确定客户端的密钥，与其他 4xx 错误一样不加密
+     */
+    private static final Map<HttpStatus, byte[]> ERROR_BODIES = new EnumMap<>(HttpStatus.class);
+
+    static {
+        ERROR_BODIES.put(HttpStatus.BAD_REQUEST,
+                "{\"code\":400,\"message\":\"bad request\"}".getBytes(StandardCharsets.UTF_8));
+        ERROR_BODIES.put(HttpStatus.UNAUTHORIZED,
+                "{\"code\":401,\"message\":\"unauthorized\"}".getBytes(StandardCharsets.UTF_8));
+        ERROR_BODIES.put(HttpStatus.PAYLOAD_TOO_LARGE,
+                "{\"code\":413,\"message\":\"envelope too large\"}".getBytes(StandardCharsets.UTF_8));
+        ERROR_BODIES.put(HttpStatus.BAD_GATEWAY,
+                "{\"code\":502,\"message\":\"upstream response too large\"}".getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 编解码器默认的聚合上限
+     */
+    private static final int DEFAULT_MAX_IN_MEMORY_SIZE = 256 * 1024;
+
+    /**
+     * 按密钥预先加密的限流响应体，下标为信封格式的 ordinal；密钥引擎不再使用后随之回收
+     */
+    private final Cache<CipherEngine, byte[][]> rejectedBodies = Caffeine.newBuilder()
+            .weakKeys()
+            .maximumSize(10000)
+            .build();
 
     private Map<String, MessageBodyDecoder> messageBodyDecoders;
 
@@ -57,11 +132,48 @@ public class ProxyResponseGatewayFilterFactory
 
     private final List<HttpMessageReader<?>> messageReaders;
 
+    /**
+     * 按 maxResponseSize 限制聚合大小的编解码器
+     */
+    private final Map<Integer, List<HttpMessageReader<?>>> limitedReaders = new ConcurrentHashMap<>();
+
+    private final ProxyMetrics metrics;
+
+    private final AccessLog accessLog;
+
+    private final ResponseCache responseCache;
+
+    private final UpstreamCoalescer coalescer;
+
+    private final CryptoExecutor cryptoExecutor;
+
+    private final SlowRequestRecorder slowRequests;
+
     public ProxyResponseGatewayFilterFactory(
             Set<MessageBodyDecoder> messageBodyDecoders,
             Set<MessageBodyEncoder> messageBodyEncoders) {
+        this(messageBodyDecoders, messageBodyEncoders, ProxyMetrics.NOOP, AccessLog.DISABLED,
+                ResponseCache.DISABLED, UpstreamCoalescer.DISABLED, CryptoExecutor.INLINE, SlowRequestRecorder.DISABLED);
+    }
+
+    @Autowired
+    public ProxyResponseGatewayFilterFactory(
+            Set<MessageBodyDecoder> messageBodyDecoders,
+            Set<MessageBodyEncoder> messageBodyEncoders,
+            ProxyMetrics metrics,
+            AccessLog accessLog,
+            ResponseCache responseCache,
+            UpstreamCoalescer coalescer,
+            CryptoExecutor cryptoExecutor,
+            SlowRequestRecorder slowRequests) {
         super(Config.class);
         this.messageReaders = HandlerStrategies.withDefaults().messageReaders();
+        this.metrics = metrics;
+        this.accessLog = accessLog;
+        this.responseCache = responseCache;
+        this.coalescer = coalescer;
+        this.cryptoExecutor = cryptoExecutor;
+        this.slowRequests = slowRequests;
         this.messageBodyDecoders = messageBodyDecoders.stream()
                 .collect(Collectors.toMap(MessageBodyDecoder::encodingType, identity()));
         this.messageBodyEncoders = messageBodyEncoders.stream()
@@ -77,10 +189,46 @@ public class ProxyResponseGatewayFilterFactory
     }
 
 
+    /**
+     * 按各信封格式加密限流响应体
+     *
+     * @param engine
+     * @return 下标为信封格式的 ordinal
+     */
+    private static byte[][] sealRejected(CipherEngine engine) {
+        try {
+            byte[][] bodies = new byte[Envelope.values().length][];
+            bodies[Envelope.TEXT.ordinal()] = engine.encryptToBase64(TOO_MANY_REQUESTS_BODY).getBytes(StandardCharsets.US_ASCII);
+            bodies[Envelope.BINARY.ordinal()] = engine.encrypt(TOO_MANY_REQUESTS_BODY);
+            return bodies;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("encrypt rejected body error", e);
+        }
+    }
+
+    /**
+     * 聚合响应体使用的编解码器
+     *
+     * @param maxInMemorySize 聚合上限，见 ProxyServerHttpResponse#aggregateLimit()
+     * @return
+     */
+    private List<HttpMessageReader<?>> messageReaders(int maxInMemorySize) {
+        if (maxInMemorySize == DEFAULT_MAX_IN_MEMORY_SIZE) {
+            return messageReaders;
+        }
+
+        return limitedReaders.computeIfAbsent(maxInMemorySize, size -> HandlerStrategies.builder()
+                .codecs(codecs -> codecs.defaultCodecs().maxInMemorySize(size))
+                .build()
+                .messageReaders());
+    }
+
     public class ProxyResponseGatewayFilter implements GatewayFilter, Ordered {
 
         private final Config config;
 
+        private final CipherEngine cipherEngine;
+
         private GatewayFilterFactory<Config> gatewayFilterFactory;
 
         public ProxyResponseGatewayFilter(Config config) {
@@ -90,18 +238,51 @@ public class ProxyResponseGatewayFilterFactory
         @Deprecated
         public ProxyResponseGatewayFilter(Config config, @Nullable ServerCodecConfigurer codecConfigurer) {
             this.config = config;
+            this.cipherEngine = Boolean.TRUE.equals(config.encryptEnable)
+                    ? CipherEngines.forKey(config.encrypt, config.encryptKey) : null;
+            if (cipherEngine != null) {
+                // 路由密钥的限流响应在配置生效时加密好
+                rejectedBodies.get(cipherEngine, ProxyResponseGatewayFilterFactory::sealRejected);
+            }
         }
 
+        /**
+         * 响应在 NettyWriteResponseFilter 中写出，它包在 ProxyRequest 外层，所以请求总耗时、访问日志和慢请求只能在这里统计
+         */
         @Override
         public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
-            return chain.filter(exchange.mutate()
-                    .response(new ProxyServerHttpResponse(exchange, config)).build());
+            ProxyServerHttpResponse response = new ProxyServerHttpResponse(exchange, config, cipherEngine);
+            ServerWebExchange.Builder builder = exchange.mutate().response(response);
+            if (config.compression == Compression.IDENTITY) {
+                builder.request(request -> request.header(HttpHeaders.ACCEPT_ENCODING, "identity"));
+            }
+
+            return chain.filter(builder.build())
+                    .doOnSuccess(v -> complete(exchange, exchange.getResponse().getStatusCode()))
+                    .doOnError(e -> complete(exchange, e instanceof ResponseStatusException
+                            ? ((ResponseStatusException) e).getStatus() : HttpStatus.INTERNAL_SERVER_ERROR))
+                    .doFinally(signal -> response.finishFlight());
+        }
+
+        private void complete(ServerWebExchange exchange, @Nullable HttpStatus status) {
+            ProxyTimings timings = exchange.getAttribute(ProxyRequestGatewayFilterFactory.PROXY_TIMINGS_ATTR);
+            ProxyRequestGatewayFilterFactory.ProxyConfig proxyConfig =
+                    exchange.getAttribute(ProxyRequestGatewayFilterFactory.CACHE_PROXY_REQUEST_BODY_OBJECT_KEY);
+
+            String path = proxyConfig == null ? null : proxyConfig.getPath();
+            metrics.recordRequest(timings, status);
+            accessLog.log(timings, path, status);
+            if (timings != null) {
+                int code = status == null ? 0 : status.value();
+                slowRequests.record(timings, path, code);
+                timings.finish(code, path);
+            }
         }
 
         @SuppressWarnings("unchecked")
         @Deprecated
         ServerHttpResponse decorate(ServerWebExchange exchange) {
-            return new ProxyServerHttpResponse(exchange, config);
+            return new ProxyServerHttpResponse(exchange, config, cipherEngine);
         }
 
         @Override
@@ -120,33 +301,185 @@ public class ProxyResponseGatewayFilterFactory
 
         private final Config config;
 
-        public ProxyServerHttpResponse(ServerWebExchange exchange, Config config) {
+        /**
+         * 路由配置的密钥，请求按客户端密钥解密时改用 {@link ProxyRequestGatewayFilterFactory#PROXY_CIPHER_ATTR}
+         */
+        private final CipherEngine routeEngine;
+
+        /**
+         * 响应使用与请求相同的信封格式
+         */
+        private final Envelope envelope;
+
+        /**
+         * 本次响应要写入的缓存 key，为空时不缓存
+         */
+        private RequestKey cacheKey;
+
+        private String cacheService;
+
+        /**
+         * 作为 leader 合并的上游请求，为空时不是 leader
+         */
+        private UpstreamCoalescer.Flight flight;
+
+        /**
+         * leader 收到的上游响应头，在加密过程修改响应头之前保存，分发给 follower
+         */
+        private HttpHeaders flightHeaders;
+
+        public ProxyServerHttpResponse(ServerWebExchange exchange, Config config, @Nullable CipherEngine cipherEngine) {
             super(exchange.getResponse());
             this.exchange = exchange;
             this.config = config;
+            this.routeEngine = cipherEngine;
+            this.envelope = Envelope.of(exchange.getRequest().getHeaders());
         }
 
-        @SuppressWarnings("unchecked")
+        /**
+         * 上游响应超过 maxResponseSize 时丢弃并返回 502：有 Content-Length 时不读取响应体，
+         * 否则边读边计数，超过后释放已读的部分；流式加密已经写出响应头时只能中断连接
+         */
         @Override
-        public Mono<Void> writeWith(Publisher<? extends DataBuffer> body) {
+        public Mono<Void> writeWith(Publisher<? extends DataBuffer> upstream) {
+            Flux<DataBuffer> body = released(upstream);
+            int maxSize = config.maxResponseSize != null ? config.maxResponseSize : 0;
+            if (maxSize <= 0) {
+                return writeUpstream(body).onErrorResume(this::isTooLarge, e -> writeTooLarge());
+            }
+
+            if (getDelegate().getHeaders().getContentLength() > maxSize) {
+                return body.take(0).then(Mono.defer(this::writeTooLarge));
+            }
+
+            return writeUpstream(limit(body, maxSize)).onErrorResume(this::isTooLarge, e -> writeTooLarge());
+        }
+
+        /**
+         * 上游响应体读完后连接已归还连接池，移除 {@code CLIENT_RESPONSE_CONN_ATTR}：加密在其他线程完成时，
+         * 服务端写完响应可能先于过滤链结束而取消它，{@link NettyWriteResponseFilter} 的清理会关闭这条连接，
+         * 而它可能已被其他请求复用（表现为 Connection prematurely closed BEFORE response）。
+         * 没读完就取消或出错时保留，仍由清理关闭
+         */
+        private Flux<DataBuffer> released(Publisher<? extends DataBuffer> body) {
+            return Flux.<DataBuffer>from(body).doOnComplete(() -> exchange.getAttributes().remove(CLIENT_RESPONSE_CONN_ATTR));
+        }
+
+        /**
+         * 边读边计数，超过 maxSize 时释放当前块并以 {@link #tooLarge()} 结束，其余部分由上游取消时释放
+         */
+        private Flux<DataBuffer> limit(Publisher<? extends DataBuffer> body, long maxSize) {
+            long[] total = new long[1];
+            return Flux.from(body).handle((buffer, sink) -> {
+                total[0] += buffer.readableByteCount();
+                if (total[0] > maxSize) {
+                    DataBufferUtils.release(buffer);
+                    sink.error(tooLarge());
+                } else {
+                    sink.next(buffer);
+                }
+            });
+        }
+
+        /**
+         * 聚合到内存中的响应体上限：配置了 maxResponseSize 时按它限制，否则为编解码器默认的 256KB。
+         * 聚合前自行计数，不依赖编解码器的限制（超限时它会重复释放同一个缓冲区）
+         */
+        private int aggregateLimit() {
+            return config.maxResponseSize != null && config.maxResponseSize > 0
+                    ? config.maxResponseSize : DEFAULT_MAX_IN_MEMORY_SIZE;
+        }
+
+        private boolean isTooLarge(Throwable e) {
+            return ProxyStatusException.is(e, HttpStatus.BAD_GATEWAY) && !getDelegate().isCommitted();
+        }
+
+        /**
+         * @return 上游响应超过上限时的异常
+         */
+        private ProxyStatusException tooLarge() {
+            return new ProxyStatusException(HttpStatus.BAD_GATEWAY, "upstream response too large");
+        }
+
+        private Mono<Void> writeTooLarge() {
+            ProxyTimings timings = exchange.getAttribute(ProxyRequestGatewayFilterFactory.PROXY_TIMINGS_ATTR);
+            metrics.recordError(timings, ProxyMetrics.Stage.UPSTREAM);
+            // 上游的响应头不再适用
+            getDelegate().getHeaders().clear();
+
+            return writeError(HttpStatus.BAD_GATEWAY);
+        }
+
+        @SuppressWarnings("unchecked")
+        private Mono<Void> writeUpstream(Publisher<? extends DataBuffer> body) {
+            ProxyTimings timings = exchange.getAttribute(ProxyRequestGatewayFilterFactory.PROXY_TIMINGS_ATTR);
+            metrics.recordUpstream(timings, true);
+
+            HttpHeaders upstreamHeaders = getDelegate().getHeaders();
+            if (flight != null) {
+                flightHeaders = flightHeaders(upstreamHeaders);
+            }
+            String encoding = upstreamHeaders.getFirst(HttpHeaders.CONTENT_ENCODING);
+            if (envelope == Envelope.BINARY) {
+                upstreamHeaders.setContentType(envelope.getMediaType());
+            }
+            if (cipherEngine() != null && encoding != null
+                    && (config.compression == Compression.PASSTHROUGH || config.compression == Compression.PRECOMPRESS)) {
+                // 直接加密上游压缩过的字节，省去解压和对密文的再次压缩
+                upstreamHeaders.remove(HttpHeaders.CONTENT_ENCODING);
+                upstreamHeaders.set(PAYLOAD_ENCODING_HEADER, encoding);
+                return isStreaming() ? writeStreaming(body, timings, false, false) : writeBytes(body, timings, encoding, null, false);
+            }
+            if (cipherEngine() != null && encoding == null && config.compression == Compression.PRECOMPRESS) {
+                upstreamHeaders.set(PAYLOAD_ENCODING_HEADER, "gzip");
+                return isStreaming() ? writeStreaming(body, timings, true, true) : writeBytes(body, timings, null, null, true);
+            }
+            if (isStreaming() && encoding == null) {
+                return writeStreaming(body, timings, true, false);
+            }
+            if (envelope == Envelope.BINARY) {
+                // 二进制信封直接输出密文字节，没有 base64 文本可压缩，上游压缩过的内容解压后再加密
+                MessageBodyDecoder decoder = encoding == null ? null : messageBodyDecoders.get(encoding);
+                upstreamHeaders.remove(HttpHeaders.CONTENT_ENCODING);
+                if (encoding != null && decoder == null) {
+                    upstreamHeaders.set(PAYLOAD_ENCODING_HEADER, encoding);
+                }
+                return writeBytes(body, timings, decoder == null ? encoding : null, decoder, false);
+            }
+
             HttpHeaders httpHeaders = new HttpHeaders();
             httpHeaders.add(HttpHeaders.CONTENT_TYPE, MediaType.TEXT_PLAIN_VALUE);
-            ClientResponse clientResponse = prepareClientResponse(body, httpHeaders);
+            ClientResponse clientResponse = prepareClientResponse(limit(body, aggregateLimit()), httpHeaders);
 
             Mono modifiedBody = extractBody(exchange, clientResponse, String.class).flatMap(originalBody -> {
-                try {
-                    String resBody=originalBody;
-                    if(config.encryptEnable) {
-                        resBody = AESUtil.encrypt(originalBody, config.encryptKey);
-                    }
-                    log.debug("Body encrypt success.originalBody:{}, modifiedBody:{}", originalBody, resBody);
+                completeFlight(originalBody.getBytes(StandardCharsets.UTF_8), null);
 
-                    return Mono.just(resBody);
-                } catch (Exception e) {
-                    log.error("Body encrypt error.originalBody:{}", originalBody);
+                if (cipherEngine() == null) {
+                    byte[] bytes = originalBody.getBytes(StandardCharsets.UTF_8);
+                    capture(timings, ByteBuffer.wrap(bytes));
+                    metrics.recordResponseSize(timings, bytes.length);
+                    return Mono.just(originalBody);
                 }
 
-                return Mono.empty();
+                // 大响应的加密交给 cryptoExecutor，不占用事件循环
+                return cryptoExecutor.execute(originalBody.length(), () -> {
+                    begin(timings, ProxyMetrics.Stage.ENCRYPT);
+                    long start = System.nanoTime();
+                    byte[] bytes = originalBody.getBytes(StandardCharsets.UTF_8);
+                    capture(timings, ByteBuffer.wrap(bytes));
+                    try {
+                        metrics.recordResponseSize(timings, bytes.length);
+                        String resBody = cipherEngine().encryptToBase64(bytes);
+                        encrypted(timings, System.nanoTime() - start);
+
+                        return resBody;
+                    } catch (Exception e) {
+                        encryptFailed(timings, System.nanoTime() - start);
+                        log.error("Body encrypt error. length: {}", bytes.length, e);
+                    }
+
+                    return null;
+                });
             });
 
             BodyInserter bodyInserter = BodyInserters.fromPublisher(modifiedBody, String.class);
@@ -162,11 +495,397 @@ public class ProxyResponseGatewayFilterFactory
                             messageBody = messageBody.doOnNext(data -> headers
                                     .setContentLength(data.readableByteCount()));
                         }
+                        if (cacheKey != null) {
+                            messageBody = messageBody.doOnNext(data -> {
+                                byte[] bytes = new byte[data.readableByteCount()];
+                                data.asByteBuffer().get(bytes);
+                                store(bytes);
+                            });
+                        }
                         // TODO: fail if isStreamingMediaType?
                         return getDelegate().writeWith(messageBody);
                     }));
         }
 
+        /**
+         * 按字节聚合的写出方式：聚合原始字节，按需解压或 gzip 后加密，不经过 String。
+         * 聚合前和解压后都按 {@link #aggregateLimit()} 限制，超过时以 {@link #tooLarge()} 结束
+         *
+         * @param body
+         * @param timings
+         * @param encoding 加密内容的压缩方式，明文时为 null
+         * @param decoder  不为空时先解压上游响应
+         * @param compress 加密前是否 gzip
+         * @return
+         */
+        private Mono<Void> writeBytes(Publisher<? extends DataBuffer> body, @Nullable ProxyTimings timings,
+                                      @Nullable String encoding, @Nullable MessageBodyDecoder decoder,
+                                      boolean compress) {
+            Mono<DataBuffer> encrypted = DataBufferUtils.join(limit(body, aggregateLimit())).flatMap(joined -> {
+                byte[] raw = new byte[joined.readableByteCount()];
+                joined.read(raw);
+                DataBufferUtils.release(joined);
+
+                // 解压和加密一样按大小决定是否交给 cryptoExecutor
+                return cryptoExecutor.execute(raw.length, () -> {
+                    byte[] bytes = decoder == null ? raw : decoder.decode(raw);
+                    if (bytes.length > aggregateLimit()) {
+                        throw tooLarge();
+                    }
+                    completeFlight(bytes, encoding);
+                    if (encoding == null) {
+                        capture(timings, ByteBuffer.wrap(bytes));
+                    }
+                    metrics.recordResponseSize(timings, bytes.length);
+                    if (cipherEngine() == null) {
+                        return bytes;
+                    }
+
+                    begin(timings, ProxyMetrics.Stage.ENCRYPT);
+                    long start = System.nanoTime();
+                    try {
+                        byte[] resBody = seal(compress ? GzipStream.compress(bytes) : bytes);
+                        encrypted(timings, System.nanoTime() - start);
+
+                        return resBody;
+                    } catch (Exception e) {
+                        encryptFailed(timings, System.nanoTime() - start);
+                        log.error("Body encrypt error. length: {}", bytes.length, e);
+                    }
+
+                    return null;
+                });
+            }).map(bytes -> {
+                getDelegate().getHeaders().setContentLength(bytes.length);
+                store(bytes);
+                return getDelegate().bufferFactory().wrap(bytes);
+            });
+
+            return getDelegate().writeWith(encrypted);
+        }
+
+        /**
+         * 按信封格式加密，TEXT 输出 base64，BINARY 直接输出密文
+         *
+         * @param bytes 明文
+         * @return
+         * @throws GeneralSecurityException
+         */
+        private byte[] seal(byte[] bytes) throws GeneralSecurityException {
+            return envelope == Envelope.BINARY ? cipherEngine().encrypt(bytes)
+                    : cipherEngine().encryptToBase64(bytes).getBytes(StandardCharsets.US_ASCII);
+        }
+
+        /**
+         * 响应使用请求解密时的密钥，按客户端选择密钥时优先于路由的密钥
+         *
+         * @return 为空时不加密
+         */
+        @Nullable
+        private CipherEngine cipherEngine() {
+            return routeEngine == null ? null
+                    : exchange.getAttributeOrDefault(ProxyRequestGatewayFilterFactory.PROXY_CIPHER_ATTR, routeEngine);
+        }
+
+        private boolean isStreaming() {
+            return Boolean.TRUE.equals(config.streaming) && cipherEngine() != null;
+        }
+
+        /**
+         * 该服务是否使用响应缓存或请求合并，流式加密不聚合响应体，两者都不参与
+         *
+         * @param service
+         * @return
+         */
+        boolean isDeduplicating(String service) {
+            return !isStreaming() && (responseCache.isEnabled(service) || coalescer.isEnabled());
+        }
+
+        /**
+         * 查询响应缓存，命中时直接写出缓存的最终字节；未命中时记下 key，响应写出时存入缓存
+         *
+         * @param digest  请求摘要，见 {@link ProxyRequestGatewayFilterFactory#requestDigest}
+         * @param service
+         * @return 未命中时为空
+         */
+        @Nullable
+        Mono<Void> writeCached(byte[] digest, String service) {
+            if (!responseCache.isEnabled(service)) {
+                return null;
+            }
+
+            // 不同信封格式的密文不同，缓存还要按信封格式隔离
+            RequestKey key = new RequestKey(digest, envelope + ":" + keyScope());
+            CachedResponse cached = responseCache.get(key);
+            if (cached == null) {
+                this.cacheKey = key;
+                this.cacheService = service;
+                return null;
+            }
+
+            getDelegate().setStatusCode(HttpStatus.OK);
+            HttpHeaders headers = getDelegate().getHeaders();
+            headers.setContentType(envelope.getMediaType());
+            headers.setContentLength(cached.getBody().length);
+            headers.putAll(cached.getHeaders());
+            headers.set(CACHE_HEADER, "HIT");
+
+            return getDelegate().writeWith(Mono.fromSupplier(() -> getDelegate().bufferFactory().wrap(cached.getBody())));
+        }
+
+        /**
+         * 写出限流响应，响应体按密钥预先加密，限流时不再做加密
+         *
+         * @return
+         */
+        Mono<Void> writeRejected() {
+            CipherEngine engine = cipherEngine();
+            byte[] body = engine == null ? TOO_MANY_REQUESTS_BODY
+                    : rejectedBodies.get(engine, ProxyResponseGatewayFilterFactory::sealRejected)[envelope.ordinal()];
+
+            this.cacheKey = null;
+            getDelegate().setStatusCode(HttpStatus.TOO_MANY_REQUESTS);
+            HttpHeaders headers = getDelegate().getHeaders();
+            headers.setContentType(engine == null ? MediaType.APPLICATION_JSON : envelope.getMediaType());
+            headers.setContentLength(body.length);
+            headers.set(HttpHeaders.RETRY_AFTER, "1");
+
+            return getDelegate().writeWith(Mono.fromSupplier(() -> getDelegate().bufferFactory().wrap(body)));
+        }
+
+        /**
+         * 写出预先生成的错误响应，请求体未读完时关闭连接
+         *
+         * @param status 400、401、413 或 502
+         * @return
+         */
+        Mono<Void> writeError(HttpStatus status) {
+            byte[] body = ERROR_BODIES.get(status);
+            if (body == null) {
+                return Mono.error(new ResponseStatusException(status));
+            }
+
+            this.cacheKey = null;
+            getDelegate().setStatusCode(status);
+            HttpHeaders headers = getDelegate().getHeaders();
+            headers.setContentType(MediaType.APPLICATION_JSON);
+            headers.setContentLength(body.length);
+            if (status == HttpStatus.PAYLOAD_TOO_LARGE) {
+                headers.setConnection("close");
+            }
+
+            return getDelegate().writeWith(Mono.fromSupplier(() -> getDelegate().bufferFactory().wrap(body)));
+        }
+
+        /**
+         * 合并并发的相同请求：leader 执行 forward 并在写响应时分发明文，follower 拿到明文后按自己的密钥加密写出
+         *
+         * @param digest  请求摘要，见 {@link ProxyRequestGatewayFilterFactory#requestDigest}
+         * @param forward 请求上游
+         * @return
+         */
+        Mono<Void> coalesce(byte[] digest, Mono<Void> forward) {
+            if (!coalescer.isEnabled()) {
+                return forward;
+            }
+
+            // 摘要已区分客户端和转发的请求头，再按密钥隔离，不同密钥的调用方不共享后端响应
+            UpstreamCoalescer.Flight joined = coalescer.join(new RequestKey(digest, keyScope()));
+            if (joined.isLeader()) {
+                this.flight = joined;
+                return forward;
+            }
+
+            return joined.await()
+                    .flatMap(result -> writeFollower(result).thenReturn(Boolean.TRUE))
+                    .switchIfEmpty(forward.thenReturn(Boolean.TRUE))
+                    .then();
+        }
+
+        /**
+         * 不同套件、密钥的密文不同，按两者隔离；客户端密钥按客户端和密钥版本隔离
+         *
+         * @return 不加密时为空
+         */
+        private String keyScope() {
+            if (cipherEngine() == null) {
+                return "";
+            }
+            String keyScope = exchange.getAttribute(ProxyRequestGatewayFilterFactory.PROXY_KEY_SCOPE_ATTR);
+            return CipherSuites.canonicalName(config.encrypt) + ":" + (keyScope != null ? keyScope : config.encryptKey);
+        }
+
+        private Mono<Void> writeFollower(UpstreamCoalescer.Result result) {
+            // 响应缓存由 leader 写入，follower 不重复写
+            this.cacheKey = null;
+            getDelegate().setStatusCode(result.getStatus());
+            getDelegate().getHeaders().putAll(result.getHeaders());
+            if (result.getContentEncoding() != null) {
+                getDelegate().getHeaders().set(HttpHeaders.CONTENT_ENCODING, result.getContentEncoding());
+            }
+
+            return writeWith(Mono.fromSupplier(() -> getDelegate().bufferFactory().wrap(result.getBody())));
+        }
+
+        /**
+         * 上游响应头中可以分发给 follower 的部分：长度和压缩方式由 follower 按结果重新设置
+         *
+         * @param upstreamHeaders
+         * @return 带 Set-Cookie 时为空，结果不分发
+         */
+        @Nullable
+        private HttpHeaders flightHeaders(HttpHeaders upstreamHeaders) {
+            if (upstreamHeaders.containsKey(HttpHeaders.SET_COOKIE)) {
+                return null;
+            }
+
+            HttpHeaders headers = new HttpHeaders();
+            headers.putAll(upstreamHeaders);
+            headers.remove(HttpHeaders.CONTENT_LENGTH);
+            headers.remove(HttpHeaders.TRANSFER_ENCODING);
+            headers.remove(HttpHeaders.CONTENT_ENCODING);
+            return headers;
+        }
+
+        /**
+         * leader 拿到明文后分发给 follower，只分发 200 且不带 Set-Cookie 的响应，其他情况 follower 自行请求上游
+         *
+         * @param bytes
+         * @param encoding bytes 的压缩方式，明文时为 null
+         */
+        private void completeFlight(byte[] bytes, @Nullable String encoding) {
+            HttpStatus status = getDelegate().getStatusCode();
+            if (flight != null && flightHeaders != null && status != null) {
+                flight.complete(status, flightHeaders, bytes, encoding);
+            }
+        }
+
+        /**
+         * leader 结束时释放合并的请求，未分发结果时 follower 会自行请求上游
+         */
+        void finishFlight() {
+            if (flight != null) {
+                flight.finish();
+            }
+        }
+
+        private void store(byte[] bytes) {
+            if (cacheKey == null || getDelegate().getStatusCode() != HttpStatus.OK) {
+                return;
+            }
+
+            HttpHeaders headers = getDelegate().getHeaders();
+            HttpHeaders replayHeaders = new HttpHeaders();
+            for (String name : REPLAY_HEADERS) {
+                List<String> values = headers.get(name);
+                if (values != null) {
+                    replayHeaders.put(name, values);
+                }
+            }
+            responseCache.put(cacheKey, cacheService, bytes, headers, replayHeaders);
+        }
+
+        /**
+         * 流式加密：每个 DataBuffer 到达即加密写出，不聚合整个响应体
+         *
+         * @param body
+         * @param timings
+         * @param plaintext 上游是否为明文，压缩过的字节不采样
+         * @param compress  加密前是否 gzip
+         * @return
+         */
+        private Mono<Void> writeStreaming(Publisher<? extends DataBuffer> body, @Nullable ProxyTimings timings,
+                                          boolean plaintext, boolean compress) {
+            getDelegate().getHeaders().remove(HttpHeaders.CONTENT_LENGTH);
+
+            Flux<DataBuffer> encrypted = Flux.using(() -> cipherEngine().newEncryptStream(envelope == Envelope.TEXT),
+                    stream -> compress
+                            ? Flux.using(GzipStream::new, gzip -> encryptStream(body, timings, plaintext, stream, gzip), GzipStream::close)
+                            : encryptStream(body, timings, plaintext, stream, null),
+                    EncryptStream::close);
+
+            return getDelegate().writeWith(encrypted);
+        }
+
+        private Flux<DataBuffer> encryptStream(Publisher<? extends DataBuffer> body, @Nullable ProxyTimings timings,
+                                               boolean plaintext, EncryptStream stream, @Nullable GzipStream gzip) {
+            DataBufferFactory bufferFactory = getDelegate().bufferFactory();
+
+            // 各 chunk 串行到达，累加后在结束时上报一次
+            long[] encryptNanos = new long[1];
+            long[] plainBytes = new long[1];
+            return Flux.from(body).<DataBuffer>handle((buffer, sink) -> {
+                long start = System.nanoTime();
+                try {
+                    plainBytes[0] += buffer.readableByteCount();
+                    if (plaintext) {
+                        capture(timings, buffer.asByteBuffer());
+                    }
+                    byte[] bytes = gzip == null ? stream.update(buffer.asByteBuffer())
+                            : stream.update(ByteBuffer.wrap(gzip.update(buffer.asByteBuffer())));
+                    encryptNanos[0] += System.nanoTime() - start;
+                    if (bytes.length > 0) {
+                        sink.next(bufferFactory.wrap(bytes));
+                    }
+                } catch (Exception e) {
+                    log.error("Body stream encrypt error.", e);
+                    metrics.recordError(timings, ProxyMetrics.Stage.ENCRYPT);
+                    sink.error(e);
+                } finally {
+                    DataBufferUtils.release(buffer);
+                }
+            }).concatWith(Flux.defer(() -> {
+                long start = System.nanoTime();
+                try {
+                    byte[] tail = gzip == null ? new byte[0] : stream.update(ByteBuffer.wrap(gzip.finish()));
+                    byte[] bytes = stream.doFinal();
+                    encrypted(timings, encryptNanos[0] + System.nanoTime() - start);
+                    metrics.recordResponseSize(timings, plainBytes[0]);
+                    return tail.length == 0 ? Flux.just(bufferFactory.wrap(bytes))
+                            : Flux.just(bufferFactory.wrap(tail), bufferFactory.wrap(bytes));
+                } catch (Exception e) {
+                    log.error("Body stream encrypt error.", e);
+                    metrics.recordError(timings, ProxyMetrics.Stage.ENCRYPT);
+                    return Flux.error(e);
+                }
+            }));
+        }
+
+        private void encrypted(@Nullable ProxyTimings timings, long nanos) {
+            metrics.recordStage(timings, ProxyMetrics.Stage.ENCRYPT, nanos, true);
+            if (timings != null) {
+                timings.end(ProxyMetrics.Stage.ENCRYPT);
+                timings.setEncryptNanos(nanos);
+            }
+        }
+
+        private void encryptFailed(@Nullable ProxyTimings timings, long nanos) {
+            metrics.recordStage(timings, ProxyMetrics.Stage.ENCRYPT, nanos, false);
+            metrics.recordError(timings, ProxyMetrics.Stage.ENCRYPT);
+            if (timings != null) {
+                timings.end(ProxyMetrics.Stage.ENCRYPT);
+            }
+        }
+
+        /**
+         * 开始聚合加密的 JFR 事件，流式加密分散在各个 chunk 中，不生成阶段事件
+         *
+         * @param timings
+         * @param stage
+         */
+        private void begin(@Nullable ProxyTimings timings, ProxyMetrics.Stage stage) {
+            if (timings != null) {
+                timings.begin(stage);
+            }
+        }
+
+        private void capture(@Nullable ProxyTimings timings, ByteBuffer body) {
+            PayloadSample sample = timings == null ? null : timings.getPayloadSample();
+            if (sample != null) {
+                sample.captureResponse(body);
+            }
+        }
+
         @Override
         public Mono<Void> writeAndFlushWith(Publisher<? extends Publisher<? extends DataBuffer>> body) {
             return writeWith(Flux.from(body).flatMapSequential(p -> p));
@@ -175,14 +894,14 @@ public class ProxyResponseGatewayFilterFactory
         @Override
         public HttpHeaders getHeaders() {
             HttpHeaders httpHeaders = super.getHeaders();
-            httpHeaders.add(HttpHeaders.CONTENT_TYPE, MediaType.TEXT_PLAIN_VALUE);
+            httpHeaders.add(HttpHeaders.CONTENT_TYPE, envelope.getMediaType().toString());
 
             return httpHeaders;
         }
 
         private ClientResponse prepareClientResponse(Publisher<? extends DataBuffer> body, HttpHeaders httpHeaders) {
             ClientResponse.Builder builder;
-            builder = ClientResponse.create(exchange.getResponse().getStatusCode(), messageReaders);
+            builder = ClientResponse.create(exchange.getResponse().getStatusCode(), messageReaders(aggregateLimit()));
             return builder.headers(headers -> headers.putAll(httpHeaders)).body(Flux.from(body)).build();
         }
 
@@ -200,6 +919,14 @@ public class ProxyResponseGatewayFilterFactory
                 if (decoder != null) {
                     return clientResponse.bodyToMono(byte[].class)
                             .publishOn(Schedulers.parallel()).map(decoder::decode)
+                            .<byte[]>handle((bytes, sink) -> {
+                                // 解压后的明文同样受聚合上限约束
+                                if (bytes.length > aggregateLimit()) {
+                                    sink.error(tooLarge());
+                                } else {
+                                    sink.next(bytes);
+                                }
+                            })
                             .map(bytes -> exchange.getResponse().bufferFactory().wrap(bytes))
                             .map(buffer -> prepareClientResponse(Mono.just(buffer),
                                     exchange.getResponse().getHeaders()))
@@ -238,8 +965,23 @@ public class ProxyResponseGatewayFilterFactory
      */
     public static class Config {
         private Boolean encryptEnable;
+        /**
+         * 加密套件，见 {@link com.sss.apate.crypto.CipherSuites}，为空时为 AES（ECB）
+         */
         private String encrypt;
         private String encryptKey;
+        /**
+         * 流式加密，开启后响应以 chunked 方式边收边加密，不再聚合整个 body
+         */
+        private Boolean streaming = false;
+        /**
+         * 响应压缩策略，见 {@link Compression}
+         */
+        private Compression compression = Compression.DECODE;
+        /**
+         * 上游响应的最大字节数（按收到的字节计算，压缩的响应为压缩后的大小），超过时返回 502，0 为不限制
+         */
+        private Integer maxResponseSize = 0;
 
         public Boolean getEncryptEnable() {
             return encryptEnable;
@@ -264,6 +1006,52 @@ public class ProxyResponseGatewayFilterFactory
         public void setEncryptKey(String encryptKey) {
             this.encryptKey = encryptKey;
         }
+
+        public Boolean getStreaming() {
+            return streaming;
+        }
+
+        public void setStreaming(Boolean streaming) {
+            this.streaming = streaming;
+        }
+
+        public Compression getCompression() {
+            return compression;
+        }
+
+        public void setCompression(Compression compression) {
+            this.compression = compression;
+        }
+
+        public Integer getMaxResponseSize() {
+            return maxResponseSize;
+        }
+
+        public void setMaxResponseSize(Integer maxResponseSize) {
+            this.maxResponseSize = maxResponseSize;
+        }
+    }
+
+    /**
+     * 响应压缩策略，只对开启加密的路由生效
+     */
+    public enum Compression {
+        /**
+         * 解压上游响应，加密后按原 Content-Encoding 再压缩密文
+         */
+        DECODE,
+        /**
+         * 请求上游时带 Accept-Encoding: identity，上游仍返回压缩内容时按 DECODE 处理
+         */
+        IDENTITY,
+        /**
+         * 直接加密上游压缩过的字节，压缩方式通过 X-Apate-Content-Encoding 告知客户端；上游为明文时按 DECODE 处理
+         */
+        PASSTHROUGH,
+        /**
+         * 同 PASSTHROUGH，上游为明文时先 gzip 再加密
+         */
+        PRECOMPRESS
     }
 
     public Map<String, MessageBodyDecoder> getMessageBodyDecoders() {
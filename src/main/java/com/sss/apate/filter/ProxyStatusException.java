@@ -0,0 +1,35 @@
+package com.sss.apate.filter;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * 代理过滤器内部提前结束请求的异常，按类型和状态码识别
+ * <p>
+ * 每次新建，不能做成共享的静态实例：异常传出过滤器后，框架的 checkpoint 会往异常上追加 suppressed 信息，
+ * 共享实例会被多个事件循环同时修改并无限增长。不记录堆栈，创建的开销只是一次对象分配
+ *
+ * @author sss
+ */
+final class ProxyStatusException extends ResponseStatusException {
+
+    private static final long serialVersionUID = 1L;
+
+    ProxyStatusException(HttpStatus status, String reason) {
+        super(status, reason);
+    }
+
+    /**
+     * @param e
+     * @param status
+     * @return 是否为该状态码的 ProxyStatusException
+     */
+    static boolean is(Throwable e, HttpStatus status) {
+        return e instanceof ProxyStatusException && ((ProxyStatusException) e).getStatus() == status;
+    }
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        return this;
+    }
+}
@@ -0,0 +1,291 @@
+package com.sss.apate.filter;
+
+import com.sss.apate.client.ServiceHttpClients;
+import com.sss.apate.limit.RateLimiter;
+import com.sss.apate.metrics.ProxyTimings;
+import com.sss.apate.route.ServiceTarget;
+import io.netty.channel.ChannelOption;
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.cloud.gateway.config.HttpClientProperties;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.cloud.gateway.filter.NettyRoutingFilter;
+import org.springframework.cloud.gateway.filter.headers.HttpHeadersFilter;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.cloud.gateway.support.TimeoutException;
+import org.springframework.core.Ordered;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.reactive.AbstractServerHttpResponse;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.http.server.reactive.ServerHttpResponseDecorator;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+import reactor.netty.Connection;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.http.client.HttpClientResponse;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.List;
+
+import static com.sss.apate.filter.ProxyRequestGatewayFilterFactory.PROXY_HEDGE_ATTR;
+import static com.sss.apate.filter.ProxyRequestGatewayFilterFactory.PROXY_SERVICE_ATTR;
+import static com.sss.apate.filter.ProxyRequestGatewayFilterFactory.PROXY_TIMINGS_ATTR;
+import static org.springframework.cloud.gateway.support.RouteMetadataUtils.CONNECT_TIMEOUT_ATTR;
+import static org.springframework.cloud.gateway.support.RouteMetadataUtils.RESPONSE_TIMEOUT_ATTR;
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.CLIENT_RESPONSE_ATTR;
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.CLIENT_RESPONSE_CONN_ATTR;
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.CLIENT_RESPONSE_HEADER_NAMES;
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.GATEWAY_REQUEST_URL_ATTR;
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.GATEWAY_ROUTE_ATTR;
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.ORIGINAL_RESPONSE_CONTENT_TYPE_ATTR;
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.PRESERVE_HOST_HEADER_ATTRIBUTE;
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.isAlreadyRouted;
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.setAlreadyRouted;
+
+/**
+ * 按 service 选择连接池的路由过滤器
+ * <p>
+ * 排在网关默认的 NettyRoutingFilter 之前，转发后标记为已路由，默认过滤器不再处理。
+ * 未开启 apate.client 或非代理请求时使用网关默认的 HttpClient。
+ * 代理请求在拿到连接、开始发送时打点，区分连接池等待和上游处理的耗时。
+ * 带有 {@link Hedge} 的 GET 请求在对冲延迟后向另一个实例再发一次，先收到响应头的生效，另一个取消；
+ * 与默认过滤器一样受 response-timeout 限制，超时覆盖两个请求的整个竞争过程
+ *
+ * @author sss
+ */
+@Component
+@Slf4j
+public class ServiceRoutingFilter extends NettyRoutingFilter {
+
+    private final HttpClientProperties properties;
+
+    private final ServiceHttpClients serviceHttpClients;
+
+    public ServiceRoutingFilter(HttpClient httpClient, ObjectProvider<List<HttpHeadersFilter>> headersFiltersProvider,
+                                HttpClientProperties properties, ServiceHttpClients serviceHttpClients) {
+        super(httpClient, headersFiltersProvider, properties);
+        this.properties = properties;
+        this.serviceHttpClients = serviceHttpClients;
+    }
+
+    @Override
+    public int getOrder() {
+        return Ordered.LOWEST_PRECEDENCE - 1;
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
+        Hedge hedge = exchange.getAttribute(PROXY_HEDGE_ATTR);
+        URI requestUrl = exchange.getAttribute(GATEWAY_REQUEST_URL_ATTR);
+        if (hedge == null || requestUrl == null || isAlreadyRouted(exchange)
+                || !("http".equals(requestUrl.getScheme()) || "https".equals(requestUrl.getScheme()))) {
+            return super.filter(exchange, chain);
+        }
+        setAlreadyRouted(exchange);
+
+        // 请求头的处理与 NettyRoutingFilter 一致，GET 请求没有请求体
+        ServerHttpRequest request = exchange.getRequest();
+        DefaultHttpHeaders httpHeaders = new DefaultHttpHeaders();
+        HttpHeadersFilter.filterRequest(getHeadersFilters(), exchange).forEach(httpHeaders::set);
+        boolean preserveHost = exchange.getAttributeOrDefault(PRESERVE_HOST_HEADER_ATTRIBUTE, false);
+        Route route = exchange.getAttribute(GATEWAY_ROUTE_ATTR);
+        HttpClient client = getHttpClient(route, exchange).headers(headers -> {
+            headers.add(httpHeaders);
+            headers.remove(HttpHeaders.HOST);
+            if (preserveHost) {
+                headers.add(HttpHeaders.HOST, request.getHeaders().getFirst(HttpHeaders.HOST));
+            }
+        });
+
+        Mono<HttpClientResponse> primary = attempt(exchange, client, requestUrl, hedge, false)
+                .onErrorResume(e -> awaitOther(hedge, false, requestUrl, e));
+        Mono<HttpClientResponse> hedged = Mono.delay(hedge.getDelay())
+                .then(Mono.defer(() -> {
+                    if (hedge.isDecided()) {
+                        return Mono.never();
+                    }
+                    // 先取并发许可再扣对冲预算，超过并发上限时不消耗预算
+                    RateLimiter.Permit permit = hedge.tryAcquire();
+                    if (permit == null) {
+                        return Mono.never();
+                    }
+                    if (!hedge.getTimeout().tryHedge()) {
+                        permit.cancel();
+                        return Mono.never();
+                    }
+                    ServiceTarget target = hedge.chooseTarget();
+                    URI uri;
+                    try {
+                        uri = hedge.uri(target);
+                    } catch (IllegalArgumentException e) {
+                        permit.cancel();
+                        return Mono.never();
+                    }
+
+                    hedge.sent();
+                    target.start();
+                    long start = System.nanoTime();
+                    int[] status = new int[1];
+                    // 对冲实例在对冲请求胜出或失败时记为完成，原请求先返回时被取消；原实例由 ProxyRequest 记录
+                    return attempt(exchange, client, uri, hedge, true)
+                            .doOnNext(response -> status[0] = response.status().code())
+                            .doFinally(signal -> {
+                                if (signal == SignalType.CANCEL) {
+                                    target.cancel();
+                                    permit.cancel();
+                                } else {
+                                    long latency = System.nanoTime() - start;
+                                    boolean success = status[0] > 0 && status[0] < 500;
+                                    target.complete(latency, success);
+                                    permit.release(latency, success);
+                                }
+                            })
+                            .onErrorResume(e -> awaitOther(hedge, true, uri, e));
+                }));
+
+        // 未胜出的请求不发出任何信号，Mono.first 只会取到胜出的响应，随后取消另一个
+        Mono<HttpClientResponse> response = Mono.first(primary, hedged);
+        Duration responseTimeout = getResponseTimeout(route);
+        if (responseTimeout != null) {
+            response = response
+                    .timeout(responseTimeout, Mono.error(new TimeoutException(
+                            "Response took longer than timeout: " + responseTimeout)))
+                    .onErrorMap(TimeoutException.class,
+                            e -> new ResponseStatusException(HttpStatus.GATEWAY_TIMEOUT, e.getMessage(), e));
+        }
+
+        return response.then(chain.filter(exchange));
+    }
+
+    /**
+     * 与 NettyRoutingFilter 一致，路由 metadata 中的 response-timeout 优先
+     *
+     * @param route
+     * @return 未配置时为空
+     */
+    private Duration getResponseTimeout(Route route) {
+        Long timeout = route == null ? null : millis(route.getMetadata().get(RESPONSE_TIMEOUT_ATTR));
+        return timeout != null ? Duration.ofMillis(timeout) : properties.getResponseTimeout();
+    }
+
+    private static Long millis(Object value) {
+        if (value == null) {
+            return null;
+        }
+        return value instanceof Number ? ((Number) value).longValue() : Long.valueOf(value.toString());
+    }
+
+    /**
+     * 发出一次请求，收到响应头时与另一个请求竞争，胜出的把响应写入 exchange，落后的直接关闭连接
+     *
+     * @param exchange
+     * @param client
+     * @param uri
+     * @param hedge
+     * @param hedged   是否为对冲请求
+     * @return 落后时不发出信号
+     */
+    private Mono<HttpClientResponse> attempt(ServerWebExchange exchange, HttpClient client, URI uri, Hedge hedge,
+                                             boolean hedged) {
+        return client.request(io.netty.handler.codec.http.HttpMethod.GET)
+                .uri(uri.toASCIIString())
+                .responseConnection((response, connection) -> {
+                    if (!hedge.claim(hedged)) {
+                        connection.dispose();
+                        return Mono.<HttpClientResponse>never();
+                    }
+                    applyResponse(exchange, response, connection);
+                    return Mono.just(response);
+                })
+                // 不能用 next()，提前取消会关闭胜出请求的连接，响应体还要由 NettyWriteResponseFilter 读取
+                .singleOrEmpty();
+    }
+
+    /**
+     * 一个请求失败时，另一个仍在进行则等待它的结果，否则把错误传出去
+     *
+     * @param hedge
+     * @param hedged 失败的是否为对冲请求
+     * @param uri
+     * @param e
+     * @return
+     */
+    private Mono<HttpClientResponse> awaitOther(Hedge hedge, boolean hedged, URI uri, Throwable e) {
+        if (hedge.failed(hedged)) {
+            log.debug("hedged attempt failed, waiting for the other. uri: {}, exception: {}", uri, e.toString());
+            return Mono.never();
+        }
+        return Mono.error(e);
+    }
+
+    /**
+     * 与 NettyRoutingFilter 收到响应头时的处理一致
+     *
+     * @param exchange
+     * @param clientResponse
+     * @param connection
+     */
+    private void applyResponse(ServerWebExchange exchange, HttpClientResponse clientResponse, Connection connection) {
+        exchange.getAttributes().put(CLIENT_RESPONSE_ATTR, clientResponse);
+        exchange.getAttributes().put(CLIENT_RESPONSE_CONN_ATTR, connection);
+
+        ServerHttpResponse response = exchange.getResponse();
+        HttpHeaders headers = new HttpHeaders();
+        clientResponse.responseHeaders().forEach(entry -> headers.add(entry.getKey(), entry.getValue()));
+        String contentType = headers.getFirst(HttpHeaders.CONTENT_TYPE);
+        if (StringUtils.hasLength(contentType)) {
+            exchange.getAttributes().put(ORIGINAL_RESPONSE_CONTENT_TYPE_ATTR, contentType);
+        }
+
+        HttpStatus status = HttpStatus.resolve(clientResponse.status().code());
+        if (status != null) {
+            response.setStatusCode(status);
+        } else {
+            ServerHttpResponse delegate = response;
+            while (delegate instanceof ServerHttpResponseDecorator) {
+                delegate = ((ServerHttpResponseDecorator) delegate).getDelegate();
+            }
+            if (!(delegate instanceof AbstractServerHttpResponse)) {
+                throw new IllegalStateException("Unable to set status code " + clientResponse.status().code()
+                        + " on response of type " + response.getClass().getName());
+            }
+            ((AbstractServerHttpResponse) delegate).setRawStatusCode(clientResponse.status().code());
+        }
+
+        HttpHeaders filteredHeaders = HttpHeadersFilter.filter(getHeadersFilters(), headers, exchange,
+                HttpHeadersFilter.Type.RESPONSE);
+        if (!filteredHeaders.containsKey(HttpHeaders.TRANSFER_ENCODING)
+                && filteredHeaders.containsKey(HttpHeaders.CONTENT_LENGTH)) {
+            response.getHeaders().remove(HttpHeaders.TRANSFER_ENCODING);
+        }
+        exchange.getAttributes().put(CLIENT_RESPONSE_HEADER_NAMES, filteredHeaders.keySet());
+        response.getHeaders().putAll(filteredHeaders);
+    }
+
+    @Override
+    protected HttpClient getHttpClient(Route route, ServerWebExchange exchange) {
+        String service = exchange.getAttribute(PROXY_SERVICE_ATTR);
+        HttpClient httpClient = serviceHttpClients.get(service);
+        if (httpClient == null) {
+            httpClient = super.getHttpClient(route, exchange);
+        } else {
+            // 与 NettyRoutingFilter 一致，路由 metadata 中的 connect-timeout 覆盖全局配置
+            Long connectTimeout = route == null ? null : millis(route.getMetadata().get(CONNECT_TIMEOUT_ATTR));
+            if (connectTimeout != null) {
+                int timeout = connectTimeout.intValue();
+                httpClient = httpClient.tcpConfiguration(tcp -> tcp.option(ChannelOption.CONNECT_TIMEOUT_MILLIS, timeout));
+            }
+        }
+
+        ProxyTimings timings = exchange.getAttribute(PROXY_TIMINGS_ATTR);
+        return timings == null ? httpClient : httpClient.doOnRequest((request, connection) -> timings.acquired());
+    }
+}
@@ -0,0 +1,44 @@
+package com.sss.apate.key;
+
+import com.sss.apate.crypto.CipherEngine;
+
+/**
+ * 客户端密钥对应的已初始化引擎
+ *
+ * @author sss
+ */
+public final class ClientKey {
+
+    private final String clientId;
+
+    private final KeyRegistry.Material material;
+
+    private final CipherEngine engine;
+
+    ClientKey(String clientId, KeyRegistry.Material material, CipherEngine engine) {
+        this.clientId = clientId;
+        this.material = material;
+        this.engine = engine;
+    }
+
+    public String getClientId() {
+        return clientId;
+    }
+
+    public CipherEngine getEngine() {
+        return engine;
+    }
+
+    /**
+     * 响应缓存的隔离范围，密钥轮换后随之变化，旧密钥加密的缓存不会再命中
+     *
+     * @return
+     */
+    public String getScope() {
+        return "client:" + clientId + "@" + material.getVersion();
+    }
+
+    KeyRegistry.Material getMaterial() {
+        return material;
+    }
+}
@@ -0,0 +1,138 @@
+package com.sss.apate.key;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * 客户端密钥配置
+ *
+ * @author sss
+ */
+@Component
+@ConfigurationProperties(prefix = "apate.keys")
+public class KeyProperties {
+    /**
+     * 是否按客户端选择密钥，默认关闭，所有客户端使用路由的 encryptKey
+     */
+    private Boolean enabled = false;
+    /**
+     * 携带客户端标识的请求头
+     */
+    private String header = "X-Apate-Client-Id";
+    /**
+     * 请求头缺失时，是否从文本信封的 "clientId:" 前缀读取客户端标识
+     */
+    private Boolean prefixEnabled = true;
+    /**
+     * 密钥文件，properties 格式：clientId=密钥，密钥按 UTF-8 取字节，"base64:" 开头时按 base64 解码
+     */
+    private String file;
+    /**
+     * 密钥库文件，每个 SecretKeyEntry 的 alias 为客户端标识
+     */
+    private String keystore;
+    /**
+     * 密钥库类型，PKCS12 或 JCEKS
+     */
+    private String keystoreType = "PKCS12";
+    /**
+     * 密钥库和条目的密码
+     */
+    private String keystorePassword;
+    /**
+     * 检查密钥文件变化的间隔，文件修改后重新加载并原子替换，为 0 时不检查
+     */
+    private Duration reloadInterval = Duration.ofSeconds(10);
+    /**
+     * 已初始化的加解密引擎缓存上限，超过后按 W-TinyLFU 淘汰
+     * <p>
+     * 每个引擎在网络线程和加解密线程上各持有自己的 Cipher，调大前按 上限 × 线程数 估算内存
+     */
+    private Integer cacheSize = 1000;
+    /**
+     * 加解密引擎缓存的访问过期时间
+     */
+    private Duration cacheExpire = Duration.ofMinutes(30);
+
+    public Boolean getEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(Boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public String getHeader() {
+        return header;
+    }
+
+    public void setHeader(String header) {
+        this.header = header;
+    }
+
+    public Boolean getPrefixEnabled() {
+        return prefixEnabled;
+    }
+
+    public void setPrefixEnabled(Boolean prefixEnabled) {
+        this.prefixEnabled = prefixEnabled;
+    }
+
+    public String getFile() {
+        return file;
+    }
+
+    public void setFile(String file) {
+        this.file = file;
+    }
+
+    public String getKeystore() {
+        return keystore;
+    }
+
+    public void setKeystore(String keystore) {
+        this.keystore = keystore;
+    }
+
+    public String getKeystoreType() {
+        return keystoreType;
+    }
+
+    public void setKeystoreType(String keystoreType) {
+        this.keystoreType = keystoreType;
+    }
+
+    public String getKeystorePassword() {
+        return keystorePassword;
+    }
+
+    public void setKeystorePassword(String keystorePassword) {
+        this.keystorePassword = keystorePassword;
+    }
+
+    public Duration getReloadInterval() {
+        return reloadInterval;
+    }
+
+    public void setReloadInterval(Duration reloadInterval) {
+        this.reloadInterval = reloadInterval;
+    }
+
+    public Integer getCacheSize() {
+        return cacheSize;
+    }
+
+    public void setCacheSize(Integer cacheSize) {
+        this.cacheSize = cacheSize;
+    }
+
+    public Duration getCacheExpire() {
+        return cacheExpire;
+    }
+
+    public void setCacheExpire(Duration cacheExpire) {
+        this.cacheExpire = cacheExpire;
+    }
+}
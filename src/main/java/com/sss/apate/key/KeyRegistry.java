@@ -0,0 +1,338 @@
+package com.sss.apate.key;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.sss.apate.crypto.CipherSuite;
+import com.sss.apate.crypto.CipherSuites;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.codec.binary.Base64;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.SecretKey;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 客户端密钥表
+ * <p>
+ * 密钥从本地文件或密钥库加载为不可变快照，查找为一次 HashMap 读取；文件变化后在后台线程构建新快照并通过
+ * {@link AtomicReference} 原子替换，请求线程不加锁也不会看到半加载的状态。
+ * 已初始化的加解密引擎按客户端缓存，容量有上限；未变化的密钥在替换后沿用原来的引擎，轮换只重建变化的部分。
+ * 每个引擎在用过它的每个线程上各持有已 init 的 Cipher，缓存占用的内存约为 缓存上限 × 线程数 × 每线程 Cipher 数
+ *
+ * @author sss
+ */
+@Component
+@Slf4j
+public class KeyRegistry implements DisposableBean {
+
+    /**
+     * 关闭状态的实例，供未注入配置的场景使用
+     */
+    public static final KeyRegistry DISABLED = new KeyRegistry(new KeyProperties(), new CompositeMeterRegistry());
+
+    private final KeyProperties properties;
+
+    private final AtomicReference<Snapshot> snapshot = new AtomicReference<>(Snapshot.EMPTY);
+
+    private final Cache<String, ClientKey> engines;
+
+    private final ScheduledExecutorService reloader;
+
+    private final Counter unknown;
+
+    private final Counter reloaded;
+
+    private final Counter reloadFailed;
+
+    /**
+     * 上次加载失败时的文件状态，文件再次变化前不重试
+     */
+    private volatile long[] failedStamp;
+
+    @Autowired
+    public KeyRegistry(KeyProperties properties, MeterRegistry registry) {
+        this.properties = properties;
+        this.engines = Caffeine.newBuilder()
+                .maximumSize(properties.getCacheSize())
+                .expireAfterAccess(properties.getCacheExpire())
+                .recordStats()
+                .build();
+        this.unknown = Counter.builder("apate.keys.unknown")
+                .description("未知客户端标识的请求数")
+                .register(registry);
+        this.reloaded = reloadCounter(registry, "success");
+        this.reloadFailed = reloadCounter(registry, "error");
+
+        if (!isEnabled()) {
+            this.reloader = null;
+            return;
+        }
+
+        // 启动时加载失败直接抛出异常，避免带着空密钥表启动
+        snapshot.set(load(Snapshot.EMPTY, stamp()));
+        log.info("client keys loaded. size: {}", snapshot.get().keys.size());
+        Gauge.builder("apate.keys.loaded", snapshot, s -> s.get().keys.size())
+                .description("已加载的客户端密钥数")
+                .register(registry);
+        CaffeineCacheMetrics.monitor(registry, engines, "apate.keys.engines");
+
+        long interval = properties.getReloadInterval() == null ? 0 : properties.getReloadInterval().toMillis();
+        if (interval > 0) {
+            this.reloader = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "apate-key-reloader");
+                thread.setDaemon(true);
+                return thread;
+            });
+            reloader.scheduleWithFixedDelay(this::reloadIfChanged, interval, interval, TimeUnit.MILLISECONDS);
+        } else {
+            this.reloader = null;
+        }
+    }
+
+    private static Counter reloadCounter(MeterRegistry registry, String outcome) {
+        return Counter.builder("apate.keys.reloads")
+                .description("密钥文件重新加载次数")
+                .tag("outcome", outcome)
+                .register(registry);
+    }
+
+    public boolean isEnabled() {
+        return Boolean.TRUE.equals(properties.getEnabled());
+    }
+
+    public String getHeader() {
+        return properties.getHeader();
+    }
+
+    public boolean isPrefixEnabled() {
+        return Boolean.TRUE.equals(properties.getPrefixEnabled());
+    }
+
+    /**
+     * 获取客户端的密钥
+     *
+     * @param clientId 客户端标识
+     * @param encrypt  加密套件名称
+     * @return 未知客户端时为空
+     */
+    @Nullable
+    public ClientKey get(String clientId, String encrypt) {
+        Material material = snapshot.get().keys.get(clientId);
+        if (material == null) {
+            unknown.increment();
+            return null;
+        }
+
+        CipherSuite suite = CipherSuites.get(encrypt);
+        String cacheKey = suite.names().get(0) + ':' + clientId;
+        ClientKey key = engines.getIfPresent(cacheKey);
+        // 密钥轮换后快照里是新的 Material，按引用比较即可发现，并发重建的结果相同，不需要加锁
+        if (key == null || key.getMaterial() != material) {
+            key = new ClientKey(clientId, material, suite.newEngine(material.getKey()));
+            engines.put(cacheKey, key);
+        }
+
+        return key;
+    }
+
+    /**
+     * 立即重新加载密钥，失败时保留原来的密钥表
+     *
+     * @return 是否成功
+     */
+    public boolean reload() {
+        Snapshot current = snapshot.get();
+        long[] stamp = stamp();
+        try {
+            Snapshot next = load(current, stamp);
+            snapshot.set(next);
+            failedStamp = null;
+            reloaded.increment();
+            log.info("client keys reloaded. size: {}, version: {}", next.keys.size(), next.version);
+            return true;
+        } catch (Exception e) {
+            failedStamp = stamp;
+            reloadFailed.increment();
+            log.error("client keys reload error, keep previous keys. size: {}", current.keys.size(), e);
+            return false;
+        }
+    }
+
+    private void reloadIfChanged() {
+        long[] stamp = stamp();
+        if (!Arrays.equals(stamp, snapshot.get().stamp) && !Arrays.equals(stamp, failedStamp)) {
+            reload();
+        }
+    }
+
+    /**
+     * 构建新快照，与上一个快照相同的密钥沿用原来的 Material
+     * <p>
+     * 新增或变化的密钥先用默认套件构建一次引擎校验，任何一个不合法都整体失败，不会带着部分密钥替换快照
+     */
+    private Snapshot load(Snapshot previous, long[] stamp) {
+        long version = previous.version + 1;
+        Map<String, byte[]> loaded = new HashMap<>();
+        try {
+            if (properties.getFile() != null) {
+                loadFile(new File(properties.getFile()), loaded);
+            }
+            if (properties.getKeystore() != null) {
+                loadKeystore(new File(properties.getKeystore()), loaded);
+            }
+        } catch (IOException | GeneralSecurityException | IllegalArgumentException e) {
+            throw new IllegalStateException("load client keys error", e);
+        }
+
+        Map<String, Material> keys = new HashMap<>(loaded.size() * 2);
+        loaded.forEach((clientId, key) -> {
+            Material old = previous.keys.get(clientId);
+            if (old != null && Arrays.equals(old.key, key)) {
+                keys.put(clientId, old);
+                return;
+            }
+            validate(clientId, key);
+            keys.put(clientId, new Material(key, version));
+        });
+
+        return new Snapshot(Collections.unmodifiableMap(keys), version, stamp);
+    }
+
+    /**
+     * 校验密钥长度并用默认套件初始化一次，内置套件的密钥要求相同，错误信息中不包含密钥内容
+     *
+     * @param clientId
+     * @param key
+     */
+    private static void validate(String clientId, byte[] key) {
+        if (key.length != 16 && key.length != 24 && key.length != 32) {
+            throw new IllegalStateException("invalid client key length: " + key.length
+                    + ", expected 16, 24 or 32 bytes. clientId: " + clientId);
+        }
+        try {
+            CipherSuites.get(CipherSuites.DEFAULT).newEngine(key);
+        } catch (RuntimeException e) {
+            throw new IllegalStateException("invalid client key. clientId: " + clientId, e);
+        }
+    }
+
+    private static void loadFile(File file, Map<String, byte[]> keys) throws IOException {
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+
+        for (String clientId : properties.stringPropertyNames()) {
+            String value = properties.getProperty(clientId).trim();
+            keys.put(clientId, value.startsWith("base64:")
+                    ? Base64.decodeBase64(value.substring("base64:".length()))
+                    : value.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private void loadKeystore(File file, Map<String, byte[]> keys) throws IOException, GeneralSecurityException {
+        char[] password = properties.getKeystorePassword() == null ? null : properties.getKeystorePassword().toCharArray();
+        KeyStore keyStore = KeyStore.getInstance(properties.getKeystoreType());
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            keyStore.load(in, password);
+        }
+
+        Enumeration<String> aliases = keyStore.aliases();
+        while (aliases.hasMoreElements()) {
+            String alias = aliases.nextElement();
+            if (keyStore.entryInstanceOf(alias, KeyStore.SecretKeyEntry.class)) {
+                SecretKey key = (SecretKey) keyStore.getKey(alias, password);
+                keys.put(alias, key.getEncoded());
+            }
+        }
+    }
+
+    /**
+     * 密钥文件的修改时间和大小，用于判断是否需要重新加载
+     */
+    private long[] stamp() {
+        File file = properties.getFile() == null ? null : new File(properties.getFile());
+        File keystore = properties.getKeystore() == null ? null : new File(properties.getKeystore());
+        return new long[]{
+                file == null ? 0 : file.lastModified(), file == null ? 0 : file.length(),
+                keystore == null ? 0 : keystore.lastModified(), keystore == null ? 0 : keystore.length()};
+    }
+
+    @Override
+    public void destroy() {
+        if (reloader != null) {
+            reloader.shutdownNow();
+        }
+    }
+
+    /**
+     * 一个客户端的密钥
+     */
+    static final class Material {
+
+        private final byte[] key;
+
+        /**
+         * 首次加载或变更时的快照版本
+         */
+        private final long version;
+
+        Material(byte[] key, long version) {
+            this.key = key;
+            this.version = version;
+        }
+
+        byte[] getKey() {
+            return key;
+        }
+
+        long getVersion() {
+            return version;
+        }
+    }
+
+    /**
+     * 不可变的密钥表快照
+     */
+    private static final class Snapshot {
+
+        static final Snapshot EMPTY = new Snapshot(Collections.emptyMap(), 0, new long[4]);
+
+        final Map<String, Material> keys;
+
+        final long version;
+
+        final long[] stamp;
+
+        Snapshot(Map<String, Material> keys, long version, long[] stamp) {
+            this.keys = keys;
+            this.version = version;
+            this.stamp = stamp;
+        }
+    }
+}
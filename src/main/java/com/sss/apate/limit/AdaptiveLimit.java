@@ -0,0 +1,90 @@
+package com.sss.apate.limit;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * AIMD 自适应并发上限
+ * <p>
+ * 后端正常且并发接近上限时，每个请求把上限加 1/limit，约每轮增加 1；后端过载（失败或超过延迟阈值）时上限乘以 backoffRatio。
+ * 在途数和上限都是原子变量，取、还许可不加锁
+ *
+ * @author sss
+ */
+final class AdaptiveLimit {
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    /**
+     * 当前上限，double 的 bit 表示
+     */
+    private final AtomicLong limit;
+
+    private final double minLimit;
+
+    private final double maxLimit;
+
+    private final double backoffRatio;
+
+    private final long latencyThreshold;
+
+    AdaptiveLimit(LimitProperties.Rule rule) {
+        this.minLimit = Math.max(1, rule.getMinLimit());
+        this.maxLimit = Math.max(minLimit, rule.getMaxLimit());
+        this.backoffRatio = rule.getBackoffRatio();
+        this.latencyThreshold = rule.getLatencyThreshold().toNanos();
+        double initial = Math.min(maxLimit, Math.max(minLimit, rule.getInitialLimit()));
+        this.limit = new AtomicLong(Double.doubleToLongBits(initial));
+    }
+
+    boolean tryAcquire() {
+        if (inFlight.incrementAndGet() > (int) getLimit()) {
+            inFlight.decrementAndGet();
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * 请求完成，按结果调整上限
+     *
+     * @param latencyNanos 上游耗时
+     * @param success      是否成功，5xx 和连接错误为 false
+     */
+    void release(long latencyNanos, boolean success) {
+        int current = inFlight.getAndDecrement();
+        boolean overloaded = !success || latencyNanos > latencyThreshold;
+        while (true) {
+            long bits = limit.get();
+            double value = Double.longBitsToDouble(bits);
+            double next;
+            if (overloaded) {
+                next = Math.max(minLimit, value * backoffRatio);
+            } else if (current * 2 >= value) {
+                // 并发不到上限一半时说明上限不是瓶颈，不继续增加
+                next = Math.min(maxLimit, value + 1 / value);
+            } else {
+                return;
+            }
+            if (next == value || limit.compareAndSet(bits, Double.doubleToLongBits(next))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 请求被取消，不调整上限
+     */
+    void cancel() {
+        inFlight.decrementAndGet();
+    }
+
+    double getLimit() {
+        return Double.longBitsToDouble(limit.get());
+    }
+
+    int getInFlight() {
+        return inFlight.get();
+    }
+}
@@ -0,0 +1,247 @@
+package com.sss.apate.limit;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 按 service 限流配置
+ *
+ * @author sss
+ */
+@Component
+@ConfigurationProperties(prefix = "apate.limit")
+public class LimitProperties {
+    /**
+     * 是否限流，默认关闭
+     */
+    private Boolean enabled = false;
+    /**
+     * 未按客户端密钥识别客户端时，从该请求头读取客户端标识，用于按客户端限速
+     */
+    private String clientHeader = "X-Apate-Client-Id";
+    /**
+     * 按客户端限速时最多保留的令牌桶数，超过后淘汰最久未使用的客户端
+     */
+    private Integer clientBuckets = 100000;
+    /**
+     * 各 service 的默认配置
+     */
+    private Rule defaults = Rule.defaults();
+    /**
+     * 按 service 覆盖的配置，未设置的项取 defaults
+     */
+    private Map<String, Rule> services = new HashMap<>();
+
+    /**
+     * 合并 service 的配置和默认配置
+     *
+     * @param service
+     * @return
+     */
+    public Rule resolve(String service) {
+        Rule rule = services.get(service);
+        if (rule == null) {
+            return defaults;
+        }
+
+        Rule resolved = new Rule();
+        resolved.setRate(rule.rate != null ? rule.rate : defaults.rate);
+        resolved.setBurst(rule.burst != null ? rule.burst : defaults.burst);
+        resolved.setClientRate(rule.clientRate != null ? rule.clientRate : defaults.clientRate);
+        resolved.setClientBurst(rule.clientBurst != null ? rule.clientBurst : defaults.clientBurst);
+        resolved.setAdaptive(rule.adaptive != null ? rule.adaptive : defaults.adaptive);
+        resolved.setInitialLimit(rule.initialLimit != null ? rule.initialLimit : defaults.initialLimit);
+        resolved.setMinLimit(rule.minLimit != null ? rule.minLimit : defaults.minLimit);
+        resolved.setMaxLimit(rule.maxLimit != null ? rule.maxLimit : defaults.maxLimit);
+        resolved.setBackoffRatio(rule.backoffRatio != null ? rule.backoffRatio : defaults.backoffRatio);
+        resolved.setLatencyThreshold(rule.latencyThreshold != null ? rule.latencyThreshold : defaults.latencyThreshold);
+
+        return resolved;
+    }
+
+    public Boolean getEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(Boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public String getClientHeader() {
+        return clientHeader;
+    }
+
+    public void setClientHeader(String clientHeader) {
+        this.clientHeader = clientHeader;
+    }
+
+    public Integer getClientBuckets() {
+        return clientBuckets;
+    }
+
+    public void setClientBuckets(Integer clientBuckets) {
+        this.clientBuckets = clientBuckets;
+    }
+
+    public Rule getDefaults() {
+        return defaults;
+    }
+
+    public void setDefaults(Rule defaults) {
+        this.defaults = defaults;
+    }
+
+    public Map<String, Rule> getServices() {
+        return services;
+    }
+
+    public void setServices(Map<String, Rule> services) {
+        this.services = services;
+    }
+
+    /**
+     * 限流规则
+     */
+    public static class Rule {
+        /**
+         * service 每秒允许的请求数，为 0 时不限速
+         */
+        private Double rate;
+        /**
+         * service 令牌桶容量，即允许的突发请求数，为 0 时取 rate
+         */
+        private Integer burst;
+        /**
+         * 每个客户端对该 service 每秒允许的请求数，为 0 时不按客户端限速
+         */
+        private Double clientRate;
+        /**
+         * 每个客户端的令牌桶容量，为 0 时取 clientRate
+         */
+        private Integer clientBurst;
+        /**
+         * 是否按后端的延迟和错误自适应调整并发上限（AIMD）
+         */
+        private Boolean adaptive;
+        /**
+         * 并发上限的初始值
+         */
+        private Integer initialLimit;
+        /**
+         * 并发上限的下限
+         */
+        private Integer minLimit;
+        /**
+         * 并发上限的上限
+         */
+        private Integer maxLimit;
+        /**
+         * 后端过载（5xx、连接错误或超过 latencyThreshold）时并发上限乘以该系数
+         */
+        private Double backoffRatio;
+        /**
+         * 响应耗时超过该值视为后端过载
+         */
+        private Duration latencyThreshold;
+
+        static Rule defaults() {
+            Rule rule = new Rule();
+            rule.setRate(0D);
+            rule.setBurst(0);
+            rule.setClientRate(0D);
+            rule.setClientBurst(0);
+            rule.setAdaptive(false);
+            rule.setInitialLimit(20);
+            rule.setMinLimit(1);
+            rule.setMaxLimit(500);
+            rule.setBackoffRatio(0.9);
+            rule.setLatencyThreshold(Duration.ofSeconds(1));
+
+            return rule;
+        }
+
+        public Double getRate() {
+            return rate;
+        }
+
+        public void setRate(Double rate) {
+            this.rate = rate;
+        }
+
+        public Integer getBurst() {
+            return burst;
+        }
+
+        public void setBurst(Integer burst) {
+            this.burst = burst;
+        }
+
+        public Double getClientRate() {
+            return clientRate;
+        }
+
+        public void setClientRate(Double clientRate) {
+            this.clientRate = clientRate;
+        }
+
+        public Integer getClientBurst() {
+            return clientBurst;
+        }
+
+        public void setClientBurst(Integer clientBurst) {
+            this.clientBurst = clientBurst;
+        }
+
+        public Boolean getAdaptive() {
+            return adaptive;
+        }
+
+        public void setAdaptive(Boolean adaptive) {
+            this.adaptive = adaptive;
+        }
+
+        public Integer getInitialLimit() {
+            return initialLimit;
+        }
+
+        public void setInitialLimit(Integer initialLimit) {
+            this.initialLimit = initialLimit;
+        }
+
+        public Integer getMinLimit() {
+            return minLimit;
+        }
+
+        public void setMinLimit(Integer minLimit) {
+            this.minLimit = minLimit;
+        }
+
+        public Integer getMaxLimit() {
+            return maxLimit;
+        }
+
+        public void setMaxLimit(Integer maxLimit) {
+            this.maxLimit = maxLimit;
+        }
+
+        public Double getBackoffRatio() {
+            return backoffRatio;
+        }
+
+        public void setBackoffRatio(Double backoffRatio) {
+            this.backoffRatio = backoffRatio;
+        }
+
+        public Duration getLatencyThreshold() {
+            return latencyThreshold;
+        }
+
+        public void setLatencyThreshold(Duration latencyThreshold) {
+            this.latencyThreshold = latencyThreshold;
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package com.sss.apate.limit;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 单机限流，不依赖外部存储
+ * <p>
+ * 按 service 限速，可选按客户端限速，两者都是分段的无锁令牌桶；按 service 的自适应并发上限保护变慢的后端。
+ * 限速在请求解析出 service 后检查，并发许可在真正请求上游时获取，命中缓存和合并的请求不占用并发
+ *
+ * @author sss
+ */
+@Component
+public class RateLimiter {
+
+    /**
+     * 关闭状态的实例，供未注入配置的场景使用
+     */
+    public static final RateLimiter DISABLED = new RateLimiter(new LimitProperties(), new CompositeMeterRegistry());
+
+    /**
+     * 不限并发时的许可
+     */
+    private static final Permit UNLIMITED = new Permit(null);
+
+    private final LimitProperties properties;
+
+    private final MeterRegistry registry;
+
+    private final Map<String, ServiceLimit> services = new ConcurrentHashMap<>();
+
+    /**
+     * 客户端令牌桶，key 为 service + ':' + 客户端标识
+     */
+    private final Cache<String, TokenBucket> clients;
+
+    @Autowired
+    public RateLimiter(LimitProperties properties, MeterRegistry registry) {
+        this.properties = properties;
+        this.registry = registry;
+        this.clients = Caffeine.newBuilder()
+                .maximumSize(properties.getClientBuckets())
+                .expireAfterAccess(1, TimeUnit.MINUTES)
+                .build();
+    }
+
+    public boolean isEnabled() {
+        return Boolean.TRUE.equals(properties.getEnabled());
+    }
+
+    public String getClientHeader() {
+        return properties.getClientHeader();
+    }
+
+    /**
+     * 检查 service 和客户端的速率，被 service 的速率拒绝时退还客户端令牌，不计入该客户端的用量
+     *
+     * @param service
+     * @param clientId 为空时只按 service 限速
+     * @return 超过速率时为 false
+     */
+    public boolean tryAcquireRate(String service, @Nullable String clientId) {
+        if (!isEnabled()) {
+            return true;
+        }
+
+        ServiceLimit limit = limit(service);
+        TokenBucket client = null;
+        if (clientId != null && limit.clientRate > 0) {
+            client = clients.get(service + ':' + clientId, k -> new TokenBucket(limit.clientRate, limit.clientBurst));
+            if (!client.tryAcquire()) {
+                limit.clientRejected.increment();
+                return false;
+            }
+        }
+        if (limit.bucket != null && !limit.bucket.tryAcquire()) {
+            if (client != null) {
+                client.refund();
+            }
+            limit.rateRejected.increment();
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * 获取请求上游的并发许可，请求结束后必须调用 {@link Permit#release} 或 {@link Permit#cancel}
+     *
+     * @param service
+     * @return 超过并发上限时为空
+     */
+    @Nullable
+    public Permit tryAcquire(String service) {
+        if (!isEnabled()) {
+            return UNLIMITED;
+        }
+
+        ServiceLimit limit = limit(service);
+        if (limit.concurrency == null) {
+            return UNLIMITED;
+        }
+        if (!limit.concurrency.tryAcquire()) {
+            limit.concurrencyRejected.increment();
+            return null;
+        }
+
+        return new Permit(limit.concurrency);
+    }
+
+    private ServiceLimit limit(String service) {
+        ServiceLimit limit = services.get(service);
+        return limit != null ? limit : services.computeIfAbsent(service, this::newLimit);
+    }
+
+    private ServiceLimit newLimit(String service) {
+        ServiceLimit limit = new ServiceLimit(service, properties.resolve(service), registry);
+        if (limit.concurrency != null) {
+            AdaptiveLimit concurrency = limit.concurrency;
+            Gauge.builder("apate.limit.concurrency", concurrency, AdaptiveLimit::getLimit)
+                    .description("自适应并发上限")
+                    .tag("service", service)
+                    .register(registry);
+            Gauge.builder("apate.limit.inflight", concurrency, AdaptiveLimit::getInFlight)
+                    .description("占用并发许可的在途请求数")
+                    .tag("service", service)
+                    .register(registry);
+        }
+
+        return limit;
+    }
+
+    /**
+     * 并发许可
+     */
+    public static final class Permit {
+
+        private final AdaptiveLimit concurrency;
+
+        private Permit(@Nullable AdaptiveLimit concurrency) {
+            this.concurrency = concurrency;
+        }
+
+        /**
+         * 上游请求完成
+         *
+         * @param latencyNanos 上游耗时
+         * @param success      是否成功，5xx 和连接错误为 false
+         */
+        public void release(long latencyNanos, boolean success) {
+            if (concurrency != null) {
+                concurrency.release(latencyNanos, success);
+            }
+        }
+
+        /**
+         * 请求被取消，不计入后端的负载情况
+         */
+        public void cancel() {
+            if (concurrency != null) {
+                concurrency.cancel();
+            }
+        }
+    }
+
+    /**
+     * 一个 service 的限流状态
+     */
+    private static final class ServiceLimit {
+
+        final TokenBucket bucket;
+
+        final double clientRate;
+
+        final int clientBurst;
+
+        final AdaptiveLimit concurrency;
+
+        final Counter rateRejected;
+
+        final Counter clientRejected;
+
+        final Counter concurrencyRejected;
+
+        ServiceLimit(String service, LimitProperties.Rule rule, MeterRegistry registry) {
+            this.bucket = rule.getRate() > 0 ? new TokenBucket(rule.getRate(), rule.getBurst()) : null;
+            this.clientRate = rule.getClientRate();
+            this.clientBurst = rule.getClientBurst();
+            this.concurrency = Boolean.TRUE.equals(rule.getAdaptive()) ? new AdaptiveLimit(rule) : null;
+            this.rateRejected = rejected(registry, service, "rate");
+            this.clientRejected = rejected(registry, service, "client");
+            this.concurrencyRejected = rejected(registry, service, "concurrency");
+        }
+
+        private static Counter rejected(MeterRegistry registry, String service, String reason) {
+            return Counter.builder("apate.limit.rejected")
+                    .description("被限流的请求数")
+                    .tag("service", service)
+                    .tag("reason", reason)
+                    .register(registry);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.sss.apate.limit;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 分段的无锁令牌桶
+ * <p>
+ * 每段按 GCRA 记录一个理论到达时间（TAT），取令牌是一次 CAS；桶按线程分成多段，每段分得 1/n 的速率和容量，
+ * 减少多核下对同一个原子变量的争用。当前段没有令牌时依次尝试其他段，总速率不变，容量按段向上取整
+ *
+ * @author sss
+ */
+final class TokenBucket {
+
+    /**
+     * 分段数上限
+     */
+    private static final int MAX_STRIPES = 16;
+
+    private final AtomicLong[] stripes;
+
+    private final int mask;
+
+    /**
+     * 每段产生一个令牌的间隔
+     */
+    private final long interval;
+
+    /**
+     * 每段允许的最大提前量，(容量 - 1) × interval
+     */
+    private final long tolerance;
+
+    /**
+     * @param rate  每秒令牌数
+     * @param burst 容量，小于 1 时取 rate
+     */
+    TokenBucket(double rate, int burst) {
+        if (rate <= 0) {
+            throw new IllegalArgumentException("rate must be positive: " + rate);
+        }
+        int capacity = burst > 0 ? burst : Math.max(1, (int) Math.ceil(rate));
+
+        // 段数取 2 的幂，且每段至少一个令牌的容量
+        int count = Math.min(Math.min(MAX_STRIPES, Runtime.getRuntime().availableProcessors()), capacity);
+        count = Integer.highestOneBit(Math.max(1, count));
+        this.stripes = new AtomicLong[count];
+        this.mask = count - 1;
+        this.interval = (long) (count * 1_000_000_000D / rate);
+        this.tolerance = ((capacity + count - 1) / count - 1) * interval;
+
+        long now = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new AtomicLong(now);
+        }
+    }
+
+    /**
+     * 取一个令牌
+     *
+     * @return 没有令牌时为 false
+     */
+    boolean tryAcquire() {
+        long now = System.nanoTime();
+        int start = (int) Thread.currentThread().getId();
+        for (int i = 0; i <= mask; i++) {
+            AtomicLong stripe = stripes[(start + i) & mask];
+            while (true) {
+                long tat = stripe.get();
+                long base = tat - now > 0 ? tat : now;
+                if (base - now > tolerance) {
+                    break;
+                }
+                if (stripe.compareAndSet(tat, base + interval)) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * 退还刚取到的令牌，从取令牌时的段开始找一个令牌不满的段，已满时丢弃
+     */
+    void refund() {
+        long now = System.nanoTime();
+        int start = (int) Thread.currentThread().getId();
+        for (int i = 0; i <= mask; i++) {
+            AtomicLong stripe = stripes[(start + i) & mask];
+            while (true) {
+                long tat = stripe.get();
+                if (tat - now <= 0) {
+                    break;
+                }
+                if (stripe.compareAndSet(tat, tat - interval)) {
+                    return;
+                }
+            }
+        }
+    }
+}
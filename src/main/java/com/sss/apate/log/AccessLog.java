@@ -0,0 +1,160 @@
+package com.sss.apate.log;
+
+import com.sss.apate.metrics.ProxyTimings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 访问日志
+ * <p>
+ * 每个请求输出一行定长字段（服务、路径、大小、各阶段耗时、状态），经 ACCESS_LOG 异步 appender 批量落盘，
+ * 队列满时直接丢弃，不阻塞事件循环。明文只在开启采集并命中采样时才附带，且按字节截断。
+ * 服务、路径和明文来自客户端，其中的换行等控制字符转义后输出，不能拆分或伪造记录
+ *
+ * @author sss
+ */
+@Component
+public class AccessLog {
+
+    public static final String LOGGER_NAME = "ACCESS_LOG";
+
+    /**
+     * 关闭状态的实例，供未注入配置的场景使用
+     */
+    public static final AccessLog DISABLED = new AccessLog(disabledProperties());
+
+    /**
+     * 路径最多输出的字符数，保证每条记录长度有上限
+     */
+    private static final int MAX_PATH_LENGTH = 128;
+
+    private static final Logger ACCESS = LoggerFactory.getLogger(LOGGER_NAME);
+
+    private final AccessLogProperties properties;
+
+    public AccessLog(AccessLogProperties properties) {
+        this.properties = properties;
+    }
+
+    /**
+     * 按采样率决定是否采集本次请求的明文
+     *
+     * @return 未命中采样时为空
+     */
+    @Nullable
+    public PayloadSample sample() {
+        if (!Boolean.TRUE.equals(properties.getPayloadEnabled()) || !ACCESS.isInfoEnabled()) {
+            return null;
+        }
+        if (ThreadLocalRandom.current().nextDouble() >= properties.getPayloadSampleRate()) {
+            return null;
+        }
+
+        return new PayloadSample(properties.getPayloadMaxBytes());
+    }
+
+    /**
+     * 输出一条访问日志
+     *
+     * @param timings
+     * @param path    后端路径，为空时输出 -
+     * @param status  为空时输出 0
+     */
+    public void log(@Nullable ProxyTimings timings, @Nullable String path, @Nullable HttpStatus status) {
+        if (timings == null || !Boolean.TRUE.equals(properties.getEnabled()) || !ACCESS.isInfoEnabled()) {
+            return;
+        }
+
+        StringBuilder sb = new StringBuilder(256);
+        sb.append("service=");
+        escape(sb, timings.getService(), MAX_PATH_LENGTH);
+        sb.append(" method=").append(timings.getMethod() == null ? "-" : timings.getMethod().name())
+                .append(" path=");
+        escape(sb, path, MAX_PATH_LENGTH);
+        sb.append(" status=").append(status == null ? 0 : status.value())
+                .append(" reqBytes=").append(timings.getRequestBytes())
+                .append(" respBytes=").append(timings.getResponseBytes())
+                .append(" totalMs=").append(millis(System.nanoTime() - timings.getStartNanos()))
+                .append(" upstreamMs=").append(millis(timings.getUpstreamNanos()))
+                .append(" decryptUs=").append(micros(timings.getDecryptNanos()))
+                .append(" parseUs=").append(micros(timings.getParseNanos()))
+                .append(" encryptUs=").append(micros(timings.getEncryptNanos()));
+
+        PayloadSample sample = timings.getPayloadSample();
+        if (sample != null) {
+            sb.append(" request=");
+            escape(sb, sample.getRequest(), Integer.MAX_VALUE);
+            sb.append(" response=");
+            escape(sb, sample.getResponse(), Integer.MAX_VALUE);
+        }
+
+        ACCESS.info(sb.toString());
+    }
+
+    /**
+     * 追加客户端提供的字段：反斜杠和控制字符按 json 字符串的方式转义，超过 maxLength 个字符时截断
+     *
+     * @param value 为空时输出 -
+     */
+    static void escape(StringBuilder sb, @Nullable String value, int maxLength) {
+        if (value == null) {
+            sb.append('-');
+            return;
+        }
+
+        int end = Math.min(value.length(), maxLength);
+        for (int i = 0; i < end; i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    // 其他 C0 控制字符、DEL 以及会被当作换行的 U+2028、U+2029
+                    if (c < 0x20 || c == 0x7f || c == '\u2028' || c == '\u2029') {
+                        sb.append("\\u");
+                        String hex = Integer.toHexString(c);
+                        for (int pad = hex.length(); pad < 4; pad++) {
+                            sb.append('0');
+                        }
+                        sb.append(hex);
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        if (value.length() > maxLength) {
+            sb.append("...");
+        }
+    }
+
+    private static long millis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+    private static AccessLogProperties disabledProperties() {
+        AccessLogProperties properties = new AccessLogProperties();
+        properties.setEnabled(false);
+
+        return properties;
+    }
+}
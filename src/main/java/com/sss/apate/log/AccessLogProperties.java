@@ -0,0 +1,62 @@
+package com.sss.apate.log;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 访问日志配置
+ *
+ * @author sss
+ */
+@Component
+@ConfigurationProperties(prefix = "apate.access-log")
+public class AccessLogProperties {
+    /**
+     * 是否输出访问日志
+     */
+    private Boolean enabled = true;
+    /**
+     * 是否采集请求、响应明文，默认关闭
+     */
+    private Boolean payloadEnabled = false;
+    /**
+     * 采集明文的采样率，0 ~ 1
+     */
+    private Double payloadSampleRate = 0.01;
+    /**
+     * 单个明文最多采集的字节数，超出部分截断
+     */
+    private Integer payloadMaxBytes = 256;
+
+    public Boolean getEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(Boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public Boolean getPayloadEnabled() {
+        return payloadEnabled;
+    }
+
+    public void setPayloadEnabled(Boolean payloadEnabled) {
+        this.payloadEnabled = payloadEnabled;
+    }
+
+    public Double getPayloadSampleRate() {
+        return payloadSampleRate;
+    }
+
+    public void setPayloadSampleRate(Double payloadSampleRate) {
+        this.payloadSampleRate = payloadSampleRate;
+    }
+
+    public Integer getPayloadMaxBytes() {
+        return payloadMaxBytes;
+    }
+
+    public void setPayloadMaxBytes(Integer payloadMaxBytes) {
+        this.payloadMaxBytes = payloadMaxBytes;
+    }
+}
@@ -0,0 +1,61 @@
+package com.sss.apate.log;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 被采样请求的明文片段，只保留前 maxBytes 个字节
+ *
+ * @author sss
+ */
+public class PayloadSample {
+
+    private final int maxBytes;
+
+    private String request;
+
+    private String response;
+
+    public PayloadSample(int maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * 采集请求明文，不移动 body 的 position
+     *
+     * @param body
+     */
+    public void captureRequest(ByteBuffer body) {
+        request = truncate(body);
+    }
+
+    /**
+     * 采集响应明文，流式响应只保留第一段
+     *
+     * @param body
+     */
+    public void captureResponse(ByteBuffer body) {
+        if (response == null) {
+            response = truncate(body);
+        }
+    }
+
+    public String getRequest() {
+        return request;
+    }
+
+    public String getResponse() {
+        return response;
+    }
+
+    private String truncate(ByteBuffer body) {
+        ByteBuffer slice = body.duplicate();
+        boolean truncated = slice.remaining() > maxBytes;
+        if (truncated) {
+            slice.limit(slice.position() + maxBytes);
+        }
+        String text = StandardCharsets.UTF_8.decode(slice).toString();
+
+        return truncated ? text + "...(" + body.remaining() + ")" : text;
+    }
+}
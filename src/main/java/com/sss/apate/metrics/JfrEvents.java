@@ -0,0 +1,153 @@
+package com.sss.apate.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+
+/**
+ * 代理请求的 JFR 事件，只在 {@link ProxyEvents#AVAILABLE} 时加载
+ * <p>
+ * 事件在阶段开始时 begin、结束时 commit，在 JMC 的时间线上与 GC、safepoint 停顿对齐；
+ * 没有进行中的录制时只读一次开关，不创建事件对象
+ *
+ * @author sss
+ */
+final class JfrEvents {
+
+    private static final EventType STAGE_TYPE = EventType.getEventType(StageEvent.class);
+
+    private static final EventType REQUEST_TYPE = EventType.getEventType(RequestEvent.class);
+
+    private JfrEvents() {
+    }
+
+    static ProxyEvents.Span beginStage(ProxyMetrics.Stage stage) {
+        if (!STAGE_TYPE.isEnabled()) {
+            return null;
+        }
+
+        StageEvent event = new StageEvent();
+        event.stage = stage.tag();
+        event.begin();
+        return event;
+    }
+
+    static ProxyEvents.Span beginRequest() {
+        if (!REQUEST_TYPE.isEnabled()) {
+            return null;
+        }
+
+        RequestEvent event = new RequestEvent();
+        event.begin();
+        return event;
+    }
+
+    @Name("com.sss.apate.ProxyStage")
+    @Label("Proxy Stage")
+    @Category({"Apate", "Proxy"})
+    @Description("代理请求的一个阶段：解密、解析、路由、获取连接、上游、加密")
+    @StackTrace(false)
+    @Threshold("1 ms")
+    static class StageEvent extends Event implements ProxyEvents.Span {
+
+        @Label("Request Id")
+        long requestId;
+
+        @Label("Stage")
+        String stage;
+
+        @Label("Service")
+        String service;
+
+        @Override
+        public void end(ProxyTimings timings, int status, String path) {
+            end();
+            if (shouldCommit()) {
+                requestId = timings.getId();
+                service = timings.getService();
+                commit();
+            }
+        }
+    }
+
+    @Name("com.sss.apate.ProxyRequest")
+    @Label("Proxy Request")
+    @Category({"Apate", "Proxy"})
+    @Description("一次代理请求及各阶段耗时")
+    @StackTrace(false)
+    @Threshold("10 ms")
+    static class RequestEvent extends Event implements ProxyEvents.Span {
+
+        @Label("Request Id")
+        long requestId;
+
+        @Label("Service")
+        String service;
+
+        @Label("Method")
+        String method;
+
+        @Label("Path")
+        String path;
+
+        @Label("Status")
+        int status;
+
+        @Label("Request Bytes")
+        long requestBytes;
+
+        @Label("Response Bytes")
+        long responseBytes;
+
+        @Label("Decrypt")
+        @Timespan(Timespan.NANOSECONDS)
+        long decrypt;
+
+        @Label("Parse")
+        @Timespan(Timespan.NANOSECONDS)
+        long parse;
+
+        @Label("Route")
+        @Timespan(Timespan.NANOSECONDS)
+        long route;
+
+        @Label("Acquire")
+        @Timespan(Timespan.NANOSECONDS)
+        long acquire;
+
+        @Label("Upstream")
+        @Timespan(Timespan.NANOSECONDS)
+        long upstream;
+
+        @Label("Encrypt")
+        @Timespan(Timespan.NANOSECONDS)
+        long encrypt;
+
+        @Override
+        public void end(ProxyTimings timings, int status, String path) {
+            end();
+            if (shouldCommit()) {
+                requestId = timings.getId();
+                service = timings.getService();
+                method = timings.getMethod() == null ? null : timings.getMethod().name();
+                this.path = path;
+                this.status = status;
+                requestBytes = timings.getRequestBytes();
+                responseBytes = timings.getResponseBytes();
+                decrypt = timings.getDecryptNanos();
+                parse = timings.getParseNanos();
+                route = timings.getRouteNanos();
+                acquire = timings.getAcquireNanos();
+                upstream = timings.getUpstreamNanos();
+                encrypt = timings.getEncryptNanos();
+                commit();
+            }
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.sss.apate.metrics;
+
+import org.springframework.lang.Nullable;
+
+/**
+ * 代理请求的 JFR 事件入口
+ * <p>
+ * JFR 的 API 从 JDK 8u262 起才有，更早的 JDK 上不加载 {@link JfrEvents}，所有方法返回空
+ *
+ * @author sss
+ */
+final class ProxyEvents {
+
+    static final boolean AVAILABLE = isAvailable();
+
+    private ProxyEvents() {
+    }
+
+    /**
+     * 开始一个阶段
+     *
+     * @param stage
+     * @return JFR 不可用或没有进行中的录制时为空
+     */
+    @Nullable
+    static Span beginStage(ProxyMetrics.Stage stage) {
+        return AVAILABLE ? JfrEvents.beginStage(stage) : null;
+    }
+
+    /**
+     * 开始一个请求
+     *
+     * @return JFR 不可用或没有进行中的录制时为空
+     */
+    @Nullable
+    static Span beginRequest() {
+        return AVAILABLE ? JfrEvents.beginRequest() : null;
+    }
+
+    private static boolean isAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event", false, ProxyEvents.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    /**
+     * 进行中的事件
+     */
+    interface Span {
+
+        /**
+         * 结束并在满足录制阈值时提交
+         *
+         * @param timings
+         * @param status  请求事件的状态码，阶段事件忽略
+         * @param path    请求事件的后端路径，阶段事件忽略
+         */
+        void end(ProxyTimings timings, int status, @Nullable String path);
+    }
+}
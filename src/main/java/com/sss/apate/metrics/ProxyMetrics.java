@@ -0,0 +1,280 @@
+package com.sss.apate.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import org.springframework.boot.actuate.metrics.http.Outcome;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 代理指标
+ * <p>
+ * 按 service / method 缓存 Meter，热路径上只有数组下标和 ConcurrentHashMap#get，不拼接 tag、不分配对象。
+ * service 只取自配置里的 serviceHost，未知服务统一记为 unknown，避免标签基数失控
+ *
+ * @author sss
+ */
+@Component
+public class ProxyMetrics {
+
+    public static final String UNKNOWN = "unknown";
+
+    /**
+     * 不上报任何数据的实例，供未注入 MeterRegistry 的场景使用
+     */
+    public static final ProxyMetrics NOOP = new ProxyMetrics(new CompositeMeterRegistry());
+
+    private static final HttpMethod[] METHODS = HttpMethod.values();
+
+    private static final Outcome[] OUTCOMES = Outcome.values();
+
+    private static final Stage[] STAGES = Stage.values();
+
+    private final MeterRegistry registry;
+
+    private final ConcurrentMap<String, ServiceMeters> services = new ConcurrentHashMap<>();
+
+    public ProxyMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * 记录阶段耗时
+     *
+     * @param timings
+     * @param stage
+     * @param nanos
+     * @param success
+     */
+    public void recordStage(@Nullable ProxyTimings timings, Stage stage, long nanos, boolean success) {
+        if (timings == null) {
+            return;
+        }
+        meters(timings).stage(stage, success).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 记录上游耗时，同一请求只记一次
+     *
+     * @param timings
+     * @param success
+     */
+    public void recordUpstream(@Nullable ProxyTimings timings, boolean success) {
+        if (timings == null) {
+            return;
+        }
+        long nanos = timings.completeUpstream();
+        if (nanos >= 0) {
+            if (timings.getAcquireNanos() > 0) {
+                recordStage(timings, Stage.ACQUIRE, timings.getAcquireNanos(), true);
+            }
+            recordStage(timings, Stage.UPSTREAM, nanos, success);
+            if (!success) {
+                recordError(timings, Stage.UPSTREAM);
+            }
+        }
+    }
+
+    public void recordError(@Nullable ProxyTimings timings, Stage stage) {
+        if (timings == null) {
+            return;
+        }
+        meters(timings).error(stage).increment();
+    }
+
+    public void recordRequestSize(@Nullable ProxyTimings timings, long bytes) {
+        if (timings == null) {
+            return;
+        }
+        service(timings.getService()).requestSize.record(bytes);
+    }
+
+    public void recordResponseSize(@Nullable ProxyTimings timings, long bytes) {
+        if (timings == null) {
+            return;
+        }
+        timings.setResponseBytes(bytes);
+        service(timings.getService()).responseSize.record(bytes);
+    }
+
+    /**
+     * 记录整个请求的耗时
+     *
+     * @param timings
+     * @param status  为空时记为 UNKNOWN
+     */
+    public void recordRequest(@Nullable ProxyTimings timings, @Nullable HttpStatus status) {
+        if (timings == null) {
+            return;
+        }
+        Outcome outcome = status == null ? Outcome.UNKNOWN : Outcome.forStatus(status.value());
+        meters(timings).request(outcome).record(System.nanoTime() - timings.getStartNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    private MethodMeters meters(ProxyTimings timings) {
+        return service(timings.getService()).method(timings.getMethod());
+    }
+
+    private ServiceMeters service(String service) {
+        ServiceMeters meters = services.get(service);
+        if (meters == null) {
+            meters = services.computeIfAbsent(service, ServiceMeters::new);
+        }
+
+        return meters;
+    }
+
+    /**
+     * 代理阶段
+     */
+    public enum Stage {
+        /**
+         * 解密请求信封
+         */
+        DECRYPT,
+        /**
+         * 解析 ProxyConfig
+         */
+        PARSE,
+        /**
+         * 构造 URI 和路由
+         */
+        ROUTE,
+        /**
+         * 从开始调用上游到拿到连接、开始发送请求，包含连接池等待和建连
+         */
+        ACQUIRE,
+        /**
+         * 调用上游，到收到响应头为止，包含 ACQUIRE
+         */
+        UPSTREAM,
+        /**
+         * 加密响应
+         */
+        ENCRYPT;
+
+        private final String tag = name().toLowerCase(Locale.ROOT);
+
+        public String tag() {
+            return tag;
+        }
+    }
+
+    private class ServiceMeters {
+
+        private final String service;
+
+        private final DistributionSummary requestSize;
+
+        private final DistributionSummary responseSize;
+
+        /**
+         * 下标为 HttpMethod#ordinal，最后一位留给无法识别的 method
+         */
+        private final AtomicReferenceArray<MethodMeters> methods = new AtomicReferenceArray<>(METHODS.length + 1);
+
+        ServiceMeters(String service) {
+            this.service = service;
+            this.requestSize = payload("request");
+            this.responseSize = payload("response");
+        }
+
+        private DistributionSummary payload(String direction) {
+            return DistributionSummary.builder("apate.proxy.payload")
+                    .description("代理请求/响应的明文字节数")
+                    .baseUnit("bytes")
+                    .tags("service", service, "direction", direction)
+                    .publishPercentileHistogram()
+                    .register(registry);
+        }
+
+        MethodMeters method(@Nullable HttpMethod method) {
+            int index = method == null ? METHODS.length : method.ordinal();
+            MethodMeters meters = methods.get(index);
+            if (meters == null) {
+                meters = new MethodMeters(service, method == null ? UNKNOWN : method.name());
+                if (!methods.compareAndSet(index, null, meters)) {
+                    meters = methods.get(index);
+                }
+            }
+
+            return meters;
+        }
+    }
+
+    private class MethodMeters {
+
+        private final String service;
+
+        private final String method;
+
+        /**
+         * 下标为 stage.ordinal * 2 + (success ? 0 : 1)
+         */
+        private final AtomicReferenceArray<Timer> stages = new AtomicReferenceArray<>(STAGES.length * 2);
+
+        private final AtomicReferenceArray<Counter> errors = new AtomicReferenceArray<>(STAGES.length);
+
+        private final AtomicReferenceArray<Timer> requests = new AtomicReferenceArray<>(OUTCOMES.length);
+
+        MethodMeters(String service, String method) {
+            this.service = service;
+            this.method = method;
+        }
+
+        Timer stage(Stage stage, boolean success) {
+            int index = stage.ordinal() * 2 + (success ? 0 : 1);
+            Timer timer = stages.get(index);
+            if (timer == null) {
+                // 注册是幂等的，并发时拿到的是同一个 Timer
+                timer = Timer.builder("apate.proxy.stage")
+                        .description("代理各阶段耗时")
+                        .tags("service", service, "method", method, "stage", stage.tag(),
+                                "outcome", success ? "success" : "error")
+                        .publishPercentileHistogram()
+                        .register(registry);
+                stages.lazySet(index, timer);
+            }
+
+            return timer;
+        }
+
+        Counter error(Stage stage) {
+            Counter counter = errors.get(stage.ordinal());
+            if (counter == null) {
+                counter = Counter.builder("apate.proxy.errors")
+                        .description("代理各阶段失败次数")
+                        .tags("service", service, "method", method, "stage", stage.tag())
+                        .register(registry);
+                errors.lazySet(stage.ordinal(), counter);
+            }
+
+            return counter;
+        }
+
+        Timer request(Outcome outcome) {
+            Timer timer = requests.get(outcome.ordinal());
+            if (timer == null) {
+                timer = Timer.builder("apate.proxy.requests")
+                        .description("代理请求总耗时")
+                        .tags("service", service, "method", method, "outcome", outcome.name())
+                        .publishPercentileHistogram()
+                        .register(registry);
+                requests.lazySet(outcome.ordinal(), timer);
+            }
+
+            return timer;
+        }
+    }
+}
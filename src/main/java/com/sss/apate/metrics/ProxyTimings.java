@@ -0,0 +1,239 @@
+package com.sss.apate.metrics;
+
+import com.sss.apate.log.PayloadSample;
+import org.springframework.http.HttpMethod;
+import org.springframework.lang.Nullable;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 单次代理请求的阶段耗时和大小，供指标、访问日志和慢请求记录使用
+ * <p>
+ * 解密、解析发生在拿到 service 之前，先记在这里，路由确定后再统一上报。
+ * 各阶段在开始、结束时调用 {@link #begin(ProxyMetrics.Stage)}、{@link #end(ProxyMetrics.Stage)}，
+ * 有进行中的 JFR 录制时生成对应的事件，与 GC、safepoint 停顿放在同一条时间线上对比
+ *
+ * @author sss
+ */
+public class ProxyTimings {
+
+    private static final AtomicLong IDS = new AtomicLong();
+
+    private static final int STAGES = ProxyMetrics.Stage.values().length;
+
+    private final long id = IDS.incrementAndGet();
+
+    private final long startNanos = System.nanoTime();
+
+    private final long startMillis = System.currentTimeMillis();
+
+    private String service = ProxyMetrics.UNKNOWN;
+    private HttpMethod method;
+
+    private long decryptNanos;
+    private long parseNanos;
+    private long routeNanos;
+    private int requestBytes;
+    private ProxyMetrics.Stage failedStage;
+
+    private long upstreamStartNanos;
+    private long upstreamNanos;
+    private boolean upstreamRecorded;
+    private long acquireNanos;
+
+    private long encryptNanos;
+    private long responseBytes;
+
+    private PayloadSample payloadSample;
+
+    /**
+     * 进行中的 JFR 阶段事件，下标为 Stage#ordinal，没有录制时不分配
+     */
+    private ProxyEvents.Span[] spans;
+
+    private final ProxyEvents.Span requestSpan = ProxyEvents.beginRequest();
+
+    /**
+     * @return 进程内递增的请求编号，用于关联慢请求记录和 JFR 事件
+     */
+    public long getId() {
+        return id;
+    }
+
+    public long getStartNanos() {
+        return startNanos;
+    }
+
+    public long getStartMillis() {
+        return startMillis;
+    }
+
+    public String getService() {
+        return service;
+    }
+
+    public void setService(String service) {
+        this.service = service;
+    }
+
+    public HttpMethod getMethod() {
+        return method;
+    }
+
+    public void setMethod(HttpMethod method) {
+        this.method = method;
+    }
+
+    public long getDecryptNanos() {
+        return decryptNanos;
+    }
+
+    public void setDecryptNanos(long decryptNanos) {
+        this.decryptNanos = decryptNanos;
+    }
+
+    public long getParseNanos() {
+        return parseNanos;
+    }
+
+    public void setParseNanos(long parseNanos) {
+        this.parseNanos = parseNanos;
+    }
+
+    public long getRouteNanos() {
+        return routeNanos;
+    }
+
+    public void setRouteNanos(long routeNanos) {
+        this.routeNanos = routeNanos;
+    }
+
+    public int getRequestBytes() {
+        return requestBytes;
+    }
+
+    public void setRequestBytes(int requestBytes) {
+        this.requestBytes = requestBytes;
+    }
+
+    public ProxyMetrics.Stage getFailedStage() {
+        return failedStage;
+    }
+
+    public void setFailedStage(ProxyMetrics.Stage failedStage) {
+        this.failedStage = failedStage;
+    }
+
+    public long getUpstreamNanos() {
+        return upstreamNanos;
+    }
+
+    /**
+     * @return 从开始调用上游到拿到连接、开始发送请求的耗时，未经过连接池时为 0
+     */
+    public long getAcquireNanos() {
+        return acquireNanos;
+    }
+
+    public long getEncryptNanos() {
+        return encryptNanos;
+    }
+
+    public void setEncryptNanos(long encryptNanos) {
+        this.encryptNanos = encryptNanos;
+    }
+
+    public long getResponseBytes() {
+        return responseBytes;
+    }
+
+    public void setResponseBytes(long responseBytes) {
+        this.responseBytes = responseBytes;
+    }
+
+    public PayloadSample getPayloadSample() {
+        return payloadSample;
+    }
+
+    public void setPayloadSample(PayloadSample payloadSample) {
+        this.payloadSample = payloadSample;
+    }
+
+    /**
+     * 开始一个阶段的 JFR 事件
+     *
+     * @param stage
+     */
+    public void begin(ProxyMetrics.Stage stage) {
+        ProxyEvents.Span span = ProxyEvents.beginStage(stage);
+        if (span == null) {
+            return;
+        }
+        if (spans == null) {
+            spans = new ProxyEvents.Span[STAGES];
+        }
+        spans[stage.ordinal()] = span;
+    }
+
+    /**
+     * 结束一个阶段的 JFR 事件，未开始时忽略
+     *
+     * @param stage
+     */
+    public void end(ProxyMetrics.Stage stage) {
+        ProxyEvents.Span span = spans == null ? null : spans[stage.ordinal()];
+        if (span != null) {
+            spans[stage.ordinal()] = null;
+            span.end(this, 0, null);
+        }
+    }
+
+    /**
+     * 请求结束，提交整个请求的 JFR 事件
+     *
+     * @param status
+     * @param path   后端路径
+     */
+    public void finish(int status, @Nullable String path) {
+        if (requestSpan != null) {
+            requestSpan.end(this, status, path);
+        }
+    }
+
+    /**
+     * 标记开始调用上游
+     */
+    public void upstreamStarted() {
+        this.upstreamStartNanos = System.nanoTime();
+        begin(ProxyMetrics.Stage.ACQUIRE);
+        begin(ProxyMetrics.Stage.UPSTREAM);
+    }
+
+    /**
+     * 标记拿到上游连接、开始发送请求，只记第一次
+     */
+    public void acquired() {
+        if (upstreamStartNanos == 0 || acquireNanos > 0) {
+            return;
+        }
+        acquireNanos = Math.max(1, System.nanoTime() - upstreamStartNanos);
+        end(ProxyMetrics.Stage.ACQUIRE);
+    }
+
+    /**
+     * 上游已开始且尚未上报时返回耗时，否则返回 -1；只会成功一次
+     *
+     * @return
+     */
+    long completeUpstream() {
+        if (upstreamStartNanos == 0 || upstreamRecorded) {
+            return -1;
+        }
+        upstreamRecorded = true;
+        upstreamNanos = System.nanoTime() - upstreamStartNanos;
+        end(ProxyMetrics.Stage.ACQUIRE);
+        end(ProxyMetrics.Stage.UPSTREAM);
+
+        return upstreamNanos;
+    }
+}
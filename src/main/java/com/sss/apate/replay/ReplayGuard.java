@@ -0,0 +1,189 @@
+package com.sss.apate.replay;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 请求信封防重放
+ * <p>
+ * 信封带上 timestamp（毫秒）和 nonce 后，timestamp 与网关时钟相差超过 window 的拒绝，窗口内按 nonce 去重。
+ * 去重记录按 timestamp 所在的时间窗口分桶，每桶一个 {@link NonceFilter}；窗口内可接受的 timestamp 最多跨 3 个桶，
+ * 桶循环使用，进入新的窗口时替换最旧的一个，内存固定为 3 个 Bloom filter，与请求量无关
+ *
+ * @author sss
+ */
+@Component
+public class ReplayGuard {
+
+    /**
+     * 关闭状态的实例，供未注入配置的场景使用
+     */
+    public static final ReplayGuard DISABLED = new ReplayGuard(new ReplayProperties(), new CompositeMeterRegistry());
+
+    private static final int RING = 3;
+
+    private static final long SEED1 = 0x9E3779B97F4A7C15L;
+
+    private static final long SEED2 = 0xC2B2AE3D27D4EB4FL;
+
+    private final ReplayProperties properties;
+
+    private final long windowMillis;
+
+    private final int blocks;
+
+    private final int hashes;
+
+    private final AtomicReferenceArray<NonceFilter> ring = new AtomicReferenceArray<>(RING);
+
+    private final Counter invalid;
+
+    private final Counter expired;
+
+    private final Counter replayed;
+
+    @Autowired
+    public ReplayGuard(ReplayProperties properties, MeterRegistry registry) {
+        this.properties = properties;
+        this.windowMillis = Math.max(1, properties.getWindow().toMillis());
+        this.blocks = NonceFilter.blocks(properties.getExpectedRequests(), properties.getFalsePositiveRate());
+        this.hashes = NonceFilter.hashes(properties.getExpectedRequests(), blocks);
+        this.invalid = rejected(registry, Verdict.INVALID);
+        this.expired = rejected(registry, Verdict.EXPIRED);
+        this.replayed = rejected(registry, Verdict.REPLAYED);
+        Gauge.builder("apate.replay.memory", this, ReplayGuard::sizeInBytes)
+                .description("去重记录占用的字节数")
+                .baseUnit("bytes")
+                .register(registry);
+    }
+
+    public boolean isEnabled() {
+        return Boolean.TRUE.equals(properties.getEnabled());
+    }
+
+    /**
+     * 检查并记录一个信封
+     *
+     * @param timestamp 客户端时间，毫秒
+     * @param nonce     客户端生成的随机串
+     * @param clientId  客户端标识，不同客户端的 nonce 互不影响，为空时所有客户端共用
+     * @return
+     */
+    public Verdict check(@Nullable Long timestamp, @Nullable String nonce, @Nullable String clientId) {
+        if (!isEnabled()) {
+            return Verdict.ACCEPTED;
+        }
+        if (timestamp == null && nonce == null && !Boolean.TRUE.equals(properties.getRequired())) {
+            return Verdict.ACCEPTED;
+        }
+        if (timestamp == null || nonce == null || nonce.isEmpty() || nonce.length() > properties.getMaxNonceLength()) {
+            invalid.increment();
+            return Verdict.INVALID;
+        }
+
+        long now = System.currentTimeMillis();
+        NonceFilter filter = timestamp < now - windowMillis || timestamp > now + windowMillis ? null
+                : filter(Math.floorDiv(timestamp, windowMillis));
+        if (filter == null) {
+            expired.increment();
+            return Verdict.EXPIRED;
+        }
+
+        long h1 = hash(clientId, nonce, SEED1);
+        long h2 = hash(clientId, nonce, SEED2);
+        if (!filter.add(h1, h2)) {
+            replayed.increment();
+            return Verdict.REPLAYED;
+        }
+
+        return Verdict.ACCEPTED;
+    }
+
+    /**
+     * 取时间窗口对应的桶，桶中是更早的窗口时替换
+     *
+     * @param epoch
+     * @return 桶已被更新的窗口占用时为空，按过期处理
+     */
+    @Nullable
+    private NonceFilter filter(long epoch) {
+        int slot = (int) Math.floorMod(epoch, (long) RING);
+        while (true) {
+            NonceFilter filter = ring.get(slot);
+            if (filter != null && filter.epoch >= epoch) {
+                return filter.epoch == epoch ? filter : null;
+            }
+            NonceFilter next = new NonceFilter(epoch, blocks, hashes);
+            if (ring.compareAndSet(slot, filter, next)) {
+                return next;
+            }
+        }
+    }
+
+    private double sizeInBytes() {
+        long size = 0;
+        for (int i = 0; i < RING; i++) {
+            NonceFilter filter = ring.get(i);
+            if (filter != null) {
+                size += filter.sizeInBytes();
+            }
+        }
+
+        return size;
+    }
+
+    /**
+     * 按字符计算的 64 位哈希，FNV-1a 累加后用 murmur3 的 fmix64 打散
+     */
+    private static long hash(@Nullable String clientId, String nonce, long seed) {
+        long h = seed;
+        if (clientId != null) {
+            for (int i = 0; i < clientId.length(); i++) {
+                h = (h ^ clientId.charAt(i)) * 0x100000001B3L;
+            }
+            h = (h ^ ':') * 0x100000001B3L;
+        }
+        for (int i = 0; i < nonce.length(); i++) {
+            h = (h ^ nonce.charAt(i)) * 0x100000001B3L;
+        }
+
+        return NonceFilter.mix(h ^ nonce.length());
+    }
+
+    private static Counter rejected(MeterRegistry registry, Verdict verdict) {
+        return Counter.builder("apate.replay.rejected")
+                .description("被拒绝的信封数")
+                .tag("reason", verdict.name().toLowerCase(Locale.ROOT))
+                .register(registry);
+    }
+
+    /**
+     * 检查结果
+     */
+    public enum Verdict {
+        /**
+         * 新请求，或未启用、未带 timestamp 和 nonce
+         */
+        ACCEPTED,
+        /**
+         * 只带了其中一个字段、nonce 过长，或要求携带时未带
+         */
+        INVALID,
+        /**
+         * timestamp 超出允许的偏差
+         */
+        EXPIRED,
+        /**
+         * 窗口内已出现过的 nonce
+         */
+        REPLAYED
+    }
+}
@@ -0,0 +1,88 @@
+package com.sss.apate.replay;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * 防重放配置
+ *
+ * @author sss
+ */
+@Component
+@ConfigurationProperties(prefix = "apate.replay")
+public class ReplayProperties {
+    /**
+     * 是否检查信封的 timestamp、nonce，默认关闭
+     */
+    private Boolean enabled = false;
+    /**
+     * 是否要求每个信封都带 timestamp、nonce，关闭时不带的信封直接放行，便于客户端逐步升级
+     */
+    private Boolean required = false;
+    /**
+     * timestamp 与网关时钟允许的最大偏差，也是去重记录的时间窗口
+     */
+    private Duration window = Duration.ofSeconds(60);
+    /**
+     * 一个时间窗口内预计的最大请求数，决定去重记录占用的内存，超过后误判率上升，内存不变
+     */
+    private Long expectedRequests = 1_000_000L;
+    /**
+     * 达到 expectedRequests 时把新请求误判为重放的概率
+     */
+    private Double falsePositiveRate = 1e-6;
+    /**
+     * nonce 的最大长度
+     */
+    private Integer maxNonceLength = 64;
+
+    public Boolean getEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(Boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public Boolean getRequired() {
+        return required;
+    }
+
+    public void setRequired(Boolean required) {
+        this.required = required;
+    }
+
+    public Duration getWindow() {
+        return window;
+    }
+
+    public void setWindow(Duration window) {
+        this.window = window;
+    }
+
+    public Long getExpectedRequests() {
+        return expectedRequests;
+    }
+
+    public void setExpectedRequests(Long expectedRequests) {
+        this.expectedRequests = expectedRequests;
+    }
+
+    public Double getFalsePositiveRate() {
+        return falsePositiveRate;
+    }
+
+    public void setFalsePositiveRate(Double falsePositiveRate) {
+        this.falsePositiveRate = falsePositiveRate;
+    }
+
+    public Integer getMaxNonceLength() {
+        return maxNonceLength;
+    }
+
+    public void setMaxNonceLength(Integer maxNonceLength) {
+        this.maxNonceLength = maxNonceLength;
+    }
+}
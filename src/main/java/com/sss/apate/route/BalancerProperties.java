@@ -0,0 +1,52 @@
+package com.sss.apate.route;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * 多实例负载均衡配置
+ *
+ * @author sss
+ */
+@Component
+@ConfigurationProperties(prefix = "apate.balancer")
+public class BalancerProperties {
+    /**
+     * 连续失败（连接错误或 5xx）达到该次数后摘除实例
+     */
+    private Integer failureThreshold = 5;
+    /**
+     * 实例摘除时长，到期后重新参与选择，再次失败时立即摘除
+     */
+    private Duration ejectTime = Duration.ofSeconds(30);
+    /**
+     * 延迟 EWMA 的衰减时间常数，越小越快反映最近的延迟
+     */
+    private Duration decayTime = Duration.ofSeconds(10);
+
+    public Integer getFailureThreshold() {
+        return failureThreshold;
+    }
+
+    public void setFailureThreshold(Integer failureThreshold) {
+        this.failureThreshold = failureThreshold;
+    }
+
+    public Duration getEjectTime() {
+        return ejectTime;
+    }
+
+    public void setEjectTime(Duration ejectTime) {
+        this.ejectTime = ejectTime;
+    }
+
+    public Duration getDecayTime() {
+        return decayTime;
+    }
+
+    public void setDecayTime(Duration decayTime) {
+        this.decayTime = decayTime;
+    }
+}
@@ -0,0 +1,122 @@
+package com.sss.apate.route;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * 同一 service 的一组后端实例
+ * <p>
+ * 每次请求用 power-of-two-choices 选择实例：随机取两个，优先未被摘除的，再比较
+ * 延迟 EWMA × 在途请求数，取较小者。选择过程只读原子变量，不加锁
+ *
+ * @author sss
+ */
+public final class ServiceGroup {
+
+    private final String service;
+
+    private final ServiceTarget[] targets;
+
+    private final String id;
+
+    public ServiceGroup(String service, List<String> baseUris, BalancerProperties properties) {
+        if (baseUris == null || baseUris.isEmpty()) {
+            throw new IllegalArgumentException("serviceHost of " + service + " must not be empty");
+        }
+
+        this.service = service;
+        this.targets = baseUris.stream()
+                .map(baseUri -> new ServiceTarget(service, baseUri, properties))
+                .toArray(ServiceTarget[]::new);
+        this.id = Stream.of(targets)
+                .map(target -> target.getBaseUri().toString())
+                .sorted()
+                .collect(Collectors.joining(","));
+    }
+
+    /**
+     * 选择本次请求的实例
+     *
+     * @return
+     */
+    public ServiceTarget choose() {
+        int size = targets.length;
+        if (size == 1) {
+            return targets[0];
+        }
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int a = random.nextInt(size);
+        int b = random.nextInt(size - 1);
+        if (b >= a) {
+            b++;
+        }
+
+        long now = System.nanoTime();
+        ServiceTarget first = targets[a];
+        ServiceTarget second = targets[b];
+        boolean firstAvailable = first.isAvailable(now);
+        boolean secondAvailable = second.isAvailable(now);
+        if (firstAvailable != secondAvailable) {
+            return firstAvailable ? first : second;
+        }
+        if (!firstAvailable) {
+            // 两个都被摘除时找其他可用实例，全部被摘除时仍按负载选择
+            for (int i = 1; i <= size; i++) {
+                ServiceTarget target = targets[(a + i) % size];
+                if (target.isAvailable(now)) {
+                    return target;
+                }
+            }
+        }
+
+        return first.cost(now) <= second.cost(now) ? first : second;
+    }
+
+    /**
+     * 为对冲请求选择另一个实例
+     *
+     * @param excluded 原请求的实例
+     * @return 只有一个实例或其他实例都已摘除时仍返回原实例
+     */
+    public ServiceTarget chooseOther(ServiceTarget excluded) {
+        int size = targets.length;
+        if (size == 1) {
+            return targets[0];
+        }
+
+        ServiceTarget chosen = choose();
+        if (chosen != excluded) {
+            return chosen;
+        }
+        long now = System.nanoTime();
+        int start = ThreadLocalRandom.current().nextInt(size);
+        for (int i = 0; i < size; i++) {
+            ServiceTarget target = targets[(start + i) % size];
+            if (target != excluded && target.isAvailable(now)) {
+                return target;
+            }
+        }
+
+        return chosen;
+    }
+
+    public String getService() {
+        return service;
+    }
+
+    /**
+     * 实例地址排序后拼接，用于区分不同路由里的同名 service
+     *
+     * @return
+     */
+    public String getId() {
+        return id;
+    }
+
+    public ServiceTarget[] getTargets() {
+        return targets.clone();
+    }
+}
@@ -0,0 +1,40 @@
+package com.sss.apate.route;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * 可热更新的服务表配置
+ *
+ * @author sss
+ */
+@Component
+@ConfigurationProperties(prefix = "apate.services")
+public class ServiceHostProperties {
+    /**
+     * 服务表文件，properties 格式：service=实例地址，多个实例用逗号分隔；为空时只使用路由的 serviceHost
+     */
+    private String file;
+    /**
+     * 检查服务表文件变化的间隔，文件修改后重新加载并原子替换，为 0 时不检查
+     */
+    private Duration reloadInterval = Duration.ofSeconds(5);
+
+    public String getFile() {
+        return file;
+    }
+
+    public void setFile(String file) {
+        this.file = file;
+    }
+
+    public Duration getReloadInterval() {
+        return reloadInterval;
+    }
+
+    public void setReloadInterval(Duration reloadInterval) {
+        this.reloadInterval = reloadInterval;
+    }
+}
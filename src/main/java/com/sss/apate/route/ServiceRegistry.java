@@ -0,0 +1,333 @@
+package com.sss.apate.route;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.CRC32;
+
+/**
+ * 可热更新的服务表
+ * <p>
+ * 服务表从本地文件或 actuator 端点更新，每次更新构建新的不可变 {@link ServiceTable} 并通过 {@link AtomicReference} 原子替换，
+ * 请求线程读取时不加锁。文件中的 service 覆盖路由 serviceHost 中的同名 service，实例地址没有变化的 service 保留原来的实例组
+ *
+ * @author sss
+ */
+@Component
+@Slf4j
+public class ServiceRegistry implements DisposableBean {
+
+    /**
+     * 没有服务表文件的实例，供未注入配置的场景使用
+     */
+    public static final ServiceRegistry DISABLED = new ServiceRegistry(new ServiceHostProperties(),
+            new BalancerProperties(), new CompositeMeterRegistry());
+
+    private final ServiceHostProperties properties;
+
+    private final BalancerProperties balancerProperties;
+
+    private final AtomicReference<Snapshot> snapshot = new AtomicReference<>(Snapshot.EMPTY);
+
+    private final ScheduledExecutorService reloader;
+
+    private final Timer refreshed;
+
+    private final Timer refreshFailed;
+
+    /**
+     * 上次加载失败时的文件状态，文件再次变化前不重试
+     */
+    private volatile long[] failedStamp;
+
+    @Autowired
+    public ServiceRegistry(ServiceHostProperties properties, BalancerProperties balancerProperties,
+                           MeterRegistry registry) {
+        this.properties = properties;
+        this.balancerProperties = balancerProperties;
+        this.refreshed = refreshTimer(registry, "success");
+        this.refreshFailed = refreshTimer(registry, "error");
+        Gauge.builder("apate.services.version", snapshot, s -> s.get().version)
+                .description("服务表版本，每次更新加一")
+                .register(registry);
+        Gauge.builder("apate.services.checksum", snapshot, s -> s.get().checksum)
+                .description("服务表内容的 CRC32，内容相同的节点取值相同")
+                .register(registry);
+        Gauge.builder("apate.services.size", snapshot, s -> s.get().hosts.size())
+                .description("服务表中的 service 数")
+                .register(registry);
+
+        if (properties.getFile() == null) {
+            this.reloader = null;
+            return;
+        }
+
+        // 启动时加载失败直接抛出异常，避免带着错误的服务表启动
+        long start = System.nanoTime();
+        swap(load(stamp()), start);
+        log.info("service table loaded. services: {}", snapshot.get().hosts.keySet());
+
+        long interval = properties.getReloadInterval() == null ? 0 : properties.getReloadInterval().toMillis();
+        if (interval > 0) {
+            this.reloader = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "apate-service-reloader");
+                thread.setDaemon(true);
+                return thread;
+            });
+            reloader.scheduleWithFixedDelay(this::reloadIfChanged, interval, interval, TimeUnit.MILLISECONDS);
+        } else {
+            this.reloader = null;
+        }
+    }
+
+    private static Timer refreshTimer(MeterRegistry registry, String outcome) {
+        return Timer.builder("apate.services.refresh")
+                .description("服务表读取、构建到替换完成的耗时")
+                .tag("outcome", outcome)
+                .register(registry);
+    }
+
+    /**
+     * 绑定路由自己的服务表，读取时叠加当前的热更新服务表
+     *
+     * @param routeTable 路由 serviceHost 构建的服务表
+     * @return
+     */
+    public Binding bind(ServiceTable routeTable) {
+        return new Binding(snapshot, routeTable);
+    }
+
+    /**
+     * 立即从文件重新加载，失败时保留原来的服务表
+     *
+     * @return 是否成功，没有配置文件时为 false
+     */
+    public synchronized boolean reload() {
+        if (properties.getFile() == null) {
+            return false;
+        }
+
+        long start = System.nanoTime();
+        long[] stamp = stamp();
+        try {
+            swap(load(stamp), start);
+            failedStamp = null;
+            Snapshot current = snapshot.get();
+            log.info("service table reloaded. version: {}, services: {}", current.version, current.hosts.keySet());
+            return true;
+        } catch (Exception e) {
+            failedStamp = stamp;
+            refreshFailed.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            log.error("service table reload error, keep previous table. version: {}", snapshot.get().version, e);
+            return false;
+        }
+    }
+
+    /**
+     * 替换一个 service 的实例地址，只在内存中生效，文件下次变化时以文件为准
+     *
+     * @param service
+     * @param hosts   为空时删除该 service
+     */
+    public synchronized void put(String service, List<String> hosts) {
+        long start = System.nanoTime();
+        Snapshot current = snapshot.get();
+        Map<String, List<String>> next = new TreeMap<>(current.hosts);
+        if (hosts == null || hosts.isEmpty()) {
+            next.remove(service);
+        } else {
+            next.put(service, Collections.unmodifiableList(new ArrayList<>(hosts)));
+        }
+
+        swap(new Loaded(next, current.stamp), start);
+        log.info("service table updated. version: {}, service: {}, hosts: {}", snapshot.get().version, service, hosts);
+    }
+
+    /**
+     * 当前的热更新服务表
+     *
+     * @return service 到实例地址，按 service 排序
+     */
+    public Map<String, Object> describe() {
+        Snapshot current = snapshot.get();
+        Map<String, Object> description = new LinkedHashMap<>();
+        description.put("version", current.version);
+        description.put("checksum", current.checksum);
+        description.put("file", properties.getFile());
+        description.put("services", current.hosts);
+        return description;
+    }
+
+    private void reloadIfChanged() {
+        long[] stamp = stamp();
+        if (!Arrays.equals(stamp, snapshot.get().stamp) && !Arrays.equals(stamp, failedStamp)) {
+            reload();
+        }
+    }
+
+    /**
+     * 构建新的服务表并替换，配置错误时抛出异常，原来的服务表不变
+     */
+    private void swap(Loaded loaded, long start) {
+        Snapshot current = snapshot.get();
+        ServiceTable table = ServiceTable.of(loaded.hosts, balancerProperties, current.table);
+        snapshot.set(new Snapshot(table, Collections.unmodifiableMap(loaded.hosts), current.version + 1,
+                checksum(table), loaded.stamp));
+        refreshed.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    private Loaded load(long[] stamp) {
+        Properties file = new Properties();
+        try (Reader reader = Files.newBufferedReader(new File(properties.getFile()).toPath(), StandardCharsets.UTF_8)) {
+            file.load(reader);
+        } catch (IOException | IllegalArgumentException e) {
+            throw new IllegalStateException("load service table error. file: " + properties.getFile(), e);
+        }
+
+        Map<String, List<String>> hosts = new TreeMap<>();
+        for (String service : file.stringPropertyNames()) {
+            List<String> uris = new ArrayList<>();
+            for (String uri : file.getProperty(service).split(",")) {
+                if (!uri.trim().isEmpty()) {
+                    uris.add(uri.trim());
+                }
+            }
+            hosts.put(service, Collections.unmodifiableList(uris));
+        }
+
+        return new Loaded(hosts, stamp);
+    }
+
+    /**
+     * 按 service 排序后对 service 和实例组 id 计算 CRC32，实例顺序不影响结果
+     */
+    private static long checksum(ServiceTable table) {
+        CRC32 crc = new CRC32();
+        new TreeMap<>(table.getGroups()).forEach((service, group) ->
+                crc.update((service + '=' + group.getId() + '\n').getBytes(StandardCharsets.UTF_8)));
+        return crc.getValue();
+    }
+
+    /**
+     * 服务表文件的修改时间和大小，用于判断是否需要重新加载
+     */
+    private long[] stamp() {
+        File file = properties.getFile() == null ? null : new File(properties.getFile());
+        return file == null ? new long[2] : new long[]{file.lastModified(), file.length()};
+    }
+
+    @Override
+    public void destroy() {
+        if (reloader != null) {
+            reloader.shutdownNow();
+        }
+    }
+
+    /**
+     * 路由的服务表与热更新服务表的叠加结果，热更新服务表替换后在下一次读取时重新叠加
+     */
+    public static final class Binding {
+
+        private final AtomicReference<Snapshot> snapshot;
+
+        private final ServiceTable routeTable;
+
+        private volatile Bound bound;
+
+        private Binding(AtomicReference<Snapshot> snapshot, ServiceTable routeTable) {
+            this.snapshot = snapshot;
+            this.routeTable = routeTable;
+            this.bound = new Bound(Snapshot.EMPTY, routeTable);
+        }
+
+        /**
+         * 当前生效的服务表
+         *
+         * @return
+         */
+        public ServiceTable current() {
+            Snapshot current = snapshot.get();
+            Bound b = bound;
+            if (b.snapshot != current) {
+                // 并发叠加的结果相同，不需要加锁
+                b = new Bound(current, routeTable.overlay(current.table));
+                bound = b;
+            }
+
+            return b.table;
+        }
+    }
+
+    private static final class Bound {
+
+        final Snapshot snapshot;
+
+        final ServiceTable table;
+
+        Bound(Snapshot snapshot, ServiceTable table) {
+            this.snapshot = snapshot;
+            this.table = table;
+        }
+    }
+
+    private static final class Loaded {
+
+        final Map<String, List<String>> hosts;
+
+        final long[] stamp;
+
+        Loaded(Map<String, List<String>> hosts, long[] stamp) {
+            this.hosts = hosts;
+            this.stamp = stamp;
+        }
+    }
+
+    /**
+     * 不可变的服务表快照
+     */
+    private static final class Snapshot {
+
+        static final Snapshot EMPTY = new Snapshot(ServiceTable.empty(), Collections.emptyMap(), 0, 0, new long[2]);
+
+        final ServiceTable table;
+
+        final Map<String, List<String>> hosts;
+
+        final long version;
+
+        final long checksum;
+
+        final long[] stamp;
+
+        Snapshot(ServiceTable table, Map<String, List<String>> hosts, long version, long checksum, long[] stamp) {
+            this.table = table;
+            this.hosts = hosts;
+            this.version = version;
+            this.checksum = checksum;
+            this.stamp = stamp;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.sss.apate.route;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 不可变的服务表，service 到预编译实例组的映射
+ *
+ * @author sss
+ */
+public final class ServiceTable {
+
+    private static final ServiceTable EMPTY = new ServiceTable(Collections.emptyMap());
+
+    private final Map<String, ServiceGroup> groups;
+
+    private ServiceTable(Map<String, ServiceGroup> groups) {
+        this.groups = groups;
+    }
+
+    /**
+     * 根据 serviceHost 配置构建服务表，配置错误时直接抛出异常
+     *
+     * @param serviceHost service 到实例地址列表
+     * @param properties
+     * @return
+     */
+    public static ServiceTable of(Map<String, List<String>> serviceHost, BalancerProperties properties) {
+        return of(serviceHost, properties, EMPTY);
+    }
+
+    /**
+     * 根据 serviceHost 配置构建服务表，实例地址没有变化的 service 沿用 previous 中的实例组，保留延迟和摘除状态
+     *
+     * @param serviceHost service 到实例地址列表
+     * @param properties
+     * @param previous    上一张服务表
+     * @return
+     */
+    public static ServiceTable of(Map<String, List<String>> serviceHost, BalancerProperties properties,
+                                  ServiceTable previous) {
+        if (serviceHost == null || serviceHost.isEmpty()) {
+            return EMPTY;
+        }
+
+        Map<String, ServiceGroup> groups = new HashMap<>(serviceHost.size() * 2);
+        normalize(serviceHost).forEach((service, hosts) -> {
+            ServiceGroup group = new ServiceGroup(service, hosts, properties);
+            ServiceGroup old = previous.get(service);
+            groups.put(service, old != null && old.getId().equals(group.getId()) ? old : group);
+        });
+
+        return new ServiceTable(Collections.unmodifiableMap(groups));
+    }
+
+    public static ServiceTable empty() {
+        return EMPTY;
+    }
+
+    /**
+     * 用 overrides 覆盖同名 service，得到新的服务表
+     *
+     * @param overrides
+     * @return
+     */
+    public ServiceTable overlay(ServiceTable overrides) {
+        if (overrides.isEmpty()) {
+            return this;
+        }
+        if (isEmpty()) {
+            return overrides;
+        }
+
+        Map<String, ServiceGroup> merged = new HashMap<>((groups.size() + overrides.groups.size()) * 2);
+        merged.putAll(groups);
+        merged.putAll(overrides.groups);
+        return new ServiceTable(Collections.unmodifiableMap(merged));
+    }
+
+    /**
+     * 过滤器参数中的 yaml 列表会被展开成 service.0、service.1 …（或 service[0] …），这里按下标顺序合并回同一个 service
+     * <p>
+     * 只有同一前缀的下标从 0 开始连续、没有前导 0 时才视为列表展开，api.2、v1.10 这类以 .数字 结尾的 service 名保持原样
+     *
+     * @param serviceHost
+     * @return
+     */
+    static Map<String, List<String>> normalize(Map<String, List<String>> serviceHost) {
+        Map<String, TreeMap<Integer, List<String>>> indexed = new HashMap<>();
+        serviceHost.forEach((key, values) -> {
+            int index = index(key);
+            if (index >= 0) {
+                indexed.computeIfAbsent(base(key), k -> new TreeMap<>()).put(index, values);
+            }
+        });
+        // 下标不连续的不是列表展开
+        indexed.values().removeIf(elements -> elements.firstKey() != 0 || elements.lastKey() != elements.size() - 1);
+
+        Map<String, List<String>> hosts = new HashMap<>(serviceHost.size() * 2);
+        serviceHost.forEach((key, values) -> {
+            int index = index(key);
+            String base = index >= 0 ? base(key) : null;
+            TreeMap<Integer, List<String>> elements = base == null ? null : indexed.get(base);
+            if (elements == null) {
+                hosts.computeIfAbsent(key, k -> new ArrayList<>()).addAll(values);
+            } else if (index == 0) {
+                List<String> merged = hosts.computeIfAbsent(base, k -> new ArrayList<>());
+                elements.values().forEach(merged::addAll);
+            }
+        });
+
+        return hosts;
+    }
+
+    /**
+     * @return key 为 service.N 或 service[N] 时的下标，否则为 -1
+     */
+    private static int index(String key) {
+        boolean bracket = key.endsWith("]");
+        int start = bracket ? key.lastIndexOf('[') : key.lastIndexOf('.');
+        int end = bracket ? key.length() - 1 : key.length();
+        // 前缀不能为空，下标不超过 9 位、没有前导 0
+        if (start <= 0 || start + 1 == end || end - start - 1 > 9 || (key.charAt(start + 1) == '0' && end - start > 2)) {
+            return -1;
+        }
+        for (int i = start + 1; i < end; i++) {
+            if (key.charAt(i) < '0' || key.charAt(i) > '9') {
+                return -1;
+            }
+        }
+
+        return Integer.parseInt(key.substring(start + 1, end));
+    }
+
+    private static String base(String key) {
+        return key.substring(0, key.endsWith("]") ? key.lastIndexOf('[') : key.lastIndexOf('.'));
+    }
+
+    public ServiceGroup get(String service) {
+        return service == null ? null : groups.get(service);
+    }
+
+    public boolean isEmpty() {
+        return groups.isEmpty();
+    }
+
+    public Map<String, ServiceGroup> getGroups() {
+        return groups;
+    }
+}
@@ -0,0 +1,236 @@
+package com.sss.apate.route;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.cloud.gateway.route.Route;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 预编译的后端服务目标（一个实例）
+ * <p>
+ * 在过滤器配置生效时解析一次 serviceHost，请求时只需要拼接 path 和 query。
+ * 同时记录实例的在途请求数、延迟 EWMA 和连续失败次数，供 {@link ServiceGroup} 选择实例
+ *
+ * @author sss
+ */
+@Slf4j
+public final class ServiceTarget {
+
+    private final String service;
+
+    private final URI baseUri;
+
+    private final String scheme;
+
+    private final String userInfo;
+
+    private final String host;
+
+    private final int port;
+
+    /**
+     * 基于网关原始 Route 预构建的代理 Route，原始 Route 变化（路由刷新）时重建
+     */
+    private volatile CachedRoute cachedRoute;
+
+    private final int failureThreshold;
+
+    private final long ejectNanos;
+
+    private final double decayNanos;
+
+    private final AtomicInteger outstanding = new AtomicInteger();
+
+    /**
+     * 延迟 EWMA（纳秒），double 的位表示
+     */
+    private final AtomicLong ewma = new AtomicLong(Double.doubleToRawLongBits(0));
+
+    private volatile long ewmaStamp = System.nanoTime();
+
+    private final AtomicInteger failures = new AtomicInteger();
+
+    private volatile boolean ejected;
+
+    private volatile long ejectedUntil;
+
+    public ServiceTarget(String service, String baseUri) {
+        this(service, baseUri, new BalancerProperties());
+    }
+
+    public ServiceTarget(String service, String baseUri, BalancerProperties properties) {
+        if (baseUri == null || baseUri.isEmpty()) {
+            throw new IllegalArgumentException("serviceHost of " + service + " must not be empty");
+        }
+
+        this.service = service;
+        this.baseUri = URI.create(baseUri);
+        if (this.baseUri.getScheme() == null || this.baseUri.getHost() == null) {
+            throw new IllegalArgumentException("invalid serviceHost of " + service + ": " + baseUri);
+        }
+
+        this.scheme = this.baseUri.getScheme();
+        this.userInfo = this.baseUri.getUserInfo();
+        this.host = this.baseUri.getHost();
+        this.port = this.baseUri.getPort();
+        this.failureThreshold = properties.getFailureThreshold();
+        this.ejectNanos = properties.getEjectTime().toNanos();
+        this.decayNanos = Math.max(1, properties.getDecayTime().toNanos());
+    }
+
+    /**
+     * 请求开始，与 {@link #complete(long, boolean)} 或 {@link #cancel()} 成对调用
+     */
+    public void start() {
+        outstanding.incrementAndGet();
+    }
+
+    /**
+     * 请求结束
+     *
+     * @param latencyNanos 到收到响应头为止的耗时
+     * @param success      连接错误和 5xx 为失败
+     */
+    public void complete(long latencyNanos, boolean success) {
+        outstanding.decrementAndGet();
+        long now = System.nanoTime();
+        if (success) {
+            failures.set(0);
+            ejected = false;
+            observe(latencyNanos, now);
+        } else if (failures.incrementAndGet() >= failureThreshold) {
+            // 失败的耗时不计入 EWMA，快速失败的实例不会因为“延迟低”吸引更多流量
+            if (!isEjected(now)) {
+                log.warn("instance ejected. service: {}, uri: {}, failures: {}", service, baseUri, failures.get());
+            }
+            ejectedUntil = now + ejectNanos;
+            ejected = true;
+        }
+    }
+
+    /**
+     * 请求被取消（例如客户端断开），只释放在途计数
+     */
+    public void cancel() {
+        outstanding.decrementAndGet();
+    }
+
+    /**
+     * peak EWMA：高于当前值的延迟直接生效，低于时按时间衰减逐步靠近
+     */
+    private void observe(long latencyNanos, long now) {
+        long stamp = ewmaStamp;
+        ewmaStamp = now;
+        double weight = Math.exp(-(now - stamp) / decayNanos);
+        while (true) {
+            long bits = ewma.get();
+            double current = Double.longBitsToDouble(bits);
+            double next = latencyNanos > current ? latencyNanos : current * weight + latencyNanos * (1 - weight);
+            if (ewma.compareAndSet(bits, Double.doubleToRawLongBits(next))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 选择代价：按空闲时间衰减后的延迟 EWMA × (在途请求数 + 1)，长时间未被选中的实例代价逐渐降低，会被重新探测
+     *
+     * @param now
+     * @return
+     */
+    double cost(long now) {
+        double latency = Double.longBitsToDouble(ewma.get()) * Math.exp(-(now - ewmaStamp) / decayNanos);
+        return (latency + 1) * (outstanding.get() + 1);
+    }
+
+    boolean isAvailable(long now) {
+        return !isEjected(now);
+    }
+
+    private boolean isEjected(long now) {
+        return ejected && now - ejectedUntil < 0;
+    }
+
+    /**
+     * 构建代理请求 URI
+     * <p>
+     * serviceHost 中配置了端口时总是使用实例的端口，同一 service 的多个实例可以监听不同端口
+     *
+     * @param port  信封中的端口，只在 serviceHost 没有端口时使用，都为空时使用协议的默认端口
+     * @param path  路径
+     * @param query 查询参数，可以为空
+     * @return
+     */
+    public URI uri(Integer port, String path, String query) {
+        int resolved = this.port != -1 ? this.port : port != null ? port : -1;
+        try {
+            return new URI(scheme, userInfo, host, resolved, path, query, null);
+        } catch (URISyntaxException e) {
+            throw new IllegalArgumentException("invalid proxy path: " + path, e);
+        }
+    }
+
+    /**
+     * 获取代理 Route
+     *
+     * @param template 网关当前匹配的 Route
+     * @return
+     */
+    public Route route(Route template) {
+        CachedRoute cached = this.cachedRoute;
+        if (cached != null && cached.template == template) {
+            return cached.route;
+        }
+
+        Route route = Route.async()
+                .id(service)
+                .asyncPredicate(template.getPredicate())
+                .filters(template.getFilters())
+                .order(template.getOrder())
+                .metadata(template.getMetadata())
+                .uri(baseUri)
+                .build();
+        this.cachedRoute = new CachedRoute(template, route);
+
+        return route;
+    }
+
+    public String getService() {
+        return service;
+    }
+
+    public URI getBaseUri() {
+        return baseUri;
+    }
+
+    public String getScheme() {
+        return scheme;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public int getOutstanding() {
+        return outstanding.get();
+    }
+
+    private static final class CachedRoute {
+
+        private final Route template;
+
+        private final Route route;
+
+        private CachedRoute(Route template, Route route) {
+            this.template = template;
+            this.route = route;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.sss.apate.route;
+
+import org.springframework.boot.actuate.endpoint.InvalidEndpointRequestException;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * 服务表端点 {@code /actuator/services}
+ * <p>
+ * GET 查看当前的热更新服务表；POST 不带参数时从文件重新加载，带 service、hosts 时替换该 service 的实例地址，hosts 为空时删除
+ *
+ * @author sss
+ */
+@Component
+@Endpoint(id = "services")
+public class ServicesEndpoint {
+
+    private final ServiceRegistry serviceRegistry;
+
+    public ServicesEndpoint(ServiceRegistry serviceRegistry) {
+        this.serviceRegistry = serviceRegistry;
+    }
+
+    @ReadOperation
+    public Map<String, Object> services() {
+        return serviceRegistry.describe();
+    }
+
+    @WriteOperation
+    public Map<String, Object> update(@Nullable String service, @Nullable String hosts) {
+        if (service == null) {
+            if (!serviceRegistry.reload()) {
+                throw new IllegalStateException("service table reload failed, see log for details");
+            }
+        } else {
+            try {
+                serviceRegistry.put(service, parseHosts(hosts));
+            } catch (IllegalArgumentException e) {
+                throw new InvalidEndpointRequestException(e.getMessage(), e.getMessage());
+            }
+        }
+
+        return serviceRegistry.describe();
+    }
+
+    private static List<String> parseHosts(@Nullable String hosts) {
+        if (hosts == null) {
+            return Collections.emptyList();
+        }
+
+        return Arrays.stream(hosts.split(","))
+                .map(String::trim)
+                .filter(host -> !host.isEmpty())
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,77 @@
+package com.sss.apate.timeout;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 按 service 的自适应超时
+ * <p>
+ * 超时取最近一个窗口上游耗时的分位数乘以系数，限制在 minTimeout ~ maxTimeout 之间，后端变慢时跟着放宽，
+ * 卡住的请求不必等到网关全局的 response-timeout 才释放连接。开启对冲的 service 额外给出对冲延迟和预算，
+ * 由路由过滤器对 GET 请求发出对冲请求
+ *
+ * @author sss
+ */
+@Component
+public class AdaptiveTimeouts {
+
+    /**
+     * 关闭状态的实例，供未注入配置的场景使用
+     */
+    public static final AdaptiveTimeouts DISABLED = new AdaptiveTimeouts(new TimeoutProperties(), new CompositeMeterRegistry());
+
+    private final TimeoutProperties properties;
+
+    private final MeterRegistry registry;
+
+    private final Map<String, ServiceTimeout> services = new ConcurrentHashMap<>();
+
+    @Autowired
+    public AdaptiveTimeouts(TimeoutProperties properties, MeterRegistry registry) {
+        this.properties = properties;
+        this.registry = registry;
+    }
+
+    public boolean isEnabled() {
+        return Boolean.TRUE.equals(properties.getEnabled());
+    }
+
+    /**
+     * 获取 service 的超时状态
+     *
+     * @param service
+     * @return 未开启时为空
+     */
+    @Nullable
+    public ServiceTimeout get(String service) {
+        if (!isEnabled()) {
+            return null;
+        }
+
+        ServiceTimeout timeout = services.get(service);
+        return timeout != null ? timeout : services.computeIfAbsent(service, this::newTimeout);
+    }
+
+    private ServiceTimeout newTimeout(String service) {
+        ServiceTimeout timeout = new ServiceTimeout(service, properties, registry);
+        Gauge.builder("apate.timeout.current", timeout, ServiceTimeout::timeoutSeconds)
+                .description("当前的上游超时")
+                .baseUnit("seconds")
+                .tag("service", service)
+                .register(registry);
+        Gauge.builder("apate.timeout.hedge.delay", timeout, ServiceTimeout::hedgeDelaySeconds)
+                .description("当前的对冲延迟，不对冲时为 0")
+                .baseUnit("seconds")
+                .tag("service", service)
+                .register(registry);
+
+        return timeout;
+    }
+}
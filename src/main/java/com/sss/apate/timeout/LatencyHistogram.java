@@ -0,0 +1,94 @@
+package com.sss.apate.timeout;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 一个时间窗口的延迟直方图，按微秒分桶
+ * <p>
+ * 每个 2 的幂区间再等分 8 个桶，相对误差不超过 12.5%，覆盖 1 微秒到约 19 小时，共 272 个桶。
+ * 记录只是一次数组下标计算和原子加，不加锁
+ *
+ * @author sss
+ */
+final class LatencyHistogram {
+
+    private static final int SUB_BITS = 3;
+
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    private static final int MAX_EXPONENT = 36;
+
+    static final int BUCKETS = (MAX_EXPONENT - SUB_BITS + 1) * SUB_BUCKETS;
+
+    private static final long MAX_MICROS = (1L << MAX_EXPONENT) - 1;
+
+    /**
+     * 时间窗口序号
+     */
+    final long epoch;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    private final AtomicLong total = new AtomicLong();
+
+    LatencyHistogram(long epoch) {
+        this.epoch = epoch;
+    }
+
+    void record(long micros) {
+        counts.incrementAndGet(index(micros));
+        total.incrementAndGet();
+    }
+
+    long count() {
+        return total.get();
+    }
+
+    /**
+     * @param percentile 0 ~ 1
+     * @return 分位数所在桶的上界，微秒；没有样本时为 0
+     */
+    long percentile(double percentile) {
+        long count = total.get();
+        if (count == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(percentile * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return upper(i);
+            }
+        }
+
+        return upper(BUCKETS - 1);
+    }
+
+    static int index(long micros) {
+        long value = Math.min(Math.max(0, micros), MAX_MICROS);
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * @param index
+     * @return 桶的上界（不含），微秒
+     */
+    static long upper(int index) {
+        if (index < SUB_BUCKETS) {
+            return index + 1;
+        }
+
+        int exponent = index / SUB_BUCKETS + SUB_BITS - 1;
+        int sub = index % SUB_BUCKETS;
+        return (long) (SUB_BUCKETS + sub + 1) << (exponent - SUB_BITS);
+    }
+}
@@ -0,0 +1,194 @@
+package com.sss.apate.timeout;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.lang.Nullable;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 一个 service 的自适应超时和对冲预算
+ * <p>
+ * 上游耗时记入当前窗口的直方图，窗口结束时由第一个进入新窗口的请求按刚结束的窗口更新超时和对冲延迟，
+ * 请求只读 volatile 字段。超时的请求按超时值记入直方图，避免只统计返回了的请求使分位数越算越低。
+ * 对冲预算是按请求数累积的令牌：每个完成的请求存入 hedgeBudget 个，对冲一次取出 1 个，最多攒 hedgeBurst 个
+ *
+ * @author sss
+ */
+public final class ServiceTimeout {
+
+    /**
+     * 令牌的定点精度
+     */
+    private static final long CREDIT = 1000;
+
+    private final TimeoutProperties.Policy policy;
+
+    private final long windowNanos;
+
+    private final int minSamples;
+
+    private final long deposit;
+
+    private final long maxCredits;
+
+    private final AtomicReference<LatencyHistogram> current = new AtomicReference<>();
+
+    private final AtomicLong credits = new AtomicLong();
+
+    private volatile Duration timeout;
+
+    private volatile Duration hedgeDelay;
+
+    private final Counter timeouts;
+
+    private final Counter hedgeWon;
+
+    private final Counter hedgeLost;
+
+    private final Counter hedgeThrottled;
+
+    ServiceTimeout(String service, TimeoutProperties properties, MeterRegistry registry) {
+        this.policy = properties.resolve(service);
+        this.windowNanos = Math.max(1, properties.getWindow().toNanos());
+        this.minSamples = Math.max(1, properties.getMinSamples());
+        this.deposit = Math.round(policy.getHedgeBudget() * CREDIT);
+        this.maxCredits = Math.max(1, policy.getHedgeBurst()) * CREDIT;
+        this.timeout = policy.getMaxTimeout();
+        this.timeouts = Counter.builder("apate.timeout.expired")
+                .description("超过自适应超时的上游请求数")
+                .tag("service", service)
+                .register(registry);
+        this.hedgeWon = hedges(registry, service, "won");
+        this.hedgeLost = hedges(registry, service, "lost");
+        this.hedgeThrottled = hedges(registry, service, "throttled");
+    }
+
+    private static Counter hedges(MeterRegistry registry, String service, String outcome) {
+        return Counter.builder("apate.timeout.hedges")
+                .description("对冲请求数，won 为对冲请求先返回，lost 为原请求先返回，throttled 为超出预算未发出")
+                .tag("service", service)
+                .tag("outcome", outcome)
+                .register(registry);
+    }
+
+    /**
+     * @return 本次上游请求的超时
+     */
+    public Duration getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * @return 对冲延迟，未开启对冲或样本不足时为空
+     */
+    @Nullable
+    public Duration getHedgeDelay() {
+        return hedgeDelay;
+    }
+
+    /**
+     * 记录一次成功的上游耗时，同时存入对冲预算
+     *
+     * @param nanos 到收到响应头为止的耗时
+     */
+    public void record(long nanos) {
+        histogram(System.nanoTime()).record(TimeUnit.NANOSECONDS.toMicros(nanos));
+        while (deposit > 0) {
+            long value = credits.get();
+            if (value >= maxCredits || credits.compareAndSet(value, Math.min(maxCredits, value + deposit))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 上游请求超时
+     *
+     * @param timeout 本次请求使用的超时
+     */
+    public void expired(Duration timeout) {
+        timeouts.increment();
+        histogram(System.nanoTime()).record(TimeUnit.NANOSECONDS.toMicros(timeout.toNanos()));
+    }
+
+    /**
+     * 从预算中取出一次对冲
+     *
+     * @return 预算不足时为 false
+     */
+    public boolean tryHedge() {
+        while (true) {
+            long value = credits.get();
+            if (value < CREDIT) {
+                hedgeThrottled.increment();
+                return false;
+            }
+            if (credits.compareAndSet(value, value - CREDIT)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 对冲请求已发出后，哪一个先返回
+     *
+     * @param hedged 对冲请求先返回时为 true
+     */
+    public void hedged(boolean hedged) {
+        (hedged ? hedgeWon : hedgeLost).increment();
+    }
+
+    double timeoutSeconds() {
+        return timeout.toNanos() / 1e9;
+    }
+
+    double hedgeDelaySeconds() {
+        Duration delay = hedgeDelay;
+        return delay == null ? 0 : delay.toNanos() / 1e9;
+    }
+
+    /**
+     * 取当前窗口，进入新窗口时用刚结束的窗口更新超时和对冲延迟
+     *
+     * @param now
+     * @return
+     */
+    private LatencyHistogram histogram(long now) {
+        long epoch = Math.floorDiv(now, windowNanos);
+        while (true) {
+            LatencyHistogram histogram = current.get();
+            if (histogram != null && histogram.epoch >= epoch) {
+                return histogram;
+            }
+            LatencyHistogram next = new LatencyHistogram(epoch);
+            if (current.compareAndSet(histogram, next)) {
+                // 空闲了不止一个窗口时沿用之前的值
+                if (histogram != null && histogram.epoch == epoch - 1 && histogram.count() >= minSamples) {
+                    update(histogram);
+                }
+                return next;
+            }
+        }
+    }
+
+    private void update(LatencyHistogram histogram) {
+        long min = policy.getMinTimeout().toNanos();
+        long max = Math.max(min, policy.getMaxTimeout().toNanos());
+        long nanos = (long) (TimeUnit.MICROSECONDS.toNanos(histogram.percentile(policy.getPercentile()))
+                * policy.getMultiplier());
+        Duration next = Duration.ofMillis(TimeUnit.NANOSECONDS.toMillis(Math.min(max, Math.max(min, nanos))));
+        this.timeout = next;
+
+        if (!Boolean.TRUE.equals(policy.getHedge())) {
+            return;
+        }
+        long delay = Math.max(policy.getHedgeMinDelay().toNanos(),
+                TimeUnit.MICROSECONDS.toNanos(histogram.percentile(policy.getHedgePercentile())));
+        // 对冲延迟不小于超时时对冲没有意义
+        this.hedgeDelay = delay < next.toNanos() ? Duration.ofNanos(delay) : null;
+    }
+}
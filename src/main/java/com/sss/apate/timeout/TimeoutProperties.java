@@ -0,0 +1,233 @@
+package com.sss.apate.timeout;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 按 service 的自适应超时和对冲请求配置
+ *
+ * @author sss
+ */
+@Component
+@ConfigurationProperties(prefix = "apate.timeout")
+public class TimeoutProperties {
+    /**
+     * 是否按后端延迟计算超时，默认关闭（只有网关全局的 response-timeout）
+     */
+    private Boolean enabled = false;
+    /**
+     * 统计延迟分位数的时间窗口，每个窗口结束时按该窗口的数据更新超时和对冲延迟
+     */
+    private Duration window = Duration.ofSeconds(10);
+    /**
+     * 窗口内样本少于该值时不更新，启动后达到之前超时取 maxTimeout，不对冲
+     */
+    private Integer minSamples = 50;
+    /**
+     * 各 service 的默认配置
+     */
+    private Policy defaults = Policy.defaults();
+    /**
+     * 按 service 覆盖的配置，未设置的项取 defaults
+     */
+    private Map<String, Policy> services = new HashMap<>();
+
+    /**
+     * 合并 service 的配置和默认配置
+     *
+     * @param service
+     * @return
+     */
+    public Policy resolve(String service) {
+        Policy policy = services.get(service);
+        if (policy == null) {
+            return defaults;
+        }
+
+        Policy resolved = new Policy();
+        resolved.setPercentile(policy.percentile != null ? policy.percentile : defaults.percentile);
+        resolved.setMultiplier(policy.multiplier != null ? policy.multiplier : defaults.multiplier);
+        resolved.setMinTimeout(policy.minTimeout != null ? policy.minTimeout : defaults.minTimeout);
+        resolved.setMaxTimeout(policy.maxTimeout != null ? policy.maxTimeout : defaults.maxTimeout);
+        resolved.setHedge(policy.hedge != null ? policy.hedge : defaults.hedge);
+        resolved.setHedgePercentile(policy.hedgePercentile != null ? policy.hedgePercentile : defaults.hedgePercentile);
+        resolved.setHedgeMinDelay(policy.hedgeMinDelay != null ? policy.hedgeMinDelay : defaults.hedgeMinDelay);
+        resolved.setHedgeBudget(policy.hedgeBudget != null ? policy.hedgeBudget : defaults.hedgeBudget);
+        resolved.setHedgeBurst(policy.hedgeBurst != null ? policy.hedgeBurst : defaults.hedgeBurst);
+
+        return resolved;
+    }
+
+    public Boolean getEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(Boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public Duration getWindow() {
+        return window;
+    }
+
+    public void setWindow(Duration window) {
+        this.window = window;
+    }
+
+    public Integer getMinSamples() {
+        return minSamples;
+    }
+
+    public void setMinSamples(Integer minSamples) {
+        this.minSamples = minSamples;
+    }
+
+    public Policy getDefaults() {
+        return defaults;
+    }
+
+    public void setDefaults(Policy defaults) {
+        this.defaults = defaults;
+    }
+
+    public Map<String, Policy> getServices() {
+        return services;
+    }
+
+    public void setServices(Map<String, Policy> services) {
+        this.services = services;
+    }
+
+    /**
+     * 超时和对冲策略
+     */
+    public static class Policy {
+        /**
+         * 超时基于的延迟分位数
+         */
+        private Double percentile;
+        /**
+         * 超时 = 分位数 × multiplier
+         */
+        private Double multiplier;
+        /**
+         * 超时的下限
+         */
+        private Duration minTimeout;
+        /**
+         * 超时的上限，也是样本不足时的超时
+         */
+        private Duration maxTimeout;
+        /**
+         * GET 请求是否对冲：超过 hedgePercentile 仍未返回时再向另一个实例发一次，先返回的生效
+         */
+        private Boolean hedge;
+        /**
+         * 对冲延迟基于的延迟分位数
+         */
+        private Double hedgePercentile;
+        /**
+         * 对冲延迟的下限
+         */
+        private Duration hedgeMinDelay;
+        /**
+         * 对冲请求数最多占请求数的比例
+         */
+        private Double hedgeBudget;
+        /**
+         * 允许连续对冲的请求数
+         */
+        private Integer hedgeBurst;
+
+        static Policy defaults() {
+            Policy policy = new Policy();
+            policy.setPercentile(0.99);
+            policy.setMultiplier(2.0);
+            policy.setMinTimeout(Duration.ofMillis(200));
+            policy.setMaxTimeout(Duration.ofSeconds(10));
+            policy.setHedge(false);
+            policy.setHedgePercentile(0.95);
+            policy.setHedgeMinDelay(Duration.ofMillis(5));
+            policy.setHedgeBudget(0.05);
+            policy.setHedgeBurst(10);
+
+            return policy;
+        }
+
+        public Double getPercentile() {
+            return percentile;
+        }
+
+        public void setPercentile(Double percentile) {
+            this.percentile = percentile;
+        }
+
+        public Double getMultiplier() {
+            return multiplier;
+        }
+
+        public void setMultiplier(Double multiplier) {
+            this.multiplier = multiplier;
+        }
+
+        public Duration getMinTimeout() {
+            return minTimeout;
+        }
+
+        public void setMinTimeout(Duration minTimeout) {
+            this.minTimeout = minTimeout;
+        }
+
+        public Duration getMaxTimeout() {
+            return maxTimeout;
+        }
+
+        public void setMaxTimeout(Duration maxTimeout) {
+            this.maxTimeout = maxTimeout;
+        }
+
+        public Boolean getHedge() {
+            return hedge;
+        }
+
+        public void setHedge(Boolean hedge) {
+            this.hedge = hedge;
+        }
+
+        public Double getHedgePercentile() {
+            return hedgePercentile;
+        }
+
+        public void setHedgePercentile(Double hedgePercentile) {
+            this.hedgePercentile = hedgePercentile;
+        }
+
+        public Duration getHedgeMinDelay() {
+            return hedgeMinDelay;
+        }
+
+        public void setHedgeMinDelay(Duration hedgeMinDelay) {
+            this.hedgeMinDelay = hedgeMinDelay;
+        }
+
+        public Double getHedgeBudget() {
+            return hedgeBudget;
+        }
+
+        public void setHedgeBudget(Double hedgeBudget) {
+            this.hedgeBudget = hedgeBudget;
+        }
+
+        public Integer getHedgeBurst() {
+            return hedgeBurst;
+        }
+
+        public void setHedgeBurst(Integer hedgeBurst) {
+            this.hedgeBurst = hedgeBurst;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.sss.apate.trace;
+
+import com.sss.apate.metrics.ProxyTimings;
+import org.springframework.lang.Nullable;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 一次已完成请求的各阶段耗时，不持有请求本身，创建后不再修改
+ *
+ * @author sss
+ */
+public class SlowRequest {
+
+    /**
+     * 记录的后端路径最大长度
+     */
+    private static final int MAX_PATH = 128;
+
+    private final long totalNanos;
+
+    private final long id;
+    private final long time;
+    private final String service;
+    private final String method;
+    private final String path;
+    private final int status;
+    private final String failedStage;
+
+    private final long totalMicros;
+    private final long decryptMicros;
+    private final long parseMicros;
+    private final long routeMicros;
+    private final long acquireMicros;
+    private final long upstreamMicros;
+    private final long encryptMicros;
+
+    private final long requestBytes;
+    private final long responseBytes;
+
+    SlowRequest(ProxyTimings timings, @Nullable String path, int status, long totalNanos) {
+        this.totalNanos = totalNanos;
+        this.id = timings.getId();
+        this.time = timings.getStartMillis();
+        this.service = timings.getService();
+        this.method = timings.getMethod() == null ? null : timings.getMethod().name();
+        this.path = path == null || path.length() <= MAX_PATH ? path : path.substring(0, MAX_PATH);
+        this.status = status;
+        this.failedStage = timings.getFailedStage() == null ? null : timings.getFailedStage().tag();
+        this.totalMicros = micros(totalNanos);
+        this.decryptMicros = micros(timings.getDecryptNanos());
+        this.parseMicros = micros(timings.getParseNanos());
+        this.routeMicros = micros(timings.getRouteNanos());
+        this.acquireMicros = micros(timings.getAcquireNanos());
+        this.upstreamMicros = micros(timings.getUpstreamNanos());
+        this.encryptMicros = micros(timings.getEncryptNanos());
+        this.requestBytes = timings.getRequestBytes();
+        this.responseBytes = timings.getResponseBytes();
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+    long totalNanos() {
+        return totalNanos;
+    }
+
+    /**
+     * @return 请求编号，与 JFR 事件的 requestId 一致
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * @return 请求开始的时间，毫秒
+     */
+    public long getTime() {
+        return time;
+    }
+
+    public String getService() {
+        return service;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public String getFailedStage() {
+        return failedStage;
+    }
+
+    public long getTotalMicros() {
+        return totalMicros;
+    }
+
+    public long getDecryptMicros() {
+        return decryptMicros;
+    }
+
+    public long getParseMicros() {
+        return parseMicros;
+    }
+
+    public long getRouteMicros() {
+        return routeMicros;
+    }
+
+    public long getAcquireMicros() {
+        return acquireMicros;
+    }
+
+    public long getUpstreamMicros() {
+        return upstreamMicros;
+    }
+
+    public long getEncryptMicros() {
+        return encryptMicros;
+    }
+
+    public long getRequestBytes() {
+        return requestBytes;
+    }
+
+    public long getResponseBytes() {
+        return responseBytes;
+    }
+}
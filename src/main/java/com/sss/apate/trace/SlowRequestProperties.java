@@ -0,0 +1,52 @@
+package com.sss.apate.trace;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * 慢请求记录配置
+ *
+ * @author sss
+ */
+@Component
+@ConfigurationProperties(prefix = "apate.slow-requests")
+public class SlowRequestProperties {
+    /**
+     * 是否记录慢请求，默认关闭
+     */
+    private Boolean enabled = false;
+    /**
+     * 每个时间窗口保留最慢的请求数
+     */
+    private Integer size = 20;
+    /**
+     * 时间窗口，端点返回当前和上一个窗口
+     */
+    private Duration window = Duration.ofSeconds(60);
+
+    public Boolean getEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(Boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public Integer getSize() {
+        return size;
+    }
+
+    public void setSize(Integer size) {
+        this.size = size;
+    }
+
+    public Duration getWindow() {
+        return window;
+    }
+
+    public void setWindow(Duration window) {
+        this.window = window;
+    }
+}
@@ -0,0 +1,182 @@
+package com.sss.apate.trace;
+
+import com.sss.apate.metrics.ProxyTimings;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 按时间窗口保留最慢的 N 个请求
+ * <p>
+ * 每个窗口是固定 N 个槽位的数组，新请求用 CAS 替换其中最快的一个，不加锁；
+ * 窗口满后比当前最快的还快的请求只读一次 volatile 就返回，不创建快照。
+ * 进入新的窗口时整体替换，只保留上一个窗口，内存固定为 2N 个快照
+ *
+ * @author sss
+ */
+@Component
+public class SlowRequestRecorder {
+
+    /**
+     * 关闭状态的实例，供未注入配置的场景使用
+     */
+    public static final SlowRequestRecorder DISABLED = new SlowRequestRecorder(new SlowRequestProperties());
+
+    private static final Comparator<SlowRequest> SLOWEST_FIRST =
+            Comparator.comparingLong(SlowRequest::totalNanos).reversed();
+
+    private final SlowRequestProperties properties;
+
+    private final int size;
+
+    private final long windowMillis;
+
+    private final AtomicReference<Window> current = new AtomicReference<>();
+
+    private volatile Window previous;
+
+    @Autowired
+    public SlowRequestRecorder(SlowRequestProperties properties) {
+        this.properties = properties;
+        this.size = Math.max(1, properties.getSize());
+        this.windowMillis = Math.max(1, properties.getWindow().toMillis());
+    }
+
+    public boolean isEnabled() {
+        return Boolean.TRUE.equals(properties.getEnabled());
+    }
+
+    /**
+     * 记录一个已完成的请求
+     *
+     * @param timings
+     * @param path    后端路径
+     * @param status
+     */
+    public void record(@Nullable ProxyTimings timings, @Nullable String path, int status) {
+        if (!isEnabled() || timings == null) {
+            return;
+        }
+
+        long nanos = System.nanoTime() - timings.getStartNanos();
+        Window window = window(System.currentTimeMillis() / windowMillis);
+        if (nanos > window.floor) {
+            window.offer(new SlowRequest(timings, path, status, nanos));
+        }
+    }
+
+    /**
+     * @return 当前和上一个窗口的慢请求，按耗时从高到低
+     */
+    public Map<String, Object> describe() {
+        Window window = window(System.currentTimeMillis() / windowMillis);
+        Window last = previous;
+        Map<String, Object> description = new LinkedHashMap<>();
+        description.put("enabled", isEnabled());
+        description.put("size", size);
+        description.put("window", properties.getWindow().toString());
+        description.put("current", window.snapshot());
+        description.put("previous", last == null || last.epoch != window.epoch - 1
+                ? Collections.emptyList() : last.snapshot());
+        return description;
+    }
+
+    /**
+     * 取时间窗口，当前窗口已过期时替换
+     *
+     * @param epoch 时间窗口序号
+     * @return
+     */
+    private Window window(long epoch) {
+        while (true) {
+            Window window = current.get();
+            // 时钟回拨时沿用较新的窗口
+            if (window != null && window.epoch >= epoch) {
+                return window;
+            }
+            Window next = new Window(epoch, size);
+            if (current.compareAndSet(window, next)) {
+                previous = window;
+                return next;
+            }
+        }
+    }
+
+    private static final class Window {
+
+        private final long epoch;
+
+        private final AtomicReferenceArray<SlowRequest> slots;
+
+        /**
+         * 槽位已满时其中最短的耗时，未满时为 0。
+         * 槽位里的耗时只增不减，并发更新时写入的值不会大于实际的最小值，只会少拦掉一些请求
+         */
+        private volatile long floor;
+
+        Window(long epoch, int size) {
+            this.epoch = epoch;
+            this.slots = new AtomicReferenceArray<>(size);
+        }
+
+        void offer(SlowRequest request) {
+            while (true) {
+                int index = -1;
+                SlowRequest fastest = null;
+                for (int i = 0; i < slots.length(); i++) {
+                    SlowRequest slot = slots.get(i);
+                    if (slot == null) {
+                        index = i;
+                        fastest = null;
+                        break;
+                    }
+                    if (fastest == null || slot.totalNanos() < fastest.totalNanos()) {
+                        index = i;
+                        fastest = slot;
+                    }
+                }
+
+                if (fastest != null && request.totalNanos() <= fastest.totalNanos()) {
+                    return;
+                }
+                if (slots.compareAndSet(index, fastest, request)) {
+                    updateFloor();
+                    return;
+                }
+            }
+        }
+
+        private void updateFloor() {
+            long min = Long.MAX_VALUE;
+            for (int i = 0; i < slots.length(); i++) {
+                SlowRequest slot = slots.get(i);
+                if (slot == null) {
+                    return;
+                }
+                min = Math.min(min, slot.totalNanos());
+            }
+            floor = min;
+        }
+
+        List<SlowRequest> snapshot() {
+            List<SlowRequest> requests = new ArrayList<>(slots.length());
+            for (int i = 0; i < slots.length(); i++) {
+                SlowRequest slot = slots.get(i);
+                if (slot != null) {
+                    requests.add(slot);
+                }
+            }
+            requests.sort(SLOWEST_FIRST);
+            return requests;
+        }
+    }
+}
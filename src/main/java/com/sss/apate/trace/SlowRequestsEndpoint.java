@@ -0,0 +1,30 @@
+package com.sss.apate.trace;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/**
+ * 慢请求端点 {@code /actuator/slowrequests}
+ * <p>
+ * GET 查看当前和上一个时间窗口最慢的请求及其各阶段耗时
+ *
+ * @author sss
+ */
+@Component
+@Endpoint(id = "slowrequests")
+public class SlowRequestsEndpoint {
+
+    private final SlowRequestRecorder recorder;
+
+    public SlowRequestsEndpoint(SlowRequestRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    @ReadOperation
+    public Map<String, Object> slowRequests() {
+        return recorder.describe();
+    }
+}
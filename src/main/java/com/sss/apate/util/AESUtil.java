@@ -1,40 +1,17 @@
 package com.sss.apate.util;
 
+import com.sss.apate.crypto.CipherEngines;
 import org.apache.commons.codec.Charsets;
 import org.apache.commons.codec.binary.Base64;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
-import javax.crypto.Cipher;
-import javax.crypto.KeyGenerator;
-import javax.crypto.spec.SecretKeySpec;
 
 /**
  * AES
  *
  * @author sss
+ * @see com.sss.apate.crypto.CipherEngine
  */
 public class AESUtil {
 
-    private static final Logger logger = LoggerFactory.getLogger(AESUtil.class);
-
-    /**
-     * 参数分别代表 算法名称/加密模式/数据填充方式
-     */
-    private static final String ALGORITHMSTR = "AES/ECB/PKCS5Padding";
-
-    private static Cipher cipher;
-
-    static {
-        try {
-            KeyGenerator kgen = KeyGenerator.getInstance("AES");
-            kgen.init(128);
-            cipher = Cipher.getInstance(ALGORITHMSTR);
-        } catch (Exception e) {
-            logger.error("加密工具错误,  exception:", e);
-        }
-    }
-
     /**
      * 加密
      *
@@ -48,9 +25,7 @@ public class AESUtil {
     }
 
     public static String encrypt(byte[] bytes, String encryptKey) throws Exception {
-        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(encryptKey.getBytes(), "AES"));
-        byte[] b = cipher.doFinal(bytes);
-        return Base64.encodeBase64String(b);
+        return CipherEngines.forKey(encryptKey).encryptToBase64(bytes);
     }
 
     /**
@@ -62,16 +37,11 @@ public class AESUtil {
      * @throws Exception
      */
     public static String decrypt(String encryptStr, String decryptKey) throws Exception {
-        cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(decryptKey.getBytes(), "AES"));
-        byte[] encryptBytes = Base64.decodeBase64(encryptStr);
-        byte[] decryptBytes = cipher.doFinal(encryptBytes);
-        return new String(decryptBytes);
+        return new String(CipherEngines.forKey(decryptKey).decryptFromBase64(encryptStr), Charsets.UTF_8);
     }
 
     public static String decrypt(byte[] encryptStr, String decryptKey) throws Exception {
-        cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(decryptKey.getBytes(), "AES"));
-        byte[] encryptBytes = Base64.decodeBase64(encryptStr);
-        byte[] decryptBytes = cipher.doFinal(encryptBytes);
-        return new String(decryptBytes);
+        byte[] decryptBytes = CipherEngines.forKey(decryptKey).decrypt(Base64.decodeBase64(encryptStr));
+        return new String(decryptBytes, Charsets.UTF_8);
     }
-}
\ No newline at end of file
+}
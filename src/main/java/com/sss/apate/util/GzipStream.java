@@ -0,0 +1,88 @@
+package com.sss.apate.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 增量 gzip 压缩，每次写入后取出已经产生的压缩字节，用于流式响应
+ *
+ * @author sss
+ */
+public class GzipStream implements AutoCloseable {
+
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream(8192);
+
+    private final GZIPOutputStream gzip;
+
+    private final byte[] chunk = new byte[8192];
+
+    public GzipStream() throws IOException {
+        this.gzip = new GZIPOutputStream(out, 8192);
+    }
+
+    /**
+     * 一次性压缩
+     *
+     * @param bytes
+     * @return
+     * @throws IOException
+     */
+    public static byte[] compress(byte[] bytes) throws IOException {
+        try (GzipStream stream = new GzipStream()) {
+            stream.gzip.write(bytes);
+            return stream.finish();
+        }
+    }
+
+    /**
+     * 写入一段明文，不移动 input 的 position
+     *
+     * @param input
+     * @return 目前已产生的压缩字节，可能为空数组
+     * @throws IOException
+     */
+    public byte[] update(ByteBuffer input) throws IOException {
+        if (input.hasArray()) {
+            gzip.write(input.array(), input.arrayOffset() + input.position(), input.remaining());
+        } else {
+            ByteBuffer src = input.duplicate();
+            while (src.hasRemaining()) {
+                int length = Math.min(chunk.length, src.remaining());
+                src.get(chunk, 0, length);
+                gzip.write(chunk, 0, length);
+            }
+        }
+
+        return drain();
+    }
+
+    /**
+     * 结束压缩
+     *
+     * @return 剩余的压缩字节和 gzip 尾部
+     * @throws IOException
+     */
+    public byte[] finish() throws IOException {
+        gzip.finish();
+
+        return drain();
+    }
+
+    private byte[] drain() {
+        byte[] bytes = out.toByteArray();
+        out.reset();
+
+        return bytes;
+    }
+
+    @Override
+    public void close() {
+        try {
+            gzip.close();
+        } catch (IOException ignored) {
+            // 输出到内存，不会发生
+        }
+    }
+}
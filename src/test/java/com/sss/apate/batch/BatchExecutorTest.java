@@ -0,0 +1,71 @@
+package com.sss.apate.batch;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sss.apate.codec.Envelope;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * 批量调用的响应体：文本按字符集解码，其他原样保留字节
+ *
+ * @author sss
+ */
+class BatchExecutorTest {
+
+    private static final byte[] BINARY = {(byte) 0x89, 'P', 'N', 'G', 0, (byte) 0xff, (byte) 0xfe};
+
+    @Test
+    void textBodyUsesDeclaredCharset() {
+        byte[] bytes = "é中".getBytes(StandardCharsets.UTF_16BE);
+
+        BatchResult result = BatchExecutor.result(200, "text/plain;charset=UTF-16BE", bytes);
+
+        assertEquals("é中", result.getBody());
+        assertNull(result.getData());
+    }
+
+    @Test
+    void jsonBodyDefaultsToUtf8() {
+        BatchResult result = BatchExecutor.result(200, "application/problem+json",
+                "{\"a\":\"中\"}".getBytes(StandardCharsets.UTF_8));
+
+        assertEquals("{\"a\":\"中\"}", result.getBody());
+    }
+
+    @Test
+    void binaryBodyKeepsBytes() {
+        BatchResult result = BatchExecutor.result(200, "image/png", BINARY);
+
+        assertNull(result.getBody());
+        assertArrayEquals(BINARY, result.getData());
+        assertEquals("image/png", result.getContentType());
+    }
+
+    @Test
+    void missingContentTypeFallsBackOnInvalidUtf8() {
+        assertEquals("ok", BatchExecutor.result(200, null, "ok".getBytes(StandardCharsets.UTF_8)).getBody());
+        assertArrayEquals(BINARY, BatchExecutor.result(200, null, BINARY).getData());
+        assertArrayEquals(BINARY, BatchExecutor.result(200, "not a type", BINARY).getData());
+    }
+
+    @Test
+    void binaryBodySurvivesBothEnvelopes() throws Exception {
+        BatchResult result = BatchExecutor.result(200, "application/octet-stream", BINARY);
+
+        ObjectMapper text = Envelope.TEXT.newMapper();
+        JsonNode json = text.readTree(text.writeValueAsBytes(Collections.singletonList(result))).get(0);
+        assertArrayEquals(BINARY, Base64.getDecoder().decode(json.get("data").asText()));
+
+        ObjectMapper cbor = Envelope.BINARY.newMapper();
+        JsonNode node = cbor.readTree(cbor.writeValueAsBytes(Collections.singletonList(result))).get(0);
+        assertArrayEquals(BINARY, node.get("data").binaryValue());
+    }
+}
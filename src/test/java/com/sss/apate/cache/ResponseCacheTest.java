@@ -0,0 +1,93 @@
+package com.sss.apate.cache;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Cache-Control 解析和写入缓存的条件
+ *
+ * @author sss
+ */
+class ResponseCacheTest {
+
+    @Test
+    void parsesCacheControl() {
+        assertEquals(-1, ResponseCache.maxAge(null));
+        assertEquals(-1, ResponseCache.maxAge(""));
+        assertEquals(-1, ResponseCache.maxAge("public, must-revalidate"));
+        assertEquals(30, ResponseCache.maxAge("max-age=30"));
+        assertEquals(30, ResponseCache.maxAge("Public, MAX-AGE=30"));
+        assertEquals(10, ResponseCache.maxAge("max-age=30, s-maxage=10"));
+        assertEquals(10, ResponseCache.maxAge("s-maxage=10, max-age=30"));
+        assertEquals(0, ResponseCache.maxAge("max-age=0"));
+        assertEquals(0, ResponseCache.maxAge("max-age=-5"));
+    }
+
+    @Test
+    void forbiddenDirectivesDisableCaching() {
+        assertEquals(0, ResponseCache.maxAge("no-store"));
+        assertEquals(0, ResponseCache.maxAge("max-age=60, no-cache"));
+        assertEquals(0, ResponseCache.maxAge("private, max-age=60"));
+        assertEquals(0, ResponseCache.maxAge("private=\"Set-Cookie\", max-age=60"));
+        assertEquals(0, ResponseCache.maxAge("no-cache=\"Set-Cookie\""));
+        assertEquals(0, ResponseCache.maxAge("max-age=abc"));
+        assertEquals(60, ResponseCache.maxAge("max-age=60, no-cache-like"));
+    }
+
+    @Test
+    void putHonorsUpstreamHeadersAndLimits() {
+        ResponseCacheProperties properties = new ResponseCacheProperties();
+        properties.setEnabled(true);
+        properties.setTtl(Duration.ofSeconds(60));
+        properties.setMaxEntrySize(DataSize.ofBytes(16));
+        properties.setServices(Collections.singletonMap("off", Duration.ZERO));
+        ResponseCache cache = new ResponseCache(properties, new SimpleMeterRegistry());
+
+        assertTrue(cache.isEnabled("test"));
+        assertFalse(cache.isEnabled("off"));
+
+        RequestKey key = key(1);
+        cache.put(key, "test", new byte[8], upstream("max-age=5"), new HttpHeaders());
+        CachedResponse cached = cache.get(key);
+        assertNotNull(cached);
+        assertEquals(TimeUnit.SECONDS.toNanos(5), cached.getTtlNanos());
+
+        cache.put(key(2), "test", new byte[8], new HttpHeaders(), new HttpHeaders());
+        assertEquals(TimeUnit.SECONDS.toNanos(60), cache.get(key(2)).getTtlNanos());
+
+        cache.put(key(3), "test", new byte[8], upstream("no-store"), new HttpHeaders());
+        assertNull(cache.get(key(3)));
+
+        HttpHeaders cookie = new HttpHeaders();
+        cookie.add(HttpHeaders.SET_COOKIE, "a=b");
+        cache.put(key(4), "test", new byte[8], cookie, new HttpHeaders());
+        assertNull(cache.get(key(4)));
+
+        cache.put(key(5), "test", new byte[17], new HttpHeaders(), new HttpHeaders());
+        assertNull(cache.get(key(5)));
+
+        assertNull(cache.get(new RequestKey(new byte[]{1}, "other")));
+    }
+
+    private static RequestKey key(int id) {
+        return new RequestKey(new byte[]{(byte) id}, "scope");
+    }
+
+    private static HttpHeaders upstream(String cacheControl) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setCacheControl(cacheControl);
+        return headers;
+    }
+}
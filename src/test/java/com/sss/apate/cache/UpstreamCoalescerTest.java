@@ -0,0 +1,179 @@
+package com.sss.apate.cache;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import reactor.core.Disposable;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * leader 把结果交给 follower，失败、非 200、取消或超时时 follower 拿到空结果自行请求
+ *
+ * @author sss
+ */
+class UpstreamCoalescerTest {
+
+    private static final byte[] BODY = "{\"a\":1}".getBytes(StandardCharsets.UTF_8);
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private final UpstreamCoalescer coalescer = coalescer(Duration.ofSeconds(5));
+
+    @Test
+    void followerReceivesLeaderResult() {
+        UpstreamCoalescer.Flight leader = coalescer.join(key("a"));
+        UpstreamCoalescer.Flight follower = coalescer.join(key("a"));
+        assertTrue(leader.isLeader());
+        assertFalse(follower.isLeader());
+
+        AtomicReference<UpstreamCoalescer.Result> received = new AtomicReference<>();
+        follower.await().subscribe(received::set);
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        headers.setCacheControl("max-age=30");
+        leader.complete(HttpStatus.OK, headers, BODY, "gzip");
+
+        UpstreamCoalescer.Result result = received.get();
+        assertEquals(HttpStatus.OK, result.getStatus());
+        assertArrayEquals(BODY, result.getBody());
+        assertEquals("gzip", result.getContentEncoding());
+        assertEquals(MediaType.APPLICATION_JSON, result.getHeaders().getContentType());
+        assertEquals("max-age=30", result.getHeaders().getCacheControl());
+        assertThrows(UnsupportedOperationException.class, () -> result.getHeaders().add("X-A", "b"));
+
+        // 分发后不再合并，之后的相同请求重新成为 leader
+        assertTrue(coalescer.join(key("a")).isLeader());
+        assertEquals(1, count("follower"));
+    }
+
+    @Test
+    void lateFollowerStillReceivesResult() {
+        UpstreamCoalescer.Flight leader = coalescer.join(key("a"));
+        UpstreamCoalescer.Flight follower = coalescer.join(key("a"));
+        leader.complete(HttpStatus.OK, new HttpHeaders(), BODY, null);
+
+        assertArrayEquals(BODY, follower.await().block(Duration.ofSeconds(1)).getBody());
+    }
+
+    @Test
+    void differentKeysDoNotCoalesce() {
+        assertTrue(coalescer.join(key("a")).isLeader());
+        assertTrue(coalescer.join(key("b")).isLeader());
+        assertTrue(coalescer.join(new RequestKey(digest("a"), "other")).isLeader());
+    }
+
+    @Test
+    void nonOkResultIsNotShared() {
+        UpstreamCoalescer.Flight leader = coalescer.join(key("a"));
+        UpstreamCoalescer.Flight follower = coalescer.join(key("a"));
+
+        leader.complete(HttpStatus.INTERNAL_SERVER_ERROR, new HttpHeaders(), BODY, null);
+        // 还在进行，新的请求继续合并
+        assertFalse(coalescer.join(key("a")).isLeader());
+
+        leader.finish();
+        assertNull(follower.await().block(Duration.ofSeconds(1)));
+        assertEquals(1, count("fallback"));
+        assertTrue(coalescer.join(key("a")).isLeader());
+    }
+
+    @Test
+    void leaderFinishingWithoutResultReleasesFollowers() {
+        UpstreamCoalescer.Flight leader = coalescer.join(key("a"));
+        UpstreamCoalescer.Flight first = coalescer.join(key("a"));
+        UpstreamCoalescer.Flight second = coalescer.join(key("a"));
+
+        // leader 被取消时由 doFinally 调用 finish
+        leader.finish();
+
+        assertNull(first.await().block(Duration.ofSeconds(1)));
+        assertNull(second.await().block(Duration.ofSeconds(1)));
+        assertEquals(2, count("fallback"));
+        assertTrue(coalescer.join(key("a")).isLeader());
+    }
+
+    @Test
+    void finishAfterCompleteIsNoop() {
+        UpstreamCoalescer.Flight leader = coalescer.join(key("a"));
+        UpstreamCoalescer.Flight follower = coalescer.join(key("a"));
+        leader.complete(HttpStatus.OK, new HttpHeaders(), BODY, null);
+        UpstreamCoalescer.Flight next = coalescer.join(key("a"));
+
+        leader.finish();
+
+        assertArrayEquals(BODY, follower.await().block(Duration.ofSeconds(1)).getBody());
+        // 旧 leader 结束不会移除新的 flight
+        assertTrue(next.isLeader());
+        assertFalse(coalescer.join(key("a")).isLeader());
+    }
+
+    @Test
+    void followerOnlyCompletesOrFinishesOnce() {
+        UpstreamCoalescer.Flight leader = coalescer.join(key("a"));
+        UpstreamCoalescer.Flight follower = coalescer.join(key("a"));
+
+        // follower 不能代替 leader 分发或结束
+        follower.complete(HttpStatus.OK, new HttpHeaders(), BODY, null);
+        follower.finish();
+        assertFalse(coalescer.join(key("a")).isLeader());
+
+        leader.complete(HttpStatus.OK, new HttpHeaders(), BODY, null);
+        assertArrayEquals(BODY, follower.await().block(Duration.ofSeconds(1)).getBody());
+    }
+
+    @Test
+    void cancelledFollowerDoesNotAffectOthers() {
+        UpstreamCoalescer.Flight leader = coalescer.join(key("a"));
+        UpstreamCoalescer.Flight cancelled = coalescer.join(key("a"));
+        UpstreamCoalescer.Flight follower = coalescer.join(key("a"));
+
+        AtomicReference<UpstreamCoalescer.Result> received = new AtomicReference<>();
+        Disposable subscription = cancelled.await().subscribe(received::set);
+        subscription.dispose();
+        leader.complete(HttpStatus.OK, new HttpHeaders(), BODY, null);
+
+        assertNull(received.get());
+        assertArrayEquals(BODY, follower.await().block(Duration.ofSeconds(1)).getBody());
+    }
+
+    @Test
+    void followerFallsBackAfterMaxWait() {
+        UpstreamCoalescer coalescer = coalescer(Duration.ofMillis(50));
+        coalescer.join(key("a"));
+        UpstreamCoalescer.Flight follower = coalescer.join(key("a"));
+
+        assertNull(follower.await().block(Duration.ofSeconds(1)));
+        assertEquals(1, count("fallback"));
+    }
+
+    private UpstreamCoalescer coalescer(Duration maxWait) {
+        CoalesceProperties properties = new CoalesceProperties();
+        properties.setEnabled(true);
+        properties.setMaxWait(maxWait);
+        return new UpstreamCoalescer(properties, registry);
+    }
+
+    private double count(String role) {
+        return registry.get("apate.proxy.coalesce").tag("role", role).counter().count();
+    }
+
+    private static RequestKey key(String value) {
+        return new RequestKey(digest(value), "scope");
+    }
+
+    private static byte[] digest(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
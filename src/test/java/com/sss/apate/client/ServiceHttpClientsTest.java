@@ -0,0 +1,95 @@
+package com.sss.apate.client;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.ssl.util.SelfSignedCertificate;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.cloud.gateway.config.HttpClientProperties;
+import org.springframework.util.unit.DataSize;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * 各 service 的 HttpClient 与网关默认的 HttpClient 一样应用 spring.cloud.gateway.httpclient 的配置
+ *
+ * @author sss
+ */
+class ServiceHttpClientsTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private DisposableServer server;
+
+    private ServiceHttpClients clients;
+
+    @AfterEach
+    void stop() {
+        if (clients != null) {
+            clients.destroy();
+        }
+        if (server != null) {
+            server.disposeNow();
+        }
+    }
+
+    @Test
+    void gatewaySslSettingsApply() throws Exception {
+        SelfSignedCertificate certificate = new SelfSignedCertificate();
+        server = HttpServer.create().port(0)
+                .secure(spec -> spec.sslContext(SslContextBuilder.forServer(certificate.certificate(),
+                        certificate.privateKey())))
+                .handle((request, response) -> response.sendString(Mono.just("ok")))
+                .bindNow();
+        String uri = "https://127.0.0.1:" + server.port() + "/";
+
+        // 自签名证书默认不受信任
+        clients = clients(new HttpClientProperties());
+        assertThrows(RuntimeException.class, () -> get(uri));
+        clients.destroy();
+
+        HttpClientProperties gateway = new HttpClientProperties();
+        gateway.getSsl().setUseInsecureTrustManager(true);
+        clients = clients(gateway);
+        assertEquals("ok", get(uri));
+        assertEquals(1, registry.get("apate.client.acquire").tag("service", "svc").timer().count());
+    }
+
+    @Test
+    void gatewayHeaderSizeApplies() {
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < 2048; i++) {
+            value.append('a');
+        }
+        server = HttpServer.create().port(0)
+                .handle((request, response) -> response.header("X-Large", value).sendString(Mono.just("ok")))
+                .bindNow();
+        String uri = "http://127.0.0.1:" + server.port() + "/";
+
+        HttpClientProperties gateway = new HttpClientProperties();
+        gateway.setMaxHeaderSize(DataSize.ofKilobytes(1));
+        clients = clients(gateway);
+
+        assertThrows(RuntimeException.class, () -> get(uri));
+    }
+
+    private ServiceHttpClients clients(HttpClientProperties gateway) {
+        ServiceClientProperties properties = new ServiceClientProperties();
+        properties.setEnabled(true);
+        return new ServiceHttpClients(properties, gateway, registry);
+    }
+
+    private String get(String uri) {
+        return clients.get("svc").get()
+                .uri(uri)
+                .responseSingle((response, body) -> response.status().code() == 200 ? body.asString()
+                        : Mono.error(new IllegalStateException("status " + response.status())))
+                .block(Duration.ofSeconds(5));
+    }
+}
@@ -0,0 +1,93 @@
+package com.sss.apate.crypto;
+
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 大报文分块并行加解密时，各块的计数器与串行 JCE 的结果一致
+ *
+ * @author sss
+ */
+class AesCtrCipherEngineTest {
+
+    private static final byte[] KEY = "ABCD12345678EFGHABCD12345678EFGH".getBytes(StandardCharsets.UTF_8);
+
+    private final AesCtrCipherEngine engine = new AesCtrCipherEngine(KEY);
+
+    private final Random random = new Random(1);
+
+    @Test
+    void parallelMatchesSerial() throws Exception {
+        int[] sizes = {AesCtrCipherEngine.PARALLEL_THRESHOLD - 1, AesCtrCipherEngine.PARALLEL_THRESHOLD,
+                AesCtrCipherEngine.PARALLEL_THRESHOLD + 1, AesCtrCipherEngine.PARALLEL_THRESHOLD + 15,
+                AesCtrCipherEngine.CHUNK_SIZE * 5 + 7};
+        for (int size : sizes) {
+            byte[] plain = new byte[size];
+            random.nextBytes(plain);
+
+            byte[] encrypted = engine.encrypt(plain);
+            assertEquals(AesCtrCipherEngine.IV_LENGTH + size, encrypted.length);
+            byte[] iv = Arrays.copyOf(encrypted, AesCtrCipherEngine.IV_LENGTH);
+            assertArrayEquals(serial(iv, plain),
+                    Arrays.copyOfRange(encrypted, AesCtrCipherEngine.IV_LENGTH, encrypted.length), "size " + size);
+            assertArrayEquals(plain, engine.decrypt(encrypted), "size " + size);
+        }
+    }
+
+    @Test
+    void counterCarriesAcrossBytes() throws Exception {
+        // 低 64 位接近溢出，分块的计数器要向高位进位
+        byte[] iv = new byte[AesCtrCipherEngine.IV_LENGTH];
+        Arrays.fill(iv, 8, 16, (byte) 0xFF);
+        iv[15] = (byte) 0xF0;
+        byte[] plain = new byte[AesCtrCipherEngine.PARALLEL_THRESHOLD + 33];
+        random.nextBytes(plain);
+
+        byte[] content = new byte[iv.length + plain.length];
+        System.arraycopy(iv, 0, content, 0, iv.length);
+        System.arraycopy(serial(iv, plain), 0, content, iv.length, plain.length);
+        assertArrayEquals(plain, engine.decrypt(content));
+
+        Arrays.fill(iv, (byte) 0xFF);
+        System.arraycopy(iv, 0, content, 0, iv.length);
+        System.arraycopy(serial(iv, plain), 0, content, iv.length, plain.length);
+        assertArrayEquals(plain, engine.decrypt(content));
+    }
+
+    @Test
+    void counterAddsBlocksAsBigEndian() {
+        byte[] iv = new byte[20];
+        iv[2 + 15] = (byte) 0xFE;
+        iv[2 + 14] = (byte) 0xFF;
+
+        byte[] counter = AesCtrCipherEngine.counter(iv, 2, 3);
+
+        byte[] expected = new byte[16];
+        expected[13] = 1;
+        expected[14] = 0;
+        expected[15] = 1;
+        assertArrayEquals(expected, counter);
+        assertArrayEquals(Arrays.copyOfRange(iv, 2, 18), AesCtrCipherEngine.counter(iv, 2, 0));
+
+        byte[] max = new byte[16];
+        Arrays.fill(max, (byte) 0xFF);
+        byte[] wrapped = new byte[16];
+        wrapped[15] = 1;
+        assertArrayEquals(wrapped, AesCtrCipherEngine.counter(max, 0, 2));
+    }
+
+    private static byte[] serial(byte[] iv, byte[] plain) throws Exception {
+        Cipher cipher = Cipher.getInstance(AesCtrCipherEngine.TRANSFORMATION);
+        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(KEY, "AES"), new IvParameterSpec(iv));
+        return cipher.doFinal(plain);
+    }
+}
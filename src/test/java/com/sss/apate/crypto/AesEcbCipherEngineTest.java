@@ -0,0 +1,109 @@
+package com.sss.apate.crypto;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 多线程共享同一个引擎时，ThreadLocal cipher、流式加密的 cipher 池和线程内缓冲区都不能串数据
+ *
+ * @author sss
+ */
+class AesEcbCipherEngineTest {
+
+    private static final int THREADS = 64;
+
+    private static final int ROUNDS = 50;
+
+    private final AesEcbCipherEngine engine = new AesEcbCipherEngine("ABCD12345678EFGH");
+
+    @Test
+    void concurrentRoundTrips() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Integer>> futures = new ArrayList<>();
+        try {
+            for (int i = 0; i < THREADS; i++) {
+                long seed = i;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    return roundTrips(new Random(seed));
+                }));
+            }
+            start.countDown();
+
+            for (Future<Integer> future : futures) {
+                assertEquals(ROUNDS, future.get(60, TimeUnit.SECONDS).intValue());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void streamMatchesOneShot() throws Exception {
+        byte[] plain = "0123456789abcdef0123456789abcdef!".getBytes(StandardCharsets.UTF_8);
+        for (int chunk = 1; chunk <= plain.length; chunk++) {
+            assertEquals(engine.encryptToBase64(plain), new String(encryptStream(plain, chunk, true),
+                    StandardCharsets.US_ASCII));
+            assertArrayEquals(engine.encrypt(plain), encryptStream(plain, chunk, false));
+        }
+    }
+
+    private int roundTrips(Random random) throws Exception {
+        for (int round = 0; round < ROUNDS; round++) {
+            // 偶尔超过线程内缓冲区的初始大小和保留上限
+            int size = round % 25 == 0 ? 1024 * 1024 + random.nextInt(4096) : random.nextInt(80 * 1024);
+            byte[] plain = new byte[size];
+            random.nextBytes(plain);
+
+            byte[] encrypted = engine.encrypt(plain);
+            assertArrayEquals(plain, engine.decrypt(encrypted));
+            assertArrayEquals(plain, toArray(engine.decrypt(ByteBuffer.wrap(encrypted))));
+
+            String base64 = engine.encryptToBase64(plain);
+            assertArrayEquals(plain, engine.decryptFromBase64(base64));
+            ByteBuffer direct = ByteBuffer.allocateDirect(base64.length());
+            direct.put(base64.getBytes(StandardCharsets.US_ASCII)).flip();
+            assertArrayEquals(plain, toArray(engine.decryptFromBase64(direct)));
+            assertEquals(0, direct.position());
+
+            byte[] streamed = encryptStream(plain, 1 + random.nextInt(16 * 1024), true);
+            assertArrayEquals(plain, engine.decryptFromBase64(new String(streamed, StandardCharsets.US_ASCII)));
+        }
+        return ROUNDS;
+    }
+
+    private byte[] encryptStream(byte[] plain, int chunk, boolean base64) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (EncryptStream stream = engine.newEncryptStream(base64)) {
+            for (int i = 0; i < plain.length; i += chunk) {
+                out.write(stream.update(ByteBuffer.wrap(plain, i, Math.min(chunk, plain.length - i))));
+            }
+            out.write(stream.doFinal());
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * 线程内缓冲区在下一次调用前有效，比较前先复制出来
+     */
+    private static byte[] toArray(ByteBuffer buffer) {
+        return Arrays.copyOfRange(buffer.array(), buffer.arrayOffset() + buffer.position(),
+                buffer.arrayOffset() + buffer.limit());
+    }
+}
@@ -0,0 +1,68 @@
+package com.sss.apate.crypto;
+
+import org.apache.commons.codec.binary.Base64;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 解码结果与 commons-codec 的宽松解码一致
+ *
+ * @author sss
+ */
+class Base64BuffersTest {
+
+    private final Random random = new Random(1);
+
+    @Test
+    void matchesJdkForStandardAndUrlSafe() {
+        for (int size = 0; size < 200; size++) {
+            byte[] bytes = new byte[size];
+            random.nextBytes(bytes);
+
+            assertArrayEquals(bytes, decode(java.util.Base64.getEncoder().encode(bytes)));
+            assertArrayEquals(bytes, decode(java.util.Base64.getUrlEncoder().encode(bytes)));
+            assertArrayEquals(bytes, decode(java.util.Base64.getUrlEncoder().withoutPadding().encode(bytes)));
+            assertArrayEquals(bytes, decode(java.util.Base64.getMimeEncoder().encode(bytes)));
+        }
+    }
+
+    @Test
+    void lenientLikeCommonsCodec() {
+        String[] inputs = {
+                "QUJD\r\nREVG", " QUJD REVG ", "QUJDREVG\n", "QU*JD!RE\tVG", "QUJDRA==", "QUJDRA", "QUJDREU=",
+                "QUJDRA==QUJD", "QUJDR", "", "====", "ÿQUJD", "Q"};
+        for (String input : inputs) {
+            byte[] encoded = input.getBytes(StandardCharsets.ISO_8859_1);
+            assertArrayEquals(Base64.decodeBase64(encoded), decode(encoded), input);
+        }
+    }
+
+    @Test
+    void keepsPositionAndHonorsLimit() {
+        byte[] encoded = "xxQUJDREVGyy".getBytes(StandardCharsets.US_ASCII);
+        ByteBuffer heap = ByteBuffer.wrap(encoded);
+        heap.position(2).limit(10);
+        ByteBuffer direct = ByteBuffer.allocateDirect(encoded.length);
+        direct.put(encoded).position(2).limit(10);
+
+        for (ByteBuffer src : new ByteBuffer[]{heap, direct}) {
+            byte[] dst = new byte[Base64Buffers.maxDecodedLength(src.remaining())];
+            int length = Base64Buffers.decode(src, dst);
+            assertArrayEquals("ABCDEF".getBytes(StandardCharsets.US_ASCII), Arrays.copyOf(dst, length));
+            assertEquals(2, src.position());
+        }
+    }
+
+    private static byte[] decode(byte[] encoded) {
+        byte[] dst = new byte[Base64Buffers.maxDecodedLength(encoded.length)];
+        int length = Base64Buffers.decode(ByteBuffer.wrap(encoded), dst);
+        return Arrays.copyOf(dst, length);
+    }
+}
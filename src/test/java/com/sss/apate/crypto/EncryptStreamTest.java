@@ -0,0 +1,102 @@
+package com.sss.apate.crypto;
+
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 任意分块下增量输出的 base64 与 {@link Base64} 一次性编码的结果一致
+ *
+ * @author sss
+ */
+class EncryptStreamTest {
+
+    private static final SecretKeySpec KEY = new SecretKeySpec("ABCD12345678EFGH".getBytes(StandardCharsets.UTF_8), "AES");
+
+    private final Random random = new Random(1);
+
+    @Test
+    void base64MatchesOneShotForAnyChunking() throws Exception {
+        for (int size = 0; size < 100; size++) {
+            byte[] plain = new byte[size];
+            random.nextBytes(plain);
+            byte[] expected = Base64.getEncoder().encode(newCipher().doFinal(plain));
+
+            for (int chunk = 1; chunk <= Math.max(1, size); chunk++) {
+                assertArrayEquals(expected, encrypt(plain, null, true, chunk), "size " + size + ", chunk " + chunk);
+            }
+            assertArrayEquals(expected, encrypt(plain, null, true, 0), "size " + size + ", random chunks");
+        }
+    }
+
+    @Test
+    void prefixIsEncodedWithFirstChunk() throws Exception {
+        byte[] prefix = new byte[]{1, 2, 3, 4, 5, 6, 7};
+        for (int size = 0; size < 64; size++) {
+            byte[] plain = new byte[size];
+            random.nextBytes(plain);
+            byte[] cipherText = newCipher().doFinal(plain);
+            byte[] joined = new byte[prefix.length + cipherText.length];
+            System.arraycopy(prefix, 0, joined, 0, prefix.length);
+            System.arraycopy(cipherText, 0, joined, prefix.length, cipherText.length);
+
+            assertArrayEquals(Base64.getEncoder().encode(joined), encrypt(plain, prefix, true, 0));
+            assertArrayEquals(joined, encrypt(plain, prefix, false, 0));
+        }
+    }
+
+    @Test
+    void recyclesCipherOnlyAfterFinish() throws Exception {
+        List<Cipher> recycled = new ArrayList<>();
+        Cipher cipher = newCipher();
+        try (EncryptStream stream = new EncryptStream(cipher, recycled::add)) {
+            stream.update(ByteBuffer.wrap(new byte[10]));
+        }
+        assertTrue(recycled.isEmpty());
+
+        try (EncryptStream stream = new EncryptStream(cipher, recycled::add)) {
+            stream.update(ByteBuffer.wrap(new byte[10]));
+            stream.doFinal();
+            stream.close();
+        }
+        assertEquals(1, recycled.size());
+        assertSame(cipher, recycled.get(0));
+    }
+
+    /**
+     * @param chunk 为 0 时随机分块
+     */
+    private byte[] encrypt(byte[] plain, byte[] prefix, boolean base64, int chunk) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (EncryptStream stream = new EncryptStream(newCipher(), prefix, base64, cipher -> {
+        })) {
+            int offset = 0;
+            while (offset < plain.length) {
+                int length = Math.min(chunk > 0 ? chunk : 1 + random.nextInt(20), plain.length - offset);
+                out.write(stream.update(ByteBuffer.wrap(plain, offset, length)));
+                offset += length;
+            }
+            out.write(stream.doFinal());
+        }
+        return out.toByteArray();
+    }
+
+    private static Cipher newCipher() throws Exception {
+        Cipher cipher = Cipher.getInstance(AesEcbCipherEngine.TRANSFORMATION);
+        cipher.init(Cipher.ENCRYPT_MODE, KEY);
+        return cipher;
+    }
+}
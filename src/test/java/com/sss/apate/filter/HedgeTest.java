@@ -0,0 +1,134 @@
+package com.sss.apate.filter;
+
+import com.sss.apate.limit.RateLimiter;
+import com.sss.apate.route.BalancerProperties;
+import com.sss.apate.route.ServiceGroup;
+import com.sss.apate.timeout.AdaptiveTimeouts;
+import com.sss.apate.timeout.ServiceTimeout;
+import com.sss.apate.timeout.TimeoutProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 对冲的竞争状态：先收到响应头的胜出，失败的请求等待另一个，对冲预算按请求数累积
+ *
+ * @author sss
+ */
+class HedgeTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private final ServiceTimeout timeout = timeouts(registry, 1.0, 2).get("svc");
+
+    private final ServiceGroup group = new ServiceGroup("svc", Arrays.asList("http://a", "http://b"),
+            new BalancerProperties());
+
+    @Test
+    void firstClaimWins() {
+        Hedge hedge = hedge();
+        hedge.sent();
+
+        assertTrue(hedge.claim(true));
+        assertFalse(hedge.claim(false));
+        assertTrue(hedge.isDecided());
+        assertTrue(hedge.isHedgeWon());
+        assertEquals(1, hedges("won"));
+        assertEquals(0, hedges("lost"));
+    }
+
+    @Test
+    void primaryWinsBeforeHedgeSent() {
+        Hedge hedge = hedge();
+
+        assertTrue(hedge.claim(false));
+        assertFalse(hedge.isHedgeWon());
+        // 对冲没有发出，不计入 won/lost
+        assertEquals(0, hedges("won") + hedges("lost"));
+    }
+
+    @Test
+    void primaryWinsAfterHedgeSent() {
+        Hedge hedge = hedge();
+        hedge.sent();
+
+        assertTrue(hedge.claim(false));
+        assertFalse(hedge.claim(true));
+        assertFalse(hedge.isHedgeWon());
+        assertEquals(1, hedges("lost"));
+    }
+
+    @Test
+    void failedAttemptWaitsForTheOther() {
+        Hedge hedge = hedge();
+        hedge.sent();
+
+        assertTrue(hedge.failed(false));
+        assertTrue(hedge.isPrimaryFailed());
+        assertFalse(hedge.failed(true));
+    }
+
+    @Test
+    void lonePrimaryFailurePropagates() {
+        Hedge hedge = hedge();
+
+        assertFalse(hedge.failed(false));
+    }
+
+    @Test
+    void chooseTargetAvoidsPrimary() {
+        Hedge hedge = hedge();
+
+        assertSame(group.getTargets()[1], hedge.chooseTarget());
+        assertEquals(URI.create("http://b/x"), hedge.uri(hedge.chooseTarget()));
+    }
+
+    @Test
+    void budgetAccumulatesPerRequest() {
+        ServiceTimeout halfBudget = timeouts(registry, 0.5, 2).get("half");
+        assertFalse(halfBudget.tryHedge());
+
+        halfBudget.record(1_000_000);
+        assertFalse(halfBudget.tryHedge());
+        halfBudget.record(1_000_000);
+        assertTrue(halfBudget.tryHedge());
+        assertFalse(halfBudget.tryHedge());
+
+        // 最多攒 hedgeBurst 次
+        for (int i = 0; i < 10; i++) {
+            halfBudget.record(1_000_000);
+        }
+        assertTrue(halfBudget.tryHedge());
+        assertTrue(halfBudget.tryHedge());
+        assertFalse(halfBudget.tryHedge());
+        assertEquals(4, registry.get("apate.timeout.hedges").tag("service", "half").tag("outcome", "throttled")
+                .counter().count());
+    }
+
+    private Hedge hedge() {
+        return new Hedge(timeout, Duration.ofMillis(10), group, group.getTargets()[0], RateLimiter.DISABLED,
+                target -> URI.create(target.getBaseUri() + "/x"));
+    }
+
+    private double hedges(String outcome) {
+        return registry.get("apate.timeout.hedges").tag("service", "svc").tag("outcome", outcome).counter().count();
+    }
+
+    static AdaptiveTimeouts timeouts(SimpleMeterRegistry registry, double budget, int burst) {
+        TimeoutProperties properties = new TimeoutProperties();
+        properties.setEnabled(true);
+        TimeoutProperties.Policy policy = properties.getDefaults();
+        policy.setHedge(true);
+        policy.setHedgeBudget(budget);
+        policy.setHedgeBurst(burst);
+        return new AdaptiveTimeouts(properties, registry);
+    }
+}
@@ -0,0 +1,259 @@
+package com.sss.apate.filter;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sss.apate.batch.BatchExecutor;
+import com.sss.apate.crypto.CryptoExecutor;
+import com.sss.apate.key.KeyRegistry;
+import com.sss.apate.limit.LimitProperties;
+import com.sss.apate.limit.RateLimiter;
+import com.sss.apate.log.AccessLog;
+import com.sss.apate.metrics.ProxyMetrics;
+import com.sss.apate.replay.ReplayGuard;
+import com.sss.apate.route.BalancerProperties;
+import com.sss.apate.route.ServiceRegistry;
+import com.sss.apate.timeout.AdaptiveTimeouts;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.junit.jupiter.api.Test;
+import org.springframework.cloud.gateway.filter.GatewayFilter;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.web.reactive.function.server.HandlerStrategies;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Mono;
+
+import java.net.URLEncoder;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.GATEWAY_REQUEST_URL_ATTR;
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.GATEWAY_ROUTE_ATTR;
+
+/**
+ * 直接写入 buffer 的请求体与按 String 构建的参数逐字节一致，Content-Length 等于实际写入的字节数；
+ * 信封中的 path 有误时返回 400，不占用并发许可
+ *
+ * @author sss
+ */
+class ProxyRequestGatewayFilterFactoryTest {
+
+    private static final DataBufferFactory[] FACTORIES = {
+            new DefaultDataBufferFactory(), new NettyDataBufferFactory(PooledByteBufAllocator.DEFAULT)};
+
+    private static final String[] VALUES = {
+            "", "plain", "a b+c", "a&b=c?d/e#f%g", ".-*_~!'()", "中文 参数", "emoji 😀 end", "éß",
+            "lone \ud83d surrogate", "tab\tnew\nline", "\u007f\u0080"};
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final ProxyRequestGatewayFilterFactory factory = new ProxyRequestGatewayFilterFactory();
+
+    @Test
+    void urlEncodeMatchesUrlEncoder() throws Exception {
+        for (String value : VALUES) {
+            assertEquals(URLEncoder.encode(value, StandardCharsets.UTF_8.name()), urlEncode(value), value);
+        }
+
+        Random random = new Random(1);
+        for (int i = 0; i < 1000; i++) {
+            StringBuilder sb = new StringBuilder();
+            for (int j = random.nextInt(20); j > 0; j--) {
+                sb.append((char) (random.nextBoolean() ? random.nextInt(128) : random.nextInt(Character.MAX_VALUE)));
+            }
+            String value = sb.toString();
+            assertEquals(URLEncoder.encode(value, StandardCharsets.UTF_8.name()), urlEncode(value), value);
+        }
+    }
+
+    @Test
+    void formBodyMatchesStringParams() {
+        Map<String, Object> params = new LinkedHashMap<>();
+        for (int i = 0; i < VALUES.length; i++) {
+            params.put("k" + i, VALUES[i]);
+        }
+        params.put("number", 12);
+        params.put("flag", true);
+
+        assertBody(params, MediaType.APPLICATION_FORM_URLENCODED_VALUE);
+        assertBody(params, MediaType.TEXT_PLAIN_VALUE);
+        assertBody(params, null);
+    }
+
+    @Test
+    void jsonBodyMatchesStringParams() throws Exception {
+        Map<String, Object> params = new LinkedHashMap<>();
+        params.put("text", "中文 é \"quoted\"\t\n");
+        params.put("number", 1.5);
+        params.put("nested", new String[]{"a b", "&=?", "\u007f\u0080"});
+
+        assertBody(params, MediaType.APPLICATION_JSON_VALUE);
+    }
+
+    @Test
+    void jsonBodyEscapesSupplementaryCharacters() throws Exception {
+        Map<String, Object> params = new LinkedHashMap<>();
+        params.put("emoji", "emoji 😀 end");
+        ProxyRequestGatewayFilterFactory.ProxyConfig proxyConfig = post(params, MediaType.APPLICATION_JSON_VALUE);
+        String expected = factory.buildRequestParams(proxyConfig);
+
+        for (DataBufferFactory bufferFactory : FACTORIES) {
+            byte[] actual = write(proxyConfig, bufferFactory, 0);
+            assertEquals(MAPPER.readTree(expected), MAPPER.readTree(actual));
+        }
+    }
+
+    @Test
+    void noParamsNoBody() {
+        ProxyRequestGatewayFilterFactory.ProxyConfig proxyConfig = post(new LinkedHashMap<>(), null);
+
+        assertNull(factory.writeRequestBody(proxyConfig, FACTORIES[0], 0));
+        proxyConfig.setParams(null);
+        assertNull(factory.writeRequestBody(proxyConfig, FACTORIES[0], 0));
+    }
+
+    @Test
+    void invalidPathIsRejectedWithoutTakingPermit() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        RateLimiter rateLimiter = limiter(registry);
+        GatewayFilter filter = filter(rateLimiter);
+
+        URI forwarded = forward(filter, "/a?b=1");
+        assertEquals("/a", forwarded.getRawPath());
+        assertEquals("b=1", forwarded.getRawQuery());
+        assertEquals(0.0, registry.get("apate.limit.inflight").gauge().value());
+
+        for (String path : new String[]{null, "", "a", "a?b=1"}) {
+            ResponseStatusException e = assertThrows(ResponseStatusException.class, () -> forward(filter, path),
+                    String.valueOf(path));
+            assertEquals(HttpStatus.BAD_REQUEST, e.getStatus());
+        }
+
+        assertEquals(0.0, registry.get("apate.limit.inflight").gauge().value());
+        // 并发上限为 1，许可没有泄漏时仍能取到
+        RateLimiter.Permit permit = rateLimiter.tryAcquire("svc");
+        assertNotNull(permit);
+        permit.cancel();
+    }
+
+    /**
+     * @return 转发给路由过滤器的 URI
+     */
+    private static URI forward(GatewayFilter filter, String path) {
+        Map<String, Object> envelope = new LinkedHashMap<>();
+        envelope.put("service", "svc");
+        envelope.put("method", "GET");
+        envelope.put("path", path);
+        envelope.put("contentType", MediaType.APPLICATION_JSON_VALUE);
+        String body;
+        try {
+            body = MAPPER.writeValueAsString(envelope);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+        MockServerWebExchange exchange = MockServerWebExchange.from(MockServerHttpRequest.post("http://gateway/")
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(body));
+        exchange.getAttributes().put(GATEWAY_ROUTE_ATTR, Route.async()
+                .id("proxy")
+                .uri("http://gateway")
+                .predicate(e -> true)
+                .build());
+
+        AtomicReference<URI> forwarded = new AtomicReference<>();
+        filter.filter(exchange, e -> {
+            forwarded.set(e.getAttribute(GATEWAY_REQUEST_URL_ATTR));
+            return Mono.empty();
+        }).block(Duration.ofSeconds(5));
+        return forwarded.get();
+    }
+
+    private static GatewayFilter filter(RateLimiter rateLimiter) {
+        ProxyRequestGatewayFilterFactory factory = new ProxyRequestGatewayFilterFactory(
+                HandlerStrategies.withDefaults().messageReaders(), ProxyMetrics.NOOP, AccessLog.DISABLED,
+                CryptoExecutor.INLINE, BatchExecutor.DISABLED, new BalancerProperties(), KeyRegistry.DISABLED,
+                ServiceRegistry.DISABLED, rateLimiter, ReplayGuard.DISABLED, AdaptiveTimeouts.DISABLED);
+        ProxyRequestGatewayFilterFactory.Config config = new ProxyRequestGatewayFilterFactory.Config();
+        config.setServiceHost(Collections.singletonMap("svc", Collections.singletonList("http://127.0.0.1:8081")));
+        return factory.apply(config);
+    }
+
+    private static RateLimiter limiter(SimpleMeterRegistry registry) {
+        LimitProperties properties = new LimitProperties();
+        properties.setEnabled(true);
+        LimitProperties.Rule rule = properties.getDefaults();
+        rule.setAdaptive(true);
+        rule.setInitialLimit(1);
+        rule.setMinLimit(1);
+        rule.setMaxLimit(1);
+        return new RateLimiter(properties, registry);
+    }
+
+    private void assertBody(Map<String, Object> params, String contentType) {
+        ProxyRequestGatewayFilterFactory.ProxyConfig proxyConfig = post(params, contentType);
+        byte[] expected = factory.buildRequestParams(proxyConfig).getBytes(StandardCharsets.UTF_8);
+
+        // 预估大小小于、等于、大于实际大小时都要扩容或留白，Content-Length 只取写入的部分
+        for (DataBufferFactory bufferFactory : FACTORIES) {
+            for (int sizeHint : new int[]{0, expected.length, expected.length * 4}) {
+                assertArrayEquals(expected, write(proxyConfig, bufferFactory, sizeHint),
+                        contentType + ", sizeHint " + sizeHint);
+            }
+        }
+    }
+
+    /**
+     * 写入请求体，并校验 Content-Length 与实际发送的字节数一致
+     */
+    private byte[] write(ProxyRequestGatewayFilterFactory.ProxyConfig proxyConfig, DataBufferFactory bufferFactory,
+                         int sizeHint) {
+        ForwardedBody forwardedBody = new ForwardedBody();
+        forwardedBody.set(factory.writeRequestBody(proxyConfig, bufferFactory, sizeHint));
+
+        DataBuffer body = DataBufferUtils.join(forwardedBody.take()).block();
+        try {
+            byte[] actual = new byte[body.readableByteCount()];
+            body.read(actual);
+            assertEquals(actual.length, forwardedBody.getContentLength());
+            return actual;
+        } finally {
+            DataBufferUtils.release(body);
+        }
+    }
+
+    private static ProxyRequestGatewayFilterFactory.ProxyConfig post(Map<String, Object> params, String contentType) {
+        ProxyRequestGatewayFilterFactory.ProxyConfig proxyConfig = new ProxyRequestGatewayFilterFactory.ProxyConfig();
+        proxyConfig.setMethod("POST");
+        proxyConfig.setContentType(contentType);
+        proxyConfig.setParams(params);
+        return proxyConfig;
+    }
+
+    private static String urlEncode(String value) {
+        DataBuffer buffer = FACTORIES[1].allocateBuffer(1);
+        try {
+            ProxyRequestGatewayFilterFactory.urlEncode(value, buffer);
+            return buffer.toString(StandardCharsets.US_ASCII);
+        } finally {
+            DataBufferUtils.release(buffer);
+        }
+    }
+}
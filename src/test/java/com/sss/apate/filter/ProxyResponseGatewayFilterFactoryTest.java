@@ -0,0 +1,231 @@
+package com.sss.apate.filter;
+
+import com.sss.apate.util.GzipStream;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.Test;
+import org.springframework.cloud.gateway.filter.factory.rewrite.GzipMessageBodyResolver;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.core.io.buffer.NettyDataBuffer;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.http.server.reactive.MockServerHttpResponse;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import reactor.core.publisher.Flux;
+import reactor.netty.Connection;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.CLIENT_RESPONSE_CONN_ATTR;
+
+/**
+ * 按字节聚合的写出方式：聚合前按 maxResponseSize（未配置时 256KB）计数，解压后再检查一次，超过时返回 502
+ *
+ * @author sss
+ */
+class ProxyResponseGatewayFilterFactoryTest {
+
+    private static final int DEFAULT_LIMIT = 256 * 1024;
+
+    private static final String TOO_LARGE = "{\"code\":502,\"message\":\"upstream response too large\"}";
+
+    private final GzipMessageBodyResolver gzip = new GzipMessageBodyResolver();
+
+    private final ProxyResponseGatewayFilterFactory factory = new ProxyResponseGatewayFilterFactory(
+            Collections.singleton(gzip), Collections.singleton(gzip));
+
+    @Test
+    void bodyWithinDefaultLimitIsWritten() {
+        byte[] body = bytes(DEFAULT_LIMIT);
+        MockServerWebExchange exchange = exchange();
+
+        write(exchange, new ProxyResponseGatewayFilterFactory.Config(), null, chunks(body, 8192));
+
+        MockServerHttpResponse response = exchange.getResponse();
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertArrayEquals(body, body(response));
+        assertEquals(body.length, response.getHeaders().getContentLength());
+    }
+
+    @Test
+    void bodyOverDefaultLimitIsRejectedAndReleased() {
+        MockServerWebExchange exchange = exchange();
+        List<DataBuffer> chunks = pooledChunks(bytes(DEFAULT_LIMIT + 1), 8192);
+        AtomicInteger emitted = new AtomicInteger();
+
+        write(exchange, new ProxyResponseGatewayFilterFactory.Config(), null,
+                Flux.fromIterable(chunks).doOnNext(chunk -> emitted.incrementAndGet()));
+
+        assertTooLarge(exchange.getResponse());
+        // 超限时停止读取，已经读到的缓冲区全部释放
+        assertEquals(chunks.size(), emitted.get());
+        for (DataBuffer chunk : chunks) {
+            assertEquals(0, ((NettyDataBuffer) chunk).getNativeBuffer().refCnt());
+        }
+    }
+
+    @Test
+    void configuredLimitAppliesWithoutContentLength() {
+        ProxyResponseGatewayFilterFactory.Config config = new ProxyResponseGatewayFilterFactory.Config();
+        config.setMaxResponseSize(1024);
+        MockServerWebExchange exchange = exchange();
+
+        write(exchange, config, null, chunks(bytes(1025), 100));
+
+        assertTooLarge(exchange.getResponse());
+    }
+
+    @Test
+    void configuredLimitRejectsByContentLength() {
+        ProxyResponseGatewayFilterFactory.Config config = new ProxyResponseGatewayFilterFactory.Config();
+        config.setMaxResponseSize(1024);
+        MockServerWebExchange exchange = exchange();
+        exchange.getResponse().getHeaders().setContentLength(2048);
+        AtomicInteger emitted = new AtomicInteger();
+
+        write(exchange, config, null,
+                Flux.fromIterable(chunks(bytes(2048), 100)).doOnNext(chunk -> emitted.incrementAndGet()));
+
+        assertTooLarge(exchange.getResponse());
+        // 按 Content-Length 直接拒绝，不读取响应体
+        assertEquals(0, emitted.get());
+    }
+
+    @Test
+    void connectionIsDetachedOnceBodyIsRead() {
+        MockServerWebExchange exchange = exchange();
+        exchange.getAttributes().put(CLIENT_RESPONSE_CONN_ATTR, connection());
+
+        write(exchange, new ProxyResponseGatewayFilterFactory.Config(), null, chunks(bytes(1024), 100));
+
+        // 连接已归还连接池，过滤链之后被取消时 NettyWriteResponseFilter 不能再关闭它
+        assertNull(exchange.getAttribute(CLIENT_RESPONSE_CONN_ATTR));
+    }
+
+    @Test
+    void connectionIsKeptWhenBodyIsNotRead() {
+        ProxyResponseGatewayFilterFactory.Config config = new ProxyResponseGatewayFilterFactory.Config();
+        config.setMaxResponseSize(1024);
+        MockServerWebExchange exchange = exchange();
+        exchange.getResponse().getHeaders().setContentLength(2048);
+        Connection connection = connection();
+        exchange.getAttributes().put(CLIENT_RESPONSE_CONN_ATTR, connection);
+
+        write(exchange, config, null, chunks(bytes(2048), 100));
+
+        // 响应体没有读完，连接仍由 NettyWriteResponseFilter 关闭
+        assertSame(connection, exchange.getAttribute(CLIENT_RESPONSE_CONN_ATTR));
+    }
+
+    @Test
+    void decompressedBodyOverLimitIsRejected() throws Exception {
+        // 压缩后远小于上限，解压后超过
+        byte[] compressed = GzipStream.compress(new byte[DEFAULT_LIMIT + 1]);
+        MockServerWebExchange exchange = exchange();
+
+        write(exchange, new ProxyResponseGatewayFilterFactory.Config(), "gzip", chunks(compressed, 8192));
+
+        assertTooLarge(exchange.getResponse());
+    }
+
+    @Test
+    void decompressedBodyWithinLimitIsWritten() throws Exception {
+        byte[] body = bytes(DEFAULT_LIMIT);
+        MockServerWebExchange exchange = exchange();
+
+        write(exchange, new ProxyResponseGatewayFilterFactory.Config(), "gzip",
+                chunks(GzipStream.compress(body), 8192));
+
+        MockServerHttpResponse response = exchange.getResponse();
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertArrayEquals(body, body(response));
+    }
+
+    /**
+     * 二进制信封的请求走按字节聚合的写出方式
+     */
+    private static MockServerWebExchange exchange() {
+        return MockServerWebExchange.from(MockServerHttpRequest.post("http://gateway/")
+                .contentType(MediaType.APPLICATION_OCTET_STREAM));
+    }
+
+    private void write(MockServerWebExchange exchange, ProxyResponseGatewayFilterFactory.Config config,
+                       String contentEncoding, Iterable<DataBuffer> chunks) {
+        write(exchange, config, contentEncoding, Flux.fromIterable(chunks));
+    }
+
+    /**
+     * 与路由过滤器一样先写入上游的状态码和响应头，再交给 ProxyServerHttpResponse 写出响应体
+     */
+    private void write(MockServerWebExchange exchange, ProxyResponseGatewayFilterFactory.Config config,
+                       String contentEncoding, Flux<DataBuffer> body) {
+        exchange.getResponse().setStatusCode(HttpStatus.OK);
+        exchange.getResponse().getHeaders().setContentType(MediaType.APPLICATION_JSON);
+        if (contentEncoding != null) {
+            exchange.getResponse().getHeaders().set(HttpHeaders.CONTENT_ENCODING, contentEncoding);
+        }
+
+        factory.new ProxyServerHttpResponse(exchange, config, null).writeWith(body).block(Duration.ofSeconds(5));
+    }
+
+    private static Connection connection() {
+        return () -> null;
+    }
+
+    private static void assertTooLarge(MockServerHttpResponse response) {
+        assertEquals(HttpStatus.BAD_GATEWAY, response.getStatusCode());
+        assertEquals(TOO_LARGE, new String(body(response), StandardCharsets.UTF_8));
+        assertEquals(TOO_LARGE.length(), response.getHeaders().getContentLength());
+    }
+
+    private static byte[] body(MockServerHttpResponse response) {
+        DataBuffer joined = DataBufferUtils.join(response.getBody()).block(Duration.ofSeconds(5));
+        byte[] bytes = new byte[joined.readableByteCount()];
+        joined.read(bytes);
+        DataBufferUtils.release(joined);
+        return bytes;
+    }
+
+    private static byte[] bytes(int size) {
+        byte[] bytes = new byte[size];
+        for (int i = 0; i < size; i++) {
+            bytes[i] = (byte) (i * 31);
+        }
+        return bytes;
+    }
+
+    private static List<DataBuffer> chunks(byte[] bytes, int chunkSize) {
+        DefaultDataBufferFactory bufferFactory = new DefaultDataBufferFactory();
+        List<DataBuffer> chunks = new ArrayList<>();
+        for (int i = 0; i < bytes.length; i += chunkSize) {
+            chunks.add(bufferFactory.wrap(Arrays.copyOfRange(bytes, i, Math.min(bytes.length, i + chunkSize))));
+        }
+        return chunks;
+    }
+
+    /**
+     * 带引用计数的缓冲区，和 reactor-netty 收到的响应体一样需要释放
+     */
+    private static List<DataBuffer> pooledChunks(byte[] bytes, int chunkSize) {
+        NettyDataBufferFactory bufferFactory = new NettyDataBufferFactory(Unpooled.EMPTY_BUFFER.alloc());
+        List<DataBuffer> chunks = new ArrayList<>();
+        for (int i = 0; i < bytes.length; i += chunkSize) {
+            chunks.add(bufferFactory.wrap(Unpooled.copiedBuffer(bytes, i, Math.min(chunkSize, bytes.length - i))));
+        }
+        return chunks;
+    }
+}
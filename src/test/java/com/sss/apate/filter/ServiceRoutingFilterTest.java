@@ -0,0 +1,319 @@
+package com.sss.apate.filter;
+
+import com.sss.apate.client.ServiceHttpClients;
+import com.sss.apate.limit.LimitProperties;
+import com.sss.apate.limit.RateLimiter;
+import com.sss.apate.route.BalancerProperties;
+import com.sss.apate.route.ServiceGroup;
+import com.sss.apate.route.ServiceTarget;
+import com.sss.apate.timeout.ServiceTimeout;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.cloud.gateway.config.HttpClientProperties;
+import org.springframework.cloud.gateway.filter.headers.HttpHeadersFilter;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Mono;
+import reactor.netty.Connection;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.http.server.HttpServer;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.sss.apate.filter.ProxyRequestGatewayFilterFactory.PROXY_HEDGE_ATTR;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.CLIENT_RESPONSE_CONN_ATTR;
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.GATEWAY_REQUEST_URL_ATTR;
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.GATEWAY_ROUTE_ATTR;
+
+/**
+ * 对冲请求与原请求竞争：先收到响应头的写入 exchange，落后的连接被关闭，对冲预算只在发出时扣减，
+ * 对冲请求占用并发许可
+ *
+ * @author sss
+ */
+class ServiceRoutingFilterTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private final CountDownLatch slowClosed = new CountDownLatch(1);
+
+    private final AtomicInteger fastRequests = new AtomicInteger();
+
+    private DisposableServer slow;
+
+    private DisposableServer fast;
+
+    private DisposableServer broken;
+
+    private ObjectProvider<List<HttpHeadersFilter>> headersFilters;
+
+    private ServiceRoutingFilter filter;
+
+    @BeforeEach
+    void start() {
+        slow = HttpServer.create().port(0)
+                .handle((request, response) -> {
+                    response.withConnection(connection -> connection.onDispose(slowClosed::countDown));
+                    return Mono.delay(Duration.ofMillis(800)).then(response.sendString(Mono.just("slow")).then());
+                })
+                .bindNow();
+        fast = HttpServer.create().port(0)
+                .handle((request, response) -> {
+                    fastRequests.incrementAndGet();
+                    return Mono.delay(Duration.ofMillis(100)).then(response.sendString(Mono.just("fast")).then());
+                })
+                .bindNow();
+        // 收到请求后不返回响应头直接断开，早于对冲请求的响应
+        broken = HttpServer.create().port(0)
+                .handle((request, response) -> Mono.delay(Duration.ofMillis(60))
+                        .then(Mono.fromRunnable(() -> response.withConnection(Connection::dispose))))
+                .bindNow();
+
+        headersFilters = new ObjectProvider<List<HttpHeadersFilter>>() {
+            @Override
+            public List<HttpHeadersFilter> getObject(Object... args) {
+                return Collections.emptyList();
+            }
+
+            @Override
+            public List<HttpHeadersFilter> getIfAvailable() {
+                return Collections.emptyList();
+            }
+
+            @Override
+            public List<HttpHeadersFilter> getIfUnique() {
+                return Collections.emptyList();
+            }
+
+            @Override
+            public List<HttpHeadersFilter> getObject() {
+                return Collections.emptyList();
+            }
+        };
+        filter = new ServiceRoutingFilter(HttpClient.create(), headersFilters, new HttpClientProperties(),
+                ServiceHttpClients.DISABLED);
+    }
+
+    @AfterEach
+    void stop() {
+        slow.disposeNow();
+        fast.disposeNow();
+        broken.disposeNow();
+    }
+
+    @Test
+    void hedgeWinsAndLoserIsClosed() throws Exception {
+        ServiceTimeout timeout = timeout(1);
+        ServiceGroup group = group(slow, fast);
+        Hedge hedge = hedge(timeout, group, Duration.ofMillis(50));
+        MockServerWebExchange exchange = exchange(hedge, group);
+
+        filter.filter(exchange, e -> Mono.empty()).block(Duration.ofSeconds(5));
+
+        assertTrue(hedge.isHedgeWon());
+        assertFalse(hedge.isPrimaryFailed());
+        assertEquals(HttpStatus.OK, exchange.getResponse().getStatusCode());
+        assertEquals("fast", body(exchange));
+        // 原请求被取消，连接直接关闭，不等它返回
+        assertTrue(slowClosed.await(2, TimeUnit.SECONDS));
+        // 对冲实例由路由过滤器记为完成，原实例由 ProxyRequest 记录
+        assertEquals(0, group.getTargets()[1].getOutstanding());
+        assertEquals(1, hedges("won"));
+        // 唯一的预算已用掉
+        assertFalse(timeout.tryHedge());
+    }
+
+    @Test
+    void primaryWinsWithoutSpendingBudget() {
+        ServiceTimeout timeout = timeout(1);
+        ServiceGroup group = group(fast, slow);
+        Hedge hedge = hedge(timeout, group, Duration.ofMillis(500));
+        MockServerWebExchange exchange = exchange(hedge, group);
+
+        filter.filter(exchange, e -> Mono.empty()).block(Duration.ofSeconds(5));
+
+        assertFalse(hedge.isHedgeWon());
+        assertEquals("fast", body(exchange));
+        assertEquals(0, hedges("won") + hedges("lost"));
+        assertTrue(timeout.tryHedge());
+    }
+
+    @Test
+    void noBudgetNoHedge() {
+        ServiceTimeout timeout = timeout(0);
+        ServiceGroup group = group(slow, fast);
+        Hedge hedge = hedge(timeout, group, Duration.ofMillis(50));
+        MockServerWebExchange exchange = exchange(hedge, group);
+
+        filter.filter(exchange, e -> Mono.empty()).block(Duration.ofSeconds(5));
+
+        assertFalse(hedge.isHedgeWon());
+        assertEquals("slow", body(exchange));
+        assertEquals(0, fastRequests.get());
+        assertEquals(1, hedges("throttled"));
+    }
+
+    @Test
+    void failedPrimaryWaitsForHedge() {
+        ServiceTimeout timeout = timeout(1);
+        ServiceGroup group = group(broken, fast);
+        Hedge hedge = hedge(timeout, group, Duration.ofMillis(20));
+        MockServerWebExchange exchange = exchange(hedge, group);
+
+        filter.filter(exchange, e -> Mono.empty()).block(Duration.ofSeconds(5));
+
+        assertTrue(hedge.isPrimaryFailed());
+        assertTrue(hedge.isHedgeWon());
+        assertEquals("fast", body(exchange));
+    }
+
+    @Test
+    void responseTimeoutCoversHedgeRace() {
+        HttpClientProperties properties = new HttpClientProperties();
+        properties.setResponseTimeout(Duration.ofMillis(300));
+        ServiceRoutingFilter filter = new ServiceRoutingFilter(HttpClient.create(), headersFilters, properties,
+                ServiceHttpClients.DISABLED);
+        ServiceTimeout timeout = timeout(1);
+        ServiceGroup group = group(slow, slow);
+        Hedge hedge = hedge(timeout, group, Duration.ofMillis(100));
+        MockServerWebExchange exchange = exchange(hedge, group);
+
+        ResponseStatusException e = assertThrows(ResponseStatusException.class,
+                () -> filter.filter(exchange, ex -> Mono.empty()).block(Duration.ofSeconds(5)));
+
+        assertEquals(HttpStatus.GATEWAY_TIMEOUT, e.getStatus());
+        // 对冲请求已经发出，超时后两个请求都被取消
+        assertTrue(hedge.isDecided() || !hedge.isHedgeWon());
+        assertEquals(0, group.getTargets()[1].getOutstanding());
+    }
+
+    @Test
+    void hedgeTakesConcurrencyPermit() {
+        RateLimiter rateLimiter = limiter(2);
+        // 原请求的许可由 ProxyRequest 获取
+        RateLimiter.Permit primaryPermit = rateLimiter.tryAcquire("svc");
+        ServiceTimeout timeout = timeout(1);
+        ServiceGroup group = group(slow, fast);
+        Hedge hedge = hedge(timeout, group, Duration.ofMillis(50), rateLimiter);
+        MockServerWebExchange exchange = exchange(hedge, group);
+
+        filter.filter(exchange, e -> Mono.empty()).block(Duration.ofSeconds(5));
+
+        assertTrue(hedge.isHedgeWon());
+        assertEquals("fast", body(exchange));
+        // 对冲请求结束后归还许可，只剩原请求的
+        assertEquals(1.0, inFlight());
+        primaryPermit.cancel();
+        assertEquals(0.0, inFlight());
+    }
+
+    @Test
+    void noPermitNoHedge() {
+        RateLimiter rateLimiter = limiter(1);
+        RateLimiter.Permit primaryPermit = rateLimiter.tryAcquire("svc");
+        assertNotNull(primaryPermit);
+        ServiceTimeout timeout = timeout(1);
+        ServiceGroup group = group(slow, fast);
+        Hedge hedge = hedge(timeout, group, Duration.ofMillis(50), rateLimiter);
+        MockServerWebExchange exchange = exchange(hedge, group);
+
+        filter.filter(exchange, e -> Mono.empty()).block(Duration.ofSeconds(5));
+
+        assertFalse(hedge.isHedgeWon());
+        assertEquals("slow", body(exchange));
+        assertEquals(0, fastRequests.get());
+        assertNull(rateLimiter.tryAcquire("svc"));
+        // 没有取到许可时不扣减对冲预算
+        assertTrue(timeout.tryHedge());
+        primaryPermit.cancel();
+    }
+
+    private RateLimiter limiter(int limit) {
+        LimitProperties properties = new LimitProperties();
+        properties.setEnabled(true);
+        LimitProperties.Rule rule = properties.getDefaults();
+        rule.setAdaptive(true);
+        rule.setInitialLimit(limit);
+        rule.setMinLimit(limit);
+        rule.setMaxLimit(limit);
+        return new RateLimiter(properties, registry);
+    }
+
+    private double inFlight() {
+        return registry.get("apate.limit.inflight").tag("service", "svc").gauge().value();
+    }
+
+    private ServiceTimeout timeout(int credits) {
+        ServiceTimeout timeout = HedgeTest.timeouts(registry, 1.0, 1).get("svc");
+        for (int i = 0; i < credits; i++) {
+            timeout.record(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        return timeout;
+    }
+
+    private static ServiceGroup group(DisposableServer primary, DisposableServer other) {
+        return new ServiceGroup("svc", Arrays.asList(baseUri(primary), baseUri(other)), new BalancerProperties());
+    }
+
+    private static Hedge hedge(ServiceTimeout timeout, ServiceGroup group, Duration delay) {
+        return hedge(timeout, group, delay, RateLimiter.DISABLED);
+    }
+
+    private static Hedge hedge(ServiceTimeout timeout, ServiceGroup group, Duration delay, RateLimiter rateLimiter) {
+        return new Hedge(timeout, delay, group, group.getTargets()[0], rateLimiter, ServiceRoutingFilterTest::uri);
+    }
+
+    private static MockServerWebExchange exchange(Hedge hedge, ServiceGroup group) {
+        ServiceTarget primary = group.getTargets()[0];
+        MockServerWebExchange exchange = MockServerWebExchange.from(MockServerHttpRequest.get("http://gateway/"));
+        exchange.getAttributes().put(PROXY_HEDGE_ATTR, hedge);
+        exchange.getAttributes().put(GATEWAY_REQUEST_URL_ATTR, uri(primary));
+        exchange.getAttributes().put(GATEWAY_ROUTE_ATTR, Route.async()
+                .id("svc")
+                .uri(primary.getBaseUri())
+                .predicate(e -> true)
+                .build());
+        return exchange;
+    }
+
+    private static String baseUri(DisposableServer server) {
+        return "http://127.0.0.1:" + server.port();
+    }
+
+    private static URI uri(ServiceTarget target) {
+        return URI.create(target.getBaseUri() + "/x");
+    }
+
+    private static String body(MockServerWebExchange exchange) {
+        Connection connection = exchange.getAttribute(CLIENT_RESPONSE_CONN_ATTR);
+        try {
+            return connection.inbound().receive().aggregate().asString().block(Duration.ofSeconds(5));
+        } finally {
+            connection.dispose();
+        }
+    }
+
+    private double hedges(String outcome) {
+        return registry.get("apate.timeout.hedges").tag("service", "svc").tag("outcome", outcome).counter().count();
+    }
+}
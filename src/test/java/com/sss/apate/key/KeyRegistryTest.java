@@ -0,0 +1,66 @@
+package com.sss.apate.key;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 密钥在加载时校验，任何一个不合法时整个快照都不生效
+ *
+ * @author sss
+ */
+class KeyRegistryTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void rejectsInvalidKeyAtStartup() throws IOException {
+        Path file = write("a=ABCD12345678EFGH\nb=short\n");
+
+        assertThrows(IllegalStateException.class, () -> new KeyRegistry(properties(file), new SimpleMeterRegistry()));
+    }
+
+    @Test
+    void keepsPreviousSnapshotWhenReloadHasInvalidKey() throws IOException {
+        Path file = write("a=ABCD12345678EFGH\n");
+        KeyRegistry registry = new KeyRegistry(properties(file), new SimpleMeterRegistry());
+        ClientKey a = registry.get("a", "AES");
+        assertNotNull(a);
+
+        write("a=ABCD12345678EFGH\nb=ABCD12345678EFGH\nc=base64:AAEC\n");
+        assertFalse(registry.reload());
+        assertSame(a, registry.get("a", "AES"));
+        assertNull(registry.get("b", "AES"));
+
+        write("a=ABCD12345678EFGH\nb=base64:AAECAwQFBgcICQoLDA0ODxAREhMUFRYXGBkaGxwdHh8=\n");
+        assertTrue(registry.reload());
+        assertSame(a, registry.get("a", "AES"));
+        assertNotNull(registry.get("b", "AES-GCM"));
+    }
+
+    private Path write(String content) throws IOException {
+        return Files.write(dir.resolve("keys.properties"), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static KeyProperties properties(Path file) {
+        KeyProperties properties = new KeyProperties();
+        properties.setEnabled(true);
+        properties.setFile(file.toString());
+        properties.setReloadInterval(Duration.ZERO);
+        return properties;
+    }
+}
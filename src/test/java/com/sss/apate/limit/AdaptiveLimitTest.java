@@ -0,0 +1,120 @@
+package com.sss.apate.limit;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * AIMD：正常时约每轮加 1，过载时按比例收缩，始终在上下限之间
+ *
+ * @author sss
+ */
+class AdaptiveLimitTest {
+
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private static final long SLOW = TimeUnit.SECONDS.toNanos(2);
+
+    @Test
+    void capsInFlightAtLimit() {
+        AdaptiveLimit limit = new AdaptiveLimit(rule(4, 1, 10));
+
+        for (int i = 0; i < 4; i++) {
+            assertTrue(limit.tryAcquire());
+        }
+        assertFalse(limit.tryAcquire());
+        assertEquals(4, limit.getInFlight());
+
+        limit.cancel();
+        assertEquals(3, limit.getInFlight());
+        assertEquals(4, limit.getLimit());
+        assertTrue(limit.tryAcquire());
+    }
+
+    @Test
+    void additiveIncreaseWhenBusy() {
+        AdaptiveLimit limit = new AdaptiveLimit(rule(10, 1, 100));
+
+        // 并发保持在上限，每个请求加 1/limit，limit² 每次约加 2：100 个请求后约为 √300
+        fill(limit);
+        for (int i = 0; i < 100; i++) {
+            limit.release(FAST, true);
+            fill(limit);
+        }
+        assertTrue(limit.getLimit() > 17.2 && limit.getLimit() < 17.5, "limit " + limit.getLimit());
+    }
+
+    @Test
+    void noIncreaseWhenUnderused() {
+        AdaptiveLimit limit = new AdaptiveLimit(rule(10, 1, 100));
+
+        for (int i = 0; i < 100; i++) {
+            assertTrue(limit.tryAcquire());
+            limit.release(FAST, true);
+        }
+        assertEquals(10, limit.getLimit());
+    }
+
+    @Test
+    void multiplicativeDecreaseOnOverload() {
+        AdaptiveLimit limit = new AdaptiveLimit(rule(100, 5, 200));
+
+        assertTrue(limit.tryAcquire());
+        limit.release(FAST, false);
+        assertEquals(90, limit.getLimit(), 1e-9);
+
+        assertTrue(limit.tryAcquire());
+        limit.release(SLOW, true);
+        assertEquals(81, limit.getLimit(), 1e-9);
+
+        for (int i = 0; i < 100; i++) {
+            assertTrue(limit.tryAcquire());
+            limit.release(FAST, false);
+        }
+        assertEquals(5, limit.getLimit());
+    }
+
+    @Test
+    void staysWithinBounds() {
+        AdaptiveLimit limit = new AdaptiveLimit(rule(1000, 0, 3));
+        assertEquals(3, limit.getLimit());
+
+        for (int i = 0; i < 50; i++) {
+            fill(limit);
+            releaseAll(limit, FAST, true);
+        }
+        assertEquals(3, limit.getLimit());
+
+        AdaptiveLimit low = new AdaptiveLimit(rule(0, 0, 0));
+        assertEquals(1, low.getLimit());
+        assertTrue(low.tryAcquire());
+        assertFalse(low.tryAcquire());
+    }
+
+    private static void fill(AdaptiveLimit limit) {
+        while (limit.tryAcquire()) {
+            // 占满当前上限
+        }
+    }
+
+    private static void releaseAll(AdaptiveLimit limit, long latency, boolean success) {
+        while (limit.getInFlight() > 0) {
+            limit.release(latency, success);
+        }
+    }
+
+    private static LimitProperties.Rule rule(int initial, int min, int max) {
+        LimitProperties.Rule rule = new LimitProperties.Rule();
+        rule.setInitialLimit(initial);
+        rule.setMinLimit(min);
+        rule.setMaxLimit(max);
+        rule.setBackoffRatio(0.9);
+        rule.setLatencyThreshold(Duration.ofSeconds(1));
+        return rule;
+    }
+}
@@ -0,0 +1,60 @@
+package com.sss.apate.limit;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * service 与客户端两级限速：被 service 拒绝的请求不消耗客户端的令牌
+ *
+ * @author sss
+ */
+class RateLimiterTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    @Test
+    void serviceRejectionRefundsClientToken() {
+        RateLimiter limiter = limiter(1, 2);
+
+        assertTrue(limiter.tryAcquireRate("svc", "c1"));
+        // service 的令牌用完，客户端还剩一个
+        for (int i = 0; i < 5; i++) {
+            assertFalse(limiter.tryAcquireRate("svc", "c1"));
+        }
+
+        assertEquals(5, rejected("rate"));
+        assertEquals(0, rejected("client"));
+    }
+
+    @Test
+    void clientRejectionKeepsServiceToken() {
+        RateLimiter limiter = limiter(2, 1);
+
+        assertTrue(limiter.tryAcquireRate("svc", "c1"));
+        assertFalse(limiter.tryAcquireRate("svc", "c1"));
+        // 另一个客户端仍能拿到 service 的令牌
+        assertTrue(limiter.tryAcquireRate("svc", "c2"));
+
+        assertEquals(1, rejected("client"));
+        assertEquals(0, rejected("rate"));
+    }
+
+    private RateLimiter limiter(int serviceBurst, int clientBurst) {
+        LimitProperties properties = new LimitProperties();
+        properties.setEnabled(true);
+        LimitProperties.Rule rule = properties.getDefaults();
+        rule.setRate(0.01);
+        rule.setBurst(serviceBurst);
+        rule.setClientRate(0.01);
+        rule.setClientBurst(clientBurst);
+        return new RateLimiter(properties, registry);
+    }
+
+    private double rejected(String reason) {
+        return registry.get("apate.limit.rejected").tag("service", "svc").tag("reason", reason).counter().count();
+    }
+}
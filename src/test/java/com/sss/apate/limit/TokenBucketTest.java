@@ -0,0 +1,131 @@
+package com.sss.apate.limit;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * GCRA 令牌桶的容量和速率
+ *
+ * @author sss
+ */
+class TokenBucketTest {
+
+    /**
+     * 容量按段向上取整，最多多出 段数 - 1 个
+     */
+    private static final int MAX_STRIPES = Math.min(16, Runtime.getRuntime().availableProcessors());
+
+    @Test
+    void burstThenEmpty() {
+        TokenBucket bucket = new TokenBucket(0.01, 10);
+
+        int acquired = drain(bucket);
+
+        assertTrue(acquired >= 10 && acquired < 10 + MAX_STRIPES, "acquired " + acquired);
+        assertFalse(bucket.tryAcquire());
+    }
+
+    @Test
+    void burstDefaultsToRate() {
+        int acquired = drain(new TokenBucket(5, 0));
+
+        assertTrue(acquired >= 5 && acquired < 5 + MAX_STRIPES, "acquired " + acquired);
+        assertTrue(drain(new TokenBucket(0.5, 0)) >= 1);
+    }
+
+    @Test
+    void refillsAtRate() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(100, 1);
+        drain(bucket);
+
+        TimeUnit.MILLISECONDS.sleep(100 * Math.max(1, Integer.highestOneBit(MAX_STRIPES)));
+        assertTrue(bucket.tryAcquire());
+    }
+
+    @Test
+    void concurrentAcquiresStayWithinRate() throws Exception {
+        double rate = 200;
+        int burst = 20;
+        TokenBucket bucket = new TokenBucket(rate, burst);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        CountDownLatch start = new CountDownLatch(1);
+        long duration = TimeUnit.MILLISECONDS.toNanos(500);
+        try {
+            List<Future<Integer>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    long end = System.nanoTime() + duration;
+                    int acquired = 0;
+                    while (System.nanoTime() < end) {
+                        if (bucket.tryAcquire()) {
+                            acquired++;
+                        }
+                    }
+                    return acquired;
+                }));
+            }
+            long begin = System.nanoTime();
+            start.countDown();
+            int total = 0;
+            for (Future<Integer> future : futures) {
+                total += future.get(10, TimeUnit.SECONDS);
+            }
+            double elapsed = (System.nanoTime() - begin) / 1e9;
+
+            // 上限：容量（按段取整）加上期间产生的令牌
+            assertTrue(total <= burst + MAX_STRIPES + Math.ceil(rate * elapsed), "total " + total);
+            assertTrue(total >= burst, "total " + total);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void refundReturnsToken() {
+        TokenBucket bucket = new TokenBucket(0.01, 1);
+        assertTrue(bucket.tryAcquire());
+        drain(bucket);
+
+        bucket.refund();
+        assertTrue(bucket.tryAcquire());
+        assertFalse(bucket.tryAcquire());
+    }
+
+    @Test
+    void refundDoesNotExceedCapacity() {
+        TokenBucket bucket = new TokenBucket(0.01, 1);
+
+        bucket.refund();
+        bucket.refund();
+
+        // 容量为 1 时只有一段
+        assertEquals(1, drain(bucket));
+    }
+
+    @Test
+    void rejectsNonPositiveRate() {
+        assertThrows(IllegalArgumentException.class, () -> new TokenBucket(0, 1));
+        assertThrows(IllegalArgumentException.class, () -> new TokenBucket(-1, 1));
+    }
+
+    private static int drain(TokenBucket bucket) {
+        int acquired = 0;
+        while (bucket.tryAcquire()) {
+            acquired++;
+        }
+        return acquired;
+    }
+}
@@ -0,0 +1,83 @@
+package com.sss.apate.log;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
+import com.sss.apate.metrics.ProxyTimings;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 客户端提供的服务、路径和明文中的控制字符转义后输出，每个请求只占一行
+ *
+ * @author sss
+ */
+class AccessLogTest {
+
+    private final Logger logger = (Logger) LoggerFactory.getLogger(AccessLog.LOGGER_NAME);
+
+    private final ListAppender<ILoggingEvent> appender = new ListAppender<>();
+
+    private final AccessLog accessLog = new AccessLog(new AccessLogProperties());
+
+    @BeforeEach
+    void attach() {
+        appender.start();
+        logger.addAppender(appender);
+    }
+
+    @AfterEach
+    void detach() {
+        logger.detachAppender(appender);
+    }
+
+    @Test
+    void controlCharactersCannotSplitRecord() {
+        ProxyTimings timings = new ProxyTimings();
+        timings.setService("svc\r\nservice=forged");
+        timings.setMethod(HttpMethod.GET);
+        PayloadSample sample = new PayloadSample(256);
+        sample.captureRequest(ByteBuffer.wrap("{\"a\":\"1\n2\u2028\"}".getBytes(StandardCharsets.UTF_8)));
+        sample.captureResponse(ByteBuffer.wrap("ok\u0000\u001b[31m".getBytes(StandardCharsets.UTF_8)));
+        timings.setPayloadSample(sample);
+
+        accessLog.log(timings, "/a\nservice=x path=/b status=200\\", HttpStatus.OK);
+
+        String line = appender.list.get(0).getFormattedMessage();
+        assertFalse(line.contains("\n") || line.contains("\r") || line.contains("\u2028"));
+        assertTrue(line.startsWith("service=svc\\r\\nservice=forged method=GET path=/a\\nservice=x path=/b status=200\\\\ "
+                + "status=200 "), line);
+        assertTrue(line.endsWith(" request={\"a\":\"1\\n2\\u2028\"} response=ok\\u0000\\u001b[31m"), line);
+    }
+
+    @Test
+    void longPathIsTruncated() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            sb.append('a');
+        }
+        StringBuilder escaped = new StringBuilder();
+
+        AccessLog.escape(escaped, sb.toString(), 128);
+
+        assertEquals(sb.substring(0, 128) + "...", escaped.toString());
+    }
+
+    @Test
+    void missingValueIsDash() {
+        accessLog.log(new ProxyTimings(), null, null);
+
+        assertTrue(appender.list.get(0).getFormattedMessage().contains(" path=- status=0 "));
+    }
+}
@@ -0,0 +1,65 @@
+package com.sss.apate.replay;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 分块 Bloom filter 不漏判，误判率在配置附近
+ *
+ * @author sss
+ */
+class NonceFilterTest {
+
+    @Test
+    void secondAddIsDuplicate() {
+        NonceFilter filter = new NonceFilter(7, 4, 8);
+
+        assertTrue(filter.add(1, 2));
+        assertFalse(filter.add(1, 2));
+        assertTrue(filter.add(1, 3));
+        assertEquals(7, filter.epoch);
+        assertEquals(4 * 64, filter.sizeInBytes());
+    }
+
+    @Test
+    void falsePositiveRateNearConfigured() {
+        int expected = 100_000;
+        double rate = 1e-3;
+        int blocks = NonceFilter.blocks(expected, rate);
+        NonceFilter filter = new NonceFilter(0, blocks, NonceFilter.hashes(expected, blocks));
+
+        Random random = new Random(1);
+        for (int i = 0; i < expected; i++) {
+            filter.add(NonceFilter.mix(i), NonceFilter.mix(~i));
+        }
+        for (int i = 0; i < expected; i++) {
+            assertFalse(filter.add(NonceFilter.mix(i), NonceFilter.mix(~i)), "false negative " + i);
+        }
+
+        // 探测本身也会写入，只多探测 1/10，负载基本不变
+        int falsePositives = 0;
+        int probes = expected / 10;
+        for (int i = 0; i < probes; i++) {
+            if (!filter.add(random.nextLong(), random.nextLong())) {
+                falsePositives++;
+            }
+        }
+        assertTrue(falsePositives < probes * rate * 3, "false positives " + falsePositives);
+    }
+
+    @Test
+    void sizing() {
+        assertEquals(1, NonceFilter.blocks(0, 0.5));
+        int blocks = NonceFilter.blocks(1_000_000, 1e-6);
+        // 约 28.8 bit / 元素
+        assertTrue(blocks * 512L > 28_000_000L && blocks * 512L < 29_500_000L, "blocks " + blocks);
+        assertEquals(20, NonceFilter.hashes(1_000_000, blocks));
+        assertEquals(64, NonceFilter.hashes(1, 1000));
+        assertEquals(1, NonceFilter.hashes(1_000_000, 1));
+    }
+}
@@ -0,0 +1,90 @@
+package com.sss.apate.replay;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * timestamp 偏差、nonce 去重和时间窗口轮换
+ *
+ * @author sss
+ */
+class ReplayGuardTest {
+
+    private static final long WINDOW = 200;
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    @Test
+    void rejectsReplayWithinWindow() {
+        ReplayGuard guard = guard(false);
+        long now = System.currentTimeMillis();
+
+        assertEquals(ReplayGuard.Verdict.ACCEPTED, guard.check(now, "n1", null));
+        assertEquals(ReplayGuard.Verdict.REPLAYED, guard.check(now, "n1", null));
+        assertEquals(ReplayGuard.Verdict.ACCEPTED, guard.check(now, "n2", null));
+        // 不同客户端的 nonce 互不影响
+        assertEquals(ReplayGuard.Verdict.ACCEPTED, guard.check(now, "n1", "a"));
+        assertEquals(ReplayGuard.Verdict.REPLAYED, guard.check(now, "n1", "a"));
+        assertEquals(ReplayGuard.Verdict.ACCEPTED, guard.check(now, "n1", "b"));
+        assertEquals(2, registry.get("apate.replay.rejected").tag("reason", "replayed").counter().count());
+    }
+
+    @Test
+    void rejectsSkewedTimestamp() {
+        ReplayGuard guard = guard(false);
+        long now = System.currentTimeMillis();
+
+        assertEquals(ReplayGuard.Verdict.EXPIRED, guard.check(now - WINDOW * 3, "n", null));
+        assertEquals(ReplayGuard.Verdict.EXPIRED, guard.check(now + WINDOW * 3, "n", null));
+        assertEquals(ReplayGuard.Verdict.ACCEPTED, guard.check(now + WINDOW / 2, "n", null));
+    }
+
+    @Test
+    void validatesFields() {
+        ReplayGuard optional = guard(false);
+        long now = System.currentTimeMillis();
+        assertEquals(ReplayGuard.Verdict.ACCEPTED, optional.check(null, null, null));
+        assertEquals(ReplayGuard.Verdict.INVALID, optional.check(now, null, null));
+        assertEquals(ReplayGuard.Verdict.INVALID, optional.check(null, "n", null));
+        assertEquals(ReplayGuard.Verdict.INVALID, optional.check(now, "", null));
+        assertEquals(ReplayGuard.Verdict.INVALID, optional.check(now, new String(new char[65]).replace('\0', 'x'), null));
+
+        assertEquals(ReplayGuard.Verdict.INVALID, guard(true).check(null, null, null));
+        assertEquals(ReplayGuard.Verdict.ACCEPTED, ReplayGuard.DISABLED.check(null, "n", null));
+    }
+
+    @Test
+    void rollsOverWindows() throws InterruptedException {
+        ReplayGuard guard = guard(false);
+        long first = System.currentTimeMillis();
+        assertEquals(ReplayGuard.Verdict.ACCEPTED, guard.check(first, "n", null));
+
+        // 经过多个窗口后，旧的 timestamp 已过期，旧桶被新窗口替换，同一个 nonce 带新的 timestamp 视为新请求
+        for (int i = 0; i < 6; i++) {
+            TimeUnit.MILLISECONDS.sleep(WINDOW);
+            long now = System.currentTimeMillis();
+            assertEquals(ReplayGuard.Verdict.ACCEPTED, guard.check(now, "n", null), "round " + i);
+            assertEquals(ReplayGuard.Verdict.REPLAYED, guard.check(now, "n", null), "round " + i);
+        }
+        assertEquals(ReplayGuard.Verdict.EXPIRED, guard.check(first, "n", null));
+
+        // 内存固定为 3 个桶
+        double memory = registry.get("apate.replay.memory").gauge().value();
+        assertTrue(memory > 0 && memory <= 3 * NonceFilter.blocks(1000, 1e-6) * 64, "memory " + memory);
+    }
+
+    private ReplayGuard guard(boolean required) {
+        ReplayProperties properties = new ReplayProperties();
+        properties.setEnabled(true);
+        properties.setRequired(required);
+        properties.setWindow(Duration.ofMillis(WINDOW));
+        properties.setExpectedRequests(1000L);
+        return new ReplayGuard(properties, registry);
+    }
+}
@@ -0,0 +1,183 @@
+package com.sss.apate.route;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 服务表文件加载、重新加载后原子替换，失败时保留原来的服务表，路由的服务表在下一次读取时叠加新的快照
+ *
+ * @author sss
+ */
+class ServiceRegistryTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void fileOverridesRouteServices() throws IOException {
+        ServiceRegistry services = registry(write("a=http://a1, http://a2\n"), Duration.ZERO);
+        ServiceTable routeTable = ServiceTable.of(hosts("a", "http://route-a", "b", "http://route-b"),
+                new BalancerProperties());
+
+        ServiceTable current = services.bind(routeTable).current();
+
+        assertEquals("http://a1,http://a2", current.get("a").getId());
+        assertEquals("http://route-b", current.get("b").getId());
+        assertEquals(1.0, gauge("apate.services.version"));
+        assertEquals(1.0, gauge("apate.services.size"));
+    }
+
+    @Test
+    void reloadSwapsTableAndKeepsUnchangedGroups() throws IOException {
+        Path file = write("a=http://a1,http://a2\nb=http://b1\n");
+        ServiceRegistry services = registry(file, Duration.ZERO);
+        ServiceRegistry.Binding binding = services.bind(ServiceTable.empty());
+        ServiceTable before = binding.current();
+        double checksum = gauge("apate.services.checksum");
+
+        write(file, "a=http://a2,http://a1\nb=http://b2\nc=http://c1\n");
+        assertTrue(services.reload());
+
+        ServiceTable after = binding.current();
+        assertNotSame(before, after);
+        // 实例地址没有变化的 service 沿用原来的实例组
+        assertSame(before.get("a"), after.get("a"));
+        assertEquals("http://b2", after.get("b").getId());
+        assertEquals("http://c1", after.get("c").getId());
+        // 替换前取到的服务表不受影响
+        assertEquals("http://b1", before.get("b").getId());
+        assertNull(before.get("c"));
+        assertSame(after, binding.current());
+        assertEquals(2.0, gauge("apate.services.version"));
+        assertNotEquals(checksum, gauge("apate.services.checksum"));
+        assertEquals(2, refreshes("success"));
+    }
+
+    @Test
+    void failedReloadKeepsPreviousTable() throws IOException {
+        Path file = write("a=http://a1\n");
+        ServiceRegistry services = registry(file, Duration.ZERO);
+        ServiceRegistry.Binding binding = services.bind(ServiceTable.empty());
+        ServiceTable before = binding.current();
+
+        // 没有实例地址，构建服务表失败
+        write(file, "a=http://a1\nb=\n");
+        assertFalse(services.reload());
+
+        assertSame(before, binding.current());
+        assertEquals(1.0, gauge("apate.services.version"));
+        assertEquals(1, refreshes("error"));
+
+        write(file, "a=http://a1\nb=http://b1\n");
+        assertTrue(services.reload());
+        assertEquals("http://b1", binding.current().get("b").getId());
+    }
+
+    @Test
+    void putReplacesAndRemovesService() throws IOException {
+        ServiceRegistry services = registry(write("a=http://a1\n"), Duration.ZERO);
+        ServiceTable routeTable = ServiceTable.of(hosts("b", "http://route-b"), new BalancerProperties());
+        ServiceRegistry.Binding binding = services.bind(routeTable);
+
+        services.put("b", Arrays.asList("http://b1", "http://b2"));
+        assertEquals("http://b1,http://b2", binding.current().get("b").getId());
+
+        // 删除后恢复为路由自己的配置
+        services.put("b", Collections.emptyList());
+        assertEquals("http://route-b", binding.current().get("b").getId());
+        assertEquals("http://a1", binding.current().get("a").getId());
+        assertEquals(3.0, gauge("apate.services.version"));
+    }
+
+    @Test
+    void watchedFileIsReloaded() throws Exception {
+        Path file = write("a=http://a1\n");
+        ServiceRegistry services = registry(file, Duration.ofMillis(20));
+        try {
+            ServiceRegistry.Binding binding = services.bind(ServiceTable.empty());
+
+            // 长度变化，不依赖文件修改时间的精度
+            write(file, "a=http://a1,http://a2\n");
+            long deadline = System.currentTimeMillis() + 5000;
+            while (binding.current().get("a").getTargets().length == 1 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20);
+            }
+
+            assertEquals("http://a1,http://a2", binding.current().get("a").getId());
+        } finally {
+            services.destroy();
+        }
+    }
+
+    @Test
+    void startupFailsOnInvalidFile() {
+        ServiceHostProperties properties = new ServiceHostProperties();
+        properties.setFile(dir.resolve("missing.properties").toString());
+
+        assertThrows(IllegalStateException.class,
+                () -> new ServiceRegistry(properties, new BalancerProperties(), registry));
+    }
+
+    @Test
+    void withoutFileOnlyRouteServicesApply() {
+        ServiceRegistry services = new ServiceRegistry(new ServiceHostProperties(), new BalancerProperties(), registry);
+        ServiceTable routeTable = ServiceTable.of(hosts("a", "http://route-a"), new BalancerProperties());
+
+        assertFalse(services.reload());
+        assertSame(routeTable, services.bind(routeTable).current());
+    }
+
+    private ServiceRegistry registry(Path file, Duration reloadInterval) {
+        ServiceHostProperties properties = new ServiceHostProperties();
+        properties.setFile(file.toString());
+        properties.setReloadInterval(reloadInterval);
+        return new ServiceRegistry(properties, new BalancerProperties(), registry);
+    }
+
+    private Path write(String content) throws IOException {
+        return write(dir.resolve("services.properties"), content);
+    }
+
+    private static Path write(Path file, String content) throws IOException {
+        return Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private double gauge(String name) {
+        return registry.get(name).gauge().value();
+    }
+
+    private long refreshes(String outcome) {
+        return registry.get("apate.services.refresh").tag("outcome", outcome).timer().count();
+    }
+
+    private static Map<String, List<String>> hosts(String... serviceAndHost) {
+        Map<String, List<String>> hosts = new LinkedHashMap<>();
+        for (int i = 0; i < serviceAndHost.length; i += 2) {
+            hosts.put(serviceAndHost[i], Collections.singletonList(serviceAndHost[i + 1]));
+        }
+        return hosts;
+    }
+}
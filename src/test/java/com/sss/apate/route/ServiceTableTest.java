@@ -0,0 +1,121 @@
+package com.sss.apate.route;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * yaml 列表展开后的 service.0、service.1 … 合并回同一个 service
+ *
+ * @author sss
+ */
+class ServiceTableTest {
+
+    @Test
+    void mergesIndexedKeys() {
+        Map<String, List<String>> serviceHost = new LinkedHashMap<>();
+        serviceHost.put("a.1", list("http://a1"));
+        serviceHost.put("a.0", list("http://a0"));
+        serviceHost.put("a.2", list("http://a2"));
+        serviceHost.put("b", list("http://b0", "http://b1"));
+        serviceHost.put("b.0", list("http://b2"));
+        serviceHost.put("c.d.0", list("http://c"));
+        serviceHost.put("g[0]", list("http://g0"));
+        serviceHost.put("g[1]", list("http://g1"));
+        serviceHost.put("api.v2", list("http://v2"));
+        serviceHost.put("e.", list("http://e"));
+        serviceHost.put(".0", list("http://f"));
+
+        Map<String, List<String>> normalized = ServiceTable.normalize(serviceHost);
+
+        assertEquals(new HashSet<>(Arrays.asList("a", "b", "c.d", "g", "api.v2", "e.", ".0")), normalized.keySet());
+        // 按下标顺序合并
+        assertEquals(list("http://a0", "http://a1", "http://a2"), normalized.get("a"));
+        assertEquals(list("http://b0", "http://b1", "http://b2"), normalized.get("b"));
+        assertEquals(list("http://c"), normalized.get("c.d"));
+        assertEquals(list("http://g0", "http://g1"), normalized.get("g"));
+        assertEquals(list("http://v2"), normalized.get("api.v2"));
+    }
+
+    @Test
+    void keepsNamesEndingInDigits() {
+        Map<String, List<String>> serviceHost = new LinkedHashMap<>();
+        serviceHost.put("api.2", list("http://api2"));
+        serviceHost.put("v1.10", list("http://v110"));
+        serviceHost.put("v1.11", list("http://v111"));
+        serviceHost.put("h.0", list("http://h0"));
+        serviceHost.put("h.2", list("http://h2"));
+        serviceHost.put("k.00", list("http://k"));
+
+        Map<String, List<String>> normalized = ServiceTable.normalize(serviceHost);
+
+        // 下标不从 0 开始、不连续或有前导 0 时不是列表展开
+        assertEquals(serviceHost.keySet(), normalized.keySet());
+        assertEquals(list("http://api2"), normalized.get("api.2"));
+    }
+
+    @Test
+    void reusesUnchangedGroups() {
+        BalancerProperties properties = new BalancerProperties();
+        Map<String, List<String>> serviceHost = new LinkedHashMap<>();
+        serviceHost.put("a.0", list("http://a0"));
+        serviceHost.put("a.1", list("http://a1"));
+        serviceHost.put("b", list("http://b0"));
+        ServiceTable previous = ServiceTable.of(serviceHost, properties);
+        assertEquals("http://a0,http://a1", previous.get("a").getId());
+
+        Map<String, List<String>> reordered = new LinkedHashMap<>();
+        reordered.put("a.0", list("http://a1"));
+        reordered.put("a.1", list("http://a0"));
+        reordered.put("b", list("http://b1"));
+        ServiceTable next = ServiceTable.of(reordered, properties, previous);
+
+        assertSame(previous.get("a"), next.get("a"));
+        assertNotSame(previous.get("b"), next.get("b"));
+        assertEquals("http://b1", next.get("b").getId());
+    }
+
+    @Test
+    void emptyAndInvalidConfig() {
+        assertTrue(ServiceTable.of(null, new BalancerProperties()).isEmpty());
+        assertTrue(ServiceTable.of(Collections.emptyMap(), new BalancerProperties()).isEmpty());
+        assertThrows(IllegalArgumentException.class, () -> ServiceTable.of(
+                Collections.singletonMap("a", Collections.emptyList()), new BalancerProperties()));
+    }
+
+    @Test
+    void instancePortsAreKept() {
+        ServiceTable table = ServiceTable.of(Collections.singletonMap("a",
+                list("http://host:8081", "http://host:8082")), new BalancerProperties());
+        ServiceTarget[] targets = table.get("a").getTargets();
+
+        // 信封中的端口不覆盖实例的端口
+        Set<URI> uris = new HashSet<>();
+        for (ServiceTarget target : targets) {
+            uris.add(target.uri(80, "/x", null));
+        }
+        assertEquals(new HashSet<>(Arrays.asList(URI.create("http://host:8081/x"), URI.create("http://host:8082/x"))),
+                uris);
+
+        ServiceTarget portless = new ServiceTarget("b", "http://host");
+        assertEquals(URI.create("http://host:9090/x"), portless.uri(9090, "/x", null));
+        assertEquals(URI.create("http://host/x"), portless.uri(null, "/x", null));
+    }
+
+    private static List<String> list(String... values) {
+        return Arrays.asList(values);
+    }
+}
@@ -0,0 +1,85 @@
+package com.sss.apate.timeout;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 分桶的上下界和分位数的相对误差
+ *
+ * @author sss
+ */
+class LatencyHistogramTest {
+
+    @Test
+    void bucketsCoverValuesWithBoundedError() {
+        Random random = new Random(1);
+        int previous = -1;
+        for (long value = 0; value < 100_000; value++) {
+            int index = LatencyHistogram.index(value);
+            assertTrue(index >= previous, "value " + value);
+            previous = index;
+            assertBucket(value, index);
+        }
+        for (int i = 0; i < 100_000; i++) {
+            long value = random.nextLong() & ((1L << 36) - 1);
+            assertBucket(value, LatencyHistogram.index(value));
+        }
+
+        assertEquals(0, LatencyHistogram.index(-5));
+        assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.index((1L << 36) - 1));
+        assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.index(Long.MAX_VALUE));
+    }
+
+    @Test
+    void percentilesOfUniformLatencies() {
+        LatencyHistogram histogram = new LatencyHistogram(3);
+        assertEquals(0, histogram.percentile(0.99));
+
+        for (long micros = 1; micros <= 10_000; micros++) {
+            histogram.record(micros);
+        }
+
+        assertEquals(10_000, histogram.count());
+        assertNear(5_000, histogram.percentile(0.5));
+        assertNear(9_000, histogram.percentile(0.9));
+        assertNear(9_900, histogram.percentile(0.99));
+        assertTrue(histogram.percentile(1) >= 10_000);
+        assertEquals(2, histogram.percentile(0));
+    }
+
+    @Test
+    void percentileOfSkewedLatencies() {
+        LatencyHistogram histogram = new LatencyHistogram(0);
+        for (int i = 0; i < 990; i++) {
+            histogram.record(1_000);
+        }
+        for (int i = 0; i < 10; i++) {
+            histogram.record(2_000_000);
+        }
+
+        assertNear(1_000, histogram.percentile(0.5));
+        assertNear(1_000, histogram.percentile(0.99));
+        assertNear(2_000_000, histogram.percentile(0.995));
+    }
+
+    /**
+     * 值落在桶的 [下界, 上界) 内，上界与值的相对误差不超过 1/8
+     */
+    private static void assertBucket(long value, int index) {
+        long upper = LatencyHistogram.upper(index);
+        long lower = index == 0 ? 0 : LatencyHistogram.upper(index - 1);
+        assertTrue(lower <= value && value < upper, "value " + value + ", bucket [" + lower + ", " + upper + ")");
+        assertTrue(upper - value <= Math.max(1, value / 8) + 1, "value " + value + ", upper " + upper);
+    }
+
+    /**
+     * 分位数取桶的上界，不低于真实值，且最多高 1/8
+     */
+    private static void assertNear(long expected, long actual) {
+        assertTrue(actual >= expected && actual <= expected + expected / 8 + 1, "expected ~" + expected + ", actual " + actual);
+    }
+}